@@ -28,7 +28,7 @@ public class AddtoMIB {
     private long totalEventosFut;
 
     // Numero total de colunas
-    private static int COLUMNSSIZE = 15;
+    private static int COLUMNSSIZE = 16;
 
     public AddtoMIB(){
 
@@ -41,8 +41,9 @@ public class AddtoMIB {
             /* Adicionar os eventos à tabela(linhas) */
             this.le = new ListEvents();
             this.le.obtemDados();
-            // Adicionar os restantes valores dos eventos
-            for(Event e : le.getEventos()){
+            // Adicionar os restantes valores dos eventos (cada ocorrência
+            // de um evento que se repete é uma linha)
+            for(Event e : le.getOcorrencias()){
                 if(!e.toDelete()) {
                     addRowValue(new Counter32(currentRow + 1));
                     addRowValue(e.getIdentFormat());
@@ -59,6 +60,7 @@ public class AddtoMIB {
                     addRowValue(e.getDiasDelFormat());
                     addRowValue(e.getHorasDelFormat());
                     addRowValue(e.getMinutosDelFormat());
+                    addRowValue(e.getRecorrenciaFormat());
                     if (e.isFromPres()) {
                         this.totalEventosPres++;
                     } else if (e.isFromFut()) {
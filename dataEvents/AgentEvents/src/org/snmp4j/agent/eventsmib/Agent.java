@@ -16,7 +16,10 @@ import org.snmp4j.mp.*;
 import org.snmp4j.smi.*;
 import org.snmp4j.transport.*;
 import org.snmp4j.util.*;
+import org.snmp4j.security.AuthHMAC192SHA256;
+import org.snmp4j.security.PrivAES128;
 import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.UsmUser;
 import org.snmp4j.log.LogFactory;
 import org.snmp4j.log.LogAdapter;
 import org.snmp4j.log.JavaLogFactory;
@@ -42,8 +45,23 @@ public class Agent implements VariableProvider {
 
   public static final int REFRESHTIME = 30000;
 
+  /* Utilizador SNMPv3 (authPriv com SHA-256 e AES128) aceite pelo agente, só registado quando
+   * são dadas as três propriedades -Dv3.utilizador, -Dv3.passAuth e -Dv3.passPriv. O nome tem
+   * de ser um dos que a VACM em AgentConfig.properties põe no v3group */
+  public static final String V3_UTILIZADOR = System.getProperty("v3.utilizador");
+  public static final String V3_PASS_AUTH = System.getProperty("v3.passAuth");
+  public static final String V3_PASS_PRIV = System.getProperty("v3.passPriv");
+  /* O USM exige passwords com pelo menos 8 caracteres */
+  private static final int V3_MIN_PASS = 8;
+
   static {
     LogFactory.setLogFactory(new JavaLogFactory());
+    // Os transportes podem ser escolhidos com -Dorg.snmp4j.transportMappings, por exemplo
+    // reuseport-transports.properties (varios sockets UDP com SO_REUSEPORT, tantos quantos
+    // -Dorg.snmp4j.udpReceiveSockets), mas o SNMP4J só lê esse ficheiro com a extensibilidade ligada
+    if (System.getProperty(TransportMappings.TRANSPORT_MAPPINGS) != null) {
+      SNMP4JSettings.setExtensibilityEnabled(true);
+    }
   }
   
   private static final String DEFAULT_CL_PARAMETERS = "-c[s{=Agent.cfg}] -bc[s{=Agent.bc}]";
@@ -61,6 +79,7 @@ public class Agent implements VariableProvider {
 
 
   public Agent(Map args) {
+    validaUtilizadorV3();
     configFile = (String)((List)args.get("c")).get(0);
     bootCounterFile = new File((String)((List)args.get("bc")).get(0));
 
@@ -118,6 +137,8 @@ public class Agent implements VariableProvider {
   public void run() {
     // initialize agent before registering our own modules
     agent.initialize();
+    // utilizador SNMPv3, com as chaves já localizadas para o engine ID deste agente
+    addUsmUser();
     // this requires sysUpTime to be available.
     registerMIBs();
     // add proxy forwarder
@@ -165,6 +186,41 @@ public class Agent implements VariableProvider {
     //System.out.println(this.getVariable(".1.3.6.1.4.1.8888.3.0"));
   }
 
+  /**
+   * Verifica as propriedades do utilizador SNMPv3: ou não é dada nenhuma, ou são
+   * dadas as três com passwords de pelo menos 8 caracteres. Caso contrario o
+   * agente não arranca
+   */
+  private static void validaUtilizadorV3() {
+    if (V3_UTILIZADOR == null && V3_PASS_AUTH == null && V3_PASS_PRIV == null) {
+      return;
+    }
+    if (V3_UTILIZADOR == null || V3_PASS_AUTH == null || V3_PASS_PRIV == null) {
+      System.err.println("O utilizador SNMPv3 precisa de -Dv3.utilizador, -Dv3.passAuth e -Dv3.passPriv. Aborting");
+      System.exit(1);
+    }
+    if (V3_PASS_AUTH.length() < V3_MIN_PASS || V3_PASS_PRIV.length() < V3_MIN_PASS) {
+      System.err.println("As passwords SNMPv3 têm de ter pelo menos " + V3_MIN_PASS + " caracteres. Aborting");
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Adiciona ao USM do agente o utilizador SNMPv3 usado pelos managers,
+   * se foi configurado
+   */
+  protected void addUsmUser() {
+    if (V3_UTILIZADOR == null) {
+      logger.info("Sem utilizador SNMPv3 configurado, o agente só aceita v1/v2c");
+      return;
+    }
+    OctetString nome = new OctetString(V3_UTILIZADOR);
+    UsmUser user = new UsmUser(nome,
+                               AuthHMAC192SHA256.ID, new OctetString(V3_PASS_AUTH),
+                               PrivAES128.ID, new OctetString(V3_PASS_PRIV));
+    agent.getUsm().addUser(nome, agent.getUsm().getLocalEngineID(), user);
+  }
+
   /**
    * Get the {@link MOFactory} that creates the various MOs (MIB Objects).
    * @return
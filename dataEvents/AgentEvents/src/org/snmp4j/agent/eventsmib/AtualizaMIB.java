@@ -6,6 +6,7 @@ import org.snmp4j.smi.OID;
 import org.snmp4j.smi.Variable;
 
 import java.io.IOException;
+import java.util.List;
 
 public class AtualizaMIB {
 
@@ -34,13 +35,15 @@ public class AtualizaMIB {
         int eventosPast = 0, eventosPres = 0, eventosFut = 0;
         // Obtem os últimos dados atualizados da MIB
         this.le.obtemDados();
+        // Os eventos que se repetem só têm na MIB as ocorrências da janela
+        List<Event> ocorrencias = this.le.getOcorrencias();
         // Apagar as linhas em excesso caso alguem tenha apagado linhas do
         // ficheiro .txt
-        this.mib.removeLinhasExcesso(this.le.getEventos().size());
+        this.mib.removeLinhasExcesso(ocorrencias.size());
         // Iterar sobre os varios eventos e verificar pela existencia
         // de alteracoes
         int i = 1;
-        for(Event e : this.le.getEventos()){
+        for(Event e : ocorrencias){
 
             boolean suc = atualizaTabela(i, e);
             // Contar os tipos de eventos
@@ -94,8 +97,9 @@ public class AtualizaMIB {
                 er.setDataEventsTimeDeleteDays(e.getDiasDelFormat());
                 er.setDataEventsTimeDeleteHours(e.getHorasDelFormat());
                 er.setDataEventsTimeDeleteMinutes(e.getMinutosDelFormat());
+                er.setDataEventsRecurrence(e.getRecorrenciaFormat());
             } else {
-                Variable[] variaveis = new Variable[15];
+                Variable[] variaveis = new Variable[16];
 
                 variaveis[0] = new Counter32(i);
                 variaveis[1] = e.getIdentFormat();
@@ -112,6 +116,7 @@ public class AtualizaMIB {
                 variaveis[12] = e.getDiasDelFormat();
                 variaveis[13] = e.getHorasDelFormat();
                 variaveis[14] = e.getMinutosDelFormat();
+                variaveis[15] = e.getRecorrenciaFormat();
 
                 // Adicionar a nova linha a tabela
                 this.mib.adicionaLinhaTabela(i, model, variaveis);
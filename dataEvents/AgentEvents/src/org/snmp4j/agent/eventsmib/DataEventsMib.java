@@ -93,6 +93,7 @@ implements MOGroup
     public static final int colDataEventsTimeDeleteDays = 13;
     public static final int colDataEventsTimeDeleteHours = 14;
     public static final int colDataEventsTimeDeleteMinutes = 15;
+    public static final int colDataEventsRecurrence = 16;
 
     // Column index definitions for dataEventsEntry:
     public static final int idxDataEventsIndex = 0;
@@ -110,6 +111,7 @@ implements MOGroup
     public static final int idxDataEventsTimeDeleteDays = 12;
     public static final int idxDataEventsTimeDeleteHours = 13;
     public static final int idxDataEventsTimeDeleteMinutes = 14;
+    public static final int idxDataEventsRecurrence = 15;
 
   private MOTableSubIndex[] dataEventsEntryIndexes;
   private MOTableIndex dataEventsEntryIndex;
@@ -229,7 +231,7 @@ implements MOGroup
     });
 
         // Columns
-        MOColumn<?>[] dataEventsEntryColumns = new MOColumn<?>[15];
+        MOColumn<?>[] dataEventsEntryColumns = new MOColumn<?>[16];
         dataEventsEntryColumns[idxDataEventsIndex] =
         moFactory.createColumn(colDataEventsIndex,
                                SMIConstants.SYNTAX_COUNTER32,
@@ -290,6 +292,10 @@ implements MOGroup
         moFactory.createColumn(colDataEventsTimeDeleteMinutes,
                                SMIConstants.SYNTAX_INTEGER,
                                moFactory.createAccess(MOAccessImpl.ACCESSIBLE_FOR_READ_ONLY));
+        dataEventsEntryColumns[idxDataEventsRecurrence] =
+        moFactory.createColumn(colDataEventsRecurrence,
+                               SMIConstants.SYNTAX_OCTET_STRING,
+                               moFactory.createAccess(MOAccessImpl.ACCESSIBLE_FOR_READ_ONLY));
         // Table model
         dataEventsEntryModel =
             moFactory.createTableModel(oidDataEventsEntry,
@@ -555,6 +561,18 @@ implements MOGroup
       super.setValue(idxDataEventsTimeDeleteMinutes, newColValue);
     }
     
+    public OctetString getDataEventsRecurrence() {
+    //--AgentGen BEGIN=dataEventsEntry::getDataEventsRecurrence
+    //--AgentGen END
+      return (OctetString) super.getValue(idxDataEventsRecurrence);
+    }  
+    
+    public void setDataEventsRecurrence(OctetString newColValue) {
+    //--AgentGen BEGIN=dataEventsEntry::setDataEventsRecurrence
+    //--AgentGen END
+      super.setValue(idxDataEventsRecurrence, newColValue);
+    }
+    
     public Variable getValue(int column) {
     //--AgentGen BEGIN=dataEventsEntry::RowGetValue
     //--AgentGen END
@@ -589,6 +607,8 @@ implements MOGroup
         	    return getDataEventsTimeDeleteHours();
             case idxDataEventsTimeDeleteMinutes:
         	    return getDataEventsTimeDeleteMinutes();
+            case idxDataEventsRecurrence:
+        	    return getDataEventsRecurrence();
             default:
                 return super.getValue(column);
         }
@@ -643,6 +663,9 @@ implements MOGroup
             case idxDataEventsTimeDeleteMinutes:
         	    setDataEventsTimeDeleteMinutes((Integer32)value);
         	    break;
+            case idxDataEventsRecurrence:
+        	    setDataEventsRecurrence((OctetString)value);
+        	    break;
             default:
                 super.setValue(column, value);
             }
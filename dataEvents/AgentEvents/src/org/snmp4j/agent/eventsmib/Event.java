@@ -7,6 +7,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 
 public class Event {
 
@@ -26,6 +27,8 @@ public class Event {
     private LocalDate dataDelete;
     /* Hora em que o evento deve ser apagado da MIB */
     private LocalTime horaDelete;
+    /* Regra de repetição do evento (null se o evento não se repete) */
+    private Recorrencia recorrencia;
 
     /**
      * CONSTRUTOR parametrizado de Event
@@ -49,6 +52,46 @@ public class Event {
         this.horaDelete = horaDelete;
     }
 
+    public Recorrencia getRecorrencia() {
+        return recorrencia;
+    }
+
+    public void setRecorrencia(Recorrencia recorrencia) {
+        this.recorrencia = recorrencia;
+    }
+
+    /**
+     * Metodo que acrescenta a uma lista as ocorrências deste evento que ainda
+     * não foram apagadas e que começam antes de um dado limite. Um evento que
+     * não se repete é a sua unica ocorrência; num evento que se repete só são
+     * criadas as ocorrências dentro da janela, por isso uma serie sem fim dá
+     * sempre um numero limitado de linhas
+     * @param agora
+     * @param limite
+     * @param destino
+     */
+    public void ocorrencias(LocalDateTime agora, LocalDateTime limite, List<Event> destino) {
+
+        if (this.recorrencia == null) {
+            destino.add(this);
+            return;
+        }
+        LocalDateTime inicio = LocalDateTime.of(this.dataEvento, this.horaEvento);
+        // Cada ocorrência é apagada ao fim do mesmo tempo que a primeira
+        long duracao = inicio.until(LocalDateTime.of(this.dataDelete, this.horaDelete), ChronoUnit.MINUTES);
+        for (long k = this.recorrencia.primeiraAtiva(inicio, duracao, agora); ; k++) {
+            LocalDateTime data = this.recorrencia.ocorrencia(inicio, k);
+            if (data.isAfter(limite) || !this.recorrencia.existe(k, data)) {
+                break;
+            }
+            LocalDateTime datadel = data.plusMinutes(duracao);
+            Event e = new Event(this.identificacao, this.msgPast, this.msgPres, this.msgFut,
+                    data.toLocalDate(), data.toLocalTime(), datadel.toLocalDate(), datadel.toLocalTime());
+            e.setRecorrencia(this.recorrencia);
+            destino.add(e);
+        }
+    }
+
     @Override
     public String toString() {
         return "Event{" +
@@ -60,6 +103,7 @@ public class Event {
                 ", horaEvento=" + horaEvento +
                 ", dataDelete=" + dataDelete +
                 ", horaDelete=" + horaDelete +
+                ", recorrencia=" + recorrencia +
                 '}';
     }
 
@@ -112,6 +156,16 @@ public class Event {
         return o;
     }
 
+    /**
+     * Metodo que nos retorna a regra de repetição do evento no
+     * formato OCTETSTRING (vazia se o evento não se repete)
+     * @return
+     */
+    public OctetString getRecorrenciaFormat(){
+
+        return new OctetString(this.recorrencia == null ? "" : this.recorrencia.getRegra());
+    }
+
     /**
      * Metodo que nos retorna o resultado do campo mensagem passada no
      * formato OCTETSTRING
@@ -0,0 +1,176 @@
+package org.snmp4j.agent.eventsmib;
+
+import comum.FormatoEventos;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Classe que valida os registos do ficheiro de eventos escrito pelo WriteEvents,
+ * no formato definido em FormatoEventos (o mesmo ficheiro compilado pelas duas
+ * aplicações). Com o indice o ficheiro pode ser dividido em registos sem ser
+ * percorrido, e cada registo pode ser verificado e lido de forma independente
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class IndiceEventos {
+
+    /* Conteudo do ficheiro de eventos */
+    private byte[] conteudo;
+    /* Inicio de cada registo */
+    private int[] inicios;
+    /* Fim de cada registo (sem o fim de linha) */
+    private int[] fins;
+
+    /**
+     * Construtor de IndiceEventos: usa o indice do ficheiro se for valido para
+     * este conteudo, e se não for percorre o conteudo à procura das linhas
+     * @param filename
+     * @param conteudo conteudo do ficheiro de eventos
+     */
+    public IndiceEventos(String filename, byte[] conteudo) {
+
+        this.conteudo = conteudo;
+        if (!this.usaIndice(filename)) {
+            this.procuraLinhas(0, 0);
+        }
+    }
+
+    /**
+     * Numero de registos
+     * @return
+     */
+    public int size() {
+        return this.inicios.length;
+    }
+
+    /**
+     * Diz se o registo n está marcado como apagado
+     * @param n
+     * @return
+     */
+    public boolean apagado(int n) {
+        return this.conteudo[this.inicios[n]] == FormatoEventos.MARCA_APAGADO;
+    }
+
+    /**
+     * Diz se o checksum do registo n está certo
+     * @param n
+     * @return
+     */
+    public boolean checksumValido(int n) {
+        return FormatoEventos.checksumValido(this.conteudo, this.inicios[n], this.fins[n]);
+    }
+
+    /**
+     * Dá o conteudo do registo n
+     * @param n
+     * @return
+     */
+    public String registo(int n) {
+        return new String(this.conteudo, this.inicios[n], this.fins[n] - this.inicios[n], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Método que lê e valida o indice do ficheiro. Cada registo do indice tem
+     * de começar numa linha e acabar imediatamente antes do registo seguinte
+     * (a validação é feita em paralelo); as linhas depois da parte coberta
+     * pelo indice são procuradas no conteudo
+     * @param filename
+     * @return false se não há indice ou se não bate certo com o conteudo
+     */
+    private boolean usaIndice(String filename) {
+
+        long[] idx;
+        try {
+            idx = FormatoEventos.leIndice(Files.readAllBytes(Paths.get(filename + FormatoEventos.SUFIXO_INDICE)));
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            System.out.println("Nao consegui ler o indice do ficheiro de eventos: " + e.getMessage());
+            return false;
+        }
+        if (idx == null) {
+            return false;
+        }
+        long coberto = idx[0];
+        if (coberto < 0 || coberto > this.conteudo.length) {
+            return false;
+        }
+        int n = idx.length - 1;
+        int[] inicios = new int[n];
+        for (int i = 0; i < n; i++) {
+            long p = idx[i + 1];
+            if (p < 0 || p >= coberto || (i > 0 && p <= inicios[i - 1])) {
+                return false;
+            }
+            inicios[i] = (int) p;
+        }
+        // O primeiro registo tem de começar no inicio do ficheiro
+        if (n > 0 ? inicios[0] != 0 : coberto != 0) {
+            return false;
+        }
+
+        int[] fins = new int[n];
+        boolean valido = IntStream.range(0, n).parallel().allMatch(i -> {
+            int limite = i + 1 < n ? inicios[i + 1] : (int) coberto;
+            int fim = inicios[i];
+            while (fim < limite && this.conteudo[fim] != '\n') {
+                fim++;
+            }
+            // O fim de linha tem de ser o ultimo byte antes do registo seguinte
+            if (fim != limite - 1) {
+                return false;
+            }
+            fins[i] = fim > inicios[i] && this.conteudo[fim - 1] == '\r' ? fim - 1 : fim;
+            return true;
+        });
+        if (!valido) {
+            return false;
+        }
+        this.inicios = inicios;
+        this.fins = fins;
+        // Linhas acrescentadas depois da ultima atualização do indice
+        this.procuraLinhas((int) coberto, n);
+        return true;
+    }
+
+    /**
+     * Método que procura as linhas não vazias do conteudo a partir de uma
+     * posição e as junta aos primeiros registos já conhecidos
+     * @param de
+     * @param conhecidos
+     */
+    private void procuraLinhas(int de, int conhecidos) {
+
+        int[] inicios = this.inicios == null ? new int[16] : Arrays.copyOf(this.inicios, Math.max(16, conhecidos * 2));
+        int[] fins = this.fins == null ? new int[16] : Arrays.copyOf(this.fins, inicios.length);
+        int n = conhecidos;
+        int inicio = de;
+        while (inicio < this.conteudo.length) {
+            int fim = inicio;
+            while (fim < this.conteudo.length && this.conteudo[fim] != '\n') {
+                fim++;
+            }
+            int fimRegisto = fim > inicio && this.conteudo[fim - 1] == '\r' ? fim - 1 : fim;
+            if (fimRegisto > inicio) {
+                if (n == inicios.length) {
+                    inicios = Arrays.copyOf(inicios, n * 2);
+                    fins = Arrays.copyOf(fins, n * 2);
+                }
+                inicios[n] = inicio;
+                fins[n] = fimRegisto;
+                n++;
+            }
+            inicio = fim + 1;
+        }
+        this.inicios = Arrays.copyOf(inicios, n);
+        this.fins = Arrays.copyOf(fins, n);
+    }
+}
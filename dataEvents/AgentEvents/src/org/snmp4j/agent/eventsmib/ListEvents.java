@@ -2,9 +2,13 @@ package org.snmp4j.agent.eventsmib;
 
 import java.io.IOException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 public class ListEvents {
 
@@ -14,6 +18,10 @@ public class ListEvents {
     /* Nome do ficheiro de eventos */
     private static String FILE_NAME = "dataEvents.txt";
 
+    /* Numero de dias para a frente em que são mostradas as ocorrências dos
+     * eventos que se repetem (pode ser alterado com -DjanelaRecorrencia=dias) */
+    public static int JANELA_RECORRENCIA = Integer.getInteger("janelaRecorrencia", 31);
+
     /**
      * Construtor de ListEvents
      */
@@ -28,15 +36,52 @@ public class ListEvents {
      * @throws IOException
      */
     public void obtemDados() throws IOException {
+        // Ler o ficheiro de eventos e dividi-lo em registos (com o indice, se for valido)
+        byte[] conteudo = ReadFile.read_bytes(FILE_NAME);
+        IndiceEventos indice = new IndiceEventos(FILE_NAME, conteudo);
+
+        // Verificar e fazer parse dos registos em paralelo; os registos corrompidos
+        // ou invalidos ficam a null e são ignorados, sem perder os restantes
+        Event[] lidos = new Event[indice.size()];
+        AtomicInteger corrompidos = new AtomicInteger();
+        IntStream.range(0, indice.size()).parallel().forEach(n -> {
+            // Saltar os eventos marcados como apagados (#)
+            if (indice.apagado(n)) {
+                return;
+            }
+            if (!indice.checksumValido(n)) {
+                corrompidos.incrementAndGet();
+                return;
+            }
+            lidos[n] = parseEvento(indice.registo(n));
+            if (lidos[n] == null) {
+                corrompidos.incrementAndGet();
+            }
+        });
+        if (corrompidos.get() > 0) {
+            System.out.println("Registos do ficheiro de eventos ignorados: " + corrompidos.get());
+        }
+
         // Eliminar os dados que possam estar na lista de eventos
         this.eventos.clear();
-        // Ler as linhas do ficheiro de eventos
-        List<String> linhas = ReadFile.read_lines(FILE_NAME);
-        // Iterar pelas varias linhas e adicionar os respetivos campos
-        for (String linha : linhas){
+        for (Event evento : lidos) {
+            if (evento != null) {
+                this.eventos.add(evento);
+            }
+        }
+    }
+
+    /**
+     * Metodo que faz parse de um registo do ficheiro de eventos
+     * @param linha
+     * @return o evento, ou null se o registo não for um evento valido
+     * (por exemplo a ultima linha a meio de ser escrita, que fica para a proxima leitura)
+     */
+    private static Event parseEvento(String linha) {
+        try {
             // Fazer parse ao varios campos de cada linha
             String[] campos = linha.split(";");
-            // <ident>;<msgpast>;<msgpres>;<msgfut>;data;hora;datadel;horadel
+            // <ident>;<msgpast>;<msgpres>;<msgfut>;data;hora;datadel;horadel[;recorrencia][;crc]
             String ident = campos[0].replace("\"","");
             String msgpast = campos[1].replace("\"","");
             String msgpres = campos[2].replace("\"","");
@@ -46,7 +91,13 @@ public class ListEvents {
             LocalDate datadel = LocalDate.parse(campos[6]);
             LocalTime horadel = LocalTime.parse(campos[7]);
             Event evento = new Event(ident,msgpast,msgpres,msgfut,data,hora,datadel,horadel);
-            this.eventos.add(evento);
+            // A regra de repetição é opcional (o ultimo campo pode ser o checksum)
+            if (campos.length > 8 && campos[8].startsWith("FREQ=")) {
+                evento.setRecorrencia(new Recorrencia(campos[8]));
+            }
+            return evento;
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException | DateTimeParseException e) {
+            return null;
         }
     }
 
@@ -54,6 +105,23 @@ public class ListEvents {
         return eventos;
     }
 
+    /**
+     * Metodo que dá as ocorrências dos eventos que estão na MIB neste momento:
+     * os eventos que não se repetem e as ocorrências dos que se repetem que
+     * começam dentro da janela (JANELA_RECORRENCIA dias a partir de agora)
+     * @return
+     */
+    public List<Event> getOcorrencias() {
+
+        LocalDateTime agora = LocalDateTime.now();
+        LocalDateTime limite = agora.plusDays(JANELA_RECORRENCIA);
+        List<Event> ocorrencias = new ArrayList<>(this.eventos.size());
+        for (Event e : this.eventos) {
+            e.ocorrencias(agora, limite, ocorrencias);
+        }
+        return ocorrencias;
+    }
+
     public void setEventos(List<Event> eventos) {
         this.eventos = eventos;
     }
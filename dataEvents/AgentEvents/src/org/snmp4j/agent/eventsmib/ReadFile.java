@@ -1,7 +1,8 @@
 package org.snmp4j.agent.eventsmib;
 
 import java.io.*;
-import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -9,7 +10,10 @@ public class ReadFile {
 
     /**
      * Método que lê o conteúdo de um ficheiro,
-     * retornando as linhas todas do ficheiro
+     * retornando as linhas todas do ficheiro.
+     * Não é usado lock: os escritores substituem o ficheiro por uma nova
+     * versão (rename atómico) ou acrescentam linhas inteiras no fim, por isso
+     * lê-se sempre uma versão coerente, quando muito com a ultima linha a meio
      * @param filename
      * @return
      * @throws IOException
@@ -19,22 +23,29 @@ public class ReadFile {
     {
         List<String> content = new ArrayList<>();
 
-        FileInputStream fis = new FileInputStream(filename);
-        BufferedReader br = new BufferedReader(new InputStreamReader(fis));
-        /* Obtemos acesso exclusivo ao ficheiro de logs */
-        FileLock fl = fis.getChannel().lock(0,Long.MAX_VALUE,true);
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(filename)));
 
         String line;
         while((line = br.readLine()) != null){
             content.add(line);
         }
-        fl.release();
 
         br.close();
-        fis.close();
         return content;
     }
 
+    /**
+     * Método que lê todos os bytes de um ficheiro (sem lock, como read_lines)
+     * @param filename
+     * @return
+     * @throws IOException
+     */
+    public static byte[] read_bytes(String filename)
+            throws IOException
+    {
+        return Files.readAllBytes(Paths.get(filename));
+    }
+
     /**
      * Método que lê o conteúdo de um ficheiro,
      * retornando o conteudo em bruto
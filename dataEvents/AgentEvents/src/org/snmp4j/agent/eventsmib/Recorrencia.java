@@ -0,0 +1,140 @@
+package org.snmp4j.agent.eventsmib;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Classe que representa a regra de repetição de um evento, no formato de uma
+ * RRULE do iCalendar com as partes separadas por virgulas (o ';' separa os
+ * campos do ficheiro de eventos):
+ *   FREQ=DAILY|WEEKLY|MONTHLY|YEARLY[,INTERVAL=n][,COUNT=n][,UNTIL=AAAA-MM-DD]
+ * A ocorrência k é a data do evento mais k*INTERVAL unidades, contadas sempre
+ * a partir da primeira (um evento mensal a 31 fica no ultimo dia dos meses
+ * mais curtos)
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class Recorrencia {
+
+    /* Unidade da repetição */
+    private ChronoUnit unidade;
+    /* Numero de unidades entre ocorrências */
+    private int intervalo;
+    /* Numero de ocorrências (0 se não tiver limite) */
+    private long count;
+    /* Ultimo dia em que pode haver ocorrências (null se não tiver limite) */
+    private LocalDate until;
+    /* Regra no formato do ficheiro */
+    private String regra;
+
+    /**
+     * Construtor de Recorrencia a partir da regra no formato do ficheiro
+     * @param regra
+     * @throws IllegalArgumentException se a regra não for valida
+     */
+    public Recorrencia(String regra) {
+
+        this.intervalo = 1;
+        this.count = 0;
+        this.until = null;
+        for (String parte : regra.split(",")) {
+            String[] kv = parte.trim().split("=", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Parte invalida na regra: " + parte);
+            }
+            String valor = kv[1].trim();
+            switch (kv[0].trim().toUpperCase()) {
+                case "FREQ":
+                    this.unidade = unidade(valor);
+                    break;
+                case "INTERVAL":
+                    this.intervalo = Integer.parseInt(valor);
+                    break;
+                case "COUNT":
+                    this.count = Long.parseLong(valor);
+                    break;
+                case "UNTIL":
+                    this.until = LocalDate.parse(valor);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Parte não suportada na regra: " + parte);
+            }
+        }
+        if (this.unidade == null || this.intervalo < 1 || this.count < 0) {
+            throw new IllegalArgumentException("Regra invalida: " + regra);
+        }
+        this.regra = regra;
+    }
+
+    /**
+     * Unidade correspondente a uma frequencia
+     * @param freq
+     * @return
+     */
+    private static ChronoUnit unidade(String freq) {
+
+        switch (freq.toUpperCase()) {
+            case "DAILY":
+                return ChronoUnit.DAYS;
+            case "WEEKLY":
+                return ChronoUnit.WEEKS;
+            case "MONTHLY":
+                return ChronoUnit.MONTHS;
+            case "YEARLY":
+                return ChronoUnit.YEARS;
+            default:
+                throw new IllegalArgumentException("Frequencia não suportada: " + freq);
+        }
+    }
+
+    public String getRegra() {
+        return regra;
+    }
+
+    /**
+     * Data da ocorrência k de um evento que começa em inicio
+     * @param inicio
+     * @param k
+     * @return
+     */
+    public LocalDateTime ocorrencia(LocalDateTime inicio, long k) {
+        return inicio.plus(k * this.intervalo, this.unidade);
+    }
+
+    /**
+     * Diz se a ocorrência k (com a data dada) faz parte da serie
+     * @param k
+     * @param data
+     * @return
+     */
+    public boolean existe(long k, LocalDateTime data) {
+        return (this.count == 0 || k < this.count)
+                && (this.until == null || !data.toLocalDate().isAfter(this.until));
+    }
+
+    /**
+     * Numero da primeira ocorrência que acaba (data mais duração) depois de um
+     * dado momento. É estimado com as unidades que já passaram, para não ter
+     * de percorrer as ocorrências desde o inicio da serie
+     * @param inicio data da primeira ocorrência
+     * @param duracaoMinutos tempo entre o inicio de cada ocorrência e o momento em que deve ser apagada
+     * @param agora
+     * @return
+     */
+    public long primeiraAtiva(LocalDateTime inicio, long duracaoMinutos, LocalDateTime agora) {
+
+        LocalDateTime referencia = agora.minusMinutes(duracaoMinutos);
+        long k = Math.max(0, this.unidade.between(inicio, referencia) / this.intervalo - 1);
+        while (!this.ocorrencia(inicio, k).plusMinutes(duracaoMinutos).isAfter(agora)) {
+            k++;
+        }
+        return k;
+    }
+
+    @Override
+    public String toString() {
+        return this.regra;
+    }
+}
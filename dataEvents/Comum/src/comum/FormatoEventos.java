@@ -0,0 +1,120 @@
+package comum;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Classe com o formato do ficheiro de eventos, partilhada pelo WriteEvents
+ * (que escreve o ficheiro) e pelo AgentEvents (que o lê): as duas aplicações
+ * compilam este mesmo ficheiro, para que o checksum e o indice nunca deixem
+ * de bater certo entre quem escreve e quem lê.
+ * Cada registo (linha) termina com um campo com o CRC32 (8 digitos hexadecimais)
+ * do resto da linha:
+ *   "ident";"past";"pres";"fut";data;hora;datadel;horadel;crc
+ * e um registo apagado começa por MARCA_APAGADO. O indice (ficheiro + ".idx")
+ * tem um long com o numero de bytes do ficheiro cobertos pelo indice, seguido
+ * de um long com a posição de cada registo
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public final class FormatoEventos {
+
+    /* Sufixo do ficheiro do indice */
+    public static final String SUFIXO_INDICE = ".idx";
+    /* Numero de digitos do checksum de cada registo */
+    public static final int DIGITOS_CHECKSUM = 8;
+    /* Primeiro byte de um registo apagado (escrito por cima da primeira
+     * aspa da identificação) */
+    public static final byte MARCA_APAGADO = '#';
+
+    private FormatoEventos() {
+    }
+
+    /**
+     * Método que acrescenta a uma linha o campo com o seu checksum
+     * @param linha
+     * @return
+     */
+    public static String comChecksum(String linha) {
+
+        byte[] bytes = linha.getBytes(StandardCharsets.UTF_8);
+        return linha + ";" + String.format("%08x", crc(bytes, 0, bytes.length));
+    }
+
+    /**
+     * Método que verifica o checksum de um registo. Os registos escritos antes
+     * de haver checksums (ou editados à mão) não têm o campo e são aceites,
+     * ficando a validação para o parse dos campos
+     * @param conteudo
+     * @param inicio inicio da linha
+     * @param fim fim da linha (sem o fim de linha)
+     * @return false se o registo tem checksum e este não bate certo
+     */
+    public static boolean checksumValido(byte[] conteudo, int inicio, int fim) {
+
+        int sep = fim - DIGITOS_CHECKSUM - 1;
+        if (sep < inicio || conteudo[sep] != ';') {
+            return true;
+        }
+        long esperado = 0;
+        for (int i = sep + 1; i < fim; i++) {
+            int d = Character.digit(conteudo[i], 16);
+            if (d < 0) {
+                // O ultimo campo não é um checksum
+                return true;
+            }
+            esperado = (esperado << 4) | d;
+        }
+        return crc(conteudo, inicio, sep) == esperado;
+    }
+
+    /**
+     * Método que calcula o CRC32 de uma parte de um array de bytes
+     * @param conteudo
+     * @param inicio
+     * @param fim
+     * @return
+     */
+    private static long crc(byte[] conteudo, int inicio, int fim) {
+
+        CRC32 crc = new CRC32();
+        crc.update(conteudo, inicio, fim - inicio);
+        return crc.getValue();
+    }
+
+    /**
+     * Método que dá o conteudo de um indice
+     * @param coberto numero de bytes do ficheiro cobertos pelo indice
+     * @param posicoes posição de cada registo
+     * @return
+     */
+    public static byte[] indice(long coberto, long[] posicoes) {
+
+        ByteBuffer bb = ByteBuffer.allocate(Long.BYTES * (posicoes.length + 1));
+        bb.putLong(coberto);
+        for (long p : posicoes) {
+            bb.putLong(p);
+        }
+        return bb.array();
+    }
+
+    /**
+     * Método que lê o conteudo de um indice (o inverso de indice). Os valores
+     * não são validados: os leitores têm de confirmar que batem certo com o
+     * ficheiro de eventos antes de os usar
+     * @param indice conteudo do ficheiro do indice
+     * @return numero de bytes cobertos seguido da posição de cada registo, ou
+     *         null se o tamanho do conteudo não é o de um indice
+     */
+    public static long[] leIndice(byte[] indice) {
+
+        if (indice.length < Long.BYTES || indice.length % Long.BYTES != 0) {
+            return null;
+        }
+        long[] res = new long[indice.length / Long.BYTES];
+        ByteBuffer.wrap(indice).asLongBuffer().get(res);
+        return res;
+    }
+}
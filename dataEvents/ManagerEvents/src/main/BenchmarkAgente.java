@@ -0,0 +1,544 @@
+package main;
+
+import main.Comunicator.ComunicadorSNMP;
+import main.Comunicator.ControladorBulkAdaptativo;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultTcpTransportMapping;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.transport.NioTcpTransportMapping;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Classe BenchmarkAgente que mede o desempenho do AgentEvents.
+ * Para cada tamanho de tabela gera um ficheiro de eventos sintético, lança o
+ * agente (num processo à parte, numa diretoria temporaria) em loopback UDP e
+ * TCP, e põe N threads a fazer consultas com o ComunicadorSNMP durante um
+ * tempo fixo, escrevendo o débito e as latencias p50/p99/p999 de cada caso.
+ * Os casos são sempre corridos pela mesma ordem, com aquecimento, para que
+ * os resultados de varias execuções possam ser comparados.
+ *
+ * Utilização:
+ *   BenchmarkAgente [--tamanhos 100,1000] [--threads 1,4] [--transportes udp,tcp]
+ *                   [--operacoes get,walk] [--segundos N] [--aquecimento N]
+ *                   [--porta N] [--agente-cp classpath] [--csv ficheiro]
+ *                   [--sockets-agente 0,1,4] [--sessoes N] [--fila-envio N]
+ *                   [--ligacoes-tcp N]
+ *
+ * Operações: get (GET dos quatro totais), walk (tabela inteira com GETBULK
+ * adaptativo, como o manager) e pagina (primeiras 100 linhas da tabela)
+ *
+ * Com --sockets-agente o agente recebe o UDP em N sockets com SO_REUSEPORT
+ * (ReusePortUdpTransportMapping, que tem de estar no classpath do agente);
+ * 0 é o transporte por omissão. O kernel distribui os pedidos pelos sockets
+ * conforme a porta de origem, por isso para o débito escalar os pedidos têm
+ * de vir de varias sessões (--sessoes), cada uma com o seu socket
+ *
+ * Por omissão o agente e o snmp4j são compilados a partir das fontes (em
+ * ../AgentEvents/src e ../dependencias/snmp4j-3.4.4/src/main/java) para uma
+ * diretoria temporaria, para que se meça sempre o codigo atual e não uma
+ * compilação antiga; é preciso correr o benchmark com um JDK. Com
+ * --agente-cp usa-se o classpath dado, que tem de conter o agente
+ *
+ * Com --fila-envio as respostas e notificações do agente são enviadas em
+ * lotes por uma thread do transporte UDP, com uma fila de N mensagens
+ *
+ * Com --ligacoes-tcp as sessões usam o NioTcpTransportMapping em vez do
+ * DefaultTcpTransportMapping. Com N maior que 1 há um pool de até N ligações
+ * TCP ao agente, reutilizadas entre consultas e com varios pedidos em curso
+ * por ligação; com N igual a 1 não há pool e os pedidos seguem todos pela
+ * mesma ligação, o que serve para comparar os dois transportes
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class BenchmarkAgente {
+
+    /* Classe principal do agente */
+    private static String CLASSE_AGENTE = "org.snmp4j.agent.eventsmib.Agent";
+    /* Fontes compiladas para o agente (relativas à diretoria do ManagerEvents) */
+    private static String FONTES_AGENTE = "../AgentEvents/src";
+    private static String FONTES_COMUM = "../Comum/src";
+    private static String FONTES_SNMP4J = "../dependencias/snmp4j-3.4.4/src/main";
+    private static String SNMP4J_AGENT_JAR = "../dependencias/snmp4j-agent-3.3.6/dist/snmp4j-agent-3.3.6.jar";
+    /* Tempo maximo à espera que o agente fique pronto, em milis */
+    private static long ESPERA_AGENTE = 60000;
+
+    /**
+     * Metodo que gera um ficheiro de eventos sintético com um dado numero
+     * de eventos, todos no futuro e com a data para apagar bem mais à frente
+     * @param ficheiro
+     * @param eventos
+     * @throws IOException
+     */
+    private static void geraEventos(Path ficheiro, int eventos)
+            throws IOException {
+
+        DateTimeFormatter data = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        DateTimeFormatter hora = DateTimeFormatter.ofPattern("HH:mm");
+        LocalDateTime base = LocalDateTime.now().withSecond(0).withNano(0).plusDays(1);
+        Random r = new Random(42);
+
+        try (BufferedWriter w = Files.newBufferedWriter(ficheiro, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < eventos; i++) {
+                LocalDateTime quando = base.plusMinutes(r.nextInt(60 * 24 * 365));
+                LocalDateTime apagar = quando.plusYears(5);
+                w.write("\"Evento " + i + "\";\"Ja passou o evento " + i + "\";\"Hoje e o evento " + i
+                        + "\";\"Falta para o evento " + i + "\";" + quando.format(data) + ";" + quando.format(hora)
+                        + ";" + apagar.format(data) + ";" + apagar.format(hora));
+                w.newLine();
+            }
+        }
+    }
+
+    /**
+     * Metodo que compila um conjunto de fontes para uma diretoria e copia
+     * para lá os restantes ficheiros (properties) da diretoria dos recursos
+     * @param fontes
+     * @param recursos diretoria com os recursos, ou null
+     * @param classpath
+     * @param destino
+     * @throws IOException
+     */
+    private static void compila(Path fontes, Path recursos, String classpath, Path destino)
+            throws IOException {
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IOException("Não há compilador Java: corra o benchmark com um JDK ou use --agente-cp");
+        }
+        if (!Files.isDirectory(fontes)) {
+            throw new FileNotFoundException("Fontes não encontradas: " + fontes.toAbsolutePath());
+        }
+        List<String> argumentos = new ArrayList<>(Arrays.asList(
+                "-nowarn", "-XDsuppressNotes", "-encoding", "UTF-8", "-d", destino.toString(), "-cp", classpath));
+        try (Stream<Path> ficheiros = Files.walk(fontes)) {
+            argumentos.addAll(ficheiros
+                    .filter(f -> f.toString().endsWith(".java") && !f.endsWith("module-info.java"))
+                    .map(Path::toString).collect(Collectors.toList()));
+        }
+        if (javac.run(null, null, System.err, argumentos.toArray(new String[0])) != 0) {
+            throw new IOException("Não foi possivel compilar " + fontes.toAbsolutePath());
+        }
+        Path origem = recursos == null ? fontes : recursos;
+        List<Path> copiar;
+        try (Stream<Path> ficheiros = Files.walk(origem)) {
+            copiar = ficheiros.filter(f -> Files.isRegularFile(f) && !f.toString().endsWith(".java"))
+                    .collect(Collectors.toList());
+        }
+        for (Path f : copiar) {
+            Path alvo = destino.resolve(origem.relativize(f).toString());
+            Files.createDirectories(alvo.getParent());
+            Files.copy(f, alvo, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Metodo que compila o snmp4j e o agente a partir das fontes
+     * @return classpath do agente
+     * @throws IOException
+     */
+    private static String compilaAgente() throws IOException {
+
+        Path dir = Files.createTempDirectory("benchmark-agente-classes");
+        Path snmp4j = Files.createDirectory(dir.resolve("snmp4j"));
+        Path agente = Files.createDirectory(dir.resolve("agente"));
+        System.err.println("[INFO] A compilar o snmp4j e o agente para " + dir);
+        compila(Paths.get(FONTES_SNMP4J, "java"), Paths.get(FONTES_SNMP4J, "resources"), SNMP4J_AGENT_JAR, snmp4j);
+        // O formato do ficheiro de eventos é partilhado com o WriteEvents
+        compila(Paths.get(FONTES_COMUM), null, agente.toString(), agente);
+        compila(Paths.get(FONTES_AGENTE), null,
+                String.join(File.pathSeparator, agente.toString(), snmp4j.toString(), SNMP4J_AGENT_JAR), agente);
+        return String.join(File.pathSeparator, agente.toString(), snmp4j.toString(), SNMP4J_AGENT_JAR);
+    }
+
+    /**
+     * Metodo que verifica que um classpath dado tem as classes de que o
+     * agente precisa, para não se medir um classpath incompleto
+     * @param classpath
+     * @param sockets se algum caso usa varios sockets UDP
+     * @throws IOException
+     */
+    private static void verificaClasspath(String classpath, boolean sockets) throws IOException {
+
+        List<URL> urls = new ArrayList<>();
+        for (String entrada : classpath.split(File.pathSeparator)) {
+            File f = new File(entrada);
+            if (!f.exists()) {
+                throw new FileNotFoundException("Entrada do classpath do agente não existe: " + f.getAbsolutePath());
+            }
+            urls.add(f.toURI().toURL());
+        }
+        List<String> classes = new ArrayList<>(Arrays.asList(CLASSE_AGENTE, "org.snmp4j.Snmp",
+                "org.snmp4j.agent.BaseAgent"));
+        if (sockets) {
+            classes.add("org.snmp4j.transport.ReusePortUdpTransportMapping");
+        }
+        try (URLClassLoader cl = new URLClassLoader(urls.toArray(new URL[0]), null)) {
+            for (String classe : classes) {
+                if (cl.findResource(classe.replace('.', '/') + ".class") == null) {
+                    throw new IOException("A classe " + classe + " não está no classpath do agente: " + classpath);
+                }
+            }
+        }
+    }
+
+    /**
+     * Metodo que lança o agente numa diretoria com o ficheiro de eventos
+     * @param dir
+     * @param classpath
+     * @param porta
+     * @param sockets numero de sockets UDP do agente (0 para o transporte por omissão)
+     * @param filaEnvio capacidade da fila de envio UDP do agente (0 para enviar sem fila)
+     * @return
+     * @throws IOException
+     */
+    private static Process lancaAgente(Path dir, String classpath, int porta, int sockets,
+                                       int filaEnvio)
+            throws IOException {
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        // O agente corre noutra diretoria, pelo que o classpath tem de ser absoluto
+        StringJoiner cp = new StringJoiner(File.pathSeparator);
+        for (String entrada : classpath.split(File.pathSeparator)) {
+            cp.add(new File(entrada).getAbsolutePath());
+        }
+        List<String> comando = new ArrayList<>(Arrays.asList(java, "-cp", cp.toString()));
+        if (sockets > 0) {
+            comando.add("-Dorg.snmp4j.transportMappings=reuseport-transports.properties");
+            comando.add("-Dorg.snmp4j.udpReceiveSockets=" + sockets);
+        }
+        if (filaEnvio > 0) {
+            comando.add("-Dorg.snmp4j.udpSendQueueCapacity=" + filaEnvio);
+        }
+        comando.addAll(Arrays.asList(CLASSE_AGENTE,
+                "-c", dir.resolve("Agent.cfg").toString(), "-bc", dir.resolve("Agent.bc").toString(),
+                "udp:127.0.0.1/" + porta, "tcp:127.0.0.1/" + porta));
+        ProcessBuilder pb = new ProcessBuilder(comando);
+        pb.directory(dir.toFile());
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(dir.resolve("agente.log").toFile());
+        return pb.start();
+    }
+
+    /**
+     * Metodo que espera que o agente responda com o numero esperado de eventos
+     * @param com
+     * @param eventos
+     * @param agente
+     * @throws IOException
+     */
+    private static void esperaAgente(ComunicadorSNMP com, int eventos, Process agente)
+            throws IOException {
+
+        long limite = System.currentTimeMillis() + ESPERA_AGENTE;
+        while (System.currentTimeMillis() < limite) {
+            if (!agente.isAlive()) {
+                throw new IOException("O agente terminou (ver agente.log)");
+            }
+            try {
+                if (com.obtemTotal() == eventos) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // Ainda não está a responder
+            }
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        throw new IOException("O agente não ficou pronto em " + ESPERA_AGENTE + " ms");
+    }
+
+    private static CommunityTarget<Address> alvo(String transporte, int porta) {
+
+        CommunityTarget<Address> alvo = new CommunityTarget<>();
+        alvo.setCommunity(new OctetString("public"));
+        alvo.setAddress(GenericAddress.parse(transporte + ":127.0.0.1/" + porta));
+        alvo.setRetries(1);
+        alvo.setTimeout(5000);
+        alvo.setVersion(SnmpConstants.version2c);
+        return alvo;
+    }
+
+    /**
+     * Metodo que faz uma operação de consulta ao agente
+     * @param com
+     * @param operacao
+     */
+    private static void opera(ComunicadorSNMP com, String operacao) {
+
+        switch (operacao) {
+            case "get": com.obtemTotais(); break;
+            case "walk": com.enviaPedido(); break;
+            case "pagina": com.enviaPedidoPagina(0, 100); break;
+            default: throw new IllegalArgumentException("Operação desconhecida: " + operacao);
+        }
+    }
+
+    /**
+     * Resultado de um caso do benchmark
+     */
+    private static class Resultado {
+        private int eventos, sockets, threads;
+        private String transporte, operacao;
+        private long feitas, erros;
+        private double segundos;
+        private long[] latencias;
+
+        private double percentil(double p) {
+            if (latencias.length == 0) {
+                return 0;
+            }
+            int i = (int) Math.ceil(p * latencias.length) - 1;
+            return latencias[Math.max(0, Math.min(latencias.length - 1, i))] / 1e6;
+        }
+
+        private String linha() {
+            return String.format(Locale.ROOT, "%7d %3d %-4s %-6s %3d %9d %5d %10.1f %9.3f %9.3f %9.3f %9.3f",
+                    eventos, sockets, transporte, operacao, threads, feitas, erros, feitas / segundos,
+                    percentil(0.5), percentil(0.99), percentil(0.999),
+                    latencias.length == 0 ? 0 : latencias[latencias.length - 1] / 1e6);
+        }
+
+        private String csv() {
+            return String.format(Locale.ROOT, "%d,%d,%s,%s,%d,%d,%d,%.1f,%.3f,%.3f,%.3f,%.3f",
+                    eventos, sockets, transporte, operacao, threads, feitas, erros, feitas / segundos,
+                    percentil(0.5), percentil(0.99), percentil(0.999),
+                    latencias.length == 0 ? 0 : latencias[latencias.length - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Metodo que corre um caso: N threads a fazer a mesma operação durante
+     * um tempo fixo, cada uma com o seu comunicador; as threads são
+     * distribuidas pelas sessões
+     * @param sessoes
+     * @param transporte
+     * @param porta
+     * @param operacao
+     * @param threads
+     * @param aquecimento segundos de aquecimento (não contam para o resultado)
+     * @param segundos
+     * @return
+     */
+    private static Resultado corre(List<Snmp> sessoes, String transporte, int porta, String operacao,
+                                   int threads, int aquecimento, int segundos)
+            throws InterruptedException {
+
+        ControladorBulkAdaptativo controlador = new ControladorBulkAdaptativo(65535);
+        long inicioMedicao = System.nanoTime() + aquecimento * 1_000_000_000L;
+        long fim = inicioMedicao + segundos * 1_000_000_000L;
+        AtomicLong feitas = new AtomicLong(), erros = new AtomicLong();
+        List<long[]> porThread = Collections.synchronizedList(new ArrayList<>());
+
+        List<Thread> ts = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Snmp snmp = sessoes.get(i % sessoes.size());
+            Thread t = new Thread(() -> {
+                ComunicadorSNMP com = new ComunicadorSNMP(snmp, alvo(transporte, porta), controlador);
+                long[] lat = new long[1024];
+                int n = 0;
+                long agora;
+                while ((agora = System.nanoTime()) < fim) {
+                    try {
+                        opera(com, operacao);
+                    } catch (RuntimeException e) {
+                        if (agora >= inicioMedicao) {
+                            erros.incrementAndGet();
+                        }
+                        continue;
+                    }
+                    long depois = System.nanoTime();
+                    if (agora >= inicioMedicao) {
+                        if (n == lat.length) {
+                            lat = Arrays.copyOf(lat, n * 2);
+                        }
+                        lat[n++] = depois - agora;
+                        feitas.incrementAndGet();
+                    }
+                }
+                porThread.add(Arrays.copyOf(lat, n));
+            });
+            ts.add(t);
+            t.start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+
+        int total = 0;
+        for (long[] l : porThread) {
+            total += l.length;
+        }
+        long[] todas = new long[total];
+        int pos = 0;
+        for (long[] l : porThread) {
+            System.arraycopy(l, 0, todas, pos, l.length);
+            pos += l.length;
+        }
+        Arrays.sort(todas);
+
+        Resultado r = new Resultado();
+        r.threads = threads;
+        r.transporte = transporte;
+        r.operacao = operacao;
+        r.feitas = feitas.get();
+        r.erros = erros.get();
+        r.segundos = segundos;
+        r.latencias = todas;
+        return r;
+    }
+
+    private static List<Integer> inteiros(String lista) {
+
+        List<Integer> res = new ArrayList<>();
+        for (String s : lista.split(",")) {
+            res.add(Integer.parseInt(s.trim()));
+        }
+        return res;
+    }
+
+    private static void utilizacao() {
+
+        System.err.println("Utilização: BenchmarkAgente [--tamanhos 100,1000] [--threads 1,4] [--transportes udp,tcp]\n"
+                + "                       [--operacoes get,walk] [--segundos N] [--aquecimento N]\n"
+                + "                       [--porta N] [--agente-cp classpath] [--csv ficheiro]\n"
+                + "                       [--sockets-agente 0,1,4] [--sessoes N] [--fila-envio N]\n"
+                + "                       [--ligacoes-tcp N]\n"
+                + "--ligacoes-tcp N usa o NioTcpTransportMapping (N=1: uma ligação sem pool; N>1: pool de N ligações)");
+        System.exit(2);
+    }
+
+    /**
+     * Metodo principal do benchmark
+     * @param args
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        List<Integer> tamanhos = inteiros("100,1000");
+        List<Integer> threads = inteiros("1,4");
+        List<String> transportes = Arrays.asList("udp", "tcp");
+        List<String> operacoes = Arrays.asList("get", "walk");
+        List<Integer> socketsAgente = inteiros("0");
+        int segundos = 10, aquecimento = 2, porta = 3103, nSessoes = 1, filaEnvio = 0, ligacoesTcp = 0;
+        String agenteCp = null;
+        String csv = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--tamanhos": tamanhos = inteiros(args[++i]); break;
+                    case "--threads": threads = inteiros(args[++i]); break;
+                    case "--transportes": transportes = Arrays.asList(args[++i].split(",")); break;
+                    case "--operacoes": operacoes = Arrays.asList(args[++i].split(",")); break;
+                    case "--segundos": segundos = Integer.parseInt(args[++i]); break;
+                    case "--aquecimento": aquecimento = Integer.parseInt(args[++i]); break;
+                    case "--porta": porta = Integer.parseInt(args[++i]); break;
+                    case "--agente-cp": agenteCp = args[++i]; break;
+                    case "--csv": csv = args[++i]; break;
+                    case "--sockets-agente": socketsAgente = inteiros(args[++i]); break;
+                    case "--sessoes": nSessoes = Integer.parseInt(args[++i]); break;
+                    case "--fila-envio": filaEnvio = Integer.parseInt(args[++i]); break;
+                    case "--ligacoes-tcp": ligacoesTcp = Integer.parseInt(args[++i]); break;
+                    default: utilizacao();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            utilizacao();
+        }
+        for (String op : operacoes) {
+            if (!Arrays.asList("get", "walk", "pagina").contains(op)) {
+                utilizacao();
+            }
+        }
+
+        if (nSessoes < 1 || ligacoesTcp < 0) {
+            utilizacao();
+        }
+
+        if (agenteCp == null) {
+            agenteCp = compilaAgente();
+        } else {
+            verificaClasspath(agenteCp, socketsAgente.stream().anyMatch(n -> n > 0));
+        }
+
+        // As sessões (cada uma com transporte UDP e TCP) são as mesmas para todos os casos
+        List<Snmp> sessoes = new ArrayList<>();
+        for (int i = 0; i < nSessoes; i++) {
+            Snmp snmp = new Snmp(new DefaultUdpTransportMapping());
+            if (ligacoesTcp > 0) {
+                NioTcpTransportMapping tcp = new NioTcpTransportMapping();
+                tcp.setMaxConnectionsPerTarget(ligacoesTcp);
+                snmp.addTransportMapping(tcp);
+            } else {
+                snmp.addTransportMapping(new DefaultTcpTransportMapping());
+            }
+            snmp.listen();
+            sessoes.add(snmp);
+        }
+
+        PrintWriter saidaCsv = csv == null ? null : new PrintWriter(Files.newBufferedWriter(new File(csv).toPath()));
+        if (saidaCsv != null) {
+            saidaCsv.println("eventos,sockets_agente,transporte,operacao,threads,consultas,erros,consultas_s,p50_ms,p99_ms,p999_ms,max_ms");
+        }
+        System.out.println("eventos sck tran op     thr consultas erros consultas/s   p50(ms)   p99(ms)  p999(ms)   max(ms)");
+
+        for (int eventos : tamanhos) {
+
+            Path dir = Files.createTempDirectory("benchmark-agente");
+            geraEventos(dir.resolve("dataEvents.txt"), eventos);
+            for (int sockets : socketsAgente) {
+                Process agente = lancaAgente(dir, agenteCp, porta, sockets, filaEnvio);
+                try {
+                    esperaAgente(new ComunicadorSNMP(sessoes.get(0), alvo("udp", porta)), eventos, agente);
+                    for (String transporte : transportes) {
+                        for (String operacao : operacoes) {
+                            for (int n : threads) {
+                                Resultado r = corre(sessoes, transporte, porta, operacao, n, aquecimento, segundos);
+                                r.eventos = eventos;
+                                r.sockets = sockets;
+                                System.out.println(r.linha());
+                                if (saidaCsv != null) {
+                                    saidaCsv.println(r.csv());
+                                    saidaCsv.flush();
+                                }
+                            }
+                        }
+                    }
+                } finally {
+                    agente.destroy();
+                    agente.waitFor();
+                }
+            }
+        }
+        if (saidaCsv != null) {
+            saidaCsv.close();
+        }
+        for (Snmp snmp : sessoes) {
+            snmp.close();
+        }
+    }
+}
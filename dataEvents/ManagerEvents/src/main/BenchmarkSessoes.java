@@ -0,0 +1,182 @@
+package main;
+
+import main.Comunicator.ComunicadorSNMP;
+import main.Comunicator.ControladorBulkAdaptativo;
+import main.Comunicator.Manager;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.Snmp;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classe BenchmarkSessoes que mede quantas consultas por segundo o manager
+ * consegue fazer a um agente, e quantas consegue fazer por cada segundo de
+ * CPU gasto (consultas por segundo por core), comparando:
+ *  - partilhada: todas as consultas usam a sessão e o alvo do RegistoSessoes;
+ *  - isolada: cada consulta abre a sua sessão, transporte e alvo, como
+ *    acontecia antes de existir o registo.
+ *
+ * Utilização:
+ *   BenchmarkSessoes [--agente udp:127.0.0.1/3003] [--threads N]
+ *                    [--segundos N] [--tipo total|tabela] [--modo partilhada|isolada|ambos]
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class BenchmarkSessoes {
+
+    /**
+     * Interface de uma consulta ao agente
+     */
+    private interface Consulta {
+        void executa() throws IOException;
+    }
+
+    /**
+     * Metodo que faz uma consulta com o comunicador dado
+     * @param com
+     * @param tipo
+     */
+    private static void consulta(ComunicadorSNMP com, String tipo) {
+
+        if (tipo.equals("tabela")) {
+            com.enviaPedido();
+        } else {
+            com.obtemTotal();
+        }
+    }
+
+    /**
+     * Metodo que faz uma consulta abrindo e fechando uma sessão só para ela
+     * @param agente
+     * @param tipo
+     * @throws IOException
+     */
+    private static void consultaIsolada(String agente, String tipo)
+            throws IOException {
+
+        TransportMapping<?> trans = new DefaultUdpTransportMapping();
+        Snmp snmp = new Snmp(trans);
+        trans.listen();
+        try {
+            CommunityTarget<Address> alvo = new CommunityTarget<>();
+            alvo.setCommunity(new OctetString("public"));
+            alvo.setAddress(GenericAddress.parse(agente));
+            alvo.setRetries(2);
+            alvo.setTimeout(2000);
+            alvo.setVersion(SnmpConstants.version2c);
+            consulta(new ComunicadorSNMP(snmp, alvo,
+                    new ControladorBulkAdaptativo(trans.getMaxInboundMessageSize())), tipo);
+        } finally {
+            snmp.close();
+        }
+    }
+
+    /**
+     * Metodo que executa consultas em várias threads durante um dado tempo
+     * e escreve os resultados
+     * @param nome
+     * @param threads
+     * @param segundos
+     * @param consultas uma consulta por thread
+     */
+    private static void mede(String nome, int threads, int segundos, List<Consulta> consultas)
+            throws InterruptedException {
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        AtomicLong feitas = new AtomicLong();
+        AtomicLong erros = new AtomicLong();
+        long fim = System.nanoTime() + segundos * 1_000_000_000L;
+
+        long cpuInicio = os.getProcessCpuTime();
+        long inicio = System.nanoTime();
+        List<Thread> ts = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Consulta c = consultas.get(i);
+            Thread t = new Thread(() -> {
+                while (System.nanoTime() < fim) {
+                    try {
+                        c.executa();
+                        feitas.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        erros.incrementAndGet();
+                    }
+                }
+            });
+            ts.add(t);
+            t.start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        double tempo = (System.nanoTime() - inicio) / 1e9;
+        double cpu = (os.getProcessCpuTime() - cpuInicio) / 1e9;
+
+        System.out.printf("%-10s threads=%d consultas=%d erros=%d consultas/s=%.1f cpu=%.2fs consultas/s/core=%.1f%n",
+                nome, threads, feitas.get(), erros.get(), feitas.get() / tempo, cpu,
+                cpu > 0 ? feitas.get() / cpu : 0.0);
+    }
+
+    /**
+     * Metodo principal do benchmark
+     * @param args
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        String agente = "udp:127.0.0.1/3003";
+        int threads = 1;
+        int segundos = 10;
+        String tipo = "total";
+        String modo = "ambos";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--agente": agente = args[++i]; break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--segundos": segundos = Integer.parseInt(args[++i]); break;
+                case "--tipo": tipo = args[++i]; break;
+                case "--modo": modo = args[++i]; break;
+                default:
+                    System.err.println("Utilização: BenchmarkSessoes [--agente udp:127.0.0.1/3003] [--threads N]\n"
+                            + "                        [--segundos N] [--tipo total|tabela] [--modo partilhada|isolada|ambos]");
+                    System.exit(2);
+            }
+        }
+        final String a = agente, t = tipo;
+
+        if (!modo.equals("isolada")) {
+            List<Manager> managers = new ArrayList<>();
+            List<Consulta> consultas = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Manager m = new Manager(agente, "public");
+                managers.add(m);
+                consultas.add(() -> consulta(m.getComunicador(), t));
+            }
+            // Aquecimento
+            consulta(managers.get(0).getComunicador(), t);
+            mede("partilhada", threads, segundos, consultas);
+            for (Manager m : managers) {
+                m.termina();
+            }
+        }
+        if (!modo.equals("partilhada")) {
+            List<Consulta> consultas = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                consultas.add(() -> consultaIsolada(a, t));
+            }
+            consultaIsolada(a, t);
+            mede("isolada", threads, segundos, consultas);
+        }
+    }
+}
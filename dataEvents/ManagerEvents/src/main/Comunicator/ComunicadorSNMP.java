@@ -3,12 +3,17 @@ package main.Comunicator;
 import org.snmp4j.PDU;
 import org.snmp4j.Snmp;
 import org.snmp4j.Target;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Null;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.VariableBinding;
 import org.snmp4j.util.*;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * Classe Comunicador usada para sempre que é necessario comunicar
@@ -25,10 +30,30 @@ public class ComunicadorSNMP {
     private Snmp snmp;
     // Classe Target que contem as definicoes do agente de forma a se poder
     // efetuar os pedidos
-    private Target<?> alvo;
+    private volatile Target<?> alvo;
+    // Controlador que ajusta o max-repetitions dos pedidos GETBULK
+    // (se for null usa-se o valor fixo do TreeUtils)
+    private ControladorBulkAdaptativo controlador;
+    // Consultas à tabela partilhadas com os outros comunicadores do mesmo
+    // agente (se for null cada pedido vai sempre ao agente)
+    private ConsultaUnica<String,List<List<String>>> consultas;
+    // TreeUtils reutilizado em todas as caminhadas (criado na primeira)
+    private TreeUtils treeUtils;
+    // Em SNMPv3, dá um novo alvo a partir do alvo com que os pedidos falharam
+    // (se for null o alvo nunca é renovado)
+    private UnaryOperator<Target<?>> renovaAlvo;
+    // Se o engine ID do alvo pode estar desatualizado e o alvo tem de ser
+    // renovado antes do proximo pedido
+    private volatile boolean alvoDesatualizado;
+    // Numero de colunas que o agente tem de facto, descoberto nas paginas:
+    // é a primeira coluna cujo GETBULK sai da tabela enquanto a primeira não sai
+    private volatile int colunasAgente = COLUNAS;
 
     /* Constante que define o OID em string do caminho para o dataEventsEntry */
     public static String OID_dataEventsEntry = ".1.3.6.1.4.1.8888.5.1";
+    /* Numero de colunas da tabela de eventos (os agentes sem a coluna
+     * dataEventsRecurrence só têm as primeiras 15) */
+    public static final int COLUNAS = 16;
     /* Constante que guarda o OID do numero total de eventos registados na MIB */
     public static String OID_dataEventsTotal = ".1.3.6.1.4.1.8888.1";
     /* Constante que guarda o OID do numero total de eventos passados registados na MIB */
@@ -37,6 +62,10 @@ public class ComunicadorSNMP {
     public static String OID_dataEventsTotalPres = ".1.3.6.1.4.1.8888.3";
     /* Constante que guarda o OID do numero total de eventos futuros registados na MIB */
     public static String OID_dataEventsTotalFut = ".1.3.6.1.4.1.8888.4";
+    /* Constante que guarda o OID da notificacao enviada quando um evento é criado ou muda de estado */
+    public static String OID_dataEventsAlterado = ".1.3.6.1.4.1.8888.0.1";
+    /* Constante que guarda o OID da notificacao enviada quando um evento é apagado */
+    public static String OID_dataEventsRemovido = ".1.3.6.1.4.1.8888.0.2";
 
     /**
      * Construtor da classe ComunicadorSNMP
@@ -47,6 +76,129 @@ public class ComunicadorSNMP {
         this.alvo = target;
     }
 
+    /**
+     * Construtor da classe ComunicadorSNMP que usa um controlador adaptativo
+     * para o max-repetitions dos pedidos GETBULK
+     * @param snmp
+     * @param target
+     * @param controlador
+     */
+    public ComunicadorSNMP(Snmp snmp, Target<?> target, ControladorBulkAdaptativo controlador){
+        this(snmp, target);
+        this.controlador = controlador;
+    }
+
+    public ControladorBulkAdaptativo getControlador() {
+        return controlador;
+    }
+
+    public void setControlador(ControladorBulkAdaptativo controlador) {
+        this.controlador = controlador;
+    }
+
+    public void setConsultas(ConsultaUnica<String,List<List<String>>> consultas) {
+        this.consultas = consultas;
+    }
+
+    /**
+     * Metodo que define como se renova o alvo SNMPv3 depois de um timeout ou
+     * de um report usmStatsUnknownEngineIDs/usmStatsNotInTimeWindows, que
+     * indicam que o engine ID guardado do agente pode já não ser o atual
+     * @param renovaAlvo recebe o alvo que falhou e dá o alvo a usar a seguir
+     */
+    public void setRenovaAlvo(UnaryOperator<Target<?>> renovaAlvo) {
+        this.renovaAlvo = renovaAlvo;
+    }
+
+    /**
+     * Metodo que dá o alvo a usar no proximo pedido, renovando-o primeiro
+     * se o ultimo pedido falhou por o engine ID poder estar desatualizado
+     * @return
+     * @throws RuntimeException se não foi possivel descobrir de novo o engine ID
+     */
+    private Target<?> alvoAtual()
+            throws RuntimeException{
+
+        if(this.alvoDesatualizado && this.renovaAlvo != null) {
+            synchronized (this) {
+                if(this.alvoDesatualizado) {
+                    this.alvo = this.renovaAlvo.apply(this.alvo);
+                    this.alvoDesatualizado = false;
+                }
+            }
+        }
+        return this.alvo;
+    }
+
+    /**
+     * Metodo que envia um pedido e dá a resposta, falhando num timeout ou
+     * num report. Em SNMPv3 um timeout ou um report de engine ID desconhecido
+     * ou fora da janela temporal fazem com que o alvo seja renovado
+     * @param pdu
+     * @param alvo alvo dado pelo alvoAtual
+     * @return
+     * @throws RuntimeException
+     */
+    private PDU envia(PDU pdu, Target<?> alvo)
+            throws RuntimeException{
+
+        PDU resposta;
+        try {
+            resposta = this.snmp.send(pdu, alvo).getResponse();
+        } catch (IOException e){
+            throw new RuntimeException(e.getMessage());
+        }
+        if(resposta == null) {
+            this.alvoDesatualizado = true;
+            throw new RuntimeException("Request timed out.");
+        }
+        if(resposta.getType() == PDU.REPORT) {
+            OID relatorio = resposta.size() > 0 ? resposta.get(0).getOid() : null;
+            if(SnmpConstants.usmStatsUnknownEngineIDs.equals(relatorio)
+                    || SnmpConstants.usmStatsNotInTimeWindows.equals(relatorio)) {
+                this.alvoDesatualizado = true;
+            }
+            throw new RuntimeException("Report " + relatorio);
+        }
+        return resposta;
+    }
+
+    /**
+     * Metodo que dá a chave que identifica a tabela deste agente nas consultas partilhadas
+     * @return
+     */
+    private String chave() {
+        return this.alvo.getAddress() + "|" + this.alvo.getSecurityName();
+    }
+
+    /**
+     * Metodo que obtem a tabela do agente tal como o enviaPedido, mas em que
+     * pedidos concorrentes à mesma tabela são juntos num só, e em que um
+     * resultado mais recente do que a idade maxima é devolvido sem ir ao agente.
+     * O resultado é partilhado e não deve ser alterado
+     * @param idadeMaxima idade maxima, em milis, de um resultado já obtido
+     * @return
+     * @throws RuntimeException
+     */
+    public List<List<String>> obtemTabela(long idadeMaxima)
+            throws RuntimeException{
+
+        if(this.consultas == null) {
+            return this.enviaPedido();
+        }
+        return this.consultas.obtem(this.chave(), idadeMaxima, this::enviaPedido);
+    }
+
+    /**
+     * Metodo que esquece a ultima tabela obtida deste agente (por exemplo
+     * quando se sabe por uma notificacao que ela mudou)
+     */
+    public void invalidaTabela() {
+        if(this.consultas != null) {
+            this.consultas.invalida(this.chave());
+        }
+    }
+
 
     /**
      * Metodo que cria todos os OID necessarios para obter a informaçao das
@@ -55,7 +207,7 @@ public class ComunicadorSNMP {
      */
     public OID[] formaOIDS() {
 
-        OID[] oids = new OID[19];
+        OID[] oids = new OID[4 + COLUNAS];
 
         // Criar o OID de todos os eventos registados na MIB
         oids[0] = new OID(OID_dataEventsTotal);
@@ -66,7 +218,7 @@ public class ComunicadorSNMP {
         // Criar o OID de todos os eventos futuros registados na MIB
         oids[3] = new OID(OID_dataEventsTotalFut);
         // Criar o OID das varias colunas da tabela
-        for(int i = 1; i <= 15 ; i++){
+        for(int i = 1; i <= COLUNAS ; i++){
             oids[i + 3] = new OID(OID_dataEventsEntry + "." + i);
         }
 
@@ -85,11 +237,16 @@ public class ComunicadorSNMP {
     public List<List<String>> enviaPedido()
             throws RuntimeException{
 
+        if(this.controlador != null) {
+            return this.enviaPedidoAdaptativo();
+        }
+
         OID[] oids = this.formaOIDS();
-        DefaultPDUFactory dpdu = new DefaultPDUFactory(PDU.GETBULK);
-        TreeUtils tu = new TreeUtils(this.snmp, dpdu);
+        if(this.treeUtils == null) {
+            this.treeUtils = new TreeUtils(this.snmp, RegistoSessoes.getFabrica(PDU.GETBULK));
+        }
         // Enviar o pedido para o alvo e obter uma lista de resultados
-        List<TreeEvent> res_list = tu.walk(this.alvo, oids);
+        List<TreeEvent> res_list = this.treeUtils.walk(this.alvoAtual(), oids);
         // Lista de todos os atributos pedidos organizados por ordem em que
         // os processos aparecem na MIB
         List<List<String>> list_proc = new ArrayList<>();
@@ -98,6 +255,9 @@ public class ComunicadorSNMP {
         for(TreeEvent tre : res_list) {
 
             if(tre.isError()) {
+                if(tre.getStatus() == TreeEvent.STATUS_TIMEOUT || tre.getStatus() == TreeEvent.STATUS_REPORT) {
+                    this.alvoDesatualizado = true;
+                }
                 throw new RuntimeException(tre.getErrorMessage());
             }
             VariableBinding[] vbs = tre.getVariableBindings();
@@ -114,4 +274,295 @@ public class ComunicadorSNMP {
         return list_proc;
     }
 
+    /**
+     * Metodo que percorre as colunas pedidas com GETBULK, tal como o TreeUtils,
+     * mas em que o max-repetitions de cada pedido é dado pelo controlador
+     * adaptativo. As raizes cuja subarvore já terminou deixam de ser pedidas.
+     * O resultado tem o mesmo formato do que é retornado pelo enviaPedido
+     * @return
+     * @throws RuntimeException
+     */
+    private List<List<String>> enviaPedidoAdaptativo()
+            throws RuntimeException{
+
+        OID[] raizes = this.formaOIDS();
+        // Ultimo OID recebido de cada raiz
+        OID[] ultimos = raizes.clone();
+        // Indices das raizes que ainda nao terminaram
+        List<Integer> ativas = new ArrayList<>();
+        for(int i = 0; i < raizes.length; i++)
+            ativas.add(i);
+
+        List<List<String>> list_proc = new ArrayList<>();
+        int totalLinhas = 0;
+        Target<?> alvo = this.alvoAtual();
+
+        while(!ativas.isEmpty()) {
+
+            int colunas = ativas.size();
+            int pedidas = this.controlador.getMaxRepetitions(alvo, colunas);
+            PDU pdu = DefaultPDUFactory.createPDU(alvo, PDU.GETBULK, pedidas, 0);
+            for(int r : ativas) {
+                pdu.add(new VariableBinding(ultimos[r]));
+            }
+
+            long inicio = System.nanoTime();
+            PDU resposta = this.envia(pdu, alvo);
+            long rtt = System.nanoTime() - inicio;
+
+            if(resposta.getErrorStatus() == PDU.tooBig && pedidas > ControladorBulkAdaptativo.MIN_REPETITIONS) {
+                // Repetir o pedido com menos linhas
+                this.controlador.registaTooBig(alvo, pedidas);
+                continue;
+            }
+            if(resposta.getErrorStatus() != 0) {
+                throw new RuntimeException(resposta.getErrorStatusText());
+            }
+
+            int recebidas = resposta.size() / colunas;
+            List<Integer> terminadas = new ArrayList<>();
+            // Iterar sobre as varias linhas da resposta
+            for(int l = 0; l < recebidas && terminadas.size() < colunas; l++) {
+
+                List<String> listAtrib = new ArrayList<>();
+                for(int c = 0; c < colunas; c++) {
+
+                    int r = ativas.get(c);
+                    if(terminadas.contains(r))
+                        continue;
+                    VariableBinding vb = resposta.get(l * colunas + c);
+                    if(vb.getOid() == null
+                            || vb.getOid().size() < raizes[r].size()
+                            || raizes[r].leftMostCompare(raizes[r].size(), vb.getOid()) != 0
+                            || Null.isExceptionSyntax(vb.getVariable().getSyntax())) {
+                        terminadas.add(r);
+                    } else if(vb.getOid().compareTo(ultimos[r]) <= 0) {
+                        throw new RuntimeException("Agent did not respond with lexicographic increasing OIDs");
+                    } else {
+                        ultimos[r] = vb.getOid();
+                        listAtrib.add(vb.toValueString());
+                    }
+                }
+                if(listAtrib.size() > 0) {
+                    list_proc.add(listAtrib);
+                    totalLinhas++;
+                }
+            }
+            ativas.removeAll(terminadas);
+            if(recebidas == 0) {
+                ativas.clear();
+            }
+
+            this.controlador.registaResposta(alvo, colunas, pedidas, recebidas,
+                    resposta.getBERLength(), rtt, ativas.isEmpty());
+        }
+        this.controlador.registaFimCaminhada(alvo, raizes.length, totalLinhas);
+
+        return list_proc;
+    }
+
+    /**
+     * Metodo que obtem, com um GET, o numero total de eventos registados na MIB
+     * @return
+     * @throws RuntimeException
+     */
+    public int obtemTotal()
+            throws RuntimeException{
+
+        return this.obtemEscalares(OID_dataEventsTotal)[0];
+    }
+
+    /**
+     * Metodo que obtem, com um só GET, os totais de eventos registados na MIB
+     * @return total, passados, presentes e futuros
+     * @throws RuntimeException
+     */
+    public int[] obtemTotais()
+            throws RuntimeException{
+
+        return this.obtemEscalares(OID_dataEventsTotal, OID_dataEventsTotalPast,
+                OID_dataEventsTotalPres, OID_dataEventsTotalFut);
+    }
+
+    /**
+     * Metodo que obtem, com um GET, o valor inteiro de varios objetos escalares
+     * @param oids OIDs dos objetos (sem o .0 da instancia)
+     * @return
+     * @throws RuntimeException
+     */
+    private int[] obtemEscalares(String... oids)
+            throws RuntimeException{
+
+        Target<?> alvo = this.alvoAtual();
+        PDU pdu = DefaultPDUFactory.createPDU(alvo, PDU.GET);
+        for(String oid : oids) {
+            pdu.add(new VariableBinding(new OID(oid + ".0")));
+        }
+
+        PDU resposta = this.envia(pdu, alvo);
+        if(resposta.getErrorStatus() != 0) {
+            throw new RuntimeException(resposta.getErrorStatusText());
+        }
+        int[] res = new int[oids.length];
+        for(int i = 0; i < oids.length; i++) {
+            VariableBinding vb = resposta.get(i);
+            if(Null.isExceptionSyntax(vb.getVariable().getSyntax())) {
+                throw new RuntimeException(vb.toValueString());
+            }
+            res[i] = vb.getVariable().toInt();
+        }
+        return res;
+    }
+
+    /**
+     * Metodo que obtem uma pagina da tabela de eventos, isto é, as linhas
+     * que se seguem a um dado indice, usando GETBULK sobre as colunas
+     * a partir desse indice. Só se pedem as linhas necessarias, repetindo o
+     * pedido se o agente cortar a resposta antes de se chegar ao fim da tabela.
+     * Cada linha tem o mesmo formato das linhas do enviaPedido
+     * @param aPartirDe indice da linha anterior à primeira a obter (0 para o inicio da tabela)
+     * @param linhas numero maximo de linhas a obter
+     * @return
+     * @throws RuntimeException
+     */
+    public List<List<String>> enviaPedidoPagina(int aPartirDe, int linhas)
+            throws RuntimeException{
+
+        return this.pedePagina(aPartirDe, linhas, this.colunasAgente);
+    }
+
+    /**
+     * Metodo que obtem só os indices das linhas que se seguem a um dado
+     * indice (pedindo apenas a primeira coluna), para se saber onde começa
+     * uma pagina sem trazer as linhas das paginas anteriores
+     * @param aPartirDe indice da linha anterior à primeira (0 para o inicio da tabela)
+     * @param linhas numero maximo de indices a obter
+     * @return
+     * @throws RuntimeException
+     */
+    public List<Integer> obtemIndices(int aPartirDe, int linhas)
+            throws RuntimeException{
+
+        List<Integer> indices = new ArrayList<>();
+        for(List<String> l : this.pedePagina(aPartirDe, linhas, 1)) {
+            indices.add(Integer.parseInt(l.get(0)));
+        }
+        return indices;
+    }
+
+    /**
+     * Metodo que obtem as primeiras colunas das linhas que se seguem a um
+     * dado indice, com os pedidos GETBULK necessarios. Se uma coluna que
+     * não a primeira sair da tabela, o agente tem menos colunas do que as
+     * pedidas: as linhas ficam só com as colunas anteriores
+     * @param aPartirDe
+     * @param linhas
+     * @param colunas
+     * @return
+     * @throws RuntimeException
+     */
+    private List<List<String>> pedePagina(int aPartirDe, int linhas, int colunas)
+            throws RuntimeException{
+
+        OID[] raizes = new OID[colunas];
+        for(int i = 0; i < colunas; i++) {
+            raizes[i] = new OID(OID_dataEventsEntry + "." + (i + 1));
+        }
+        OID[] ultimos = new OID[colunas];
+        for(int i = 0; i < colunas; i++) {
+            ultimos[i] = new OID(raizes[i]).append(aPartirDe);
+        }
+
+        List<List<String>> pagina = new ArrayList<>();
+        boolean fim = false;
+        Target<?> alvo = this.alvoAtual();
+
+        while(!fim && pagina.size() < linhas) {
+
+            int pedidas = linhas - pagina.size();
+            if(this.controlador != null) {
+                pedidas = Math.min(pedidas, this.controlador.getMaxRepetitions(alvo, colunas));
+            }
+            PDU pdu = DefaultPDUFactory.createPDU(alvo, PDU.GETBULK, pedidas, 0);
+            for(int c = 0; c < colunas; c++) {
+                pdu.add(new VariableBinding(ultimos[c]));
+            }
+
+            PDU resposta = this.envia(pdu, alvo);
+            if(resposta.getErrorStatus() == PDU.tooBig && pedidas > ControladorBulkAdaptativo.MIN_REPETITIONS
+                    && this.controlador != null) {
+                this.controlador.registaTooBig(alvo, pedidas);
+                continue;
+            }
+            if(resposta.getErrorStatus() != 0) {
+                throw new RuntimeException(resposta.getErrorStatusText());
+            }
+
+            // As varbinds de cada linha da resposta seguem as colunas deste pedido
+            int pedidasColunas = colunas;
+            int recebidas = resposta.size() / pedidasColunas;
+            if(recebidas == 0) {
+                fim = true;
+            }
+            // Como todas as colunas têm as mesmas linhas, basta a primeira
+            // coluna sair da sua subarvore para se saber que a tabela acabou;
+            // se for outra coluna a sair, é porque o agente não a tem
+            for(int l = 0; l < recebidas && !fim; l++) {
+
+                List<String> listAtrib = new ArrayList<>();
+                for(int c = 0; c < colunas; c++) {
+
+                    VariableBinding vb = resposta.get(l * pedidasColunas + c);
+                    if(vb.getOid() == null
+                            || vb.getOid().size() <= raizes[c].size()
+                            || raizes[c].leftMostCompare(raizes[c].size(), vb.getOid()) != 0
+                            || Null.isExceptionSyntax(vb.getVariable().getSyntax())) {
+                        if(c == 0) {
+                            fim = true;
+                        } else {
+                            colunas = c;
+                            this.colunasAgente = Math.min(this.colunasAgente, c);
+                        }
+                        break;
+                    }
+                    ultimos[c] = vb.getOid();
+                    listAtrib.add(vb.toValueString());
+                }
+                if(!fim) {
+                    pagina.add(listAtrib);
+                }
+            }
+        }
+        return pagina.size() > linhas ? pagina.subList(0, linhas) : pagina;
+    }
+
+    /**
+     * Metodo que percorre a tabela de eventos pagina a pagina, entregando
+     * cada linha ao consumidor assim que ela chega, sem nunca guardar a
+     * tabela inteira em memoria
+     * @param linhasPorPagina numero de linhas pedidas de cada vez
+     * @param consumidor
+     * @return numero de linhas percorridas
+     * @throws RuntimeException
+     */
+    public int percorreTabela(int linhasPorPagina, Consumer<List<String>> consumidor)
+            throws RuntimeException{
+
+        int ultimo = 0;
+        int total = 0;
+        List<List<String>> pagina;
+        do {
+            pagina = this.enviaPedidoPagina(ultimo, linhasPorPagina);
+            for(List<String> linha : pagina) {
+                consumidor.accept(linha);
+            }
+            if(!pagina.isEmpty()) {
+                ultimo = Integer.parseInt(pagina.get(pagina.size() - 1).get(0));
+                total += pagina.size();
+            }
+        } while(pagina.size() == linhasPorPagina);
+
+        return total;
+    }
+
 }
@@ -0,0 +1,102 @@
+package main.Comunicator;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Classe ConsultaUnica que junta consultas concorrentes com a mesma chave
+ * (por exemplo a tabela de um mesmo agente) numa só: quem pede enquanto
+ * uma consulta está a decorrer espera por ela e recebe o mesmo resultado.
+ * O ultimo resultado de cada chave fica guardado e é devolvido sem nova
+ * consulta enquanto for mais recente do que a idade maxima pedida.
+ * Os resultados são partilhados e não devem ser alterados por quem os recebe
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class ConsultaUnica<K,V> {
+
+    /**
+     * Classe que guarda um resultado e o momento em que foi obtido
+     */
+    private static class Resultado<V> {
+        /* Valor obtido na consulta */
+        private V valor;
+        /* Momento (System.nanoTime) em que a consulta terminou */
+        private long instante;
+
+        private Resultado(V valor, long instante) {
+            this.valor = valor;
+            this.instante = instante;
+        }
+    }
+
+    // Consultas a decorrer neste momento, por chave
+    private Map<K,CompletableFuture<Resultado<V>>> emCurso;
+    // Ultimo resultado obtido para cada chave
+    private Map<K,Resultado<V>> ultimos;
+
+    /**
+     * Construtor de ConsultaUnica
+     */
+    public ConsultaUnica() {
+        this.emCurso = new ConcurrentHashMap<>();
+        this.ultimos = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Metodo que dá o resultado de uma consulta, reutilizando o ultimo resultado
+     * se for recente, ou juntando-se a uma consulta já a decorrer para a mesma chave
+     * @param chave
+     * @param idadeMaxima idade maxima (em milis) de um resultado guardado para poder ser devolvido
+     * @param consulta consulta a fazer se não houver resultado recente nem consulta a decorrer
+     * @return
+     * @throws RuntimeException a mesma exceção (para todos os que esperam) se a consulta falhar
+     */
+    public V obtem(K chave, long idadeMaxima, Supplier<V> consulta)
+            throws RuntimeException {
+
+        Resultado<V> ultimo = this.ultimos.get(chave);
+        if (ultimo != null && System.nanoTime() - ultimo.instante <= idadeMaxima * 1_000_000L) {
+            return ultimo.valor;
+        }
+
+        CompletableFuture<Resultado<V>> novo = new CompletableFuture<>();
+        CompletableFuture<Resultado<V>> atual = this.emCurso.putIfAbsent(chave, novo);
+        if (atual != null) {
+            // Já há uma consulta a decorrer: esperar pelo seu resultado
+            try {
+                return atual.join().valor;
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            Resultado<V> r = new Resultado<>(consulta.get(), System.nanoTime());
+            this.ultimos.put(chave, r);
+            novo.complete(r);
+            return r.valor;
+        } catch (RuntimeException e) {
+            novo.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.emCurso.remove(chave, novo);
+        }
+    }
+
+    /**
+     * Metodo que esquece o ultimo resultado de uma chave, obrigando
+     * a proxima consulta a ir ao agente
+     * @param chave
+     */
+    public void invalida(K chave) {
+        this.ultimos.remove(chave);
+    }
+}
@@ -0,0 +1,195 @@
+package main.Comunicator;
+
+import org.snmp4j.Target;
+import org.snmp4j.smi.Address;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classe ControladorBulkAdaptativo que vai ajustando, para cada alvo,
+ * o valor de max-repetitions usado nos pedidos GETBULK.
+ * O ajuste é feito a partir do tamanho das respostas observadas, dos
+ * erros tooBig e do RTT de cada pedido, sem nunca ultrapassar o tamanho
+ * máximo de mensagem que o transporte consegue receber
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class ControladorBulkAdaptativo {
+
+    /* Valor minimo de max-repetitions */
+    public static int MIN_REPETITIONS = 1;
+    /* Valor maximo de max-repetitions */
+    public static int MAX_REPETITIONS = 1000;
+    /* Valor inicial de max-repetitions para um alvo ainda desconhecido */
+    public static int REPETITIONS_INICIAL = 10;
+    /* Bytes reservados para o cabecalho da mensagem SNMP (versao, community, pdu) */
+    private static int CABECALHO_MENSAGEM = 128;
+    /* Peso dado a cada nova amostra nas medias exponenciais */
+    private static double PESO_AMOSTRA = 0.25;
+    /* Fator de cada passo de ajuste depois da fase inicial */
+    private static double PASSO_AJUSTE = 1.25;
+
+    /**
+     * Classe que guarda o estado do controlador relativo a um alvo
+     */
+    private static class Estado {
+        /* Valor de max-repetitions a usar no proximo pedido */
+        private int maxRepetitions = REPETITIONS_INICIAL;
+        /* Teto aprendido com os erros tooBig deste alvo */
+        private int tetoTooBig = Integer.MAX_VALUE;
+        /* Media do numero de bytes de cada variable binding recebido */
+        private double bytesPorVb = -1;
+        /* Custo (RTT por linha, em nanosegundos) observado na resposta anterior */
+        private double custoAnterior = -1;
+        /* Sentido em que o max-repetitions está a ser ajustado (1 sobe, -1 desce) */
+        private int sentido = 1;
+        /* Indica se ainda se está na fase inicial em que se duplica o max-repetitions */
+        private boolean arranque = true;
+    }
+
+    /* Estado de cada um dos alvos indexado pelo endereco */
+    private Map<Address,Estado> estados;
+    /* Tamanho maximo de uma mensagem que o transporte consegue receber */
+    private int maxMensagem;
+
+    /**
+     * Construtor de ControladorBulkAdaptativo
+     * @param maxMensagem tamanho maximo de mensagem de entrada do transporte
+     */
+    public ControladorBulkAdaptativo(int maxMensagem){
+        this.estados = new ConcurrentHashMap<>();
+        this.maxMensagem = maxMensagem;
+    }
+
+    public int getMaxMensagem() {
+        return maxMensagem;
+    }
+
+    private Estado getEstado(Target<?> alvo){
+        return this.estados.computeIfAbsent(alvo.getAddress(), a -> new Estado());
+    }
+
+    /**
+     * Metodo que calcula o maior max-repetitions cuja resposta ainda cabe
+     * numa mensagem, tendo em conta o tamanho medio observado de cada variable binding
+     * @param e
+     * @param alvo
+     * @param colunas
+     * @return
+     */
+    private int limiteTamanho(Estado e, Target<?> alvo, int colunas){
+
+        int limite = Math.min(e.tetoTooBig, MAX_REPETITIONS);
+        if(e.bytesPorVb > 0) {
+            int maxBytes = Math.min(this.maxMensagem, alvo.getMaxSizeRequestPDU()) - CABECALHO_MENSAGEM;
+            limite = Math.min(limite, (int) (maxBytes / (e.bytesPorVb * Math.max(1, colunas))));
+        }
+        return Math.max(MIN_REPETITIONS, limite);
+    }
+
+    /**
+     * Metodo que retorna o max-repetitions a usar no proximo pedido ao alvo
+     * @param alvo
+     * @param colunas numero de variable bindings pedidos por repeticao
+     * @return
+     */
+    public int getMaxRepetitions(Target<?> alvo, int colunas){
+
+        Estado e = getEstado(alvo);
+        synchronized (e) {
+            return Math.max(MIN_REPETITIONS, Math.min(e.maxRepetitions, limiteTamanho(e, alvo, colunas)));
+        }
+    }
+
+    /**
+     * Metodo que regista uma resposta a um pedido GETBULK e ajusta o
+     * max-repetitions do alvo. O objetivo é minimizar o RTT por linha obtida:
+     *  - se a resposta veio com menos linhas do que as pedidas sem a subarvore
+     *    ter acabado, o agente cortou-a por tamanho e nao se deve crescer mais;
+     *  - na fase inicial duplica-se enquanto o RTT por linha for melhorando;
+     *  - depois disso anda-se em passos de 25% no sentido que melhorou o RTT
+     *    por linha, invertendo-se o sentido sempre que este piora
+     * @param alvo
+     * @param colunas variable bindings pedidos por repeticao
+     * @param pedidas max-repetitions usado no pedido
+     * @param recebidas linhas presentes na resposta
+     * @param bytes tamanho da resposta em bytes
+     * @param rttNanos tempo entre o envio do pedido e a resposta
+     * @param fim indica se a subarvore terminou nesta resposta
+     */
+    public void registaResposta(Target<?> alvo, int colunas, int pedidas, int recebidas,
+                                int bytes, long rttNanos, boolean fim){
+
+        Estado e = getEstado(alvo);
+        synchronized (e) {
+            if (recebidas <= 0) {
+                return;
+            }
+            double amostra = (double) bytes / (recebidas * Math.max(1, colunas));
+            e.bytesPorVb = e.bytesPorVb < 0 ? amostra
+                    : (1 - PESO_AMOSTRA) * e.bytesPorVb + PESO_AMOSTRA * amostra;
+
+            // Respostas que terminam a subarvore ou que foram cortadas pelo
+            // agente nao dizem nada sobre o custo de pedir mais linhas
+            if (fim) {
+                return;
+            }
+            if (recebidas < pedidas) {
+                e.maxRepetitions = Math.max(MIN_REPETITIONS, recebidas);
+                return;
+            }
+
+            double custo = (double) rttNanos / recebidas;
+            if (e.custoAnterior >= 0 && custo > e.custoAnterior) {
+                e.arranque = false;
+                e.sentido = -e.sentido;
+            }
+            e.custoAnterior = custo;
+
+            int proximo;
+            if (e.arranque) {
+                proximo = pedidas * 2;
+            } else if (e.sentido > 0) {
+                proximo = Math.max(pedidas + 1, (int) (pedidas * PASSO_AJUSTE));
+            } else {
+                proximo = Math.min(pedidas - 1, (int) (pedidas / PASSO_AJUSTE));
+            }
+            e.maxRepetitions = Math.max(MIN_REPETITIONS, Math.min(proximo, limiteTamanho(e, alvo, colunas)));
+        }
+    }
+
+    /**
+     * Metodo que regista o fim de uma caminhada pela tabela. Como o tamanho da
+     * tabela varia pouco entre consultas, a proxima caminhada pede logo todas
+     * as linhas (mais uma, para detetar o fim da subarvore na mesma resposta),
+     * desde que isso nao ultrapasse o max-repetitions que se aprendeu ser o melhor
+     * @param alvo
+     * @param colunas
+     * @param linhas numero total de linhas obtidas na caminhada
+     */
+    public void registaFimCaminhada(Target<?> alvo, int colunas, int linhas){
+
+        Estado e = getEstado(alvo);
+        synchronized (e) {
+            e.maxRepetitions = Math.max(MIN_REPETITIONS,
+                    Math.min(linhas + 1, Math.min(e.maxRepetitions, limiteTamanho(e, alvo, colunas))));
+        }
+    }
+
+    /**
+     * Metodo que regista um erro tooBig: o max-repetitions passa para metade
+     * e fica a servir de teto para os pedidos seguintes a este alvo
+     * @param alvo
+     * @param pedidas max-repetitions usado no pedido que falhou
+     */
+    public void registaTooBig(Target<?> alvo, int pedidas){
+
+        Estado e = getEstado(alvo);
+        synchronized (e) {
+            e.tetoTooBig = Math.max(MIN_REPETITIONS, pedidas - 1);
+            e.maxRepetitions = Math.max(MIN_REPETITIONS, pedidas / 2);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package main.Comunicator;
+
+import org.snmp4j.security.*;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Classe CredenciaisV3 que guarda o utilizador USM e as passwords usadas
+ * para falar com um agente em SNMPv3 com autenticação e privacidade (authPriv)
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class CredenciaisV3 {
+
+    // Nome do utilizador (securityName)
+    private OctetString utilizador;
+    // Protocolo e password de autenticação
+    private OID protocoloAuth;
+    private OctetString passAuth;
+    // Protocolo e password de privacidade
+    private OID protocoloPriv;
+    private OctetString passPriv;
+
+    /**
+     * Construtor de CredenciaisV3
+     * @param utilizador
+     * @param protocoloAuth nome do protocolo de autenticação (MD5, SHA, SHA256, ...)
+     * @param passAuth
+     * @param protocoloPriv nome do protocolo de privacidade (DES, AES128, AES256, ...)
+     * @param passPriv
+     */
+    public CredenciaisV3(String utilizador, String protocoloAuth, String passAuth,
+                         String protocoloPriv, String passPriv) {
+        // O USM exige passwords com pelo menos 8 caracteres
+        if (passAuth.length() < 8 || passPriv.length() < 8) {
+            throw new IllegalArgumentException("As passwords SNMPv3 têm de ter pelo menos 8 caracteres");
+        }
+        this.utilizador = new OctetString(utilizador);
+        this.protocoloAuth = autenticacao(protocoloAuth);
+        this.passAuth = new OctetString(passAuth);
+        this.protocoloPriv = privacidade(protocoloPriv);
+        this.passPriv = new OctetString(passPriv);
+    }
+
+    private static OID autenticacao(String nome) {
+
+        switch (nome.toUpperCase()) {
+            case "MD5": return AuthMD5.ID;
+            case "SHA": return AuthSHA.ID;
+            case "SHA224": return AuthHMAC128SHA224.ID;
+            case "SHA256": return AuthHMAC192SHA256.ID;
+            case "SHA384": return AuthHMAC256SHA384.ID;
+            case "SHA512": return AuthHMAC384SHA512.ID;
+            default: throw new IllegalArgumentException("Protocolo de autenticação desconhecido: " + nome);
+        }
+    }
+
+    private static OID privacidade(String nome) {
+
+        switch (nome.toUpperCase()) {
+            case "DES": return PrivDES.ID;
+            case "3DES": return Priv3DES.ID;
+            case "AES":
+            case "AES128": return PrivAES128.ID;
+            case "AES192": return PrivAES192.ID;
+            case "AES256": return PrivAES256.ID;
+            default: throw new IllegalArgumentException("Protocolo de privacidade desconhecido: " + nome);
+        }
+    }
+
+    /**
+     * Metodo que dá as credenciais definidas nas propriedades do sistema
+     * (-Dv3.utilizador=..., -Dv3.auth=SHA256, -Dv3.passAuth=..., -Dv3.priv=AES128, -Dv3.passPriv=...)
+     * @return as credenciais, ou null se não foi definido nenhum utilizador
+     */
+    public static CredenciaisV3 doSistema() {
+
+        String utilizador = System.getProperty("v3.utilizador");
+        if (utilizador == null) {
+            return null;
+        }
+        return new CredenciaisV3(utilizador,
+                System.getProperty("v3.auth", "SHA256"), System.getProperty("v3.passAuth", ""),
+                System.getProperty("v3.priv", "AES128"), System.getProperty("v3.passPriv", ""));
+    }
+
+    public OctetString getUtilizador() {
+        return utilizador;
+    }
+
+    public OID getProtocoloAuth() {
+        return protocoloAuth;
+    }
+
+    public OID getProtocoloPriv() {
+        return protocoloPriv;
+    }
+
+    /**
+     * Metodo que gera a chave de autenticação localizada para um agente
+     * (a conversão da password é feita com um milhão de bytes de hash, por isso
+     * o resultado deve ser guardado e reutilizado)
+     * @param engineID engine ID do agente
+     * @return
+     */
+    public byte[] chaveAuth(byte[] engineID) {
+        return disponivel(SecurityProtocols.getInstance().passwordToKey(this.protocoloAuth, this.passAuth, engineID));
+    }
+
+    /**
+     * Metodo que gera a chave de privacidade localizada para um agente
+     * @param engineID engine ID do agente
+     * @return
+     */
+    public byte[] chavePriv(byte[] engineID) {
+        return disponivel(SecurityProtocols.getInstance().passwordToKey(this.protocoloPriv, this.protocoloAuth, this.passPriv, engineID));
+    }
+
+    /**
+     * Metodo que verifica se foi possivel gerar uma chave (o SNMP4J só
+     * regista por omissão os protocolos SHA-2, DES, 3DES e AES)
+     * @param chave
+     * @return
+     */
+    private byte[] disponivel(byte[] chave) {
+
+        if (chave == null) {
+            throw new IllegalArgumentException("Protocolo " + this.protocoloAuth + "/" + this.protocoloPriv
+                    + " não está disponível no SNMP4J");
+        }
+        return chave;
+    }
+
+    /**
+     * Metodo que dá uma chave que identifica estas credenciais, usada nas caches
+     * de alvos e chaves. As passwords entram só através de um SHA-256 de todos os
+     * seus bytes, para que credenciais diferentes nunca partilhem chaves localizadas
+     * @return
+     */
+    public String chave() {
+        return this.utilizador.toHexString() + "|" + this.protocoloAuth + "|" + this.protocoloPriv
+                + "|" + resumoPasswords();
+    }
+
+    /**
+     * Metodo que calcula o SHA-256 das duas passwords, cada uma precedida
+     * do seu tamanho (para "ab"+"c" e "a"+"bc" darem resumos diferentes)
+     * @return o resumo em hexadecimal
+     */
+    private String resumoPasswords() {
+
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (OctetString pass : new OctetString[] { this.passAuth, this.passPriv }) {
+                sha.update(ByteBuffer.allocate(4).putInt(pass.length()).array());
+                sha.update(pass.getValue());
+            }
+            return new OctetString(sha.digest()).toHexString();
+        } catch (NoSuchAlgorithmException e) {
+            // Todas as JVMs têm de suportar SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
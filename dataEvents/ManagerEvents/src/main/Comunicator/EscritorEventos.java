@@ -0,0 +1,236 @@
+package main.Comunicator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+
+/**
+ * Classe EscritorEventos que escreve eventos, um a um, em NDJSON ou CSV
+ * para o stdout ou para um ficheiro que vai sendo rodado quando atinge
+ * um tamanho maximo (ficheiro, ficheiro.1, ficheiro.2, ...).
+ * Cada evento é escrito assim que é recebido, sem se guardar a tabela
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class EscritorEventos implements Closeable {
+
+    /**
+     * Formatos em que os eventos podem ser escritos
+     */
+    public enum Formato { NDJSON, CSV }
+
+    /* Cabeçalho das linhas em CSV */
+    private static String CABECALHO_CSV = "agente,consulta,index,ident,msg,data,anos,meses,semanas,dias,horas,minutos,"
+            + "anosDel,mesesDel,semanasDel,diasDel,horasDel,minutosDel";
+
+    // Formato das linhas escritas
+    private Formato formato;
+    // Ficheiro de saída (null para o stdout)
+    private Path ficheiro;
+    // Tamanho a partir do qual o ficheiro é rodado (0 para nunca rodar)
+    private long maxBytes;
+    // Numero de ficheiros antigos que são mantidos
+    private int maxFicheiros;
+    // Writer atual
+    private Writer saida;
+    // Bytes escritos no ficheiro atual
+    private long escritos;
+
+    /**
+     * Construtor de EscritorEventos que escreve para o stdout
+     * @param formato
+     */
+    public EscritorEventos(Formato formato) {
+        this.formato = formato;
+        this.saida = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        this.escritos = 0;
+        this.cabecalho();
+    }
+
+    /**
+     * Construtor de EscritorEventos que escreve para um ficheiro rodado
+     * @param formato
+     * @param ficheiro
+     * @param maxBytes tamanho a partir do qual o ficheiro é rodado (0 para nunca rodar)
+     * @param maxFicheiros numero de ficheiros antigos que são mantidos
+     * @throws IOException
+     */
+    public EscritorEventos(Formato formato, String ficheiro, long maxBytes, int maxFicheiros)
+            throws IOException {
+        this.formato = formato;
+        this.ficheiro = Paths.get(ficheiro);
+        this.maxBytes = maxBytes;
+        this.maxFicheiros = maxFicheiros;
+        this.abre();
+    }
+
+    /**
+     * Metodo que abre (em modo append) o ficheiro de saída
+     * @throws IOException
+     */
+    private void abre()
+            throws IOException {
+
+        this.escritos = Files.exists(this.ficheiro) ? Files.size(this.ficheiro) : 0;
+        this.saida = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(this.ficheiro.toFile(), true), StandardCharsets.UTF_8));
+        if (this.escritos == 0) {
+            this.cabecalho();
+        }
+    }
+
+    /**
+     * Metodo que escreve o cabeçalho, no caso do CSV
+     */
+    private void cabecalho() {
+
+        if (this.formato == Formato.CSV) {
+            this.escreveLinha(CABECALHO_CSV);
+        }
+    }
+
+    /**
+     * Metodo que roda o ficheiro de saída: o ficheiro atual passa a .1,
+     * o .1 passa a .2, e assim sucessivamente, perdendo-se o mais antigo
+     * @throws IOException
+     */
+    private void roda()
+            throws IOException {
+
+        this.saida.close();
+        for (int i = this.maxFicheiros - 1; i >= 1; i--) {
+            Path antigo = Paths.get(this.ficheiro + "." + i);
+            if (Files.exists(antigo)) {
+                Files.move(antigo, Paths.get(this.ficheiro + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (this.maxFicheiros > 0) {
+            Files.move(this.ficheiro, Paths.get(this.ficheiro + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(this.ficheiro);
+        }
+        this.abre();
+    }
+
+    private void escreveLinha(String linha) {
+
+        try {
+            this.saida.write(linha);
+            this.saida.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.escritos += linha.getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+
+    /**
+     * Metodo que escreve um evento obtido de um agente numa dada consulta
+     * @param agente endereço do agente
+     * @param consulta momento da consulta
+     * @param e
+     * @throws IOException
+     */
+    public synchronized void escreve(String agente, LocalDateTime consulta, Event e)
+            throws IOException {
+
+        if (this.ficheiro != null && this.maxBytes > 0 && this.escritos >= this.maxBytes) {
+            this.roda();
+        }
+        try {
+            this.escreveLinha(this.formato == Formato.CSV ? csv(agente, consulta, e) : json(agente, consulta, e));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Metodo que envia para o destino tudo o que já foi escrito
+     * (chamado no fim de cada consulta)
+     * @throws IOException
+     */
+    public synchronized void despeja()
+            throws IOException {
+        this.saida.flush();
+    }
+
+    @Override
+    public synchronized void close()
+            throws IOException {
+
+        if (this.ficheiro != null) {
+            this.saida.close();
+        } else {
+            this.saida.flush();
+        }
+    }
+
+    private static String json(String agente, LocalDateTime consulta, Event e) {
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"agente\":").append(jsonTexto(agente))
+                .append(",\"consulta\":\"").append(consulta).append('"')
+                .append(",\"index\":").append(e.getIndex())
+                .append(",\"ident\":").append(jsonTexto(e.getIdentificacao()))
+                .append(",\"msg\":").append(jsonTexto(e.getMsg()))
+                .append(",\"data\":\"").append(e.getData()).append('"')
+                .append(",\"anos\":").append(e.getAnos())
+                .append(",\"meses\":").append(e.getMeses())
+                .append(",\"semanas\":").append(e.getSemanas())
+                .append(",\"dias\":").append(e.getDias())
+                .append(",\"horas\":").append(e.getHoras())
+                .append(",\"minutos\":").append(e.getMinutos())
+                .append(",\"anosDel\":").append(e.getAnosDel())
+                .append(",\"mesesDel\":").append(e.getMesesDel())
+                .append(",\"semanasDel\":").append(e.getSemanasDel())
+                .append(",\"diasDel\":").append(e.getDiasDel())
+                .append(",\"horasDel\":").append(e.getHorasDel())
+                .append(",\"minutosDel\":").append(e.getMinutosDel())
+                .append('}');
+        return sb.toString();
+    }
+
+    private static String jsonTexto(String s) {
+
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String csv(String agente, LocalDateTime consulta, Event e) {
+
+        return csvTexto(agente) + "," + consulta + "," + e.getIndex() + ","
+                + csvTexto(e.getIdentificacao()) + "," + csvTexto(e.getMsg()) + "," + e.getData() + ","
+                + e.getAnos() + "," + e.getMeses() + "," + e.getSemanas() + ","
+                + e.getDias() + "," + e.getHoras() + "," + e.getMinutos() + ","
+                + e.getAnosDel() + "," + e.getMesesDel() + "," + e.getSemanasDel() + ","
+                + e.getDiasDel() + "," + e.getHorasDel() + "," + e.getMinutosDel();
+    }
+
+    private static String csvTexto(String s) {
+
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
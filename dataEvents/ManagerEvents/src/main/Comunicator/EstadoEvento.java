@@ -0,0 +1,31 @@
+package main.Comunicator;
+
+import java.time.LocalDateTime;
+
+/**
+ * Enum EstadoEvento com os estados em que um evento pode estar num dado
+ * momento, com as mesmas regras usadas pelo agente para os totais
+ * (presente se for no próprio dia, passado ou futuro caso contrário).
+ * AUSENTE é usado quando o evento não existe na tabela
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public enum EstadoEvento {
+
+    AUSENTE, PASSADO, PRESENTE, FUTURO;
+
+    /**
+     * Metodo que dá o estado de um evento no momento da consulta ao agente
+     * @param e
+     * @param agora momento da consulta
+     * @return
+     */
+    public static EstadoEvento de(Event e, LocalDateTime agora) {
+
+        if (e.getData().toLocalDate().equals(agora.toLocalDate())) {
+            return PRESENTE;
+        }
+        return e.getData().isBefore(agora) ? PASSADO : FUTURO;
+    }
+}
@@ -1,6 +1,7 @@
 package main.Comunicator;
 
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 
@@ -36,6 +37,10 @@ public class Event {
     private int horasDel;
     /* Quantos minutos faltam/passaram para apagar o evento*/
     private int minutosDel;
+    /* Regra de repetição do evento de que este é uma ocorrência (vazia se não se repete) */
+    private String recorrencia = "";
+    /* Data do evento, calculada uma só vez a partir do momento da consulta */
+    private LocalDateTime data;
 
 
     /**
@@ -57,6 +62,30 @@ public class Event {
      * @param minutosDel
      */
     public Event(int index, String identificacao, String msg, int anos, int meses, int semanas, int dias, int horas, int minutos, int anosDel, int mesesDel, int semanasDel, int diasDel, int horasDel, int minutosDel) {
+        this(index, identificacao, msg, anos, meses, semanas, dias, horas, minutos, anosDel, mesesDel, semanasDel, diasDel, horasDel, minutosDel, LocalDateTime.now());
+    }
+
+    /**
+     * CONSTRUTOR parametrizado de Event que recebe o momento em que
+     * foi feita a consulta ao agente, a partir do qual se calcula a data do evento
+     * @param index
+     * @param identificacao
+     * @param msg
+     * @param anos
+     * @param meses
+     * @param semanas
+     * @param dias
+     * @param horas
+     * @param minutos
+     * @param anosDel
+     * @param mesesDel
+     * @param semanasDel
+     * @param diasDel
+     * @param horasDel
+     * @param minutosDel
+     * @param agora
+     */
+    public Event(int index, String identificacao, String msg, int anos, int meses, int semanas, int dias, int horas, int minutos, int anosDel, int mesesDel, int semanasDel, int diasDel, int horasDel, int minutosDel, LocalDateTime agora) {
         this.index = index;
         this.identificacao = identificacao;
         this.msg = msg;
@@ -72,6 +101,7 @@ public class Event {
         this.diasDel = diasDel;
         this.horasDel = horasDel;
         this.minutosDel = minutosDel;
+        this.data = calculaData(agora);
     }
 
     public int getIndex() {
@@ -94,6 +124,14 @@ public class Event {
         return msg;
     }
 
+    public String getRecorrencia() {
+        return recorrencia;
+    }
+
+    public void setRecorrencia(String recorrencia) {
+        this.recorrencia = recorrencia;
+    }
+
     public void setMsg(String msg) {
         this.msg = msg;
     }
@@ -195,21 +233,45 @@ public class Event {
     }
 
     /**
-     * Obter o ano do evento
+     * Metodo que calcula a data do evento somando ao momento da consulta
+     * o tempo que falta/passou para o evento
+     * @param agora
      * @return
      */
-    public String getAnoFormat(){
+    private LocalDateTime calculaData(LocalDateTime agora){
 
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime data = now.plus(this.anos, ChronoUnit.YEARS);
+        LocalDateTime data = agora.plus(this.anos, ChronoUnit.YEARS);
         data = data.plus(this.meses,ChronoUnit.MONTHS);
         data = data.plus(this.semanas,ChronoUnit.WEEKS);
         data = data.plus(this.dias,ChronoUnit.DAYS);
         data = data.plus(this.horas,ChronoUnit.HOURS);
         data = data.plus(this.minutos,ChronoUnit.MINUTES);
-        data = data.plus(now.getSecond(),ChronoUnit.SECONDS);
+        data = data.plus(agora.getSecond(),ChronoUnit.SECONDS);
+
+        return data;
+    }
+
+    public LocalDateTime getData() {
+        return data;
+    }
+
+    /**
+     * Obter o inicio do periodo (ano, mes, semana ou dia) do evento
+     * @param p
+     * @return
+     */
+    public LocalDate getInicio(Periodo p){
 
-        return String.valueOf(data.getYear());
+        return p.inicio(this.data);
+    }
+
+    /**
+     * Obter o ano do evento
+     * @return
+     */
+    public String getAnoFormat(){
+
+        return Periodo.ANO.formata(getInicio(Periodo.ANO));
     }
 
     /**
@@ -218,16 +280,7 @@ public class Event {
      */
     public String getMesFormat(){
 
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime data = now.plus(this.anos, ChronoUnit.YEARS);
-        data = data.plus(this.meses,ChronoUnit.MONTHS);
-        data = data.plus(this.semanas,ChronoUnit.WEEKS);
-        data = data.plus(this.dias,ChronoUnit.DAYS);
-        data = data.plus(this.horas,ChronoUnit.HOURS);
-        data = data.plus(this.minutos,ChronoUnit.MINUTES);
-        data = data.plus(now.getSecond(),ChronoUnit.SECONDS);
-
-        return data.getMonth() + "-" + data.getYear();
+        return Periodo.MES.formata(getInicio(Periodo.MES));
     }
 
     /**
@@ -236,19 +289,7 @@ public class Event {
      */
     public String getSemanaFormat(){
 
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime data = now.plus(this.anos, ChronoUnit.YEARS);
-        data = data.plus(this.meses,ChronoUnit.MONTHS);
-        data = data.plus(this.semanas,ChronoUnit.WEEKS);
-        data = data.plus(this.dias,ChronoUnit.DAYS);
-        data = data.plus(this.horas,ChronoUnit.HOURS);
-        data = data.plus(this.minutos,ChronoUnit.MINUTES);
-        data = data.plus(now.getSecond(),ChronoUnit.SECONDS);
-
-        LocalDateTime domingo = data.plusDays(-data.getDayOfWeek().getValue());
-        LocalDateTime sabado = domingo.plusDays(6);
-
-        return "de " + domingo.toLocalDate().toString() + " a " + sabado.toLocalDate().toString();
+        return Periodo.SEMANA.formata(getInicio(Periodo.SEMANA));
     }
 
     /**
@@ -257,16 +298,7 @@ public class Event {
      */
     public String getDiaFormat(){
 
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime data = now.plus(this.anos, ChronoUnit.YEARS);
-        data = data.plus(this.meses,ChronoUnit.MONTHS);
-        data = data.plus(this.semanas,ChronoUnit.WEEKS);
-        data = data.plus(this.dias,ChronoUnit.DAYS);
-        data = data.plus(this.horas,ChronoUnit.HOURS);
-        data = data.plus(this.minutos,ChronoUnit.MINUTES);
-        data = data.plus(now.getSecond(),ChronoUnit.SECONDS);
-
-        return String.valueOf(data.toLocalDate());
+        return Periodo.DIA.formata(getInicio(Periodo.DIA));
     }
 
     @Override
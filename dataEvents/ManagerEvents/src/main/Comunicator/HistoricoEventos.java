@@ -0,0 +1,373 @@
+package main.Comunicator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Classe HistoricoEventos que guarda em disco, de forma append-only, o
+ * historico das consultas ao agente: os totais (dataEventsTotal*) de cada
+ * consulta e as mudanças de estado de cada evento (novo, passou a presente,
+ * passou a passado, apagado, ...).
+ *
+ * O historico é partido por dia: cada dia tem um segmento AAAA-MM-DD.seg
+ * com um membro gzip por consulta, acrescentado no fim do ficheiro sem nunca
+ * reescrever o que lá está. As pesquisas por intervalo só abrem os segmentos
+ * dos dias pedidos e entregam os registos um a um, sem os guardar em memoria.
+ * Um membro cortado (por exemplo se a aplicação terminou a meio da escrita)
+ * faz com que só o resto desse segmento seja ignorado
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class HistoricoEventos {
+
+    /* Tipo do registo com os totais de uma consulta */
+    private static byte REGISTO_TOTAIS = 'T';
+    /* Tipo do registo com a mudança de estado de um evento */
+    private static byte REGISTO_TRANSICAO = 'E';
+    /* Extensão dos segmentos */
+    private static String EXTENSAO = ".seg";
+
+    /**
+     * Classe com os totais de eventos registados numa consulta
+     */
+    public static class Totais {
+        private LocalDateTime instante;
+        private int total;
+        private int passados;
+        private int presentes;
+        private int futuros;
+
+        public Totais(LocalDateTime instante, int total, int passados, int presentes, int futuros) {
+            this.instante = instante;
+            this.total = total;
+            this.passados = passados;
+            this.presentes = presentes;
+            this.futuros = futuros;
+        }
+
+        public LocalDateTime getInstante() { return instante; }
+        public int getTotal() { return total; }
+        public int getPassados() { return passados; }
+        public int getPresentes() { return presentes; }
+        public int getFuturos() { return futuros; }
+
+        @Override
+        public String toString() {
+            return instante + " total=" + total + " passados=" + passados
+                    + " presentes=" + presentes + " futuros=" + futuros;
+        }
+    }
+
+    /**
+     * Classe com uma mudança de estado de um evento
+     */
+    public static class Transicao {
+        private LocalDateTime instante;
+        private int index;
+        private String ident;
+        private EstadoEvento anterior;
+        private EstadoEvento novo;
+
+        public Transicao(LocalDateTime instante, int index, String ident, EstadoEvento anterior, EstadoEvento novo) {
+            this.instante = instante;
+            this.index = index;
+            this.ident = ident;
+            this.anterior = anterior;
+            this.novo = novo;
+        }
+
+        public LocalDateTime getInstante() { return instante; }
+        public int getIndex() { return index; }
+        public String getIdent() { return ident; }
+        public EstadoEvento getAnterior() { return anterior; }
+        public EstadoEvento getNovo() { return novo; }
+
+        @Override
+        public String toString() {
+            return instante + " " + index + " \"" + ident + "\" " + anterior + " -> " + novo;
+        }
+    }
+
+    // Diretoria onde estão os segmentos
+    private Path diretoria;
+    // Ultimo estado conhecido de cada evento (indice -> estado) e a sua identificacao
+    private Map<Integer,EstadoEvento> estados;
+    private Map<Integer,String> idents;
+    // Ultima tabela registada, para a mesma consulta partilhada não ser registada duas vezes
+    private Object ultimaConsulta;
+    // Indica se os estados acima já não correspondem ao agente, por se terem registado
+    // só totais entretanto (por exemplo enquanto a interface mostra a lista paginada)
+    private boolean semBase;
+
+    /**
+     * Construtor de HistoricoEventos.
+     * Como o estado dos eventos não é lido do disco, a primeira consulta
+     * registada depois de abrir o historico regista todos os eventos como
+     * vindos de AUSENTE
+     * @param diretoria
+     * @throws IOException
+     */
+    public HistoricoEventos(String diretoria)
+            throws IOException {
+        this.diretoria = Paths.get(diretoria);
+        Files.createDirectories(this.diretoria);
+        this.estados = new HashMap<>();
+        this.idents = new HashMap<>();
+        this.semBase = false;
+    }
+
+    private Path segmento(LocalDate dia) {
+        return this.diretoria.resolve(dia + EXTENSAO);
+    }
+
+    private static long millis(LocalDateTime t) {
+        return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime data(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Metodo que acrescenta um membro gzip ao segmento do dia
+     * @param instante
+     * @param escrita escreve os registos da consulta
+     * @throws IOException
+     */
+    private void acrescenta(LocalDateTime instante, EscritaRegistos escrita)
+            throws IOException {
+
+        // Escreve-se primeiro para memoria para o membro ir para o disco de uma só vez
+        ByteArrayOutputStream membro = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(membro))) {
+            escrita.escreve(out);
+        }
+        try (OutputStream seg = new FileOutputStream(this.segmento(instante.toLocalDate()).toFile(), true)) {
+            membro.writeTo(seg);
+        }
+    }
+
+    private interface EscritaRegistos {
+        void escreve(DataOutputStream out) throws IOException;
+    }
+
+    private static void escreveTotais(DataOutputStream out, long t, int[] totais)
+            throws IOException {
+
+        out.writeByte(REGISTO_TOTAIS);
+        out.writeLong(t);
+        for (int i = 0; i < 4; i++) {
+            out.writeInt(totais[i]);
+        }
+    }
+
+    /**
+     * Metodo que regista só os totais de uma consulta (quando não se
+     * obteve a tabela inteira e não se sabe que eventos mudaram).
+     * Como os eventos podem mudar sem se saber, a proxima consulta
+     * completa só volta a tomar o estado dos eventos como base, sem
+     * registar mudanças de estado em relação a um estado antigo
+     * @param instante
+     * @param totais total, passados, presentes e futuros
+     * @throws IOException
+     */
+    public synchronized void registaTotais(LocalDateTime instante, int[] totais)
+            throws IOException {
+
+        long t = millis(instante);
+        this.acrescenta(instante, out -> escreveTotais(out, t, totais));
+        this.semBase = true;
+    }
+
+    /**
+     * Metodo que regista uma consulta completa: os totais e os eventos que
+     * mudaram de estado desde a consulta anterior
+     * @param consulta tabela obtida do agente (se for a mesma da ultima vez não se regista nada)
+     * @param instante momento da consulta
+     * @param totais total, passados, presentes e futuros
+     * @param eventos eventos existentes depois da consulta
+     * @throws IOException
+     */
+    public synchronized void regista(Object consulta, LocalDateTime instante, int[] totais, Collection<Event> eventos)
+            throws IOException {
+
+        if (consulta != null && consulta == this.ultimaConsulta) {
+            return;
+        }
+        this.ultimaConsulta = consulta;
+
+        List<Transicao> transicoes = new ArrayList<>();
+        Map<Integer,EstadoEvento> novos = new HashMap<>();
+        Map<Integer,String> novosIdents = new HashMap<>();
+        for (Event e : eventos) {
+            EstadoEvento estado = EstadoEvento.de(e, instante);
+            novos.put(e.getIndex(), estado);
+            novosIdents.put(e.getIndex(), e.getIdentificacao());
+            EstadoEvento anterior = this.estados.getOrDefault(e.getIndex(), EstadoEvento.AUSENTE);
+            if (!this.semBase && anterior != estado) {
+                transicoes.add(new Transicao(instante, e.getIndex(), e.getIdentificacao(), anterior, estado));
+            }
+        }
+        for (Map.Entry<Integer,EstadoEvento> e : this.estados.entrySet()) {
+            if (!this.semBase && !novos.containsKey(e.getKey())) {
+                transicoes.add(new Transicao(instante, e.getKey(), this.idents.get(e.getKey()),
+                        e.getValue(), EstadoEvento.AUSENTE));
+            }
+        }
+
+        long t = millis(instante);
+        this.acrescenta(instante, out -> {
+            escreveTotais(out, t, totais);
+            for (Transicao tr : transicoes) {
+                out.writeByte(REGISTO_TRANSICAO);
+                out.writeLong(t);
+                out.writeInt(tr.index);
+                out.writeByte(tr.anterior.ordinal());
+                out.writeByte(tr.novo.ordinal());
+                out.writeUTF(tr.ident == null ? "" : tr.ident);
+            }
+        });
+        this.estados = novos;
+        this.idents = novosIdents;
+        this.semBase = false;
+    }
+
+    /**
+     * Metodo que dá o estado com um dado numero de ordem lido de um segmento
+     * @param ordem
+     * @param seg
+     * @return
+     * @throws IOException se o numero não corresponder a nenhum estado
+     */
+    private static EstadoEvento estado(int ordem, Path seg)
+            throws IOException {
+
+        EstadoEvento[] estados = EstadoEvento.values();
+        if (ordem < 0 || ordem >= estados.length) {
+            throw new IOException("Estado desconhecido (" + ordem + ") em " + seg);
+        }
+        return estados[ordem];
+    }
+
+    /**
+     * Metodo que dá os segmentos com registos de um intervalo, por ordem cronologica
+     * @param de
+     * @param ate
+     * @return
+     * @throws IOException
+     */
+    private List<Path> segmentos(LocalDateTime de, LocalDateTime ate)
+            throws IOException {
+
+        LocalDate primeiro = de.toLocalDate(), ultimo = ate.toLocalDate();
+        List<Path> res = new ArrayList<>();
+        try (Stream<Path> ficheiros = Files.list(this.diretoria)) {
+            ficheiros.forEach(f -> {
+                String nome = f.getFileName().toString();
+                if (!nome.endsWith(EXTENSAO)) {
+                    return;
+                }
+                try {
+                    LocalDate dia = LocalDate.parse(nome.substring(0, nome.length() - EXTENSAO.length()));
+                    if (!dia.isBefore(primeiro) && !dia.isAfter(ultimo)) {
+                        res.add(f);
+                    }
+                } catch (RuntimeException e) {
+                    // Ficheiro que não é um segmento
+                }
+            });
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * Metodo que percorre os registos de um intervalo [de, ate]
+     * @param de
+     * @param ate
+     * @param aoTotais recebe cada registo de totais (pode ser null)
+     * @param aoTransicao recebe cada mudança de estado (pode ser null)
+     * @throws IOException
+     */
+    public void percorre(LocalDateTime de, LocalDateTime ate,
+                         Consumer<Totais> aoTotais, Consumer<Transicao> aoTransicao)
+            throws IOException {
+
+        long inicio = millis(de), fim = millis(ate);
+
+        for (Path seg : this.segmentos(de, ate)) {
+            // O GZIPInputStream lê os varios membros do segmento seguidos
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new BufferedInputStream(Files.newInputStream(seg)), 8192)))) {
+                while (true) {
+                    int tipo = in.read();
+                    if (tipo < 0) {
+                        break;
+                    }
+                    long t = in.readLong();
+                    boolean dentro = t >= inicio && t <= fim;
+                    if (tipo == REGISTO_TOTAIS) {
+                        int total = in.readInt(), passados = in.readInt(), presentes = in.readInt(), futuros = in.readInt();
+                        if (dentro && aoTotais != null) {
+                            aoTotais.accept(new Totais(data(t), total, passados, presentes, futuros));
+                        }
+                    } else if (tipo == REGISTO_TRANSICAO) {
+                        int index = in.readInt();
+                        EstadoEvento anterior = estado(in.readUnsignedByte(), seg);
+                        EstadoEvento novo = estado(in.readUnsignedByte(), seg);
+                        String ident = in.readUTF();
+                        if (dentro && aoTransicao != null) {
+                            aoTransicao.accept(new Transicao(data(t), index, ident, anterior, novo));
+                        }
+                    } else {
+                        throw new IOException("Registo desconhecido em " + seg);
+                    }
+                }
+            } catch (EOFException | java.util.zip.ZipException e) {
+                System.err.println("[INFO] Segmento " + seg.getFileName() + " cortado, ignorado o resto: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Metodo que dá os totais registados num intervalo
+     * @param de
+     * @param ate
+     * @return
+     * @throws IOException
+     */
+    public List<Totais> getTotais(LocalDateTime de, LocalDateTime ate)
+            throws IOException {
+
+        List<Totais> res = new ArrayList<>();
+        this.percorre(de, ate, res::add, null);
+        return res;
+    }
+
+    /**
+     * Metodo que dá as mudanças de estado registadas num intervalo
+     * @param de
+     * @param ate
+     * @return
+     * @throws IOException
+     */
+    public List<Transicao> getTransicoes(LocalDateTime de, LocalDateTime ate)
+            throws IOException {
+
+        List<Transicao> res = new ArrayList<>();
+        this.percorre(de, ate, null, res::add);
+        return res;
+    }
+}
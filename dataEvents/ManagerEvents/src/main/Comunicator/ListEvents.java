@@ -1,16 +1,25 @@
 package main.Comunicator;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ListEvents {
 
     /* Variavel que a partir de um identificador de evento(index) nos
-     * da o objeto correspondente a um evento */
+     * da o objeto correspondente a um evento (alterada no lugar pelas
+     * notificacoes, por isso quem a percorre pode ver essas alteracoes) */
     private Map<Integer,Event> eventos;
+    /* Indices dos eventos por periodo (ano, mes, semana e dia), ordenados
+     * pela data de inicio de cada periodo */
+    private Map<Periodo,NavigableMap<LocalDate,List<Event>>> indices;
     // Classe que serve para comunicar com o agente
     private ComunicadorSNMP comSNMP;
+    // Historico onde é registada cada consulta (null se não houver)
+    private HistoricoEventos historico;
     /* Variavel que guarda o total de eventos existentes*/
     private int total_eventos;
     /* Variavel que guarda o total de eventos passados existentes*/
@@ -24,7 +33,8 @@ public class ListEvents {
      * COnstrutor de ListEvents
      */
     public ListEvents(){
-        this.eventos = new HashMap<>();
+        this.eventos = new ConcurrentHashMap<>();
+        this.indices = indexa(this.eventos);
     }
 
     // getters and setters
@@ -33,8 +43,58 @@ public class ListEvents {
         return eventos;
     }
 
+    /**
+     * Metodo que substitui todos os eventos e reconstroi os indices (usado
+     * nas consultas e reconciliacoes periodicas). Os eventos são copiados,
+     * porque as notificacoes alteram o Map desta lista no lugar
+     * @param eventos
+     */
     public synchronized void setEventos(Map<Integer, Event> eventos) {
-        this.eventos = eventos;
+        Map<Integer,Event> novos = new ConcurrentHashMap<>(eventos);
+        this.indices = indexa(novos);
+        this.eventos = novos;
+    }
+
+    /**
+     * Metodo que aplica alteracoes pontuais aos eventos (por exemplo vindas
+     * de notificacoes do agente). Só as entradas dos indices dos eventos
+     * alterados ou removidos são mexidas, em vez de se reconstruirem os indices
+     * @param alterados eventos novos ou cujos valores mudaram
+     * @param removidos indices dos eventos que deixaram de existir
+     */
+    public synchronized void atualizaEventos(Collection<Event> alterados, Collection<Integer> removidos) {
+        for(Integer index : removidos)
+            this.desindexa(this.eventos.remove(index));
+        for(Event e : alterados) {
+            this.desindexa(this.eventos.put(e.getIndex(), e));
+            for(Periodo p : Periodo.values())
+                this.indices.get(p).computeIfAbsent(e.getInicio(p), k -> new ArrayList<>()).add(e);
+        }
+    }
+
+    /**
+     * Metodo que tira um evento dos indices por periodo, apagando os
+     * periodos que ficam sem eventos
+     * @param e evento a tirar (null se não existia)
+     */
+    private void desindexa(Event e) {
+        if(e == null)
+            return;
+        for(Periodo p : Periodo.values()) {
+            NavigableMap<LocalDate,List<Event>> indice = this.indices.get(p);
+            LocalDate inicio = e.getInicio(p);
+            List<Event> lista = indice.get(inicio);
+            if(lista != null && lista.remove(e) && lista.isEmpty())
+                indice.remove(inicio);
+        }
+    }
+
+    public HistoricoEventos getHistorico() {
+        return historico;
+    }
+
+    public void setHistorico(HistoricoEventos historico) {
+        this.historico = historico;
     }
 
     public ComunicadorSNMP getComSNMP() {
@@ -84,44 +144,63 @@ public class ListEvents {
      * Lista <- [ [pid,name,path,cpu,mem],...]
      * @param tabresultados
      */
-    public void setInfoEventos(List<List<String>> tabresultados, LocalDateTime data_hora, int total, int total_past, int total_pres, int total_fut) {
+    public synchronized void setInfoEventos(List<List<String>> tabresultados, LocalDateTime data_hora, int total, int total_past, int total_pres, int total_fut) {
 
         // Constantes
         this.total_eventos = total;
         this.total_eventos_past = total_past;
         this.total_eventos_pres = total_pres;
         this.total_eventos_fut = total_fut;
-        // Eventos
+        // Eventos (constroi-se um Map novo para que os eventos que deixaram
+        // de existir no agente desaparecam também daqui)
+        Map<Integer,Event> novos = new HashMap<>();
         for(List<String> linha : tabresultados){
 
-            String ident, msg;
-            try{
-                ident = new String(octetStringToBytes(linha.get(1)),StandardCharsets.UTF_8);
-                msg = new String(octetStringToBytes(linha.get(2)),StandardCharsets.UTF_8);
-            } catch (NumberFormatException e){
-                ident = linha.get(1);
-                msg = linha.get(2);
-            }
+            Event e = criaEvento(linha, data_hora);
+            novos.put(e.getIndex(),e);
+        }
+        this.setEventos(novos);
+    }
 
-            Event e = new Event(
-                    Integer.parseInt(linha.get(0)),
-                    ident,
-                    msg,
-                    Integer.parseInt(linha.get(3)),
-                    Integer.parseInt(linha.get(4)),
-                    Integer.parseInt(linha.get(5)),
-                    Integer.parseInt(linha.get(6)),
-                    Integer.parseInt(linha.get(7)),
-                    Integer.parseInt(linha.get(8)),
-                    Integer.parseInt(linha.get(9)),
-                    Integer.parseInt(linha.get(10)),
-                    Integer.parseInt(linha.get(11)),
-                    Integer.parseInt(linha.get(12)),
-                    Integer.parseInt(linha.get(13)),
-                    Integer.parseInt(linha.get(14)));
-
-            this.eventos.put(Integer.parseInt(linha.get(0)),e);
+    /**
+     * Metodo que cria o objeto representativo de um evento a partir
+     * dos valores das colunas de uma linha da tabela da MIB
+     * @param linha
+     * @param data_hora momento em que a linha foi obtida do agente
+     * @return
+     */
+    public static Event criaEvento(List<String> linha, LocalDateTime data_hora) {
+
+        String ident, msg;
+        try{
+            ident = new String(octetStringToBytes(linha.get(1)),StandardCharsets.UTF_8);
+            msg = new String(octetStringToBytes(linha.get(2)),StandardCharsets.UTF_8);
+        } catch (NumberFormatException e){
+            ident = linha.get(1);
+            msg = linha.get(2);
         }
+        // Regra de repetição (vazia se o evento não se repete)
+        String recorrencia = linha.size() > 15 && linha.get(15) != null ? linha.get(15) : "";
+
+        Event e = new Event(
+                Integer.parseInt(linha.get(0)),
+                ident,
+                msg,
+                Integer.parseInt(linha.get(3)),
+                Integer.parseInt(linha.get(4)),
+                Integer.parseInt(linha.get(5)),
+                Integer.parseInt(linha.get(6)),
+                Integer.parseInt(linha.get(7)),
+                Integer.parseInt(linha.get(8)),
+                Integer.parseInt(linha.get(9)),
+                Integer.parseInt(linha.get(10)),
+                Integer.parseInt(linha.get(11)),
+                Integer.parseInt(linha.get(12)),
+                Integer.parseInt(linha.get(13)),
+                Integer.parseInt(linha.get(14)),
+                data_hora);
+        e.setRecorrencia(recorrencia);
+        return e;
     }
 
     /**
@@ -130,19 +209,53 @@ public class ListEvents {
      * @return
      * @throws RuntimeException
      */
-    public synchronized void gerePedidos() throws RuntimeException{
+    public void gerePedidos() throws RuntimeException{
+        this.gerePedidos(0);
+    }
+
+    /**
+     * Metodo que serve para dar inicio aos pedidos ao host, aceitando uma
+     * tabela obtida há menos de idadeMaxima milis (por este ou por outro
+     * pedido ao mesmo agente). Pedidos feitos ao mesmo tempo partilham a
+     * mesma consulta, pelo que o pedido ao agente não é feito em exclusão mútua
+     * @param idadeMaxima
+     * @throws RuntimeException
+     */
+    public void gerePedidos(long idadeMaxima) throws RuntimeException{
 
         // Envia o pedido especificado nos oids e recebe uma tabela com o
-        // resultado dos pedidos efetuados
-        List<List<String>> tabresultados = comSNMP.enviaPedido();
-        // Remover as constantes
-        int total = Integer.parseInt(tabresultados.get(0).remove(0));
-        int total_past = Integer.parseInt(tabresultados.get(0).remove(0));
-        int total_pres = Integer.parseInt(tabresultados.get(0).remove(0));
-        int total_fut = Integer.parseInt(tabresultados.get(0).remove(0));
+        // resultado dos pedidos efetuados (partilhada, não pode ser alterada)
+        List<List<String>> tabresultados = comSNMP.obtemTabela(idadeMaxima);
         LocalDateTime data_hora = LocalDateTime.now();
+        if(tabresultados.isEmpty()) {
+            this.setInfoEventos(tabresultados,data_hora,0,0,0,0);
+            return;
+        }
+        // Separar as constantes da primeira linha
+        List<String> primeira = tabresultados.get(0);
+        int total = Integer.parseInt(primeira.get(0));
+        int total_past = Integer.parseInt(primeira.get(1));
+        int total_pres = Integer.parseInt(primeira.get(2));
+        int total_fut = Integer.parseInt(primeira.get(3));
+        List<List<String>> linhas = new ArrayList<>(tabresultados);
+        if(primeira.size() > 4) {
+            linhas.set(0, primeira.subList(4, primeira.size()));
+        } else {
+            linhas.remove(0);
+        }
         // Colocar a informação nos eventos respetivos
-        this.setInfoEventos(tabresultados,data_hora,total,total_past,total_pres,total_fut);
+        this.setInfoEventos(linhas,data_hora,total,total_past,total_pres,total_fut);
+
+        // Registar no historico os totais e as mudanças de estado (uma tabela
+        // partilhada por varios pedidos só é registada uma vez)
+        if(this.historico != null) {
+            try {
+                this.historico.regista(tabresultados, data_hora,
+                        new int[] {total, total_past, total_pres, total_fut}, this.getEventos().values());
+            } catch (IOException e) {
+                System.err.println("[ERRO] Não foi possível escrever no histórico: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -184,67 +297,88 @@ public class ListEvents {
     }
 
     /**
-     * Obter os anos todos de um conjunto de eventos
+     * Metodo que constroi os indices por periodo de um conjunto de eventos.
+     * A data de cada evento já foi calculada quando este foi obtido do agente
+     * @param eventos
      * @return
      */
-    public synchronized Set<String> getAnos(){
-
-        Set<String> res = new TreeSet<>();
+    private static Map<Periodo,NavigableMap<LocalDate,List<Event>>> indexa(Map<Integer,Event> eventos){
 
-        for(Event e : this.eventos.values()){
+        Map<Periodo,NavigableMap<LocalDate,List<Event>>> res = new EnumMap<>(Periodo.class);
+        for(Periodo p : Periodo.values()){
 
-            res.add(e.getAnoFormat());
+            NavigableMap<LocalDate,List<Event>> indice = new TreeMap<>();
+            for(Event e : eventos.values()){
+                indice.computeIfAbsent(e.getInicio(p), k -> new ArrayList<>()).add(e);
+            }
+            res.put(p, indice);
         }
-
         return res;
     }
 
     /**
-     * Obter os meses todos de um conjunto de eventos
+     * Obter os periodos que têm eventos, por ordem cronologica
+     * @param p
      * @return
      */
-    public synchronized Set<String> getMeses(){
+    public synchronized Set<String> getPeriodos(Periodo p){
 
-        Set<String> res = new TreeSet<>();
+        Set<String> res = new LinkedHashSet<>();
 
-        for(Event e : this.eventos.values()){
+        for(LocalDate inicio : this.indices.get(p).keySet()){
 
-            res.add(e.getMesFormat());
+            res.add(p.formata(inicio));
         }
 
         return res;
     }
 
     /**
-     * Obter os semanas todos de um conjunto de eventos
+     * Metodo que nos da os eventos de um determinado periodo
+     * @param p
+     * @param valor texto que identifica o periodo (ver Periodo.formata)
      * @return
      */
-    public synchronized Set<String> getSemanas(){
+    public synchronized List<Event> getEventosPeriodo(Periodo p, String valor){
 
-        Set<String> res = new TreeSet<>();
+        List<Event> res = this.indices.get(p).get(p.interpreta(valor));
+        return res == null ? new ArrayList<>() : new ArrayList<>(res);
+    }
 
-        for(Event e : this.eventos.values()){
+    /**
+     * Obter os anos todos de um conjunto de eventos
+     * @return
+     */
+    public Set<String> getAnos(){
 
-            res.add(e.getSemanaFormat());
-        }
+        return this.getPeriodos(Periodo.ANO);
+    }
 
-        return res;
+    /**
+     * Obter os meses todos de um conjunto de eventos
+     * @return
+     */
+    public Set<String> getMeses(){
+
+        return this.getPeriodos(Periodo.MES);
     }
 
     /**
      * Obter os semanas todos de um conjunto de eventos
      * @return
      */
-    public synchronized Set<String> getDias(){
-
-        Set<String> res = new TreeSet<>();
+    public Set<String> getSemanas(){
 
-        for(Event e : this.eventos.values()){
+        return this.getPeriodos(Periodo.SEMANA);
+    }
 
-            res.add(e.getDiaFormat());
-        }
+    /**
+     * Obter os dias todos de um conjunto de eventos
+     * @return
+     */
+    public Set<String> getDias(){
 
-        return res;
+        return this.getPeriodos(Periodo.DIA);
     }
 
     /**
@@ -252,17 +386,9 @@ public class ListEvents {
      * @param ano
      * @return
      */
-    public synchronized List<Event> getEventosAno(String ano){
-
-        List<Event> res = new ArrayList<>();
+    public List<Event> getEventosAno(String ano){
 
-        for(Event e : this.eventos.values()){
-
-            if(e.getAnoFormat().equals(ano)){
-                res.add(e);
-            }
-        }
-        return res;
+        return this.getEventosPeriodo(Periodo.ANO, ano);
     }
 
     /**
@@ -270,17 +396,9 @@ public class ListEvents {
      * @param mes
      * @return
      */
-    public synchronized List<Event> getEventosMes(String mes){
-
-        List<Event> res = new ArrayList<>();
+    public List<Event> getEventosMes(String mes){
 
-        for(Event e : this.eventos.values()){
-
-            if(e.getMesFormat().equals(mes)){
-                res.add(e);
-            }
-        }
-        return res;
+        return this.getEventosPeriodo(Periodo.MES, mes);
     }
 
     /**
@@ -288,17 +406,9 @@ public class ListEvents {
      * @param semana
      * @return
      */
-    public synchronized List<Event> getEventosSemana(String semana){
-
-        List<Event> res = new ArrayList<>();
+    public List<Event> getEventosSemana(String semana){
 
-        for(Event e : this.eventos.values()){
-
-            if(e.getSemanaFormat().equals(semana)){
-                res.add(e);
-            }
-        }
-        return res;
+        return this.getEventosPeriodo(Periodo.SEMANA, semana);
     }
 
     /**
@@ -306,16 +416,8 @@ public class ListEvents {
      * @param dia
      * @return
      */
-    public synchronized List<Event> getEventosDia(String dia){
-
-        List<Event> res = new ArrayList<>();
+    public List<Event> getEventosDia(String dia){
 
-        for(Event e : this.eventos.values()){
-
-            if(e.getDiaFormat().equals(dia)){
-                res.add(e);
-            }
-        }
-        return res;
+        return this.getEventosPeriodo(Periodo.DIA, dia);
     }
 }
@@ -1,24 +1,36 @@
 package main.Comunicator;
 
-import org.snmp4j.CommunityTarget;
 import org.snmp4j.Snmp;
 import org.snmp4j.Target;
 import org.snmp4j.TransportMapping;
-import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.Address;
 import org.snmp4j.smi.GenericAddress;
-import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
 import org.snmp4j.transport.DefaultUdpTransportMapping;
 
 import java.io.IOException;
+import java.util.function.Consumer;
 
 public class Manager {
 
+    // Registo com a sessão SNMP, os alvos e as fabricas de PDUs
+    // partilhados por todos os managers
+    private RegistoSessoes sessao;
     // Classe core do SNMP4J! É com esta classe que é possível enviar e
-    // receber pdu's
+    // receber pdu's (partilhada através do registo)
     private Snmp snmp;
     // Lists de Eventos registados num dado momento
     private ListEvents eventos;
+    // Comunicador usado em todos os pedidos ao agente
+    private ComunicadorSNMP comunicador;
+    // Transporte e recetor das notificacoes, se este manager as estiver a receber
+    private TransportMapping<UdpAddress> transNotificacoes;
+    private RecetorNotificacoes recetor;
+    // Endereço do agente monitorizado (transporte:endereço/porta)
+    private String endereco;
+    // Community String usada nos pedidos ao agente (ou o utilizador, em SNMPv3),
+    // que é também o nome aceite nas notificacoes
+    private String community;
 
     /* Endereço do host */
     private static String ENDERECO = "127.0.0.1";
@@ -28,20 +40,83 @@ public class Manager {
     private static int PORTA = 3003;
     /* Community String associada a este host */
     private static String COMMUNITY_STRING = "public";
+    /* Endereço onde são recebidas as notificacoes do agente
+     * (pode ser alterado com -Dnotificacoes=udp:endereço/porta) */
+    public static String ENDERECO_NOTIFICACOES = System.getProperty("notificacoes", "udp:0.0.0.0/1162");
+    /* Idade maxima, em milis, de uma tabela já obtida do agente para poder ser
+     * reutilizada sem novo pedido (pode ser alterada com -DidadeMaxima=milis) */
+    public static long IDADE_MAXIMA = Long.getLong("idadeMaxima", 1000);
 
 
     /**
-     * Construtor de Manager
+     * Construtor de Manager para o agente local. Usa SNMPv3 se as
+     * credenciais estiverem definidas nas propriedades do sistema
+     * (ver CredenciaisV3.doSistema) e v2c com a community public caso contrário
      */
     public Manager()
             throws IOException {
 
+        this(TRANSPORTE + ":" + ENDERECO + "/" + PORTA, CredenciaisV3.doSistema());
+    }
+
+    /**
+     * Construtor de Manager para um dado agente em SNMPv2c
+     * @param endereco endereço do agente no formato transporte:endereço/porta
+     * @param community
+     */
+    public Manager(String endereco, String community)
+            throws IOException {
+
+        this(endereco, community, null);
+    }
+
+    /**
+     * Construtor de Manager para um dado agente em SNMPv3 (authPriv)
+     * @param endereco endereço do agente no formato transporte:endereço/porta
+     * @param credenciais credenciais do utilizador (se forem null usa-se v2c com a community public)
+     */
+    public Manager(String endereco, CredenciaisV3 credenciais)
+            throws IOException {
+
+        this(endereco, credenciais == null ? COMMUNITY_STRING : credenciais.getUtilizador().toString(), credenciais);
+    }
+
+    private Manager(String endereco, String community, CredenciaisV3 credenciais)
+            throws IOException {
+
+        this.endereco = endereco;
+        this.community = community;
         // Criar lista de eventos
         this.eventos = new ListEvents();
-        /* Usado como canal de comunicação com o host */
-        TransportMapping trans = new DefaultUdpTransportMapping();
-        this.snmp = new Snmp(trans);
-        trans.listen();
+        /* A sessão, o transporte e o alvo são reutilizados entre managers e consultas */
+        this.sessao = RegistoSessoes.obtem();
+        this.snmp = this.sessao.getSnmp();
+        try {
+            // Transporte da sessão para o tipo de endereço do agente (udp: ou tcp:)
+            this.sessao.preparaTransporte(endereco);
+            // Em v3 o engine ID e as chaves localizadas ficam guardados no registo
+            Target<?> alvo = credenciais == null
+                    ? this.sessao.getAlvo(endereco, community)
+                    : this.sessao.getAlvo(endereco, credenciais);
+            this.comunicador = new ComunicadorSNMP(this.snmp, alvo, this.sessao.getControlador());
+            this.comunicador.setConsultas(this.sessao.getConsultas());
+            if (credenciais != null) {
+                // Quando o agente reinicia muda de engine ID: o alvo guardado é
+                // esquecido e o seguinte volta a descobrir o engine ID
+                this.comunicador.setRenovaAlvo(velho -> {
+                    this.sessao.esqueceAlvo(endereco, credenciais, velho);
+                    return this.sessao.getAlvo(endereco, credenciais);
+                });
+            }
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            this.sessao.liberta();
+            throw e;
+        }
+        this.eventos.setComSNMP(this.comunicador);
+    }
+
+    public String getEndereco() {
+        return endereco;
     }
 
     public ListEvents getEventos() {
@@ -49,39 +124,82 @@ public class Manager {
     }
 
     /**
-     * Metodo usado para definir todos os parametros necessarios
-     * do alvo(host) a ser monitorizado
+     * Metodo que dá o comunicador com o agente monitorizado, para
+     * quem precisa de fazer pedidos ao agente sem passar pela ListEvents
      * @return
      */
-    private Target getTarget() {
-
-        // Endereço do host target
-        Address end_alvo = GenericAddress.parse(TRANSPORTE + ":" + ENDERECO + "/" + PORTA);
-        CommunityTarget alvo = new CommunityTarget();
-        // Neste momento so suporta versao 2
-        alvo.setCommunity(new OctetString(COMMUNITY_STRING));
-        alvo.setAddress(end_alvo);
-        // Define o número de tentativas a serem realizadas antes
-        // que o timeout de uma pedido seja atingido.
-        alvo.setRetries(2);
-        // Define o timeout para o pedido em milissegundos
-        alvo.setTimeout(2000);
-        alvo.setVersion(SnmpConstants.version2c);
-        return alvo;
+    public ComunicadorSNMP getComunicador() {
+        return this.comunicador;
     }
 
-
     /**
      * Metodo por onde se inicia a execucao do manager
      */
     public void start(){
+        this.start(IDADE_MAXIMA);
+    }
 
-        /* Objeto que contem os metodos necessarios a comunicaao com o host */
-        ComunicadorSNMP c = new ComunicadorSNMP(this.snmp,this.getTarget());
-        this.eventos.setComSNMP(c);
+    /**
+     * Metodo que atualiza a lista de eventos, aceitando uma tabela
+     * obtida do agente há menos de idadeMaxima milis
+     * @param idadeMaxima
+     */
+    public void start(long idadeMaxima){
 
         // Efetua os pedidos e obtem a lista dos processos em execucao
-        this.eventos.gerePedidos();
+        this.eventos.gerePedidos(idadeMaxima);
+    }
+
+    /**
+     * Metodo que passa a receber, na mesma sessão SNMP, as notificacoes
+     * enviadas pelo agente, aplicando-as à lista de eventos deste manager
+     * @param endereco endereço (udp:endereço/porta) onde se recebem as notificacoes
+     * @param aoAlterar chamado depois de cada notificacao aplicada (ver RecetorNotificacoes)
+     * @throws IOException
+     */
+    public void escutaNotificacoes(String endereco, Consumer<Boolean> aoAlterar)
+            throws IOException {
+
+        Address end = GenericAddress.parse(endereco);
+        if(!(end instanceof UdpAddress)) {
+            throw new IllegalArgumentException("Endereço de notificações inválido: " + endereco);
+        }
+        TransportMapping<UdpAddress> trans = new DefaultUdpTransportMapping((UdpAddress) end);
+        // A ultima tabela obtida deixa de servir quando chega uma notificacao
+        RecetorNotificacoes recetor = new RecetorNotificacoes(this.eventos, this.community, consultar -> {
+            this.comunicador.invalidaTabela();
+            aoAlterar.accept(consultar);
+        });
+        this.snmp.addTransportMapping(trans);
+        this.snmp.addCommandResponder(recetor);
+        try {
+            trans.listen();
+        } catch (IOException e) {
+            this.snmp.removeCommandResponder(recetor);
+            this.snmp.removeTransportMapping(trans);
+            throw e;
+        }
+        this.transNotificacoes = trans;
+        this.recetor = recetor;
+    }
+
+    /**
+     * Metodo que deixa de usar a sessão SNMP partilhada (que é fechada
+     * quando o ultimo manager termina) e o transporte das notificacoes
+     */
+    public void termina(){
+
+        if(this.transNotificacoes != null) {
+            this.snmp.removeCommandResponder(this.recetor);
+            this.snmp.removeTransportMapping(this.transNotificacoes);
+            try {
+                this.transNotificacoes.close();
+            } catch (IOException e){
+                System.err.println("[ERRO] Não foi possível fechar o transporte das notificações: " + e.getMessage());
+            }
+            this.transNotificacoes = null;
+        }
+        this.sessao.liberta();
     }
 
 }
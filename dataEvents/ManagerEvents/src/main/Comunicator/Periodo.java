@@ -0,0 +1,95 @@
+package main.Comunicator;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Month;
+
+/**
+ * Enum Periodo com as granularidades pelas quais os eventos podem ser
+ * filtrados na interface. Cada periodo sabe calcular a data em que começa
+ * o periodo de um evento, e converter essa data de/para o texto mostrado
+ * nos filtros
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public enum Periodo {
+
+    ANO {
+        public LocalDate inicio(LocalDateTime data) {
+            return LocalDate.of(data.getYear(), 1, 1);
+        }
+
+        public String formata(LocalDate inicio) {
+            return String.valueOf(inicio.getYear());
+        }
+
+        public LocalDate interpreta(String texto) {
+            return LocalDate.of(Integer.parseInt(texto), 1, 1);
+        }
+    },
+    MES {
+        public LocalDate inicio(LocalDateTime data) {
+            return LocalDate.of(data.getYear(), data.getMonth(), 1);
+        }
+
+        public String formata(LocalDate inicio) {
+            return inicio.getMonth() + "-" + inicio.getYear();
+        }
+
+        public LocalDate interpreta(String texto) {
+            String[] campos = texto.split("-");
+            return LocalDate.of(Integer.parseInt(campos[1]), Month.valueOf(campos[0]), 1);
+        }
+    },
+    SEMANA {
+        // A semana começa no domingo anterior ao dia do evento
+        public LocalDate inicio(LocalDateTime data) {
+            return data.toLocalDate().plusDays(-data.getDayOfWeek().getValue());
+        }
+
+        public String formata(LocalDate inicio) {
+            return "de " + inicio.toString() + " a " + inicio.plusDays(6).toString();
+        }
+
+        public LocalDate interpreta(String texto) {
+            // de <domingo> a <sabado>
+            return LocalDate.parse(texto.split(" ")[1]);
+        }
+    },
+    DIA {
+        public LocalDate inicio(LocalDateTime data) {
+            return data.toLocalDate();
+        }
+
+        public String formata(LocalDate inicio) {
+            return String.valueOf(inicio);
+        }
+
+        public LocalDate interpreta(String texto) {
+            return LocalDate.parse(texto);
+        }
+    };
+
+    /**
+     * Metodo que dá a data em que começa o periodo a que pertence uma data
+     * @param data
+     * @return
+     */
+    public abstract LocalDate inicio(LocalDateTime data);
+
+    /**
+     * Metodo que dá o texto que identifica um periodo nos filtros
+     * @param inicio
+     * @return
+     */
+    public abstract String formata(LocalDate inicio);
+
+    /**
+     * Metodo que dá a data em que começa o periodo identificado por um texto
+     * produzido pelo formata
+     * @param texto
+     * @return
+     */
+    public abstract LocalDate interpreta(String texto);
+}
@@ -0,0 +1,175 @@
+package main.Comunicator;
+
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Classe RecetorNotificacoes que recebe as notificacoes (traps e informs SNMPv2c)
+ * enviadas pelo agente quando um evento é criado, muda de estado ou é apagado,
+ * e aplica-as logo à ListEvents, sem esperar pela proxima consulta.
+ *
+ * Uma notificacao dataEventsAlterado traz as 16 colunas de cada linha alterada
+ * (dataEventsEntry.coluna.indice) e, opcionalmente, os totais; os agentes
+ * sem a coluna dataEventsRecurrence só mandam as primeiras 15. Uma notificacao
+ * dataEventsRemovido traz a coluna dataEventsIndex das linhas apagadas.
+ * Notificacoes com linhas incompletas pedem uma consulta completa ao agente
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class RecetorNotificacoes implements CommandResponder {
+
+    /* Numero de colunas de cada linha da tabela */
+    private static int COLUNAS = ComunicadorSNMP.COLUNAS;
+
+    // Lista de eventos onde são aplicadas as notificacoes
+    private ListEvents le;
+    // Community String aceite nas notificacoes
+    private OctetString community;
+    // Chamado depois de cada notificacao aplicada. Recebe true se as
+    // alteracoes não puderam ser aplicadas e é preciso consultar o agente
+    private Consumer<Boolean> aoAlterar;
+
+    /* Raizes dos OIDs reconhecidos nas notificacoes */
+    private OID raizTabela;
+    private OID oidAlterado;
+    private OID oidRemovido;
+    private OID[] oidTotais;
+
+    /**
+     * Construtor de RecetorNotificacoes
+     * @param le
+     * @param community
+     * @param aoAlterar chamado (na thread do transporte) depois de cada notificacao aplicada
+     */
+    public RecetorNotificacoes(ListEvents le, String community, Consumer<Boolean> aoAlterar) {
+        this.le = le;
+        this.community = new OctetString(community);
+        this.aoAlterar = aoAlterar;
+        this.raizTabela = new OID(ComunicadorSNMP.OID_dataEventsEntry);
+        this.oidAlterado = new OID(ComunicadorSNMP.OID_dataEventsAlterado);
+        this.oidRemovido = new OID(ComunicadorSNMP.OID_dataEventsRemovido);
+        this.oidTotais = new OID[] {
+                new OID(ComunicadorSNMP.OID_dataEventsTotal),
+                new OID(ComunicadorSNMP.OID_dataEventsTotalPast),
+                new OID(ComunicadorSNMP.OID_dataEventsTotalPres),
+                new OID(ComunicadorSNMP.OID_dataEventsTotalFut)
+        };
+    }
+
+    @Override
+    public <A extends Address> void processPdu(CommandResponderEvent<A> event) {
+
+        PDU pdu = event.getPDU();
+        if (pdu == null || (pdu.getType() != PDU.TRAP && pdu.getType() != PDU.INFORM)) {
+            return;
+        }
+        if (!this.community.equals(new OctetString(event.getSecurityName()))) {
+            System.err.println("[INFO] Notificação de " + event.getPeerAddress() + " com community inválida");
+            return;
+        }
+        event.setProcessed(true);
+        if (pdu.getType() == PDU.INFORM) {
+            this.confirma(event);
+        }
+
+        boolean consultar;
+        try {
+            consultar = this.aplica(pdu);
+        } catch (RuntimeException e) {
+            System.err.println("[ERRO] Notificação inválida de " + event.getPeerAddress() + ": " + e.getMessage());
+            consultar = true;
+        }
+        this.aoAlterar.accept(consultar);
+    }
+
+    /**
+     * Metodo que responde a um inform, para que o agente não o volte a enviar
+     * @param event
+     */
+    private <A extends Address> void confirma(CommandResponderEvent<A> event) {
+
+        PDU resposta = (PDU) event.getPDU().clone();
+        resposta.setType(PDU.RESPONSE);
+        resposta.setErrorStatus(PDU.noError);
+        resposta.setErrorIndex(0);
+        try {
+            event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(),
+                    event.getSecurityModel(), event.getSecurityName(), event.getSecurityLevel(),
+                    resposta, event.getMaxSizeResponsePDU(), event.getStateReference(), new StatusInformation());
+        } catch (MessageException e) {
+            System.err.println("[ERRO] Não foi possível confirmar o inform: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Metodo que aplica uma notificacao à lista de eventos
+     * @param pdu
+     * @return true se a notificacao não pôde ser aplicada por completo
+     */
+    private boolean aplica(PDU pdu) {
+
+        OID tipo = null;
+        // coluna -> valor, para cada indice de linha
+        Map<Integer,String[]> linhas = new TreeMap<>();
+        int[] totais = new int[] {-1, -1, -1, -1};
+
+        for (VariableBinding vb : pdu.getVariableBindings()) {
+
+            OID oid = vb.getOid();
+            if (oid.equals(SnmpConstants.snmpTrapOID)) {
+                tipo = (OID) vb.getVariable();
+            } else if (oid.size() == this.raizTabela.size() + 2 && oid.startsWith(this.raizTabela)) {
+                int coluna = oid.get(this.raizTabela.size());
+                int index = oid.last();
+                if (coluna >= 1 && coluna <= COLUNAS) {
+                    linhas.computeIfAbsent(index, k -> new String[COLUNAS])[coluna - 1] = vb.toValueString();
+                }
+            } else {
+                for (int t = 0; t < this.oidTotais.length; t++) {
+                    if (oid.startsWith(this.oidTotais[t])) {
+                        totais[t] = vb.getVariable().toInt();
+                    }
+                }
+            }
+        }
+
+        boolean incompleta = false;
+        if (this.oidRemovido.equals(tipo)) {
+            this.le.atualizaEventos(Collections.emptyList(), linhas.keySet());
+        } else if (this.oidAlterado.equals(tipo)) {
+            LocalDateTime agora = LocalDateTime.now();
+            List<Event> alterados = new ArrayList<>();
+            for (String[] linha : linhas.values()) {
+                // A ultima coluna (dataEventsRecurrence) pode não existir no agente
+                if (Arrays.asList(linha).subList(0, COLUNAS - 1).contains(null)) {
+                    incompleta = true;
+                } else {
+                    alterados.add(ListEvents.criaEvento(Arrays.asList(linha), agora));
+                }
+            }
+            this.le.atualizaEventos(alterados, Collections.emptyList());
+        } else {
+            // Notificacao desconhecida: só uma consulta diz o que mudou
+            return true;
+        }
+
+        if (totais[0] >= 0) this.le.setTotal_eventos(totais[0]);
+        if (totais[1] >= 0) this.le.setTotal_eventos_past(totais[1]);
+        if (totais[2] >= 0) this.le.setTotal_eventos_pres(totais[2]);
+        if (totais[3] >= 0) this.le.setTotal_eventos_fut(totais[3]);
+        return incompleta;
+    }
+}
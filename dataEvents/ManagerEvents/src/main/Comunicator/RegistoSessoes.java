@@ -0,0 +1,344 @@
+package main.Comunicator;
+
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.UserTarget;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TcpAddress;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.DefaultTcpTransportMapping;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.DefaultPDUFactory;
+import org.snmp4j.util.PDUFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classe RegistoSessoes que guarda os recursos SNMP partilhados por todos os
+ * managers desta aplicação: uma única sessão Snmp com um transporte (e a
+ * thread que o escuta) por cada tipo de endereço usado pelos agentes, UDP
+ * ou TCP, criado quando aparece o primeiro agente desse tipo, os alvos já construidos para cada agente, as
+ * fabricas de PDUs, o controlador do max-repetitions e as consultas à
+ * tabela de cada agente que estão a decorrer.
+ * Para os agentes SNMPv3 guarda também o engine ID descoberto de cada agente
+ * e as chaves já localizadas (no USM da sessão), para que cada consulta não
+ * tenha de repetir a descoberta nem a conversão das passwords em chaves.
+ * A sessão é aberta pelo primeiro manager e fechada quando o ultimo a liberta
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class RegistoSessoes {
+
+    /* Numero de tentativas antes de um pedido dar timeout */
+    private static int TENTATIVAS = 2;
+    /* Timeout de cada pedido em milissegundos */
+    private static int TIMEOUT = 2000;
+    /* Tamanho maximo de uma mensagem recebida, igual nos transportes UDP e TCP */
+    private static final int MAX_MENSAGEM = (1 << 16) - 1;
+
+    // Registo partilhado (null enquanto nenhum manager o estiver a usar)
+    private static RegistoSessoes instancia;
+    // Fabricas de PDUs de cada tipo, que não guardam estado e podem ser partilhadas
+    private static Map<Integer,PDUFactory> fabricas = new ConcurrentHashMap<>();
+
+    // Sessão SNMP partilhada
+    private Snmp snmp;
+    // Transporte da sessão para cada tipo de endereço (UdpAddress, TcpAddress)
+    private Map<Class<?>,TransportMapping<?>> transportes;
+    // Controlador do max-repetitions, que já guarda o estado de cada agente em separado
+    private ControladorBulkAdaptativo controlador;
+    // Alvos já construidos, indexados por endereço e community (ou credenciais v3)
+    private Map<String,Target<?>> alvos;
+    // USM desta sessão, com os utilizadores já localizados para cada agente v3
+    private USM usm;
+    // Engine ID já descoberto de cada agente v3, indexado pelo endereço
+    private Map<String,byte[]> motores;
+    // Nome de cada utilizador já localizado, indexado por engine ID e credenciais
+    private Map<String,OctetString> localizados;
+    // Consultas à tabela de cada agente, partilhadas por quem as pede ao mesmo tempo
+    private ConsultaUnica<String,List<List<String>>> consultas;
+    // Numero de managers que estão a usar o registo
+    private int utilizadores;
+
+    /**
+     * Construtor de RegistoSessoes
+     * @throws IOException
+     */
+    private RegistoSessoes()
+            throws IOException {
+
+        /* USM próprio desta sessão (em vez do partilhado por toda a JVM) */
+        this.usm = new USM(SecurityProtocols.getInstance().addDefaultProtocols(),
+                new OctetString(MPv3.createLocalEngineID()), 0);
+        MessageDispatcher despacho = new MessageDispatcherImpl();
+        despacho.addMessageProcessingModel(new MPv1());
+        despacho.addMessageProcessingModel(new MPv2c());
+        despacho.addMessageProcessingModel(new MPv3(this.usm));
+        /* Os transportes usados para comunicar com os agentes são
+           acrescentados à sessão por preparaTransporte */
+        this.snmp = new Snmp(despacho);
+        this.transportes = new ConcurrentHashMap<>();
+        this.controlador = new ControladorBulkAdaptativo(MAX_MENSAGEM);
+        this.alvos = new ConcurrentHashMap<>();
+        this.motores = new ConcurrentHashMap<>();
+        this.localizados = new ConcurrentHashMap<>();
+        this.consultas = new ConsultaUnica<>();
+        this.utilizadores = 0;
+    }
+
+    /**
+     * Metodo que dá o registo partilhado, abrindo a sessão se for o primeiro
+     * a usá-lo. Cada chamada deve ter um liberta correspondente
+     * @return
+     * @throws IOException
+     */
+    public static synchronized RegistoSessoes obtem()
+            throws IOException {
+
+        if (instancia == null) {
+            instancia = new RegistoSessoes();
+        }
+        instancia.utilizadores++;
+        return instancia;
+    }
+
+    /**
+     * Metodo que liberta o registo, fechando a sessão quando já
+     * ninguém o está a usar. As chamadas a mais (sem um obtem
+     * correspondente) são ignoradas e não voltam a fechar a sessão
+     */
+    public void liberta() {
+
+        synchronized (RegistoSessoes.class) {
+            if (this.utilizadores == 0) {
+                return;
+            }
+            if (--this.utilizadores > 0) {
+                return;
+            }
+            if (instancia == this) {
+                instancia = null;
+            }
+        }
+        try {
+            this.snmp.close();
+        } catch (IOException e) {
+            System.err.println("[ERRO] Não foi possível fechar a sessão SNMP: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Metodo que garante que a sessão tem um transporte para o tipo do
+     * endereço de um agente (TCP para tcp:, UDP para udp:), criando-o e
+     * pondo-o à escuta se ainda não existir
+     * @param endereco endereço do agente no formato transporte:endereço/porta
+     * @throws IOException se o transporte não puder ser aberto
+     * @throws IllegalArgumentException se o endereço for inválido ou de outro tipo
+     */
+    public synchronized void preparaTransporte(String endereco)
+            throws IOException {
+
+        Address end_alvo = GenericAddress.parse(endereco);
+        if (end_alvo == null) {
+            throw new IllegalArgumentException("Endereço de agente inválido: " + endereco);
+        }
+        if (this.transportes.containsKey(end_alvo.getClass())) {
+            return;
+        }
+        TransportMapping<?> trans;
+        if (end_alvo instanceof TcpAddress) {
+            trans = new DefaultTcpTransportMapping();
+        } else if (end_alvo instanceof UdpAddress) {
+            trans = new DefaultUdpTransportMapping();
+        } else {
+            throw new IllegalArgumentException("Transporte não suportado: " + endereco);
+        }
+        this.snmp.addTransportMapping(trans);
+        try {
+            trans.listen();
+        } catch (IOException e) {
+            this.snmp.removeTransportMapping(trans);
+            throw e;
+        }
+        this.transportes.put(end_alvo.getClass(), trans);
+    }
+
+    public Snmp getSnmp() {
+        return snmp;
+    }
+
+    public ControladorBulkAdaptativo getControlador() {
+        return controlador;
+    }
+
+    public ConsultaUnica<String,List<List<String>>> getConsultas() {
+        return consultas;
+    }
+
+    /**
+     * Metodo que dá o alvo de um agente, construindo-o só da primeira vez
+     * @param endereco endereço do agente no formato transporte:endereço/porta
+     * @param community
+     * @return
+     */
+    public Target<?> getAlvo(String endereco, String community) {
+
+        return this.alvos.computeIfAbsent(endereco + "|" + community, k -> criaAlvo(endereco, community));
+    }
+
+    /**
+     * Metodo usado para definir todos os parametros necessarios
+     * do alvo(host) a ser monitorizado
+     * @param endereco
+     * @param community
+     * @return
+     */
+    private static Target<?> criaAlvo(String endereco, String community) {
+
+        // Endereço do host target
+        Address end_alvo = GenericAddress.parse(endereco);
+        if (end_alvo == null) {
+            throw new IllegalArgumentException("Endereço de agente inválido: " + endereco);
+        }
+        CommunityTarget<Address> alvo = new CommunityTarget<>();
+        // Neste momento so suporta versao 2
+        alvo.setCommunity(new OctetString(community));
+        alvo.setAddress(end_alvo);
+        // Define o número de tentativas a serem realizadas antes
+        // que o timeout de uma pedido seja atingido.
+        alvo.setRetries(TENTATIVAS);
+        // Define o timeout para o pedido em milissegundos
+        alvo.setTimeout(TIMEOUT);
+        alvo.setVersion(SnmpConstants.version2c);
+        return alvo;
+    }
+
+    /**
+     * Metodo que dá o alvo SNMPv3 (authPriv) de um agente. Da primeira vez
+     * descobre o engine ID do agente e localiza as chaves do utilizador para
+     * esse engine ID; as consultas seguintes já não fazem nenhum dos dois
+     * @param endereco endereço do agente no formato transporte:endereço/porta
+     * @param credenciais
+     * @return
+     * @throws IllegalArgumentException se o endereço for inválido
+     * @throws IllegalStateException se o engine ID do agente não puder ser descoberto
+     */
+    public Target<?> getAlvo(String endereco, CredenciaisV3 credenciais) {
+
+        return this.alvos.computeIfAbsent(endereco + "|v3|" + credenciais.chave(),
+                k -> this.criaAlvo(endereco, credenciais));
+    }
+
+    /**
+     * Metodo que esquece um alvo v3 de um agente, o engine ID com que foi
+     * construido e os utilizadores localizados para esse engine ID, para serem
+     * descobertos de novo (o agente gera outro engine ID sempre que reinicia).
+     * Se entretanto outro manager já tiver construido um alvo mais recente
+     * para o mesmo agente, esse não é esquecido
+     * @param endereco
+     * @param credenciais
+     * @param alvo alvo com que os pedidos falharam
+     */
+    public void esqueceAlvo(String endereco, CredenciaisV3 credenciais, Target<?> alvo) {
+
+        this.alvos.remove(endereco + "|v3|" + credenciais.chave(), alvo);
+        if (!(alvo instanceof UserTarget)) {
+            return;
+        }
+        byte[] engineID = ((UserTarget<?>) alvo).getAuthoritativeEngineID();
+        if (engineID == null) {
+            return;
+        }
+        this.motores.computeIfPresent(endereco, (k, atual) -> Arrays.equals(atual, engineID) ? null : atual);
+        // As chaves localizadas para o engine ID antigo deixam de servir
+        String prefixo = new OctetString(engineID).toHexString() + "|";
+        this.localizados.entrySet().removeIf(e -> {
+            if (!e.getKey().startsWith(prefixo)) {
+                return false;
+            }
+            this.usm.removeAllUsers(e.getValue(), new OctetString(engineID));
+            return true;
+        });
+    }
+
+    /**
+     * Metodo que dá o engine ID de um agente, descobrindo-o só da primeira vez
+     * @param endereco
+     * @param end_alvo
+     * @return
+     */
+    private byte[] motor(String endereco, Address end_alvo) {
+
+        byte[] engineID = this.motores.get(endereco);
+        if (engineID == null) {
+            engineID = this.snmp.discoverAuthoritativeEngineID(end_alvo, TIMEOUT);
+            if (engineID == null) {
+                throw new IllegalStateException("Não foi possível descobrir o engine ID de " + endereco);
+            }
+            this.motores.put(endereco, engineID);
+        }
+        return engineID;
+    }
+
+    /**
+     * Metodo usado para definir todos os parametros necessarios
+     * do alvo(host) SNMPv3 a ser monitorizado
+     * @param endereco
+     * @param credenciais
+     * @return
+     */
+    private Target<?> criaAlvo(String endereco, CredenciaisV3 credenciais) {
+
+        // Endereço do host target
+        Address end_alvo = GenericAddress.parse(endereco);
+        if (end_alvo == null) {
+            throw new IllegalArgumentException("Endereço de agente inválido: " + endereco);
+        }
+        byte[] engineID = this.motor(endereco, end_alvo);
+
+        // As chaves só são geradas uma vez por engine ID e utilizador
+        String chave = new OctetString(engineID).toHexString() + "|" + credenciais.chave();
+        this.localizados.computeIfAbsent(chave, k -> {
+            this.usm.addLocalizedUser(engineID, credenciais.getUtilizador(),
+                    credenciais.getProtocoloAuth(), credenciais.chaveAuth(engineID),
+                    credenciais.getProtocoloPriv(), credenciais.chavePriv(engineID));
+            return credenciais.getUtilizador();
+        });
+
+        // Com o engine ID no alvo os pedidos não voltam a fazer a descoberta
+        UserTarget<Address> alvo = new UserTarget<>(end_alvo, credenciais.getUtilizador(),
+                engineID, SecurityLevel.AUTH_PRIV);
+        alvo.setRetries(TENTATIVAS);
+        alvo.setTimeout(TIMEOUT);
+        alvo.setVersion(SnmpConstants.version3);
+        return alvo;
+    }
+
+    /**
+     * Metodo que dá a fabrica partilhada de PDUs de um dado tipo
+     * @param tipo tipo de PDU (PDU.GET, PDU.GETBULK, ...)
+     * @return
+     */
+    public static PDUFactory getFabrica(int tipo) {
+
+        return fabricas.computeIfAbsent(tipo, DefaultPDUFactory::new);
+    }
+}
@@ -1,27 +1,62 @@
 package main.Controllers;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-import javafx.scene.control.ComboBox;
+import javafx.application.Platform;
 import javafx.scene.control.TableView;
 import main.Comunicator.Event;
 import main.Comunicator.ListEvents;
 import main.Comunicator.Manager;
+import main.Models.DiffEventos;
 import main.Models.EventModel;
+import main.Models.ListaPaginada;
+import main.Models.TabelaEventos;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.locks.Lock;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 public class EventsAtualizator implements Runnable{
 
+    /**
+     * Numero maximo de tabelas por colunas guardadas
+     * para serem reutilizadas
+     */
+    private static int MAX_TABELAS_LIVRES = 2;
+
     /**
      * Variável que guarda o tempo do período de
      * pesquisas realizadas ao agente em milis
      */
     private int actualization_period;
 
+    /**
+     * Variável que guarda o período das pesquisas em milis
+     * enquanto as alterações chegam por notificações, que
+     * nesse caso só servem para reconciliar a tabela
+     */
+    private int reconciliation_period;
+
+    /**
+     * Variável que guarda o instante (System.nanoTime) da ultima
+     * notificação recebida, ou null se ainda não chegou nenhuma.
+     * Só se usa o período de reconciliação depois de chegarem
+     * notificações, e volta-se ao período normal se deixarem
+     * de chegar durante um período de reconciliação
+     */
+    private volatile Long ultimaNotificacao;
+
+    /**
+     * Variável onde são colocados os pedidos para acordar
+     * a thread antes do fim do período: false quando a lista
+     * de eventos já foi alterada por uma notificação, true
+     * quando é preciso consultar o agente
+     */
+    private BlockingQueue<Boolean> acordar;
+
     /**
      * Variáveç que guarda o objeto da classe
      * manager responsável por realizar as consultas
@@ -42,78 +77,261 @@ public class EventsAtualizator implements Runnable{
     private TableView<EventModel> eventsTable;
 
     /**
-     * Variável que serve para garantir exclusão
-     * mútua aquando de alterações na tabela
+     * Variável que guarda o filtro atualmente escolhido
+     * na interface, isto é, a função que dá os eventos
+     * que devem estar a ser mostrados na tabela.
+     * Se for null estão a ser mostrados todos os eventos com
+     * a lista paginada
+     */
+    private volatile Function<ListEvents, Collection<Event>> filtro;
+
+    /**
+     * Variável que guarda a lista paginada usada na tabela
+     * quando se mostram todos os eventos
+     */
+    private ListaPaginada paginada;
+
+    /**
+     * Variável que guarda uma cópia do que está a ser mostrado
+     * na tabela, indexada pelo indice de cada evento.
+     * Só é alterada na thread do JavaFX e nunca é modificada
+     * depois de publicada, podendo ser lida por esta thread
+     */
+    private volatile Map<Integer,EventModel> mostrados;
+
+    /**
+     * Variável incrementada sempre que o filtro muda, para
+     * se saber se umas diferenças ainda se aplicam à tabela
+     */
+    private volatile int versao;
+
+    /**
+     * Variável que guarda as tabelas por colunas que já não estão
+     * a ser mostradas e podem ser preenchidas de novo, para não
+     * se alocar uma tabela (e um objeto por evento) a cada atualização
      */
-    private Lock l;
+    private Queue<TabelaEventos> livres;
+
+    /**
+     * Variável que guarda a tabela cujas linhas estão a ser
+     * mostradas na TableView (só usada na thread do JavaFX)
+     */
+    private TabelaEventos exibida;
 
     /**
      * Construtor para objetos da classe EventsAtualizator.
      * @param actualization_period
+     * @param reconciliation_period período usado enquanto chegam notificações
      * @param m
      * @param eventsTable
+     * @param paginada
      */
-    public EventsAtualizator(int actualization_period, Manager m, ListEvents le,
-                             TableView<EventModel> eventsTable, Lock l) {
+    public EventsAtualizator(int actualization_period, int reconciliation_period, Manager m, ListEvents le,
+                             TableView<EventModel> eventsTable, ListaPaginada paginada) {
         this.actualization_period = actualization_period;
+        this.reconciliation_period = reconciliation_period;
+        this.ultimaNotificacao = null;
         this.m = m;
         this.le = le;
         this.eventsTable = eventsTable;
-        this.l = l;
+        this.paginada = paginada;
+        this.filtro = null;
+        this.mostrados = Collections.emptyMap();
+        this.versao = 0;
+        this.acordar = new LinkedBlockingQueue<>();
+        this.livres = new ConcurrentLinkedQueue<>();
+        this.exibida = null;
+    }
+
+    /**
+     * Método chamado quando chega uma notificação do agente, que
+     * faz a tabela ser atualizada de imediato
+     * @param consultar true se for preciso consultar o agente por a
+     *                  notificação não trazer todas as alterações
+     */
+    public void notifica(boolean consultar){
+        this.ultimaNotificacao = System.nanoTime();
+        this.acordar.offer(consultar);
+    }
+
+    /**
+     * Método que faz a tabela ser atualizada de imediato (por exemplo
+     * quando a interface muda de vista), sem ser uma notificação
+     */
+    public void pedeAtualizacao(){
+        this.acordar.offer(true);
+    }
+
+    /**
+     * Método que dá o tempo até à próxima pesquisa ao agente: o período
+     * de reconciliação só é usado enquanto as notificações vão chegando
+     * @return
+     */
+    private long periodo(){
+
+        Long ultima = this.ultimaNotificacao;
+        if(ultima == null)
+            return this.actualization_period;
+        long restante = this.reconciliation_period - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - ultima);
+        return Math.max(this.actualization_period, restante);
+    }
+
+    /**
+     * Método que deve ser chamado (na thread do JavaFX) sempre que
+     * o conteúdo da tabela muda por causa de uma mudança de filtro
+     * @param filtro função que dá os eventos a mostrar (null para a lista paginada)
+     * @param conteudo o que passou a estar na tabela
+     */
+    public void setFiltro(Function<ListEvents, Collection<Event>> filtro, Collection<EventModel> conteudo){
+
+        this.filtro = filtro;
+        this.mostrados = indexa(conteudo);
+        this.versao++;
+        // O novo conteúdo vem de uma tabela que não é desta classe
+        this.exibida = null;
+    }
+
+    /**
+     * Método que dá uma tabela livre (ou uma nova) já preenchida
+     * com os eventos dados
+     * @param eventos
+     * @return
+     */
+    private TabelaEventos preenche(Collection<Event> eventos){
+
+        TabelaEventos t = this.livres.poll();
+        if(t == null)
+            t = new TabelaEventos(eventos.size());
+        t.preenche(eventos);
+        return t;
+    }
+
+    /**
+     * Método que devolve uma tabela que deixou de ser mostrada
+     * para poder ser reutilizada
+     * @param t
+     */
+    private void liberta(TabelaEventos t){
+
+        if(t != null && this.livres.size() < MAX_TABELAS_LIVRES)
+            this.livres.offer(t);
     }
 
     /**
-     * Método que retorna uma lista com o conteúdo da
-     * tabela para voltar a atualizar apenas o que estiver
-     * a ser mostrado
+     * Método que indexa um conjunto de modelos pelo indice do evento
+     * @param conteudo
      * @return
      */
-    public List<Integer> getTableContentIndexes(){
+    private static Map<Integer,EventModel> indexa(Collection<EventModel> conteudo){
 
-        List<Integer> context = new ArrayList<>();
-        for(EventModel em : this.eventsTable.getItems())
-            context.add(em.getIndex());
-        return context;
+        Map<Integer,EventModel> res = new HashMap<>();
+        for(EventModel em : conteudo)
+            res.put(em.getIndex(), em);
+        return Collections.unmodifiableMap(res);
+    }
+
+    /**
+     * Método que espera pelo fim do período ou por uma notificação
+     * @return true se for preciso consultar o agente
+     */
+    private boolean espera(){
+
+        Boolean consultar;
+        try{
+            consultar = this.acordar.poll(periodo(), TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e){
+            System.err.println("[INFO] Tempo de espera não foi totalmente respeitado");
+            return true;
+        }
+        if(consultar == null)
+            return true;
+        // Juntar as notificações que chegaram entretanto numa só atualização
+        Boolean outra;
+        while((outra = this.acordar.poll()) != null)
+            consultar |= outra;
+        return consultar;
     }
 
     @Override
     public void run() {
 
+        // Ultimo conteúdo enviado para a tabela e versão do filtro a que corresponde
+        Map<Integer,EventModel> base = this.mostrados;
+        int versaoBase = this.versao;
+
         while(true) {
 
             System.out.println("Esperando para atuaizar...");
-            try{
-                Thread.sleep(this.actualization_period);
-            }
-            catch (InterruptedException e){
-                System.err.println("[INFO] Tempo de espera não foi totalmente respeitado");
-            }
+            boolean consultar = espera();
 
-            m.start();
-
-            // Buscar a lista de eventos resultante
-            this.le.setEventos(m.getEventos().getEventos());
-
-            /* Garantimos exclusão mútua no acesso à tabela */
-            this.l.lock();
+            Function<ListEvents, Collection<Event>> f = this.filtro;
+            if(f == null) {
+                // Só as paginas que estão a ser mostradas voltam a ser pedidas
+                try {
+                    int[] totais = this.paginada.atualiza();
+                    System.out.println("> Atualizei total de eventos");
+                    // Sem a tabela inteira só se podem registar os totais
+                    if(this.le.getHistorico() != null)
+                        this.le.getHistorico().registaTotais(LocalDateTime.now(), totais);
+                } catch (RuntimeException | IOException e) {
+                    System.err.println("[ERRO] " + e.getMessage());
+                }
+                continue;
+            }
 
-            List<Integer> context = this.getTableContentIndexes();
-            eventsTable.getItems().clear();
+            if(consultar) {
+                m.start();
+                // Buscar a lista de eventos resultante
+                this.le.setEventos(m.getEventos().getEventos());
+            }
 
-            List<EventModel> atual = new ArrayList<>();
-            for (Event e : this.le.getEventos().values()) {
+            /* Calculamos as diferenças fora da thread do JavaFX, em relação ao que
+             * foi enviado para a tabela da ultima vez (ou ao que o filtro lá pôs) */
+            int v = this.versao;
+            Map<Integer,EventModel> anterior = v == versaoBase ? base : this.mostrados;
+            TabelaEventos tabela = preenche(f.apply(this.le));
+            List<EventModel> atual = new ArrayList<>(tabela.getLinhas());
+            for (int i = 0; i < tabela.getLinhas(); i++) {
+                atual.add(new EventModel(tabela, i));
+            }
+            Map<Integer,EventModel> novos = indexa(atual);
+            DiffEventos diff = DiffEventos.calcula(anterior, novos);
+            base = novos;
+            versaoBase = v;
 
-                if(context.contains(e.getIndex())) {
-                    EventModel em = new EventModel(e.getIndex(), e.getIdentificacao(), e.getMsg(), e.getAnos(), e.getMeses(), e.getSemanas(), e.getDias(), e.getHoras(), e.getMinutos());
-                    atual.add(em);
-                    System.out.println("Atualizei evento: " + em.toString());
-                }
+            if(diff.isVazio()) {
+                System.out.println("> Sem alterações");
+                // Continua-se a comparar com o mesmo conteúdo e a nova tabela fica livre
+                base = anterior;
+                liberta(tabela);
+                continue;
             }
-            eventsTable.getItems().addAll(atual);
-            System.out.println("> Atualizei dados");
 
-            /* Cedemos o respetivo lock */
-            this.l.unlock();
+            /* Aplicamos todas as diferenças de uma só vez na thread do JavaFX */
+            Platform.runLater(() -> {
+                // Se o filtro mudou entretanto, estas diferenças já não se aplicam
+                // ao que está na tabela e a próxima atualização trata disso
+                if(this.versao != v) {
+                    liberta(tabela);
+                    return;
+                }
+                diff.aplica(this.eventsTable.getItems());
+                /* As linhas que não mudaram continuam a ser vistas sobre a tabela
+                 * anterior: passam a apontar para a nova, que tem os mesmos valores,
+                 * e só então a anterior pode ser reutilizada */
+                for(EventModel em : this.eventsTable.getItems()) {
+                    EventModel novo = novos.get(em.getIndex());
+                    if(novo != null && novo != em)
+                        em.aponta(novo.getTabela(), novo.getLinha());
+                }
+                liberta(this.exibida);
+                this.exibida = tabela;
+                this.mostrados = novos;
+                System.out.println("> Atualizei dados (" + diff.getInseridos().size() + " novos, "
+                        + diff.getAtualizados().size() + " alterados, "
+                        + diff.getRemovidos().size() + " removidos)");
+            });
         }
     }
 }
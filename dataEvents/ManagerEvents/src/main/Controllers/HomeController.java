@@ -3,9 +3,12 @@ package main.Controllers;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import main.Comunicator.Event;
+import main.Comunicator.HistoricoEventos;
 import main.Comunicator.ListEvents;
 import main.Comunicator.Manager;
 import main.Models.EventModel;
+import main.Models.ListaPaginada;
+import main.Models.TabelaEventos;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
@@ -15,11 +18,12 @@ import javafx.scene.control.cell.PropertyValueFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 public class HomeController {
 
@@ -29,6 +33,20 @@ public class HomeController {
      */
     private static final int ATUALIZATION_PERIOD = 30000;
 
+    /**
+     * Variável que guarda o período de reconciliação
+     * com o agente enquanto as alterações chegam por
+     * notificações (até chegar a primeira, ou se deixarem
+     * de chegar, usa-se o período de atualização)
+     */
+    private static final int RECONCILIATION_PERIOD = 300000;
+
+    /**
+     * Variável que guarda a diretoria do histórico das
+     * consultas (pode ser alterada com -Dhistorico=diretoria)
+     */
+    private static final String DIRETORIA_HISTORICO = System.getProperty("historico", "historico");
+
     public Button sairButton;
     public TableView<EventModel> eventsTable;
     public ComboBox<String> criterioButton;
@@ -37,11 +55,21 @@ public class HomeController {
     // Lista de Eventos
     private ListEvents le;
 
+    // Manager usado para obter os eventos quando se filtra a tabela
+    private Manager m;
+
+    // Lista usada na tabela quando se mostram todos os eventos, que só
+    // vai buscando ao agente as paginas que estão a ser mostradas
+    private ListaPaginada paginada;
+
+    // Indica se a lista de eventos já foi obtida por completo do agente
+    private boolean carregada;
+
     /**
-     * Variável usada para garantir exclusão
-     * mútua no acesso à tabela
+     * Variável que guarda a thread responsável por
+     * atualizar periodicamente a tabela
      */
-    private Lock tableLock;
+    private EventsAtualizator atualizator;
 
 
     public void initialize() throws IOException {
@@ -51,26 +79,94 @@ public class HomeController {
         ObservableList<String> listaitems = FXCollections.observableArrayList(crit);
         criterioButton.setItems(listaitems);
         criterioButton.setValue("Todos");
-        this.tableLock = new ReentrantLock(true);
-
-        Manager m = new Manager();
-        m.start();
 
+        this.m = new Manager();
         this.le = m.getEventos();
+        this.carregada = false;
+        this.paginada = new ListaPaginada(m.getComunicador());
 
         // Criar a tabela
         criarTable();
 
-        for (Event e : this.le.getEventos().values()) {
-            EventModel em = new EventModel(e.getIndex(), e.getIdentificacao(), e.getMsg(), e.getAnos(), e.getMeses(), e.getSemanas(), e.getDias(), e.getHoras(), e.getMinutos());
-            eventsTable.getItems().add(em);
+        // Receber as notificações do agente; se não for possível
+        // a tabela continua a ser atualizada só por consultas
+        boolean notificacoes;
+        try {
+            this.m.escutaNotificacoes(Manager.ENDERECO_NOTIFICACOES, consultar -> {
+                if (this.atualizator != null)
+                    this.atualizator.notifica(consultar);
+            });
+            notificacoes = true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[INFO] Não foi possível receber notificações em "
+                    + Manager.ENDERECO_NOTIFICACOES + ": " + e.getMessage());
+            notificacoes = false;
+        }
+
+        // Histórico das consultas, partilhado pelos dois managers
+        try {
+            this.le.setHistorico(new HistoricoEventos(DIRETORIA_HISTORICO));
+        } catch (IOException e) {
+            System.err.println("[INFO] Histórico desativado: " + e.getMessage());
         }
+        Manager ma = new Manager();
+        ma.getEventos().setHistorico(this.le.getHistorico());
 
-        Thread actualizator = new Thread(new EventsAtualizator(ATUALIZATION_PERIOD,
-                new Manager(),le,eventsTable,tableLock));
+        this.atualizator = new EventsAtualizator(ATUALIZATION_PERIOD,
+                notificacoes ? RECONCILIATION_PERIOD : ATUALIZATION_PERIOD,
+                ma,le,eventsTable,this.paginada);
+        this.mostraTodos();
+
+        Thread actualizator = new Thread(this.atualizator);
         actualizator.start();
     }
 
+    /**
+     * Mostra na tabela todos os eventos com a lista paginada, que só
+     * pede ao agente as linhas que a tabela está a mostrar
+     */
+    private void mostraTodos() {
+
+        eventsTable.setItems(this.paginada);
+        this.atualizator.setFiltro(null, Collections.emptyList());
+        // A lista de eventos deixa de ser atualizada enquanto se mostram todos
+        this.carregada = false;
+        // O pedido ao agente é feito na thread de atualização e não nesta
+        this.atualizator.pedeAtualizacao();
+    }
+
+    /**
+     * Metodo que obtém do agente a lista completa de eventos, caso ainda
+     * não tenha sido obtida, para se poderem aplicar os filtros
+     */
+    private void carregaEventos() {
+
+        if(!this.carregada) {
+            this.m.start();
+            this.carregada = true;
+        }
+    }
+
+    /**
+     * Mostra na tabela os eventos dados por um filtro e passa esse
+     * filtro à thread que atualiza a tabela periodicamente
+     * @param filtro
+     */
+    private void mostraEventos(Function<ListEvents, Collection<Event>> filtro) {
+
+        Collection<Event> eventos = filtro.apply(this.le);
+        TabelaEventos tabela = new TabelaEventos(eventos.size());
+        List<EventModel> atual = new ArrayList<>(eventos.size());
+        for (Event e : eventos) {
+            atual.add(new EventModel(tabela, tabela.adiciona(e)));
+        }
+        if(eventsTable.getItems() == this.paginada) {
+            eventsTable.setItems(FXCollections.observableArrayList());
+        }
+        eventsTable.getItems().setAll(atual);
+        this.atualizator.setFiltro(filtro, atual);
+    }
+
     private void criarTable() {
         // Indice do evento
         TableColumn<EventModel,Integer> tcIndex = new TableColumn<>("Index");
@@ -119,9 +215,14 @@ public class HomeController {
         tcMinutos.setEditable(false);
         tcMinutos.setReorderable(false);
         tcMinutos.setCellValueFactory(new PropertyValueFactory<>("minutos"));
+        // Regra de repetição
+        TableColumn<EventModel,String> tcRecorrencia = new TableColumn<>("Repetição");
+        tcRecorrencia.setEditable(false);
+        tcRecorrencia.setReorderable(false);
+        tcRecorrencia.setCellValueFactory(new PropertyValueFactory<>("recorrencia"));
         eventsTable.getColumns().clear();
         eventsTable.getItems().clear();
-        eventsTable.getColumns().addAll(tcIndex, tcIdent, tcMsg, tcAnos, tcMeses,tcSemanas, tcDias, tcHoras, tcMinutos);
+        eventsTable.getColumns().addAll(tcIndex, tcIdent, tcMsg, tcAnos, tcMeses,tcSemanas, tcDias, tcHoras, tcMinutos, tcRecorrencia);
     }
 
     @FXML
@@ -133,18 +234,15 @@ public class HomeController {
 
                 case "Todos": {
 
-                    eventsTable.getItems().clear();
                     valoresButton.getItems().clear();
                     valoresButton.setDisable(true);
-                    for (Event e : this.le.getEventos().values()) {
-                        EventModel em = new EventModel(e.getIndex(), e.getIdentificacao(), e.getMsg(), e.getAnos(), e.getMeses(), e.getSemanas(), e.getDias(), e.getHoras(), e.getMinutos());
-                        eventsTable.getItems().add(em);
-                    }
+                    this.mostraTodos();
                     break;
                 }
                 case "Ano": {
 
                     valoresButton.setDisable(false);
+                    this.carregaEventos();
                     Set<String> crit = this.le.getAnos();
                     ObservableList<String> listaitems = FXCollections.observableArrayList(crit);
                     valoresButton.setItems(listaitems);
@@ -152,6 +250,7 @@ public class HomeController {
                 }
                 case "Mês": {
                     valoresButton.setDisable(false);
+                    this.carregaEventos();
                     Set<String> crit = this.le.getMeses();
                     ObservableList<String> listaitems = FXCollections.observableArrayList(crit);
                     valoresButton.setItems(listaitems);
@@ -159,6 +258,7 @@ public class HomeController {
                 }
                 case "Semana": {
                     valoresButton.setDisable(false);
+                    this.carregaEventos();
                     Set<String> crit = this.le.getSemanas();
                     ObservableList<String> listaitems = FXCollections.observableArrayList(crit);
                     valoresButton.setItems(listaitems);
@@ -166,6 +266,7 @@ public class HomeController {
                 }
                 case "Dia": {
                     valoresButton.setDisable(false);
+                    this.carregaEventos();
                     Set<String> crit = this.le.getDias();
                     ObservableList<String> listaitems = FXCollections.observableArrayList(crit);
                     valoresButton.setItems(listaitems);
@@ -188,44 +289,34 @@ public class HomeController {
 
         if(valoresButton.getValue() != null && criterioButton.getValue() != null) {
 
-            List<Event> eventos;
+            String valor = valoresButton.getValue().toString();
+            Function<ListEvents, Collection<Event>> filtro;
 
             // Verificar quais os criterios
             switch (criterioButton.getValue().toString()) {
 
                 case "Ano": {
-                    eventos = this.le.getEventosAno(valoresButton.getValue().toString());
+                    filtro = l -> l.getEventosAno(valor);
                     break;
                 }
                 case "Mês": {
-                    eventos = this.le.getEventosMes(valoresButton.getValue().toString());
+                    filtro = l -> l.getEventosMes(valor);
                     break;
                 }
                 case "Semana": {
-                    eventos = this.le.getEventosSemana(valoresButton.getValue().toString());
+                    filtro = l -> l.getEventosSemana(valor);
                     break;
                 }
                 case "Dia": {
-                    eventos = this.le.getEventosDia(valoresButton.getValue().toString());
+                    filtro = l -> l.getEventosDia(valor);
                     break;
                 }
                 default: {
-                    eventos = (List<Event>) this.le.getEventos().values();
+                    filtro = l -> l.getEventos().values();
                     break;
                 }
             }
-            /* Obtemos o lock para a tabela */
-            this.tableLock.lock();
-            eventsTable.getItems().clear();
-            List<EventModel> atual = new ArrayList<>();
-            // Adicionar os eventos
-            for (Event e : eventos) {
-                EventModel em = new EventModel(e.getIndex(), e.getIdentificacao(), e.getMsg(), e.getAnos(), e.getMeses(), e.getSemanas(), e.getDias(), e.getHoras(), e.getMinutos());
-                atual.add(em);
-            }
-            eventsTable.getItems().addAll(atual);
-            /* Cedemos o respetivo lock */
-            this.tableLock.unlock();
+            this.mostraEventos(filtro);
         }
     }
 
@@ -0,0 +1,192 @@
+package main;
+
+import main.Comunicator.ComunicadorSNMP;
+import main.Comunicator.CredenciaisV3;
+import main.Comunicator.EscritorEventos;
+import main.Comunicator.ListEvents;
+import main.Comunicator.Manager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classe ManagerEventsHeadless que corre o manager sem interface gráfica.
+ * Consulta periodicamente um ou mais agentes e escreve os eventos obtidos,
+ * à medida que vão chegando, em NDJSON ou CSV para o stdout ou para um
+ * ficheiro rodado.
+ *
+ * Utilização:
+ *   ManagerEventsHeadless [--agente udp:127.0.0.1/3003]... [--community public]
+ *                         [--formato ndjson|csv] [--saida ficheiro]
+ *                         [--max-bytes N] [--max-ficheiros N]
+ *                         [--periodo ms] [--pagina N] [--uma-vez]
+ *
+ * Para usar SNMPv3 (authPriv) em vez da community definem-se as credenciais
+ * com -Dv3.utilizador=... -Dv3.passAuth=... -Dv3.passPriv=... (ver CredenciaisV3),
+ * e nesse caso não se pode indicar --community
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class ManagerEventsHeadless {
+
+    /* Agente consultado quando não é indicado nenhum */
+    private static String AGENTE_DEFAULT = "udp:127.0.0.1/3003";
+    /* Periodo entre consultas por omissão, em milis */
+    private static int PERIODO_DEFAULT = 30000;
+    /* Linhas pedidas em cada GETBULK por omissão */
+    private static int PAGINA_DEFAULT = 100;
+    /* Tamanho por omissão a partir do qual o ficheiro de saída é rodado */
+    private static long MAX_BYTES_DEFAULT = 64L * 1024 * 1024;
+    /* Numero de ficheiros antigos mantidos por omissão */
+    private static int MAX_FICHEIROS_DEFAULT = 5;
+
+    /**
+     * Metodo que faz uma consulta a um agente, escrevendo cada evento
+     * assim que a sua linha da tabela é recebida
+     * @param m
+     * @param com
+     * @param escritor
+     * @param pagina
+     * @throws IOException
+     */
+    private static void consulta(Manager m, ComunicadorSNMP com, EscritorEventos escritor, int pagina)
+            throws IOException {
+
+        LocalDateTime agora = LocalDateTime.now();
+        try {
+            com.percorreTabela(pagina, linha -> {
+                try {
+                    escritor.escreve(m.getEndereco(), agora, ListEvents.criaEvento(linha, agora));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        escritor.despeja();
+    }
+
+    /**
+     * Metodo que consulta um agente de forma periodica até o programa terminar
+     * @param m
+     * @param escritor
+     * @param periodo
+     * @param pagina
+     * @param umaVez
+     */
+    private static void consultaPeriodica(Manager m, EscritorEventos escritor, int periodo, int pagina, boolean umaVez) {
+
+        ComunicadorSNMP com = m.getComunicador();
+        while (true) {
+
+            long inicio = System.currentTimeMillis();
+            try {
+                consulta(m, com, escritor, pagina);
+            } catch (IOException e) {
+                System.err.println("[ERRO] Não foi possível escrever os eventos: " + e.getMessage());
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("[ERRO] " + m.getEndereco() + ": " + e.getMessage());
+            }
+            if (umaVez) {
+                return;
+            }
+            long espera = periodo - (System.currentTimeMillis() - inicio);
+            if (espera > 0) {
+                try {
+                    Thread.sleep(espera);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void utilizacao() {
+
+        System.err.println("Utilização: ManagerEventsHeadless [--agente udp:127.0.0.1/3003]... [--community public]\n"
+                + "                            [--formato ndjson|csv] [--saida ficheiro]\n"
+                + "                            [--max-bytes N] [--max-ficheiros N]\n"
+                + "                            [--periodo ms] [--pagina N] [--uma-vez]");
+        System.exit(2);
+    }
+
+    /**
+     * Metodo principal do manager sem interface gráfica
+     * @param args
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        List<String> agentes = new ArrayList<>();
+        String community = null;
+        EscritorEventos.Formato formato = EscritorEventos.Formato.NDJSON;
+        String saida = null;
+        long maxBytes = MAX_BYTES_DEFAULT;
+        int maxFicheiros = MAX_FICHEIROS_DEFAULT;
+        int periodo = PERIODO_DEFAULT;
+        int pagina = PAGINA_DEFAULT;
+        boolean umaVez = false;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--agente": agentes.add(args[++i]); break;
+                    case "--community": community = args[++i]; break;
+                    case "--formato": formato = EscritorEventos.Formato.valueOf(args[++i].toUpperCase()); break;
+                    case "--saida": saida = args[++i]; break;
+                    case "--max-bytes": maxBytes = Long.parseLong(args[++i]); break;
+                    case "--max-ficheiros": maxFicheiros = Integer.parseInt(args[++i]); break;
+                    case "--periodo": periodo = Integer.parseInt(args[++i]); break;
+                    case "--pagina": pagina = Integer.parseInt(args[++i]); break;
+                    case "--uma-vez": umaVez = true; break;
+                    default: utilizacao();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            utilizacao();
+        }
+        if (agentes.isEmpty()) {
+            agentes.add(AGENTE_DEFAULT);
+        }
+
+        EscritorEventos escritor = saida == null
+                ? new EscritorEventos(formato)
+                : new EscritorEventos(formato, saida, maxBytes, maxFicheiros);
+
+        CredenciaisV3 credenciais = CredenciaisV3.doSistema();
+        if (credenciais != null && community != null) {
+            System.err.println("[ERRO] --community não pode ser usada com as credenciais SNMPv3 (-Dv3.utilizador)");
+            System.exit(2);
+        }
+        if (community == null) {
+            community = "public";
+        }
+
+        // Uma thread por agente, todas a escrever para o mesmo destino
+        List<Thread> threads = new ArrayList<>();
+        List<Manager> managers = new ArrayList<>();
+        for (String agente : agentes) {
+            Manager m = credenciais == null
+                    ? new Manager(agente, community)
+                    : new Manager(agente, credenciais);
+            managers.add(m);
+            final int p = periodo, pg = pagina;
+            final boolean u = umaVez;
+            Thread t = new Thread(() -> consultaPeriodica(m, escritor, p, pg, u), "Consulta " + agente);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (Manager m : managers) {
+            m.termina();
+        }
+        escritor.close();
+    }
+}
@@ -0,0 +1,104 @@
+package main.Models;
+
+import javafx.collections.ObservableList;
+
+import java.util.*;
+
+/**
+ * Classe DiffEventos que guarda as diferenças entre duas versões da tabela
+ * de eventos, identificadas pelo indice de cada evento.
+ * As diferenças são calculadas fora da thread do JavaFX e depois aplicadas
+ * de uma só vez à lista de itens da TableView
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class DiffEventos {
+
+    /* Eventos que passaram a existir na tabela */
+    private List<EventModel> inseridos;
+    /* Eventos que já existiam mas cujos valores mudaram */
+    private Map<Integer,EventModel> atualizados;
+    /* Indices dos eventos que deixaram de existir na tabela */
+    private Set<Integer> removidos;
+
+    private DiffEventos() {
+        this.inseridos = new ArrayList<>();
+        this.atualizados = new HashMap<>();
+        this.removidos = new HashSet<>();
+    }
+
+    public List<EventModel> getInseridos() {
+        return inseridos;
+    }
+
+    public Map<Integer, EventModel> getAtualizados() {
+        return atualizados;
+    }
+
+    public Set<Integer> getRemovidos() {
+        return removidos;
+    }
+
+    /**
+     * Metodo que diz se nao existe nenhuma diferença a aplicar
+     * @return
+     */
+    public boolean isVazio() {
+        return inseridos.isEmpty() && atualizados.isEmpty() && removidos.isEmpty();
+    }
+
+    /**
+     * Metodo que calcula as diferenças entre o que está a ser mostrado e
+     * o que deve passar a ser mostrado. Pode (e deve) ser chamado fora da
+     * thread do JavaFX
+     * @param anterior eventos mostrados neste momento, indexados pelo indice
+     * @param atual eventos que devem passar a ser mostrados, indexados pelo indice
+     * @return
+     */
+    public static DiffEventos calcula(Map<Integer,EventModel> anterior, Map<Integer,EventModel> atual) {
+
+        DiffEventos diff = new DiffEventos();
+
+        for (Integer index : anterior.keySet()) {
+            if (!atual.containsKey(index)) {
+                diff.removidos.add(index);
+            }
+        }
+        for (EventModel em : atual.values()) {
+            EventModel antigo = anterior.get(em.getIndex());
+            if (antigo == null) {
+                diff.inseridos.add(em);
+            } else if (!antigo.mesmoConteudo(em)) {
+                diff.atualizados.put(em.getIndex(), em);
+            }
+        }
+        diff.inseridos.sort(Comparator.comparing(EventModel::getIndex));
+
+        return diff;
+    }
+
+    /**
+     * Metodo que aplica as diferenças aos itens de uma TableView.
+     * Só deve ser chamado na thread do JavaFX (Platform.runLater)
+     * @param items
+     */
+    public void aplica(ObservableList<EventModel> items) {
+
+        if (!this.removidos.isEmpty()) {
+            items.removeIf(em -> this.removidos.contains(em.getIndex()));
+        }
+        if (!this.atualizados.isEmpty()) {
+            // Só as linhas que mudaram são substituidas
+            for (int i = 0; i < items.size(); i++) {
+                EventModel novo = this.atualizados.get(items.get(i).getIndex());
+                if (novo != null) {
+                    items.set(i, novo);
+                }
+            }
+        }
+        if (!this.inseridos.isEmpty()) {
+            items.addAll(this.inseridos);
+        }
+    }
+}
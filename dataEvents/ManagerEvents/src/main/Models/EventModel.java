@@ -2,101 +2,101 @@ package main.Models;
 
 import java.util.Objects;
 
+/**
+ * Classe EventModel que representa uma linha da TableView.
+ * Não guarda os valores do evento: é só uma vista sobre uma linha de uma
+ * TabelaEventos, lida sempre que a tabela desenha a linha.
+ * Uma vista sem tabela é a linha vazia ("...") mostrada enquanto os
+ * valores ainda não chegaram do agente
+ */
 public class EventModel {
 
-    private Integer index;
-    private String ident;
-    private String msg;
-    private Integer anos;
-    private Integer meses;
-    private Integer semanas;
-    private Integer dias;
-    private Integer horas;
-    private Integer minutos;
-
-
-    public EventModel(Integer index, String ident, String msg, Integer anos, Integer meses, Integer semanas, Integer dias, Integer horas, Integer minutos) {
-        this.index = index;
-        this.ident = ident;
-        this.msg = msg;
-        this.anos = anos;
-        this.meses = meses;
-        this.semanas = semanas;
-        this.dias = dias;
-        this.horas = horas;
-        this.minutos = minutos;
-    }
+    // Tabela onde estão os valores (null para a linha vazia)
+    private TabelaEventos tabela;
+    // Linha da tabela com os valores deste evento
+    private int linha;
 
-    public Integer getIndex() {
-        return index;
+    public EventModel(TabelaEventos tabela, int linha) {
+        this.tabela = tabela;
+        this.linha = linha;
     }
 
-    public void setIndex(Integer index) {
-        this.index = index;
+    /**
+     * Metodo que passa a vista para outra linha (com os mesmos valores)
+     * de outra tabela, para a tabela antiga poder ser reutilizada.
+     * Só deve ser chamado na thread do JavaFX
+     * @param tabela
+     * @param linha
+     */
+    public void aponta(TabelaEventos tabela, int linha) {
+        this.tabela = tabela;
+        this.linha = linha;
     }
 
-    public String getIdent() {
-        return ident;
+    public TabelaEventos getTabela() {
+        return tabela;
     }
 
-    public void setIdent(String ident) {
-        this.ident = ident;
+    public int getLinha() {
+        return linha;
     }
 
-    public String getMsg() {
-        return msg;
+    private Integer tempo(int coluna) {
+        return tabela == null ? null : tabela.getTempo(coluna, linha);
     }
 
-    public void setMsg(String msg) {
-        this.msg = msg;
+    public Integer getIndex() {
+        return tabela == null ? null : tabela.getIndex(linha);
     }
 
-    public Integer getAnos() {
-        return anos;
+    public String getIdent() {
+        return tabela == null ? "..." : tabela.getIdent(linha);
     }
 
-    public void setAnos(Integer anos) {
-        this.anos = anos;
+    public String getMsg() {
+        return tabela == null ? "" : tabela.getMsg(linha);
     }
 
-    public Integer getMeses() {
-        return meses;
+    public String getRecorrencia() {
+        return tabela == null ? "" : tabela.getRecorrencia(linha);
     }
 
-    public void setMeses(Integer meses) {
-        this.meses = meses;
+    public Integer getAnos() {
+        return tempo(TabelaEventos.ANOS);
     }
 
-    public Integer getSemanas() {
-        return semanas;
+    public Integer getMeses() {
+        return tempo(TabelaEventos.MESES);
     }
 
-    public void setSemanas(Integer semanas) {
-        this.semanas = semanas;
+    public Integer getSemanas() {
+        return tempo(TabelaEventos.SEMANAS);
     }
 
     public Integer getDias() {
-        return dias;
-    }
-
-    public void setDias(Integer dias) {
-        this.dias = dias;
+        return tempo(TabelaEventos.DIAS);
     }
 
     public Integer getHoras() {
-        return horas;
-    }
-
-    public void setHoras(Integer horas) {
-        this.horas = horas;
+        return tempo(TabelaEventos.HORAS);
     }
 
     public Integer getMinutos() {
-        return minutos;
+        return tempo(TabelaEventos.MINUTOS);
     }
 
-    public void setMinutos(Integer minutos) {
-        this.minutos = minutos;
+    /**
+     * Metodo que diz se este modelo mostra exatamente os mesmos valores
+     * que outro (o equals só compara o indice)
+     * @param o
+     * @return
+     */
+    public boolean mesmoConteudo(EventModel o) {
+
+        if (tabela == null || o.tabela == null) {
+            return tabela == o.tabela;
+        }
+        return tabela.mesmaLinha(linha, o.tabela, o.linha);
     }
 
     @Override
@@ -107,27 +107,28 @@ public class EventModel {
         if (o == null || getClass() != o.getClass())
             return false;
         EventModel that = (EventModel) o;
-        return index.equals(that.index);
+        return Objects.equals(getIndex(), that.getIndex());
     }
 
     @Override
     public int hashCode() {
 
-        return Objects.hash(index);
+        return Objects.hashCode(getIndex());
     }
 
     @Override
     public String toString() {
         return "EventModel{" +
-                "index=" + index +
-                ", ident='" + ident + '\'' +
-                ", msg='" + msg + '\'' +
-                ", anos=" + anos +
-                ", meses=" + meses +
-                ", semanas=" + semanas +
-                ", dias=" + dias +
-                ", horas=" + horas +
-                ", minutos=" + minutos +
+                "index=" + getIndex() +
+                ", ident='" + getIdent() + '\'' +
+                ", msg='" + getMsg() + '\'' +
+                ", anos=" + getAnos() +
+                ", meses=" + getMeses() +
+                ", semanas=" + getSemanas() +
+                ", dias=" + getDias() +
+                ", horas=" + getHoras() +
+                ", minutos=" + getMinutos() +
+                ", recorrencia='" + getRecorrencia() + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,257 @@
+package main.Models;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import main.Comunicator.ComunicadorSNMP;
+import main.Comunicator.ListEvents;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Classe ListaPaginada que serve de lista de itens da TableView quando se
+ * mostram todos os eventos. Em vez de se trazer a tabela inteira do agente,
+ * só se pedem (com GETBULK) as paginas de linhas que a tabela está de facto
+ * a mostrar, a partir do indice da ultima linha da pagina anterior.
+ * Como os indices dos eventos não são seguidos (os eventos apagados deixam
+ * buracos), o inicio de uma pagina é sempre um indice visto no agente: se a
+ * pagina anterior ainda não foi obtida, pedem-se só os indices das linhas
+ * desde a ultima fronteira conhecida.
+ * As paginas obtidas ficam numa cache LRU limitada; as linhas de uma pagina
+ * que ainda não chegou são mostradas com um evento vazio e a tabela é
+ * avisada quando a pagina chega.
+ * Só deve ser usada na thread do JavaFX, com exceção do atualiza
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class ListaPaginada extends ObservableListBase<EventModel> {
+
+    /* Numero de linhas de cada pagina pedida ao agente */
+    public static int TAMANHO_PAGINA = 100;
+    /* Numero maximo de paginas guardadas em cache */
+    public static int MAX_PAGINAS = 50;
+    /* Evento (sem tabela) mostrado nas linhas que ainda não chegaram */
+    private static final EventModel VAZIO = new EventModel(null, 0);
+
+    /**
+     * Classe que guarda uma pagina de linhas já obtida do agente
+     */
+    private static class Pagina {
+        /* Linhas da pagina, pela ordem da tabela */
+        private List<EventModel> linhas;
+        /* Atualizacao da tabela a que a pagina corresponde */
+        private int geracao;
+
+        private Pagina(List<EventModel> linhas, int geracao) {
+            this.linhas = linhas;
+            this.geracao = geracao;
+        }
+    }
+
+    // Comunicador usado para pedir as paginas ao agente
+    private ComunicadorSNMP com;
+    // Numero de linhas da tabela do agente
+    private int tamanho;
+    // Paginas em cache, da menos para a mais recentemente usada
+    private Map<Integer,Pagina> paginas;
+    // Indice (na MIB) da ultima linha de cada pagina conhecida na atualizacao
+    // geracaoFronteiras da tabela (só usados na thread dos pedidos)
+    private TreeMap<Integer,Integer> fronteiras;
+    private int geracaoFronteiras;
+    // Paginas que já foram pedidas e ainda não chegaram
+    private Set<Integer> pedidas;
+    // Contador das atualizacoes da tabela (paginas mais antigas estão desatualizadas)
+    private int geracao;
+    // Thread onde são feitos os pedidos ao agente
+    private ExecutorService executor;
+
+    /**
+     * Construtor de ListaPaginada
+     * @param com
+     */
+    public ListaPaginada(ComunicadorSNMP com) {
+        this.com = com;
+        this.tamanho = 0;
+        this.paginas = new LinkedHashMap<Integer,Pagina>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer,Pagina> eldest) {
+                return size() > MAX_PAGINAS;
+            }
+        };
+        this.fronteiras = new TreeMap<>();
+        this.geracaoFronteiras = 0;
+        this.pedidas = new HashSet<>();
+        this.geracao = 0;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "ListaPaginada");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public int size() {
+        return this.tamanho;
+    }
+
+    @Override
+    public EventModel get(int i) {
+
+        if (i < 0 || i >= this.tamanho) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.tamanho);
+        }
+        int p = i / TAMANHO_PAGINA;
+        Pagina pg = this.paginas.get(p);
+        if (pg == null || pg.geracao != this.geracao) {
+            this.pede(p);
+        }
+        int linha = i % TAMANHO_PAGINA;
+        if (pg != null && linha < pg.linhas.size()) {
+            // Enquanto uma pagina desatualizada não é substituida continua a ser mostrada
+            return pg.linhas.get(linha);
+        }
+        return vazio();
+    }
+
+    /**
+     * Metodo que dá o evento mostrado nas linhas que ainda não chegaram
+     * @return
+     */
+    private static EventModel vazio() {
+        return VAZIO;
+    }
+
+    /**
+     * Metodo que dá o indice (na MIB) da ultima linha antes de uma pagina,
+     * a partir do qual a pagina é pedida. Se a pagina anterior não for
+     * conhecida, pedem-se ao agente os indices das linhas desde a pagina
+     * conhecida mais próxima, guardando as fronteiras das paginas pelo meio.
+     * Só é chamado na thread dos pedidos
+     * @param p
+     * @param geracaoPedido
+     * @return o indice, ou -1 se a tabela acabar antes da pagina
+     * @throws RuntimeException
+     */
+    private int inicioPagina(int p, int geracaoPedido)
+            throws RuntimeException {
+
+        // As fronteiras de uma atualizacao anterior podem já não existir
+        if (geracaoPedido != this.geracaoFronteiras) {
+            this.fronteiras.clear();
+            this.geracaoFronteiras = geracaoPedido;
+        }
+        if (p == 0) {
+            return 0;
+        }
+        Map.Entry<Integer,Integer> antes = this.fronteiras.floorEntry(p - 1);
+        int conhecida = antes == null ? -1 : antes.getKey();
+        int inicio = antes == null ? 0 : antes.getValue();
+        if (conhecida == p - 1) {
+            return inicio;
+        }
+        List<Integer> indices = this.com.obtemIndices(inicio, (p - 1 - conhecida) * TAMANHO_PAGINA);
+        for (int q = conhecida + 1; q < p; q++) {
+            int ultima = (q - conhecida) * TAMANHO_PAGINA - 1;
+            if (ultima >= indices.size()) {
+                return -1;
+            }
+            this.fronteiras.put(q, indices.get(ultima));
+        }
+        return this.fronteiras.get(p - 1);
+    }
+
+    /**
+     * Metodo que pede uma pagina ao agente, fora da thread do JavaFX,
+     * se ela ainda não tiver sido pedida
+     * @param p
+     */
+    private void pede(int p) {
+
+        if (!this.pedidas.add(p)) {
+            return;
+        }
+        int geracaoPedido = this.geracao;
+
+        this.executor.execute(() -> {
+            List<EventModel> linhas = new ArrayList<>();
+            try {
+                int aPartirDe = this.inicioPagina(p, geracaoPedido);
+                if (aPartirDe >= 0) {
+                    LocalDateTime agora = LocalDateTime.now();
+                    // Os valores da pagina ficam todos numa só tabela por colunas
+                    TabelaEventos tabela = new TabelaEventos(TAMANHO_PAGINA);
+                    for (List<String> l : this.com.enviaPedidoPagina(aPartirDe, TAMANHO_PAGINA)) {
+                        linhas.add(new EventModel(tabela, tabela.adiciona(ListEvents.criaEvento(l, agora))));
+                    }
+                    if (!linhas.isEmpty()) {
+                        this.fronteiras.put(p, linhas.get(linhas.size() - 1).getIndex());
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println("[ERRO] Não foi possível obter a página " + p + ": " + e.getMessage());
+                Platform.runLater(() -> this.pedidas.remove(p));
+                return;
+            }
+            Platform.runLater(() -> this.recebe(p, linhas, geracaoPedido));
+        });
+    }
+
+    /**
+     * Metodo chamado na thread do JavaFX quando chega uma pagina pedida
+     * @param p
+     * @param linhas
+     * @param geracaoPedido atualizacao da tabela em que a pagina foi pedida
+     */
+    private void recebe(int p, List<EventModel> linhas, int geracaoPedido) {
+
+        this.pedidas.remove(p);
+        Pagina antiga = this.paginas.get(p);
+        this.paginas.put(p, new Pagina(linhas, geracaoPedido));
+
+        int de = p * TAMANHO_PAGINA;
+        int ate = Math.min(this.tamanho, de + TAMANHO_PAGINA);
+        if (de < ate) {
+            List<EventModel> removidos = new ArrayList<>();
+            for (int i = 0; i < ate - de; i++) {
+                removidos.add(antiga != null && i < antiga.linhas.size() ? antiga.linhas.get(i) : vazio());
+            }
+            beginChange();
+            nextReplace(de, ate, removidos);
+            endChange();
+        }
+    }
+
+    /**
+     * Metodo que atualiza o numero de linhas da tabela e marca todas as paginas
+     * em cache como desatualizadas, para que voltem a ser pedidas quando forem
+     * mostradas. Pode ser chamado fora da thread do JavaFX
+     * @return totais obtidos do agente (total, passados, presentes e futuros)
+     * @throws RuntimeException
+     */
+    public int[] atualiza()
+            throws RuntimeException {
+
+        int[] totais = this.com.obtemTotais();
+        int total = totais[0];
+        Platform.runLater(() -> {
+            int anterior = this.tamanho;
+            this.tamanho = total;
+            // As paginas (e as suas fronteiras) passam a ser pedidas de novo
+            this.geracao++;
+            beginChange();
+            nextReplace(0, total, new ArrayList<>(Collections.nCopies(anterior, vazio())));
+            endChange();
+        });
+        return totais;
+    }
+
+    /**
+     * Metodo que termina a thread usada nos pedidos ao agente
+     */
+    public void termina() {
+        this.executor.shutdownNow();
+    }
+}
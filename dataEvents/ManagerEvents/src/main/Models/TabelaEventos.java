@@ -0,0 +1,174 @@
+package main.Models;
+
+import main.Comunicator.Event;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Classe TabelaEventos que guarda os eventos mostrados na TableView por
+ * colunas: um array de inteiros por cada coluna de tempo e arrays de bytes
+ * (partilhados entre linhas iguais) para a identificação e a mensagem.
+ * Cada EventModel é só uma vista sobre uma linha desta tabela.
+ * Uma tabela pode ser preenchida de novo (reutilizando os arrays) depois de
+ * nenhuma vista da tabela estar a ser mostrada
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class TabelaEventos {
+
+    /* Numero de colunas de tempo (anos, meses, semanas, dias, horas e minutos) */
+    public static final int TEMPOS = 6;
+    /* Posição de cada coluna de tempo */
+    public static final int ANOS = 0, MESES = 1, SEMANAS = 2, DIAS = 3, HORAS = 4, MINUTOS = 5;
+    /* Tamanho a partir do qual o conjunto de textos partilhados é limpo */
+    private static final int MAX_TEXTOS = 1 << 16;
+
+    // Numero de linhas preenchidas
+    private int linhas;
+    // Indice (na MIB) do evento de cada linha
+    private int[] indices;
+    // Colunas de tempo, uma por cada posição em TEMPOS
+    private int[][] tempos;
+    // Identificação e mensagem de cada linha (em UTF-8)
+    private byte[][] idents;
+    private byte[][] msgs;
+    // Regra de repetição de cada linha (em UTF-8, vazia se o evento não se repete)
+    private byte[][] recorrencias;
+    // Textos já convertidos, para linhas com o mesmo texto partilharem os bytes
+    private Map<String,byte[]> textos;
+
+    /**
+     * Construtor de TabelaEventos
+     * @param capacidade numero de linhas inicialmente reservado
+     */
+    public TabelaEventos(int capacidade) {
+        capacidade = Math.max(capacidade, 16);
+        this.linhas = 0;
+        this.indices = new int[capacidade];
+        this.tempos = new int[TEMPOS][capacidade];
+        this.idents = new byte[capacidade][];
+        this.msgs = new byte[capacidade][];
+        this.recorrencias = new byte[capacidade][];
+        this.textos = new HashMap<>();
+    }
+
+    public int getLinhas() {
+        return linhas;
+    }
+
+    /**
+     * Metodo que apaga todas as linhas, mantendo os arrays para serem reutilizados
+     */
+    public void limpa() {
+        // Largar as referencias para os textos que deixaram de ser usados
+        Arrays.fill(this.idents, 0, this.linhas, null);
+        Arrays.fill(this.msgs, 0, this.linhas, null);
+        Arrays.fill(this.recorrencias, 0, this.linhas, null);
+        this.linhas = 0;
+        if (this.textos.size() > MAX_TEXTOS) {
+            this.textos.clear();
+        }
+    }
+
+    private void garanteCapacidade(int n) {
+
+        if (n <= this.indices.length) {
+            return;
+        }
+        int nova = Math.max(n, this.indices.length * 2);
+        this.indices = Arrays.copyOf(this.indices, nova);
+        for (int c = 0; c < TEMPOS; c++) {
+            this.tempos[c] = Arrays.copyOf(this.tempos[c], nova);
+        }
+        this.idents = Arrays.copyOf(this.idents, nova);
+        this.msgs = Arrays.copyOf(this.msgs, nova);
+        this.recorrencias = Arrays.copyOf(this.recorrencias, nova);
+    }
+
+    private byte[] interna(String s) {
+        return this.textos.computeIfAbsent(s, k -> k.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Metodo que acrescenta uma linha com os valores de um evento
+     * @param e
+     * @return a linha onde o evento ficou
+     */
+    public int adiciona(Event e) {
+
+        int l = this.linhas;
+        this.garanteCapacidade(l + 1);
+        this.indices[l] = e.getIndex();
+        this.tempos[ANOS][l] = e.getAnos();
+        this.tempos[MESES][l] = e.getMeses();
+        this.tempos[SEMANAS][l] = e.getSemanas();
+        this.tempos[DIAS][l] = e.getDias();
+        this.tempos[HORAS][l] = e.getHoras();
+        this.tempos[MINUTOS][l] = e.getMinutos();
+        this.idents[l] = this.interna(e.getIdentificacao());
+        this.msgs[l] = this.interna(e.getMsg());
+        this.recorrencias[l] = this.interna(e.getRecorrencia());
+        this.linhas++;
+        return l;
+    }
+
+    /**
+     * Metodo que apaga a tabela e a preenche com um conjunto de eventos
+     * @param eventos
+     */
+    public void preenche(Collection<Event> eventos) {
+
+        this.limpa();
+        this.garanteCapacidade(eventos.size());
+        for (Event e : eventos) {
+            this.adiciona(e);
+        }
+    }
+
+    public int getIndex(int linha) {
+        return this.indices[linha];
+    }
+
+    public int getTempo(int coluna, int linha) {
+        return this.tempos[coluna][linha];
+    }
+
+    public String getIdent(int linha) {
+        return new String(this.idents[linha], StandardCharsets.UTF_8);
+    }
+
+    public String getMsg(int linha) {
+        return new String(this.msgs[linha], StandardCharsets.UTF_8);
+    }
+
+    public String getRecorrencia(int linha) {
+        return new String(this.recorrencias[linha], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Metodo que diz se duas linhas (desta ou de outra tabela) têm os mesmos valores
+     * @param linha
+     * @param outra
+     * @param linhaOutra
+     * @return
+     */
+    public boolean mesmaLinha(int linha, TabelaEventos outra, int linhaOutra) {
+
+        if (this.indices[linha] != outra.indices[linhaOutra]) {
+            return false;
+        }
+        for (int c = 0; c < TEMPOS; c++) {
+            if (this.tempos[c][linha] != outra.tempos[c][linhaOutra]) {
+                return false;
+            }
+        }
+        return Arrays.equals(this.idents[linha], outra.idents[linhaOutra])
+                && Arrays.equals(this.msgs[linha], outra.msgs[linhaOutra])
+                && Arrays.equals(this.recorrencias[linha], outra.recorrencias[linhaOutra]);
+    }
+}
@@ -3,16 +3,24 @@ package main.Controllers;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.stage.FileChooser;
+import main.Models.CompactadorEventos;
+import main.Models.EscritorAgrupado;
 import main.Models.Event;
 import main.Models.EventModel;
+import main.Models.ImportadorEventos;
 import main.Models.ListEvents;
+import main.Models.Recorrencia;
+import main.Models.RegistoAlteradoException;
 import main.Models.Writer;
 
+import java.io.File;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -25,11 +33,13 @@ public class HomeController {
     public TextField insereIndexButton;
     public TableView tableEvents;
     public Button agendarButton;
+    public Button importarButton;
     public Button sairButton;
     public DatePicker dataButton;
     public DatePicker datadelButton;
     public TextField horaButton;
     public TextField horadelButton;
+    public TextField recorrenciaButton;
 
     // Lista de eventos
     private ListEvents le;
@@ -37,42 +47,83 @@ public class HomeController {
     // Nome do ficheiro de eventos
     public static String EVENTS_DIR = "./../AgentEvents/";
     private static String EVENTS_FILENAME = "dataEvents.txt";
+    /* Numero maximo de linhas escritas em cada commit */
+    public static int MAX_LINHAS_COMMIT = Integer.getInteger("maxLinhasCommit", 1000);
+    /* Tempo (em milis) que um commit espera por mais escritas
+     * (pode ser alterado com -DjanelaCommit=milis) */
+    public static long JANELA_COMMIT = Long.getLong("janelaCommit", 0);
+
+    // Escritor que junta as escritas no ficheiro de eventos em commits
+    private static EscritorAgrupado escritor;
+    // Compactador que tira do ficheiro os eventos apagados
+    private static CompactadorEventos compactador;
 
     public void initialize(){
 
+        // Indice do evento
+        TableColumn tcIndex = new TableColumn("Index");
+        tcIndex.setEditable(false);
+        tcIndex.setReorderable(false);
+        tcIndex.setCellValueFactory(new PropertyValueFactory<>("index"));
+        // Identificacao Evento
+        TableColumn tcIdent = new TableColumn("Identificação");
+        tcIdent.setEditable(false);
+        tcIdent.setReorderable(false);
+        tcIdent.setCellValueFactory(new PropertyValueFactory<>("ident"));
+        // Data
+        TableColumn tcData = new TableColumn("Data");
+        tcData.setEditable(false);
+        tcData.setReorderable(false);
+        tcData.setCellValueFactory(new PropertyValueFactory<>("data"));
+        // Hora
+        TableColumn tcHora = new TableColumn("Hora");
+        tcHora.setEditable(false);
+        tcHora.setReorderable(false);
+        tcHora.setCellValueFactory(new PropertyValueFactory<>("hora"));
+        tableEvents.getColumns().clear();
+        tableEvents.getColumns().addAll(tcIndex, tcIdent, tcData, tcHora);
+
+        // Inicializar a lista de eventos
+        this.le = new ListEvents();
         try {
-            // Inicializar a lista de eventos
-            this.le = new ListEvents();
             this.le.preencheEventos(EVENTS_DIR + EVENTS_FILENAME);
+        } catch (IOException e){
+            System.out.println("Erro ao carregar o ficheiro de eventos!!");
+        }
+        this.mostraEventos();
+    }
 
-            // Indice do evento
-            TableColumn tcIndex = new TableColumn("Index");
-            tcIndex.setEditable(false);
-            tcIndex.setReorderable(false);
-            tcIndex.setCellValueFactory(new PropertyValueFactory<>("index"));
-            // Identificacao Evento
-            TableColumn tcIdent = new TableColumn("Identificação");
-            tcIdent.setEditable(false);
-            tcIdent.setReorderable(false);
-            tcIdent.setCellValueFactory(new PropertyValueFactory<>("ident"));
-            // Data
-            TableColumn tcData = new TableColumn("Data");
-            tcData.setEditable(false);
-            tcData.setReorderable(false);
-            tcData.setCellValueFactory(new PropertyValueFactory<>("data"));
-            // Hora
-            TableColumn tcHora = new TableColumn("Hora");
-            tcHora.setEditable(false);
-            tcHora.setReorderable(false);
-            tcHora.setCellValueFactory(new PropertyValueFactory<>("hora"));
-            tableEvents.getColumns().clear();
-            tableEvents.getItems().clear();
-            tableEvents.getColumns().addAll(tcIndex, tcIdent, tcData, tcHora);
-            for(Event e : this.le.getEventos()){
-                EventModel em = new EventModel(e.getIndex(),e.getIdentificacao(),e.getDataEvento(),e.getHoraEvento());
-                tableEvents.getItems().add(em);
-            }
+    /**
+     * Mostra na tabela todos os eventos da lista
+     */
+    private void mostraEventos(){
+
+        List<EventModel> modelos = new ArrayList<>(this.le.getEventos().size());
+        for(Event e : this.le.getEventos()){
+            modelos.add(new EventModel(e.getIndex(),e.getIdentificacao(),e.getDataEvento(),e.getHoraEvento()));
+        }
+        tableEvents.getItems().setAll(modelos);
+    }
+
+    /**
+     * Acrescenta à lista e à tabela só os eventos escritos no ficheiro
+     * (por esta aplicação ou por outras) desde a ultima leitura
+     */
+    private void sincroniza(){
 
+        try {
+            int novos = this.le.atualiza(EVENTS_DIR + EVENTS_FILENAME);
+            if (novos < 0) {
+                // O ficheiro foi reescrito
+                this.mostraEventos();
+            } else if (novos > 0) {
+                List<Event> eventos = this.le.getEventos();
+                List<EventModel> modelos = new ArrayList<>(novos);
+                for (Event e : eventos.subList(eventos.size() - novos, eventos.size())) {
+                    modelos.add(new EventModel(e.getIndex(),e.getIdentificacao(),e.getDataEvento(),e.getHoraEvento()));
+                }
+                tableEvents.getItems().addAll(modelos);
+            }
         } catch (IOException e){
             System.out.println("Erro ao carregar o ficheiro de eventos!!");
         }
@@ -91,22 +142,55 @@ public class HomeController {
                     && horaButton.getText().length() != 0
                     && horadelButton.getText().length() != 0) {
 
-                this.writeEvento();
-                lancaAlerta(Alert.AlertType.CONFIRMATION, "Evento agendado", "Confirmado", "Evento agendado com sucesso!!!");
+                long latencia = this.writeEvento();
+                lancaAlerta(Alert.AlertType.CONFIRMATION, "Evento agendado", "Confirmado",
+                        String.format("Evento agendado com sucesso!!! (commit em %.1f ms)", latencia / 1e6));
             } else {
                 lancaAlerta(Alert.AlertType.ERROR, "Erro no registo", "Erro nos argumentos", "Não foi possível agendar o evento!!!");
             }
             this.cleanFields();
-            this.initialize();
+            this.sincroniza();
         } catch (IOException e){
             lancaAlerta(Alert.AlertType.ERROR, "Erro na escrita", "Erro ao escrever para ficheiro", "Não foi possível agendar o evento!!!");
             this.cleanFields();
-            this.initialize();
-        } catch (DateTimeParseException e){
+            this.sincroniza();
+        } catch (DateTimeParseException | IllegalArgumentException e){
             lancaAlerta(Alert.AlertType.ERROR, "Erro no registo", "Erro nos argumentos", "Não foi possível agendar o evento!!!");
             this.cleanFields();
-            this.initialize();
+            this.sincroniza();
+        }
+    }
+
+    @FXML
+    public void btImportarAction(){
+
+        FileChooser fc = new FileChooser();
+        fc.setTitle("Importar eventos");
+        fc.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV ou iCalendar", "*.csv", "*.ics"),
+                new FileChooser.ExtensionFilter("Todos", "*.*"));
+        File f = fc.showOpenDialog(this.importarButton.getScene().getWindow());
+        if (f == null) {
+            return;
         }
+        try {
+            ImportadorEventos.Resultado res = new ImportadorEventos(getEscritor()).importa(f.toPath());
+            System.out.println("[INFO] Importação de " + f + ": " + res);
+            StringBuilder sb = new StringBuilder(res.toString());
+            // Só se mostram os primeiros erros
+            List<String> rejeitados = res.getRejeitados();
+            for (int i = 0; i < rejeitados.size() && i < 10; i++) {
+                sb.append("\n").append(rejeitados.get(i));
+            }
+            if (rejeitados.size() > 10) {
+                sb.append("\n...");
+            }
+            lancaAlerta(rejeitados.isEmpty() ? Alert.AlertType.CONFIRMATION : Alert.AlertType.WARNING,
+                    "Eventos importados", "Importação terminada", sb.toString());
+        } catch (IOException e){
+            lancaAlerta(Alert.AlertType.ERROR, "Erro na importação", "Erro ao ler ou escrever os eventos", e.getMessage());
+        }
+        this.sincroniza();
     }
 
     private void lancaAlerta(Alert.AlertType error, String s, String s2, String s3) {
@@ -127,41 +211,57 @@ public class HomeController {
         List<Event> lista = this.le.getEventos();
         try {
             int ind = Integer.parseInt(insereIndexButton.getText());
-            if (ind <= lista.size()) {
-
-                lista.remove(ind - 1);
+            if (ind >= 1 && ind <= lista.size()) {
 
-                Writer.create(this.le.toString(),EVENTS_DIR + EVENTS_FILENAME);
+                this.apagaEvento(ind);
 
                 lancaAlerta(Alert.AlertType.CONFIRMATION, "Evento eliminado", "Eliminado", "Evento eliminado com sucesso!!!");
             } else {
                 lancaAlerta(Alert.AlertType.ERROR, "Erro no registo", "Erro nos argumentos", "Não foi possível agendar o evento!!!");
             }
             this.cleanFields();
-            this.initialize();
+            this.sincroniza();
         } catch (NumberFormatException e){
             lancaAlerta(Alert.AlertType.ERROR, "Erro no registo", "Erro nos argumentos", "Não foi possível agendar o evento!!!");
             this.cleanFields();
-            this.initialize();
+            this.sincroniza();
         } catch (IOException e){
             lancaAlerta(Alert.AlertType.ERROR, "Erro na escrita", "Erro ao escrever para ficheiro", "Não foi possível eliminar o evento!!!");
             this.cleanFields();
-            this.initialize();
+            this.sincroniza();
         }
     }
 
     @FXML
     public void btSairAction(){
 
+        if (escritor != null) {
+            escritor.close();
+            System.out.println("[INFO] " + escritor.getEstatisticas());
+        }
         System.exit(0);
     }
 
+    /**
+     * Dá o escritor partilhado do ficheiro de eventos, criando-o da primeira vez
+     * @return
+     */
+    public static synchronized EscritorAgrupado getEscritor() {
+
+        if (escritor == null) {
+            escritor = new EscritorAgrupado(EVENTS_DIR + EVENTS_FILENAME, MAX_LINHAS_COMMIT, JANELA_COMMIT);
+        }
+        return escritor;
+    }
+
     /**
      * Escreve o novo evento para o ficheiro
+     * @return latência do commit em nanos
      * @throws IOException
      * @throws DateTimeParseException
+     * @throws IllegalArgumentException se a regra de repetição não for valida
      */
-    private void writeEvento() throws IOException, DateTimeParseException {
+    private long writeEvento() throws IOException, DateTimeParseException, IllegalArgumentException {
 
         LocalDate data = LocalDate.parse(dataButton.getEditor().getText(),DateTimeFormatter.ofPattern("dd/MM/yyyy"));
         LocalDate datadel = LocalDate.parse(datadelButton.getEditor().getText(),DateTimeFormatter.ofPattern("dd/MM/yyyy"));
@@ -169,8 +269,73 @@ public class HomeController {
         LocalTime horadel = LocalTime.parse(horadelButton.getText());
 
         Event e = new Event(0,identButton.getText(),msgpastButton.getText(),msgpresButton.getText(),msgfutButton.getText(),data,hora,datadel,horadel);
-        this.le.addEvento(e);
-        Writer.write(e.toString(),EVENTS_DIR + EVENTS_FILENAME);
+        e.setRecorrencia(Recorrencia.normaliza(recorrenciaButton.getText()));
+        // O evento entra na lista (com a sua posição no ficheiro) na proxima sincronização
+        // Só retorna depois do sync do commit em que o evento foi escrito
+        return getEscritor().escreve(e.toString());
+    }
+
+    /**
+     * Marca como apagado no ficheiro o evento com um dado indice e pede a
+     * compactação do ficheiro se já houver muitos eventos apagados
+     * @param ind
+     * @throws IOException
+     */
+    private void apagaEvento(int ind) throws IOException {
+
+        String filename = EVENTS_DIR + EVENTS_FILENAME;
+        // Registo do evento (com o checksum), para o reconhecer depois de reler o ficheiro
+        String registo = this.le.getEventos().get(ind - 1).toString();
+        try {
+            this.le.apagaEvento(ind, filename);
+            this.tiraLinha(ind);
+        } catch (RegistoAlteradoException e) {
+            // O ficheiro mudou (por exemplo numa compactação ou noutra instancia): depois
+            // de reler, o evento pode estar noutra posição ou já ter sido apagado, por isso
+            // é procurado pelo conteudo e não pelo indice
+            this.le.preencheEventos(filename);
+            int atual = this.le.procuraEvento(registo, ind);
+            if (atual > 0) {
+                try {
+                    this.le.apagaEvento(atual, filename);
+                } catch (RegistoAlteradoException e2) {
+                    // A linha do ficheiro não está no formato do evento (foi editada à mão),
+                    // por isso o ficheiro é reescrito sem o evento
+                    this.le.getEventos().remove(atual - 1);
+                    Writer.create(this.le.toString(), filename);
+                    this.le.preencheEventos(filename);
+                }
+            }
+            this.mostraEventos();
+        }
+        getCompactador().verifica(this.le.getApagados(), this.le.getEventos().size());
+    }
+
+    /**
+     * Tira da tabela a linha de um evento apagado e acerta os indices
+     * das linhas seguintes
+     * @param ind
+     */
+    private void tiraLinha(int ind){
+
+        List<EventModel> modelos = tableEvents.getItems();
+        modelos.remove(ind - 1);
+        for (int i = ind - 1; i < modelos.size(); i++) {
+            modelos.get(i).setIndex(i + 1);
+        }
+        tableEvents.refresh();
+    }
+
+    /**
+     * Dá o compactador do ficheiro de eventos, criando-o da primeira vez
+     * @return
+     */
+    private static synchronized CompactadorEventos getCompactador() {
+
+        if (compactador == null) {
+            compactador = new CompactadorEventos(EVENTS_DIR + EVENTS_FILENAME);
+        }
+        return compactador;
     }
 
     /**
@@ -186,6 +351,7 @@ public class HomeController {
         horaButton.clear();
         datadelButton.getEditor().clear();
         horadelButton.clear();
+        recorrenciaButton.clear();
         insereIndexButton.clear();
     }
 
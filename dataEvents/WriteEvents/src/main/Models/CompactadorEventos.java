@@ -0,0 +1,79 @@
+package main.Models;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Classe responsável por tirar do ficheiro de eventos, numa thread à parte,
+ * as linhas marcadas como apagadas. A compactação só é feita quando as
+ * linhas apagadas já são uma parte relevante do ficheiro, para que o custo
+ * de reescrever o ficheiro seja dividido por muitas eliminações
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class CompactadorEventos {
+
+    /* Numero minimo de linhas apagadas para compactar */
+    public static int MIN_APAGADOS = Integer.getInteger("minApagados", 64);
+    /* Fração minima das linhas do ficheiro que têm de estar apagadas para compactar */
+    public static double FRACAO_APAGADOS = 0.25;
+    /* Se se escreve a duração de cada compactação (-Dverboso=true) */
+    public static boolean VERBOSO = Boolean.getBoolean("verboso");
+
+    // Ficheiro a compactar
+    private String filename;
+    // Thread onde são feitas as compactações
+    private ExecutorService executor;
+    // Se já há uma compactação pedida e ainda não terminada
+    private AtomicBoolean pendente;
+
+    /**
+     * Construtor de CompactadorEventos
+     * @param filename
+     */
+    public CompactadorEventos(String filename) {
+        this.filename = filename;
+        this.pendente = new AtomicBoolean(false);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Compactador " + filename);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Método que pede uma compactação se as linhas apagadas o justificarem
+     * @param apagados numero de linhas marcadas como apagadas
+     * @param vivos numero de eventos que não estão apagados
+     * @return true se foi pedida uma compactação
+     */
+    public boolean verifica(int apagados, int vivos) {
+
+        int total = apagados + vivos;
+        if (apagados < MIN_APAGADOS || apagados < total * FRACAO_APAGADOS) {
+            return false;
+        }
+        // Só uma compactação de cada vez
+        if (!this.pendente.compareAndSet(false, true)) {
+            return false;
+        }
+        this.executor.execute(() -> {
+            try {
+                long inicio = System.nanoTime();
+                int removidas = Writer.compacta(this.filename);
+                if (VERBOSO) {
+                    System.out.printf("[INFO] Compactação de %s: %d linhas apagadas removidas em %.2f ms%n",
+                            this.filename, removidas, (System.nanoTime() - inicio) / 1e6);
+                }
+            } catch (IOException e) {
+                System.err.println("[ERRO] Não foi possível compactar " + this.filename + ": " + e.getMessage());
+            } finally {
+                this.pendente.set(false);
+            }
+        });
+        return true;
+    }
+}
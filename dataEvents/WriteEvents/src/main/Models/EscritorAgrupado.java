@@ -0,0 +1,257 @@
+package main.Models;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classe responsável por acrescentar linhas ao ficheiro de eventos em lotes
+ * (group commit): os pedidos de escrita ficam numa fila e uma thread escreve
+ * todos os que estão à espera com um só lock e um só sync.
+ * Cada pedido só é dado como terminado depois do sync do lote em que foi
+ * escrito, por isso quem espera pelo pedido tem a mesma garantia de que a
+ * linha está no disco que tinha com o Writer.write
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class EscritorAgrupado implements AutoCloseable {
+
+    // Escreve uma linha por cada lote escrito (-Dverboso=true)
+    public static boolean VERBOSO = Boolean.getBoolean("verboso");
+
+    /**
+     * Classe que guarda um pedido de escrita à espera de ser feito
+     */
+    private static class Pedido {
+        /* Linhas a acrescentar */
+        private List<String> linhas;
+        /* Momento (System.nanoTime) em que o pedido foi feito */
+        private long inicio;
+        /* Terminado com a latência (em nanos) do pedido depois do sync */
+        private CompletableFuture<Long> feito;
+
+        private Pedido(List<String> linhas) {
+            this.linhas = linhas;
+            this.inicio = System.nanoTime();
+            this.feito = new CompletableFuture<>();
+        }
+    }
+
+    /* Pedido usado para terminar a thread */
+    private static final Pedido FIM = new Pedido(new ArrayList<>());
+
+    // Ficheiro onde são acrescentadas as linhas
+    private String filename;
+    // Numero maximo de linhas de cada lote
+    private int maxLinhas;
+    // Tempo (em milis) que se espera por mais pedidos antes de escrever um lote
+    private long janela;
+    // Pedidos à espera de serem escritos
+    private BlockingQueue<Pedido> fila;
+    // Thread que escreve os lotes
+    private Thread escritor;
+    // Depois de fechado não se aceitam mais pedidos (alterado com o lock do objeto)
+    private boolean fechado;
+
+    // Estatisticas dos lotes escritos
+    private long lotes;
+    private long pedidos;
+    private long linhasEscritas;
+    private long somaLatencia;
+    private long maxLatencia;
+    private long ultimaLatencia;
+
+    /**
+     * Construtor de EscritorAgrupado
+     * @param filename
+     * @param maxLinhas numero maximo de linhas escritas em cada lote
+     * @param janela tempo (em milis) que se espera por mais pedidos depois do primeiro;
+     *               com 0 escreve-se logo tudo o que se juntou durante o sync anterior
+     */
+    public EscritorAgrupado(String filename, int maxLinhas, long janela) {
+        this.filename = filename;
+        this.maxLinhas = Math.max(1, maxLinhas);
+        this.janela = Math.max(0, janela);
+        this.fila = new LinkedBlockingQueue<>();
+        this.escritor = new Thread(this::escreveLotes, "Escritor " + filename);
+        this.escritor.setDaemon(true);
+        this.escritor.start();
+    }
+
+    /**
+     * Método que pede para acrescentar linhas ao ficheiro, sem esperar
+     * que sejam escritas
+     * @param linhas
+     * @return terminado com a latência (em nanos, desde o pedido até ao sync)
+     *         ou com a IOException se a escrita falhou
+     */
+    public CompletableFuture<Long> acrescenta(List<String> linhas) {
+
+        Pedido p = new Pedido(linhas);
+        synchronized (this) {
+            if (this.fechado) {
+                throw new IllegalStateException("O escritor de " + this.filename + " já foi fechado");
+            }
+            this.fila.add(p);
+        }
+        return p.feito;
+    }
+
+    /**
+     * Método que acrescenta uma linha ao ficheiro, esperando que esteja no disco
+     * @param linha
+     * @return latência do pedido em nanos
+     * @throws IOException
+     */
+    public long escreve(String linha)
+            throws IOException {
+
+        try {
+            return this.acrescenta(List.of(linha)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Método da thread que junta os pedidos em lotes e os escreve
+     */
+    private void escreveLotes() {
+
+        List<Pedido> lote = new ArrayList<>();
+        boolean terminar = false;
+        while (!terminar) {
+            try {
+                // Esperar pelo primeiro pedido do lote
+                Pedido primeiro = this.fila.take();
+                if (primeiro == FIM) {
+                    break;
+                }
+                lote.add(primeiro);
+                int linhas = primeiro.linhas.size();
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.janela);
+
+                // Juntar os que chegaram entretanto (ou durante a janela)
+                while (linhas < this.maxLinhas) {
+                    long falta = limite - System.nanoTime();
+                    Pedido p = falta > 0 ? this.fila.poll(falta, TimeUnit.NANOSECONDS) : this.fila.poll();
+                    if (p == null) {
+                        break;
+                    }
+                    if (p == FIM) {
+                        terminar = true;
+                        break;
+                    }
+                    lote.add(p);
+                    linhas += p.linhas.size();
+                }
+            } catch (InterruptedException e) {
+                terminar = true;
+            }
+
+            if (!lote.isEmpty()) {
+                this.commit(lote);
+                lote.clear();
+            }
+        }
+
+        // Os pedidos que ainda estejam na fila falham; como o fecho é feito com o lock,
+        // não entram mais pedidos depois de a fila ser esvaziada
+        synchronized (this) {
+            this.fechado = true;
+        }
+        Pedido p;
+        while ((p = this.fila.poll()) != null) {
+            if (p == FIM) {
+                continue;
+            }
+            p.feito.completeExceptionally(new IOException("O escritor de " + this.filename + " foi fechado"));
+        }
+    }
+
+    /**
+     * Método que escreve um lote com um só lock e um só sync e
+     * termina os pedidos do lote
+     * @param lote
+     */
+    private void commit(List<Pedido> lote) {
+
+        List<String> linhas = new ArrayList<>();
+        for (Pedido p : lote) {
+            linhas.addAll(p.linhas);
+        }
+
+        try {
+            Writer.append(linhas, this.filename);
+        } catch (IOException e) {
+            System.err.println("[ERRO] Não foi possível escrever " + linhas.size() + " linhas: " + e.getMessage());
+            for (Pedido p : lote) {
+                p.feito.completeExceptionally(e);
+            }
+            return;
+        }
+
+        long agora = System.nanoTime();
+        long maior = 0;
+        synchronized (this) {
+            for (Pedido p : lote) {
+                long latencia = agora - p.inicio;
+                maior = Math.max(maior, latencia);
+                this.somaLatencia += latencia;
+                this.maxLatencia = Math.max(this.maxLatencia, latencia);
+            }
+            this.lotes++;
+            this.pedidos += lote.size();
+            this.linhasEscritas += linhas.size();
+            this.ultimaLatencia = maior;
+        }
+        if (VERBOSO) {
+            System.out.printf("[INFO] Commit de %d linhas (%d pedidos) em %.2f ms%n",
+                    linhas.size(), lote.size(), maior / 1e6);
+        }
+        for (Pedido p : lote) {
+            p.feito.complete(agora - p.inicio);
+        }
+    }
+
+    /**
+     * Método que dá um resumo das escritas feitas até agora
+     * @return
+     */
+    public synchronized String getEstatisticas() {
+
+        return String.format("%d lotes, %d pedidos, %d linhas, latência do commit: ultima %.2f ms, maxima %.2f ms, media %.2f ms",
+                this.lotes, this.pedidos, this.linhasEscritas, this.ultimaLatencia / 1e6, this.maxLatencia / 1e6,
+                this.pedidos == 0 ? 0.0 : this.somaLatencia / 1e6 / this.pedidos);
+    }
+
+    /**
+     * Método que escreve os pedidos que estão na fila e termina a thread;
+     * os pedidos feitos depois disto falham logo com IllegalStateException
+     */
+    @Override
+    public void close() {
+
+        synchronized (this) {
+            if (this.fechado) {
+                return;
+            }
+            this.fechado = true;
+            this.fila.add(FIM);
+        }
+        try {
+            this.escritor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
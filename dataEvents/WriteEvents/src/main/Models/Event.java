@@ -1,5 +1,7 @@
 package main.Models;
 
+import comum.FormatoEventos;
+
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
@@ -25,6 +27,10 @@ public class Event {
     private LocalDate dataDelete;
     /* Hora em que o evento deve ser apagado da MIB */
     private LocalTime horaDelete;
+    /* Regra de repetição do evento no formato de Recorrencia ("" se não se repete) */
+    private String recorrencia = "";
+    /* Posição (em bytes) da linha do evento no ficheiro de eventos, -1 se não for conhecida */
+    private long offset = -1;
 
     /**
      * CONSTRUTOR parametrizado de Event
@@ -57,6 +63,22 @@ public class Event {
         this.index = index;
     }
 
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public String getRecorrencia() {
+        return recorrencia;
+    }
+
+    public void setRecorrencia(String recorrencia) {
+        this.recorrencia = recorrencia == null ? "" : recorrencia;
+    }
+
     public String getIdentificacao() {
         return identificacao;
     }
@@ -101,7 +123,13 @@ public class Event {
         sb.append(dataDelete);
         sb.append(";");
         sb.append(horaDelete);
-        return sb.toString();
+        // A regra de repetição é um campo opcional antes do checksum
+        if (!recorrencia.isEmpty()) {
+            sb.append(";");
+            sb.append(recorrencia);
+        }
+        // Cada registo leva o checksum do seu conteudo
+        return FormatoEventos.comChecksum(sb.toString());
     }
 
     /**
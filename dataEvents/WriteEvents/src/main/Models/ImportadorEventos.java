@@ -0,0 +1,564 @@
+package main.Models;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Classe responsável por importar de uma só vez muitos eventos de um ficheiro
+ * CSV ou iCalendar (.ics) para o ficheiro de eventos.
+ *
+ * O ficheiro é lido em streaming e os registos são agrupados em blocos; cada
+ * bloco é validado e normalizado (datas e horas em varios formatos passam para
+ * o formato do ficheiro de eventos) em paralelo, mantendo a ordem original.
+ * No fim todas as linhas válidas são acrescentadas com uma só escrita (um lock
+ * e um sync). Os registos inválidos são ignorados e indicados no resultado.
+ *
+ * CSV: ident;msgpassado;msgpresente;msgfuturo;data;hora;datadel;horadel
+ * (também com ',' como separador, campos entre aspas e uma linha de cabeçalho
+ * opcional). Se só houver uma mensagem é usada nas três; sem hora usa-se 00:00
+ * e sem data para apagar usa-se o dia seguinte ao evento.
+ *
+ * ICS: cada VEVENT dá um evento com o SUMMARY como identificação, a DESCRIPTION
+ * (ou o SUMMARY) como mensagem, o DTSTART como data do evento e o dia
+ * seguinte ao DTEND (ou ao DTSTART) como data para apagar. O RRULE, se
+ * existir, passa a ser a regra de repetição do evento (ver Recorrencia).
+ * No CSV a regra pode vir num campo opcional depois da hora para apagar.
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class ImportadorEventos {
+
+    /* Numero de registos validados por cada tarefa */
+    public static int TAMANHO_BLOCO = 2048;
+    /* Numero de dias depois do evento em que é apagado, quando o ficheiro não diz */
+    public static int DIAS_APAGAR = 1;
+
+    /* Formatos de data aceites, pela ordem em que são tentados */
+    /* (estritos, para datas como 31/02 serem rejeitadas em vez de corrigidas) */
+    private static final DateTimeFormatter[] FORMATOS_DATA = {
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ofPattern("d/M/uuuu").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("d-M-uuuu").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("d.M.uuuu").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("uuuu/M/d").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.BASIC_ISO_DATE
+    };
+    /* Formatos de hora aceites */
+    private static final DateTimeFormatter[] FORMATOS_HORA = {
+            DateTimeFormatter.ofPattern("H:mm"),
+            DateTimeFormatter.ofPattern("H:mm:ss"),
+            DateTimeFormatter.ofPattern("HHmm"),
+            DateTimeFormatter.ofPattern("HHmmss")
+    };
+    /* Formato das datas com hora do iCalendar (sem a zona) */
+    private static final DateTimeFormatter ICS_DATA_HORA = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+
+    /**
+     * Classe com o resultado de uma importação
+     */
+    public static class Resultado {
+        private List<Event> importados;
+        private List<String> rejeitados;
+        private long latenciaCommit;
+        private long duracao;
+
+        private Resultado() {
+            this.importados = new ArrayList<>();
+            this.rejeitados = new ArrayList<>();
+        }
+
+        public List<Event> getImportados() { return importados; }
+        public List<String> getRejeitados() { return rejeitados; }
+        /* Tempo (em nanos) que a escrita das linhas demorou até ao sync */
+        public long getLatenciaCommit() { return latenciaCommit; }
+        /* Tempo total (em nanos) da importação */
+        public long getDuracao() { return duracao; }
+
+        @Override
+        public String toString() {
+            return String.format("%d eventos importados, %d rejeitados em %.2f s (commit em %.1f ms)",
+                    importados.size(), rejeitados.size(), duracao / 1e9, latenciaCommit / 1e6);
+        }
+    }
+
+    /**
+     * Classe com um registo lido do ficheiro, ainda por validar
+     */
+    private static class Registo {
+        /* Numero da linha onde o registo começa */
+        private int linha;
+        /* Campos já separados (CSV) ou propriedades do VEVENT (ICS) */
+        private String[] campos;
+        private Map<String,String> propriedades;
+
+        private Registo(int linha, String[] campos, Map<String,String> propriedades) {
+            this.linha = linha;
+            this.campos = campos;
+            this.propriedades = propriedades;
+        }
+    }
+
+    /**
+     * Classe com o resultado da validação de um bloco de registos
+     */
+    private static class Bloco {
+        private List<Event> eventos = new ArrayList<>();
+        private List<String> erros = new ArrayList<>();
+    }
+
+    // Escritor usado para acrescentar as linhas ao ficheiro de eventos
+    private EscritorAgrupado escritor;
+    // Threads onde são validados os blocos
+    private int paralelismo;
+
+    /**
+     * Construtor de ImportadorEventos
+     * @param escritor escritor do ficheiro de eventos
+     */
+    public ImportadorEventos(EscritorAgrupado escritor) {
+        this.escritor = escritor;
+        this.paralelismo = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Método que importa os eventos de um ficheiro .csv ou .ics
+     * @param ficheiro
+     * @return
+     * @throws IOException
+     */
+    public Resultado importa(Path ficheiro)
+            throws IOException {
+
+        long inicio = System.nanoTime();
+        Resultado res = new Resultado();
+        boolean ics = ficheiro.getFileName().toString().toLowerCase().endsWith(".ics");
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.paralelismo);
+        // Blocos em validação, pela ordem do ficheiro; só se deixam alguns em
+        // curso para a memoria não crescer com o tamanho do ficheiro
+        Deque<CompletableFuture<Bloco>> emCurso = new ArrayDeque<>();
+        try (BufferedReader br = Files.newBufferedReader(ficheiro, StandardCharsets.UTF_8)) {
+            List<Registo> bloco = new ArrayList<>(TAMANHO_BLOCO);
+            Iterator<Registo> registos = ics ? new LeitorIcs(br) : new LeitorCsv(br);
+            while (registos.hasNext()) {
+                bloco.add(registos.next());
+                if (bloco.size() == TAMANHO_BLOCO) {
+                    submete(bloco, executor, emCurso, res);
+                    bloco = new ArrayList<>(TAMANHO_BLOCO);
+                }
+            }
+            if (!bloco.isEmpty()) {
+                submete(bloco, executor, emCurso, res);
+            }
+            while (!emCurso.isEmpty()) {
+                junta(emCurso.poll(), res);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Todas as linhas válidas são escritas de uma só vez
+        if (!res.importados.isEmpty()) {
+            List<String> linhas = new ArrayList<>(res.importados.size());
+            for (Event e : res.importados) {
+                linhas.add(e.toString());
+            }
+            try {
+                res.latenciaCommit = this.escritor.acrescenta(linhas).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        res.duracao = System.nanoTime() - inicio;
+        return res;
+    }
+
+    private void submete(List<Registo> bloco, ExecutorService executor,
+                         Deque<CompletableFuture<Bloco>> emCurso, Resultado res) {
+
+        emCurso.add(CompletableFuture.supplyAsync(() -> valida(bloco), executor));
+        while (emCurso.size() > 2 * this.paralelismo) {
+            junta(emCurso.poll(), res);
+        }
+    }
+
+    private static void junta(CompletableFuture<Bloco> f, Resultado res) {
+
+        Bloco b = f.join();
+        res.importados.addAll(b.eventos);
+        res.rejeitados.addAll(b.erros);
+    }
+
+    /**
+     * Método que valida e normaliza um bloco de registos
+     * @param registos
+     * @return
+     */
+    private static Bloco valida(List<Registo> registos) {
+
+        Bloco b = new Bloco();
+        for (Registo r : registos) {
+            try {
+                b.eventos.add(r.campos != null ? doCsv(r.campos) : doIcs(r.propriedades));
+            } catch (DateTimeParseException | IllegalArgumentException e) {
+                b.erros.add("linha " + r.linha + ": " + e.getMessage());
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Método que tira de um texto os caracteres que o ficheiro de eventos
+     * usa como separadores
+     * @param s
+     * @return
+     */
+    private static String texto(String s) {
+        return s.replace("\"", "").replace(';', ',').replace('\n', ' ').replace('\r', ' ').trim();
+    }
+
+    private static LocalDate data(String s) {
+
+        s = s.trim();
+        for (DateTimeFormatter f : FORMATOS_DATA) {
+            try {
+                return LocalDate.parse(s, f);
+            } catch (DateTimeParseException e) {
+                // Tentar o formato seguinte
+            }
+        }
+        throw new IllegalArgumentException("data inválida '" + s + "'");
+    }
+
+    private static LocalTime hora(String s) {
+
+        s = s.trim();
+        if (s.isEmpty()) {
+            return LocalTime.MIDNIGHT;
+        }
+        for (DateTimeFormatter f : FORMATOS_HORA) {
+            try {
+                // O ficheiro de eventos só guarda horas e minutos
+                return LocalTime.parse(s, f).withSecond(0).withNano(0);
+            } catch (DateTimeParseException e) {
+                // Tentar o formato seguinte
+            }
+        }
+        throw new IllegalArgumentException("hora inválida '" + s + "'");
+    }
+
+    /**
+     * Método que cria um evento a partir dos campos de uma linha CSV
+     * @param c
+     * @return
+     */
+    private static Event doCsv(String[] c) {
+
+        // Com só uma mensagem (ident;msg;data;...) usa-se a mesma nos três estados
+        boolean umaMensagem;
+        if (c.length >= 5 && eData(c[4])) {
+            umaMensagem = false;
+        } else if (c.length >= 3 && eData(c[2])) {
+            umaMensagem = true;
+        } else {
+            throw new IllegalArgumentException("data do evento em falta ou inválida (" + c.length + " campos)");
+        }
+        String ident = texto(c[0]);
+        if (ident.isEmpty()) {
+            throw new IllegalArgumentException("identificação vazia");
+        }
+        int d = umaMensagem ? 2 : 4;
+        String past = texto(c[1]);
+        String pres = umaMensagem ? past : texto(c[2]);
+        String fut = umaMensagem ? past : texto(c[3]);
+
+        LocalDate data = data(c[d]);
+        LocalTime hora = c.length > d + 1 ? hora(c[d + 1]) : LocalTime.MIDNIGHT;
+        LocalDate datadel = c.length > d + 2 && !c[d + 2].trim().isEmpty() ? data(c[d + 2]) : data.plusDays(DIAS_APAGAR);
+        LocalTime horadel = c.length > d + 3 ? hora(c[d + 3]) : hora;
+        Event e = evento(ident, past, pres, fut, data, hora, datadel, horadel);
+        if (c.length > d + 4) {
+            e.setRecorrencia(Recorrencia.normaliza(c[d + 4]));
+        }
+        return e;
+    }
+
+    private static boolean eData(String s) {
+        try {
+            data(s);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Método que cria um evento a partir das propriedades de um VEVENT
+     * @param p
+     * @return
+     */
+    private static Event doIcs(Map<String,String> p) {
+
+        String ident = texto(desescapa(p.getOrDefault("SUMMARY", "")));
+        if (ident.isEmpty()) {
+            throw new IllegalArgumentException("VEVENT sem SUMMARY");
+        }
+        String msg = p.containsKey("DESCRIPTION") ? texto(desescapa(p.get("DESCRIPTION"))) : ident;
+        if (!p.containsKey("DTSTART")) {
+            throw new IllegalArgumentException("VEVENT sem DTSTART");
+        }
+        LocalDateTime inicio = dataIcs(p.get("DTSTART"), p.get("DTSTART;TZID"));
+        LocalDateTime fim = p.containsKey("DTEND") ? dataIcs(p.get("DTEND"), p.get("DTEND;TZID")) : inicio;
+        LocalDateTime apagar = fim.plusDays(DIAS_APAGAR);
+        Event e = evento(ident, msg, msg, msg, inicio.toLocalDate(), inicio.toLocalTime(),
+                apagar.toLocalDate(), apagar.toLocalTime());
+        e.setRecorrencia(Recorrencia.normaliza(p.get("RRULE")));
+        return e;
+    }
+
+    /**
+     * Método que converte uma data do iCalendar para a hora local
+     * @param valor 20210215, 20210215T103000 ou 20210215T103000Z
+     * @param zona TZID da propriedade (pode ser null)
+     * @return
+     */
+    private static LocalDateTime dataIcs(String valor, String zona) {
+
+        valor = valor.trim();
+        try {
+            if (valor.length() == 8) {
+                return LocalDate.parse(valor, DateTimeFormatter.BASIC_ISO_DATE).atStartOfDay();
+            }
+            boolean utc = valor.endsWith("Z");
+            LocalDateTime t = LocalDateTime.parse(utc ? valor.substring(0, valor.length() - 1) : valor, ICS_DATA_HORA);
+            ZoneId origem = utc ? ZoneId.of("UTC") : zona != null ? ZoneId.of(zona) : null;
+            if (origem != null) {
+                t = ZonedDateTime.of(t, origem).withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            }
+            return t.withSecond(0);
+        } catch (java.time.DateTimeException e) {
+            throw new IllegalArgumentException("data iCalendar inválida '" + valor + "'");
+        }
+    }
+
+    private static String desescapa(String s) {
+        return s.replace("\\n", " ").replace("\\N", " ").replace("\\,", ",").replace("\\;", ",").replace("\\\\", "\\");
+    }
+
+    private static Event evento(String ident, String past, String pres, String fut,
+                                LocalDate data, LocalTime hora, LocalDate datadel, LocalTime horadel) {
+
+        if (LocalDateTime.of(datadel, horadel).isBefore(LocalDateTime.of(data, hora))) {
+            throw new IllegalArgumentException("data para apagar anterior à data do evento");
+        }
+        return new Event(0, ident, past, pres, fut, data, hora.withSecond(0), datadel, horadel.withSecond(0));
+    }
+
+    /**
+     * Classe que lê os registos de um CSV, um por linha
+     */
+    private static class LeitorCsv implements Iterator<Registo> {
+        private BufferedReader br;
+        private int numero;
+        private char separador;
+        private Registo proximo;
+
+        private LeitorCsv(BufferedReader br) {
+            this.br = br;
+            this.numero = 0;
+            this.separador = 0;
+            this.avanca();
+        }
+
+        private void avanca() {
+            this.proximo = null;
+            try {
+                String linha;
+                while ((linha = this.br.readLine()) != null) {
+                    this.numero++;
+                    if (linha.trim().isEmpty()) {
+                        continue;
+                    }
+                    if (this.separador == 0) {
+                        // O separador é o que aparece na primeira linha
+                        this.separador = linha.indexOf(';') >= 0 ? ';' : ',';
+                        String[] c = separa(linha, this.separador);
+                        // Cabeçalho: nenhum campo tem uma data
+                        boolean cabecalho = true;
+                        for (String campo : c) {
+                            if (eData(campo)) {
+                                cabecalho = false;
+                            }
+                        }
+                        if (cabecalho) {
+                            continue;
+                        }
+                    }
+                    this.proximo = new Registo(this.numero, separa(linha, this.separador), null);
+                    return;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Separa uma linha pelos separadores que não estão entre aspas
+         */
+        private static String[] separa(String linha, char sep) {
+            List<String> campos = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            boolean aspas = false;
+            for (int i = 0; i < linha.length(); i++) {
+                char ch = linha.charAt(i);
+                if (ch == '"') {
+                    if (aspas && i + 1 < linha.length() && linha.charAt(i + 1) == '"') {
+                        sb.append('"');
+                        i++;
+                    } else {
+                        aspas = !aspas;
+                    }
+                } else if (ch == sep && !aspas) {
+                    campos.add(sb.toString());
+                    sb.setLength(0);
+                } else {
+                    sb.append(ch);
+                }
+            }
+            campos.add(sb.toString());
+            return campos.toArray(new String[0]);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.proximo != null;
+        }
+
+        @Override
+        public Registo next() {
+            if (this.proximo == null) {
+                throw new NoSuchElementException();
+            }
+            Registo r = this.proximo;
+            this.avanca();
+            return r;
+        }
+    }
+
+    /**
+     * Classe que lê os VEVENT de um ficheiro iCalendar
+     */
+    private static class LeitorIcs implements Iterator<Registo> {
+        private BufferedReader br;
+        private int numero;
+        // Linha lida a mais ao juntar as linhas dobradas
+        private String seguinte;
+        private Registo proximo;
+
+        private LeitorIcs(BufferedReader br) {
+            this.br = br;
+            this.numero = 0;
+            this.avanca();
+        }
+
+        /**
+         * Lê uma linha lógica, juntando as continuações (linhas que
+         * começam com um espaço ou tab)
+         */
+        private String linha() throws IOException {
+            String l = this.seguinte != null ? this.seguinte : this.br.readLine();
+            this.seguinte = null;
+            if (l == null) {
+                return null;
+            }
+            this.numero++;
+            StringBuilder sb = new StringBuilder(l);
+            String c;
+            while ((c = this.br.readLine()) != null) {
+                if (!c.isEmpty() && (c.charAt(0) == ' ' || c.charAt(0) == '\t')) {
+                    this.numero++;
+                    sb.append(c, 1, c.length());
+                } else {
+                    this.seguinte = c;
+                    break;
+                }
+            }
+            return sb.toString();
+        }
+
+        private void avanca() {
+            this.proximo = null;
+            try {
+                String l;
+                Map<String,String> prop = null;
+                int inicio = 0;
+                while ((l = this.linha()) != null) {
+                    if (l.equals("BEGIN:VEVENT")) {
+                        prop = new HashMap<>();
+                        inicio = this.numero;
+                    } else if (l.equals("END:VEVENT") && prop != null) {
+                        this.proximo = new Registo(inicio, null, prop);
+                        return;
+                    } else if (prop != null) {
+                        int dp = l.indexOf(':');
+                        if (dp < 0) {
+                            continue;
+                        }
+                        // NOME;PARAM=...:valor -> guarda-se o valor pelo nome e o TZID, se houver
+                        String nome = l.substring(0, dp);
+                        String valor = l.substring(dp + 1);
+                        int pv = nome.indexOf(';');
+                        String base = pv < 0 ? nome : nome.substring(0, pv);
+                        prop.putIfAbsent(base.toUpperCase(), valor);
+                        int tz = nome.indexOf("TZID=");
+                        if (tz >= 0) {
+                            String zona = nome.substring(tz + 5);
+                            int fimZona = zona.indexOf(';');
+                            prop.putIfAbsent(base.toUpperCase() + ";TZID", fimZona < 0 ? zona : zona.substring(0, fimZona));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.proximo != null;
+        }
+
+        @Override
+        public Registo next() {
+            if (this.proximo == null) {
+                throw new NoSuchElementException();
+            }
+            Registo r = this.proximo;
+            this.avanca();
+            return r;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package main.Models;
+
+import comum.FormatoEventos;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Classe que mantem o indice do ficheiro de eventos (ficheiro + ".idx"), com a
+ * posição de cada registo no formato definido em FormatoEventos. O indice é só
+ * uma ajuda para os leitores, que o validam antes de o usar, e é mantido pelos
+ * escritores com o lock dos escritores
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class IndiceEventos {
+
+    /**
+     * Método que calcula a posição do inicio de cada linha não vazia
+     * de uma parte do conteudo de um ficheiro
+     * @param conteudo
+     * @param base posição no ficheiro do primeiro byte de conteudo
+     * @return
+     */
+    public static long[] posicoes(byte[] conteudo, long base) {
+
+        long[] posicoes = new long[16];
+        int n = 0;
+        int inicio = 0;
+        while (inicio < conteudo.length) {
+            int fim = inicio;
+            while (fim < conteudo.length && conteudo[fim] != '\n') {
+                fim++;
+            }
+            if (fim > inicio && !(fim == inicio + 1 && conteudo[inicio] == '\r')) {
+                if (n == posicoes.length) {
+                    posicoes = Arrays.copyOf(posicoes, n * 2);
+                }
+                posicoes[n++] = base + inicio;
+            }
+            inicio = fim + 1;
+        }
+        return Arrays.copyOf(posicoes, n);
+    }
+
+    /**
+     * Método que escreve o indice de uma nova versão do ficheiro de eventos
+     * (que vai substituir a anterior). Tem de ser chamado com o lock dos escritores
+     * @param conteudo conteudo da nova versão
+     * @param filename ficheiro de eventos
+     * @return ficheiro temporario com o indice, para ser posto no lugar com
+     *         o rename atómico logo a seguir ao do ficheiro de eventos
+     * @throws IOException
+     */
+    static Path escreveTemporario(byte[] conteudo, String filename)
+            throws IOException {
+
+        Path indice = Paths.get(filename + FormatoEventos.SUFIXO_INDICE).toAbsolutePath();
+        Path temp = indice.resolveSibling(indice.getFileName() + ".tmp");
+        Files.write(temp, FormatoEventos.indice(conteudo.length, posicoes(conteudo, 0)));
+        return temp;
+    }
+
+    /**
+     * Método que põe no lugar o indice escrito por escreveTemporario
+     * @param temp
+     * @param filename
+     * @throws IOException
+     */
+    static void substitui(Path temp, String filename)
+            throws IOException {
+
+        Files.move(temp, Paths.get(filename + FormatoEventos.SUFIXO_INDICE).toAbsolutePath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Método que acrescenta ao indice as posições das linhas acrescentadas ao
+     * ficheiro de eventos. Se o indice não cobre o ficheiro todo até ao inicio
+     * das novas linhas (por exemplo se não existia), é refeito a partir do
+     * ficheiro. Tem de ser chamado com o lock dos escritores. O indice não é
+     * sincronizado para o disco: se ficar errado os leitores não o usam e o
+     * proximo escritor refá-lo
+     * @param linhas linhas acrescentadas (sem o fim de linha)
+     * @param inicio tamanho do ficheiro antes de as linhas serem acrescentadas
+     * @param filename ficheiro de eventos
+     * @throws IOException
+     */
+    static void acrescenta(List<String> linhas, long inicio, String filename)
+            throws IOException {
+
+        try (RandomAccessFile idx = new RandomAccessFile(filename + FormatoEventos.SUFIXO_INDICE, "rw")) {
+            long coberto = idx.length() >= Long.BYTES ? idx.readLong() : -1;
+            if (coberto != inicio) {
+                // Refazer o indice com o ficheiro que existia antes das novas linhas
+                byte[] anterior = Arrays.copyOf(Files.readAllBytes(Paths.get(filename)), (int) inicio);
+                idx.setLength(0);
+                idx.write(FormatoEventos.indice(inicio, posicoes(anterior, 0)));
+            }
+
+            ByteBuffer bb = ByteBuffer.allocate(Long.BYTES * linhas.size());
+            long posicao = inicio;
+            for (String linha : linhas) {
+                // As linhas vazias não são registos
+                if (!linha.isEmpty()) {
+                    bb.putLong(posicao);
+                }
+                posicao += linha.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+            bb.flip();
+            FileChannel ch = idx.getChannel();
+            ch.write(bb, idx.length());
+            // O cabeçalho só é atualizado depois das posições
+            ch.write(ByteBuffer.allocate(Long.BYTES).putLong(0, posicao), 0);
+        }
+    }
+}
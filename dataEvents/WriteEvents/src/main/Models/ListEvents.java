@@ -1,25 +1,48 @@
 package main.Models;
 
+import comum.FormatoEventos;
+
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class ListEvents {
 
     // Lista de eventos
     private List<Event> eventos;
+    // Numero de eventos marcados como apagados que ainda estão no ficheiro
+    private int apagados;
+    // Numero de bytes do ficheiro já lidos
+    private long lido;
+    // Posição e conteudo da ultima linha lida, para saber se o ficheiro foi reescrito
+    private long inicioUltima;
+    private byte[] ultima;
+    // Versão do ficheiro lida (muda quando o ficheiro é substituido)
+    private Object geracao;
 
     public ListEvents(){
 
         this.eventos = new ArrayList<>();
+        this.apagados = 0;
+        this.lido = 0;
+        this.inicioUltima = -1;
+        this.ultima = null;
+        this.geracao = null;
     }
 
     public List<Event> getEventos() {
         return eventos;
     }
 
+    public int getApagados() {
+        return apagados;
+    }
+
     /**
      * Metodo que a partir do nome do ficheiro de eventos,
      * preenche a lista de eventos
@@ -28,17 +51,167 @@ public class ListEvents {
      */
     public void preencheEventos(String filename) throws IOException {
 
+        // Ler até se ter lido uma só versão do ficheiro do principio ao fim
+        byte[] conteudo;
+        Object lida;
+        do {
+            lida = Reader.geracao(filename);
+            conteudo = Reader.read_bytes(filename);
+        } while (!lida.equals(Reader.geracao(filename)));
+
         // Eliminar os dados que possam estar na lista de eventos
         this.eventos.clear();
+        this.apagados = 0;
+        this.lido = 0;
+        this.inicioUltima = -1;
+        this.ultima = null;
+        this.geracao = lida;
+
+        this.leLinhas(conteudo, 0, 0, this.fimLinhas(conteudo, 0, true));
+    }
+
+    /**
+     * Metodo que acrescenta à lista só os eventos que outros escritores
+     * acrescentaram ao ficheiro desde a ultima leitura. Se o ficheiro foi
+     * substituido por uma nova versão (por exemplo numa compactação), ficou
+     * mais pequeno ou a ultima linha lida mudou, a lista é toda lida outra vez
+     * @param filename
+     * @return numero de eventos acrescentados ao fim da lista,
+     *         ou -1 se a lista foi toda lida outra vez
+     * @throws IOException
+     */
+    public int atualiza(String filename) throws IOException {
+
+        if (!Reader.geracao(filename).equals(this.geracao)) {
+            this.preencheEventos(filename);
+            return -1;
+        }
+
+        // Lê-se a partir do inicio da ultima linha, para confirmar que não mudou
+        long desde = this.inicioUltima >= 0 ? this.inicioUltima : this.lido;
+        byte[] conteudo = Reader.read_bytes(filename, desde);
+        int saltar = (int) (this.lido - desde);
 
-        List<String> linhas = Reader.read_lines(filename);
+        if (conteudo == null || conteudo.length < saltar || !this.mesmaUltima(conteudo)
+                || !Reader.geracao(filename).equals(this.geracao)) {
+            this.preencheEventos(filename);
+            return -1;
+        }
 
-        int i = 1;
+        int antes = this.eventos.size();
+        this.leLinhas(conteudo, desde, saltar, this.fimLinhas(conteudo, saltar, false));
+        return this.eventos.size() - antes;
+    }
+
+    /**
+     * Metodo que diz até onde há linhas completas para ler: uma ultima linha
+     * sem fim de linha pode estar a meio de ser escrita e fica para a proxima
+     * leitura, a não ser que seja o fim do ficheiro e seja um evento valido
+     * (ficheiro editado à mão sem fim de linha no fim)
+     * @param conteudo
+     * @param de
+     * @param aceitarUltima
+     * @return
+     */
+    private int fimLinhas(byte[] conteudo, int de, boolean aceitarUltima) {
+
+        int fim = conteudo.length;
+        while (fim > de && conteudo[fim - 1] != '\n') {
+            fim--;
+        }
+        if (aceitarUltima && fim < conteudo.length) {
+            String resto = new String(conteudo, fim, conteudo.length - fim, StandardCharsets.UTF_8).trim();
+            if (resto.isEmpty() || parseEvento(resto, 0) != null) {
+                return conteudo.length;
+            }
+        }
+        return fim;
+    }
+
+    /**
+     * Metodo que diz se o inicio dos bytes lidos é a ultima linha da leitura
+     * anterior; a marca de apagado na primeira posição não conta como mudança
+     * @param conteudo
+     * @return
+     */
+    private boolean mesmaUltima(byte[] conteudo) {
+
+        if (this.ultima == null) {
+            return true;
+        }
+        if (conteudo.length < this.ultima.length) {
+            return false;
+        }
+        if (conteudo[0] != this.ultima[0] && conteudo[0] != FormatoEventos.MARCA_APAGADO) {
+            return false;
+        }
+        return Arrays.equals(conteudo, 1, this.ultima.length, this.ultima, 1, this.ultima.length);
+    }
+
+    /**
+     * Metodo que faz parse das linhas de uma parte do ficheiro e acrescenta
+     * os eventos ao fim da lista
+     * @param conteudo bytes lidos do ficheiro
+     * @param base posição no ficheiro do primeiro byte de conteudo
+     * @param de posição em conteudo onde começa a primeira linha
+     * @param ate posição em conteudo onde termina a ultima linha
+     */
+    private void leLinhas(byte[] conteudo, long base, int de, int ate) {
+
+        int i = this.eventos.size() + 1;
+        int inicio = de;
         // Iterar pelas varias linhas e adicionar os respetivos campos
-        for (String linha : linhas){
+        while (inicio < ate){
+            int fim = inicio;
+            while (fim < ate && conteudo[fim] != '\n') {
+                fim++;
+            }
+            int offset = inicio;
+            int tamanho = fim - inicio;
+            if (tamanho > 0 && conteudo[fim - 1] == '\r') {
+                tamanho--;
+            }
+            inicio = fim + 1;
+            if (tamanho == 0) {
+                continue;
+            }
+            this.inicioUltima = base + offset;
+            this.ultima = Arrays.copyOfRange(conteudo, offset, offset + tamanho);
+            // Eventos apagados ficam no ficheiro até à compactação
+            if (conteudo[offset] == FormatoEventos.MARCA_APAGADO) {
+                this.apagados++;
+                continue;
+            }
+            // Registos corrompidos são ignorados
+            if (!FormatoEventos.checksumValido(conteudo, offset, offset + tamanho)) {
+                System.out.println("Registo do ficheiro de eventos corrompido na posição " + (base + offset));
+                continue;
+            }
+            String linha = new String(conteudo, offset, tamanho, StandardCharsets.UTF_8);
+            Event evento = parseEvento(linha, i);
+            if (evento == null) {
+                System.out.println("Linha do ficheiro de eventos ignorada: " + linha);
+                continue;
+            }
+            evento.setOffset(base + offset);
+            this.eventos.add(evento);
+            i++;
+        }
+        this.lido = base + ate;
+    }
+
+    /**
+     * Metodo que faz parse de uma linha do ficheiro de eventos
+     * @param linha
+     * @param index
+     * @return o evento, ou null se a linha não for um evento valido
+     */
+    private static Event parseEvento(String linha, int index) {
+
+        try {
             // Fazer parse ao varios campos de cada linha
             String[] campos = linha.split(";");
-            // <ident>;<msgpast>;<msgpres>;<msgfut>;data;hora;datadel;horadel
+            // <ident>;<msgpast>;<msgpres>;<msgfut>;data;hora;datadel;horadel[;FREQ=...]
             String ident = campos[0].replace("\"","");
             String msgpast = campos[1].replace("\"","");
             String msgpres = campos[2].replace("\"","");
@@ -47,10 +220,59 @@ public class ListEvents {
             LocalTime hora = LocalTime.parse(campos[5]);
             LocalDate datadel = LocalDate.parse(campos[6]);
             LocalTime horadel = LocalTime.parse(campos[7]);
-            Event evento = new Event(i,ident,msgpast,msgpres,msgfut,data,hora,datadel,horadel);
-            this.eventos.add(evento);
-            i++;
+            Event e = new Event(index,ident,msgpast,msgpres,msgfut,data,hora,datadel,horadel);
+            if (campos.length > 8 && campos[8].startsWith("FREQ=")) {
+                e.setRecorrencia(Recorrencia.normaliza(campos[8]));
+            }
+            return e;
+        } catch (ArrayIndexOutOfBoundsException | DateTimeParseException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Metodo que marca no ficheiro como apagado o evento de uma dada
+     * posição (1..n) e o tira da lista; os indices dos eventos seguintes
+     * passam a ser os mesmos que terão depois de uma nova leitura
+     * @param index
+     * @param filename
+     * @throws RegistoAlteradoException se o ficheiro mudou desde a leitura
+     * @throws IOException
+     */
+    public void apagaEvento(int index, String filename) throws IOException {
+
+        Event e = this.eventos.get(index - 1);
+        if (e.getOffset() < 0) {
+            throw new RegistoAlteradoException("O evento " + index + " ainda não foi lido do ficheiro");
+        }
+        Writer.marcaApagado(e.toString(), e.getOffset(), filename);
+
+        this.eventos.remove(index - 1);
+        for (int i = index - 1; i < this.eventos.size(); i++) {
+            this.eventos.get(i).setIndex(i + 1);
+        }
+        this.apagados++;
+    }
+
+    /**
+     * Metodo que procura o evento com um dado registo (a linha do ficheiro,
+     * que inclui o checksum), para se encontrar um evento depois de o
+     * ficheiro ser relido, em vez de se confiar na sua posição
+     * @param registo
+     * @param perto posição (1..n) onde o evento estava; se houver varios
+     *              eventos iguais escolhe-se o mais proximo
+     * @return posição (1..n) do evento, ou -1 se já não estiver na lista
+     */
+    public int procuraEvento(String registo, int perto) {
+
+        int melhor = -1;
+        for (int i = 0; i < this.eventos.size(); i++) {
+            if (this.eventos.get(i).toString().equals(registo)
+                    && (melhor < 0 || Math.abs(i + 1 - perto) < Math.abs(melhor - perto))) {
+                melhor = i + 1;
+            }
         }
+        return melhor;
     }
 
     /**
@@ -1,8 +1,14 @@
 package main.Models;
 
 import java.io.*;
-import java.nio.channels.FileLock;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -26,22 +32,69 @@ public class Reader {
     {
         List<String> content = new ArrayList<>();
 
-        FileInputStream fis = new FileInputStream(filename);
-        BufferedReader br = new BufferedReader(new InputStreamReader(fis));
-        /* Obtemos acesso exclusivo ao ficheiro de logs */
-        FileLock fl = fis.getChannel().lock(0,Long.MAX_VALUE,true);
+        // Sem lock: lê-se a versão do ficheiro que estiver no lugar quando é aberto
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(filename)));
 
         String line;
         while((line = br.readLine()) != null){
             content.add(line);
         }
 
-        fl.release();
         br.close();
 
         return content;
     }
 
+    /**
+     * Método que lê todos os bytes de um ficheiro,
+     * para quem precisa de saber a posição de cada linha no ficheiro
+     * @param filename
+     * @return
+     * @throws IOException
+     */
+    public static byte[] read_bytes(String filename)
+            throws IOException
+    {
+        return Files.readAllBytes(Paths.get(filename));
+    }
+
+    /**
+     * Método que lê os bytes de um ficheiro a partir
+     * de uma dada posição até ao fim
+     * @param filename
+     * @param desde
+     * @return os bytes lidos, ou null se o ficheiro tem menos de desde bytes
+     * @throws IOException
+     */
+    public static byte[] read_bytes(String filename, long desde)
+            throws IOException
+    {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long tamanho = ch.size();
+            if (tamanho < desde) {
+                return null;
+            }
+            ByteBuffer bb = ByteBuffer.allocate((int) (tamanho - desde));
+            while (bb.hasRemaining() && ch.read(bb, desde + bb.position()) > 0);
+            return Arrays.copyOf(bb.array(), bb.position());
+        }
+    }
+
+    /**
+     * Método que identifica a versão atual de um ficheiro: muda sempre que o
+     * ficheiro é substituido por uma nova versão (mas não com appends)
+     * @param filename
+     * @return
+     * @throws IOException
+     */
+    public static Object geracao(String filename)
+            throws IOException
+    {
+        BasicFileAttributes attrs = Files.readAttributes(Paths.get(filename), BasicFileAttributes.class);
+        // Nem todos os sistemas têm uma chave do ficheiro (inode)
+        return attrs.fileKey() != null ? attrs.fileKey() : attrs.creationTime();
+    }
+
     /**
      * Método que lê o conteúdo de um ficheiro passado como parametro
      * e retorna o conteudo de todo o ficheiro
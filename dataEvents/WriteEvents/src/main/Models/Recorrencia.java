@@ -0,0 +1,103 @@
+package main.Models;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Classe que valida a regra de repetição de um evento e a passa para o formato
+ * do ficheiro de eventos: uma RRULE do iCalendar com as partes separadas por
+ * virgulas (o ';' separa os campos do ficheiro)
+ *   FREQ=DAILY|WEEKLY|MONTHLY|YEARLY[,INTERVAL=n][,COUNT=n][,UNTIL=AAAA-MM-DD]
+ * As ocorrências não são escritas no ficheiro: é o agente que as calcula
+ * quando atualiza a MIB
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class Recorrencia {
+
+    /**
+     * Método que valida uma regra de repetição e a dá no formato do ficheiro.
+     * Aceita as partes separadas por ',' ou por ';' (como numa RRULE) e o
+     * UNTIL também no formato do iCalendar (AAAAMMDD ou AAAAMMDDTHHMMSS[Z])
+     * @param regra
+     * @return a regra normalizada, ou "" se a regra for vazia
+     * @throws IllegalArgumentException se a regra não for valida ou usar partes não suportadas
+     */
+    public static String normaliza(String regra) {
+
+        if (regra == null || regra.trim().isEmpty()) {
+            return "";
+        }
+        String freq = null, intervalo = null, count = null, until = null;
+        for (String parte : regra.trim().split("[,;]")) {
+            if (parte.trim().isEmpty()) {
+                continue;
+            }
+            String[] kv = parte.trim().split("=", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("parte inválida na regra '" + parte + "'");
+            }
+            String valor = kv[1].trim().toUpperCase();
+            switch (kv[0].trim().toUpperCase()) {
+                case "FREQ":
+                    if (!valor.matches("DAILY|WEEKLY|MONTHLY|YEARLY")) {
+                        throw new IllegalArgumentException("frequência não suportada '" + valor + "'");
+                    }
+                    freq = valor;
+                    break;
+                case "INTERVAL":
+                    intervalo = String.valueOf(positivo(valor));
+                    break;
+                case "COUNT":
+                    count = String.valueOf(positivo(valor));
+                    break;
+                case "UNTIL":
+                    until = until(valor).toString();
+                    break;
+                default:
+                    throw new IllegalArgumentException("parte da regra não suportada '" + parte.trim() + "'");
+            }
+        }
+        if (freq == null) {
+            throw new IllegalArgumentException("regra sem FREQ '" + regra + "'");
+        }
+        StringBuilder sb = new StringBuilder("FREQ=").append(freq);
+        if (intervalo != null && !intervalo.equals("1")) {
+            sb.append(",INTERVAL=").append(intervalo);
+        }
+        if (count != null) {
+            sb.append(",COUNT=").append(count);
+        }
+        if (until != null) {
+            sb.append(",UNTIL=").append(until);
+        }
+        return sb.toString();
+    }
+
+    private static int positivo(String valor) {
+
+        try {
+            int n = Integer.parseInt(valor);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // Tratado abaixo
+        }
+        throw new IllegalArgumentException("numero inválido na regra '" + valor + "'");
+    }
+
+    private static LocalDate until(String valor) {
+
+        try {
+            if (valor.length() >= 8 && Character.isDigit(valor.charAt(4))) {
+                return LocalDate.parse(valor.substring(0, 8), DateTimeFormatter.BASIC_ISO_DATE);
+            }
+            return LocalDate.parse(valor);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("UNTIL inválido na regra '" + valor + "'");
+        }
+    }
+}
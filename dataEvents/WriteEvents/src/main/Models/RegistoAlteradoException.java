@@ -0,0 +1,19 @@
+package main.Models;
+
+import java.io.IOException;
+
+/**
+ * Exceção lançada quando um registo do ficheiro de eventos já não está
+ * onde se esperava (o ficheiro foi alterado desde que foi lido)
+ *
+ * @version 1.0 (02/2021)
+ */
+
+public class RegistoAlteradoException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RegistoAlteradoException(String msg) {
+        super(msg);
+    }
+}
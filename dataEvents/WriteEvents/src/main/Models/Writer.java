@@ -1,8 +1,17 @@
 package main.Models;
 
+import comum.FormatoEventos;
+
 import java.io.*;
-import java.nio.channels.FileLock;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -14,6 +23,24 @@ import java.util.List;
 
 public class Writer {
 
+    /**
+     * Os FileLock são do processo: duas threads desta aplicação não podem ter
+     * locks sobrepostos no mesmo ficheiro, por isso todas as escritas são
+     * feitas dentro deste trinco
+     */
+    static final Object TRINCO = new Object();
+
+    /**
+     * Sufixo do ficheiro usado só para o lock entre escritores (de varios processos).
+     * Os leitores nunca usam lock: as reescritas são feitas numa nova versão do
+     * ficheiro que substitui a anterior com um rename atómico, e os appends e as
+     * marcas de apagado só acrescentam linhas inteiras ou mudam um byte
+     */
+    public static final String SUFIXO_LOCK = ".lock";
+
+    /* Numero da proxima versão do ficheiro escrita por este processo */
+    private static long geracao = 0;
+
     /**
      * Método que escreve um conjunto de linhas para um ficheiro (faz o append)
      * @param linhas
@@ -42,16 +69,128 @@ public class Writer {
     public static void write(String content, String filename)
             throws IOException
     {
-        FileOutputStream fos = new FileOutputStream(filename,true);
-        FileLock fl = fos.getChannel().lock();
-        // O true serve para usar o modo append
+        synchronized (TRINCO) {
+            FileChannel lock = trancaEscritores(filename);
+            // O true serve para usar o modo append
+            try (FileOutputStream fos = new FileOutputStream(filename,true)) {
+
+                long inicio = fos.getChannel().size();
+                fos.write((content + "\n").getBytes(StandardCharsets.UTF_8));
+                fos.flush();
+                fos.getFD().sync();
+
+                atualizaIndice(List.of(content), inicio, filename);
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Método que acrescenta um conjunto de linhas a um ficheiro de uma só vez,
+     * com um único lock e um único sync para todas as linhas
+     * @param linhas
+     * @param filename
+     * @throws IOException
+     */
+    public static void append(List<String> linhas, String filename)
+            throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for(String linha : linhas) {
+            sb.append(linha).append("\n");
+        }
+
+        synchronized (TRINCO) {
+            FileChannel lock = trancaEscritores(filename);
+            try (FileOutputStream fos = new FileOutputStream(filename,true)) {
+
+                long inicio = fos.getChannel().size();
+                // Uma só escrita, para os leitores nunca verem metade de um lote
+                fos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+                fos.flush();
+                fos.getFD().sync();
+
+                atualizaIndice(linhas, inicio, filename);
+            } finally {
+                lock.close();
+            }
+        }
+    }
 
-        fos.write((content + "\n").getBytes(StandardCharsets.UTF_8));
-        fos.flush();
-        fos.getFD().sync();
+    /**
+     * Método que marca como apagado, no proprio ficheiro, o evento que está
+     * numa dada posição: só é escrito um byte (e feito um sync), qualquer que
+     * seja o tamanho do ficheiro. A linha continua no ficheiro até à
+     * proxima compactação
+     * @param linha conteudo da linha do evento (sem o fim de linha)
+     * @param offset posição (em bytes) onde a linha começa
+     * @param filename
+     * @throws RegistoAlteradoException se a linha já não estiver nessa posição
+     * @throws IOException
+     */
+    public static void marcaApagado(String linha, long offset, String filename)
+            throws IOException
+    {
+        byte[] esperado = linha.getBytes(StandardCharsets.UTF_8);
 
-        fl.release();
-        fos.close();
+        synchronized (TRINCO) {
+            FileChannel lock = trancaEscritores(filename);
+            try (RandomAccessFile raf = new RandomAccessFile(filename, "rw")) {
+                FileChannel ch = raf.getChannel();
+                // Confirmar que a linha não mudou de sitio (por exemplo numa compactação)
+                ByteBuffer atual = ByteBuffer.allocate(esperado.length);
+                while (atual.hasRemaining() && ch.read(atual, offset + atual.position()) > 0);
+                if (atual.hasRemaining() || !Arrays.equals(atual.array(), esperado)) {
+                    throw new RegistoAlteradoException("O evento já não está na posição " + offset + " de " + filename);
+                }
+                ch.write(ByteBuffer.wrap(new byte[]{FormatoEventos.MARCA_APAGADO}), offset);
+                raf.getFD().sync();
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Método que tira do ficheiro as linhas marcadas como apagadas,
+     * escrevendo uma nova versão do ficheiro sem elas
+     * @param filename
+     * @return numero de linhas tiradas
+     * @throws IOException
+     */
+    public static int compacta(String filename)
+            throws IOException
+    {
+        synchronized (TRINCO) {
+            FileChannel lock = trancaEscritores(filename);
+            try {
+                byte[] conteudo = Files.readAllBytes(Paths.get(filename));
+
+                ByteArrayOutputStream novo = new ByteArrayOutputStream(conteudo.length);
+                int removidas = 0;
+                int inicio = 0;
+                while (inicio < conteudo.length) {
+                    int fim = inicio;
+                    while (fim < conteudo.length && conteudo[fim] != '\n') {
+                        fim++;
+                    }
+                    int tamanho = Math.min(fim + 1, conteudo.length) - inicio;
+                    if (conteudo[inicio] == FormatoEventos.MARCA_APAGADO) {
+                        removidas++;
+                    } else {
+                        novo.write(conteudo, inicio, tamanho);
+                    }
+                    inicio = fim + 1;
+                }
+                if (removidas > 0) {
+                    substitui(novo.toByteArray(), filename);
+                }
+                return removidas;
+            } finally {
+                lock.close();
+            }
+        }
     }
 
     /**
@@ -63,15 +202,93 @@ public class Writer {
     public static void create(String content, String filename)
             throws IOException
     {
-        FileOutputStream fos = new FileOutputStream(filename);
-        FileLock fl = fos.getChannel().lock();
+        synchronized (TRINCO) {
+            FileChannel lock = trancaEscritores(filename);
+            try {
+                substitui(content.getBytes(StandardCharsets.UTF_8), filename);
+            } finally {
+                lock.close();
+            }
+        }
+    }
 
-        fos.write(content.getBytes(StandardCharsets.UTF_8));
-        fos.flush();
-        fos.getFD().sync();
+    /**
+     * Método que escreve uma nova versão do ficheiro num ficheiro temporario
+     * e a põe no lugar do ficheiro com um rename atómico: quem já tem o
+     * ficheiro aberto continua a ler a versão anterior, quem o abrir a seguir
+     * lê a nova. Tem de ser chamado com o lock dos escritores
+     * @param conteudo
+     * @param filename
+     * @throws IOException
+     */
+    private static void substitui(byte[] conteudo, String filename)
+            throws IOException
+    {
+        Path destino = Paths.get(filename).toAbsolutePath();
+        Path temp = destino.resolveSibling(destino.getFileName() + "." + (geracao++) + ".tmp");
+        Path indice = null;
+        try {
+            try (FileOutputStream fos = new FileOutputStream(temp.toFile())) {
+                fos.write(conteudo);
+                fos.flush();
+                fos.getFD().sync();
+            }
+            indice = IndiceEventos.escreveTemporario(conteudo, filename);
+            Files.move(temp, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // Até aqui os leitores podem ver o indice antigo com a nova versão, mas
+            // não o usam porque as posições não batem certo com as linhas
+            IndiceEventos.substitui(indice, filename);
+        } finally {
+            Files.deleteIfExists(temp);
+            if (indice != null) {
+                Files.deleteIfExists(indice);
+            }
+        }
+        // Garantir que o rename fica no disco (não é possível em todos os sistemas)
+        try (FileChannel dir = FileChannel.open(destino.getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // O rename fica no disco quando o sistema o decidir
+        }
+    }
 
-        fl.release();
-        fos.close();
+    /**
+     * Método que acrescenta ao indice do ficheiro as novas linhas; as linhas
+     * já estão no disco, por isso um erro no indice não faz falhar a escrita
+     * (os leitores não usam um indice que não bata certo com o ficheiro)
+     * @param linhas
+     * @param inicio
+     * @param filename
+     */
+    private static void atualizaIndice(List<String> linhas, long inicio, String filename) {
+
+        try {
+            IndiceEventos.acrescenta(linhas, inicio, filename);
+        } catch (IOException e) {
+            System.err.println("[ERRO] Não foi possível atualizar o indice de " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Método que obtem o lock dos escritores de um ficheiro, num ficheiro
+     * à parte para que os leitores nunca fiquem à espera. O lock é libertado
+     * quando o canal devolvido é fechado
+     * @param filename
+     * @return
+     * @throws IOException
+     */
+    private static FileChannel trancaEscritores(String filename)
+            throws IOException
+    {
+        FileChannel ch = FileChannel.open(Paths.get(filename + SUFIXO_LOCK),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            ch.lock();
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
     }
 
 }
@@ -971,6 +971,32 @@ public class DTLSTM extends DefaultUdpTransportMapping implements X509TlsTranspo
         }
     }
 
+    @Override
+    public int getSendQueueCapacity() {
+        // Messages have to be encrypted by prepareOutPackets which may also run a handshake
+        return 0;
+    }
+
+    @Override
+    public void setSendQueueCapacity(int sendQueueCapacity) {
+        if (sendQueueCapacity > 0) {
+            throw new IllegalArgumentException("Send queue cannot be used for DTLS");
+        }
+    }
+
+    @Override
+    public ReceiveBufferPool getReceiveBufferPool() {
+        // Inbound packets are decrypted by prepareInPacket into their own buffers
+        return null;
+    }
+
+    @Override
+    public void setReceiveBufferPool(ReceiveBufferPool receiveBufferPool) {
+        if (receiveBufferPool != null) {
+            throw new IllegalArgumentException("Receive buffer pool cannot be used for DTLS");
+        }
+    }
+
     @Override
     protected void fireProcessMessage(DatagramPacket packet, ByteBuffer bis, TransportStateReference stateReference) {
         fireProcessMessage(new DtlsAddress(packet.getAddress(), packet.getPort()), bis, stateReference);
@@ -50,6 +50,29 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
     private static final LogAdapter logger =
             LogFactory.getLogger(DefaultUdpTransportMapping.class);
 
+    /**
+     * The system property that sets the default send queue capacity of new UDP transport
+     * mappings. See {@link #setSendQueueCapacity(int)}.
+     *
+     * @since 3.5.0
+     */
+    public static final String SEND_QUEUE_CAPACITY = "org.snmp4j.udpSendQueueCapacity";
+
+    /**
+     * The maximum number of queued messages sent by the writer thread in one batch.
+     *
+     * @since 3.5.0
+     */
+    public static final int DEFAULT_SEND_BATCH = 64;
+
+    /**
+     * The system property that enables a {@link ReceiveBufferPool} for new UDP transport
+     * mappings if set to {@code true}. See {@link #setReceiveBufferPool(ReceiveBufferPool)}.
+     *
+     * @since 3.5.0
+     */
+    public static final String RECEIVE_BUFFER_POOL = "org.snmp4j.udpReceiveBufferPool";
+
     protected DatagramSocket socket = null;
     protected WorkerTask listener;
     protected ListenThread listenerThread;
@@ -57,6 +80,13 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
 
     private int receiveBufferSize = 0; // not set by default
 
+    private int sendQueueCapacity = Integer.getInteger(SEND_QUEUE_CAPACITY, 0);
+    private volatile UdpSendQueue sendQueue;
+    private WorkerTask sendQueueWriter;
+
+    private ReceiveBufferPool receiveBufferPool =
+            Boolean.getBoolean(RECEIVE_BUFFER_POOL) ? new ReceiveBufferPool() : null;
+
     /**
      * Creates a UDP transport with an arbitrary local port on all local
      * interfaces.
@@ -122,6 +152,10 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
                     message.length + ": " +
                     new OctetString(message).toHexString());
         }
+        UdpSendQueue queue = sendQueue;
+        if ((queue != null) && queue.offer(targetAddress, message)) {
+            return;
+        }
         DatagramSocket s = ensureSocket();
         List<DatagramPacket> netPayload =
                 prepareOutPackets(targetAddress, message, tmStateReference, s, timeoutMillis, maxRetries);
@@ -173,6 +207,12 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
      */
     public void close() throws IOException {
         boolean interrupted = false;
+        try {
+            stopSendQueue();
+        } catch (InterruptedException ex) {
+            interrupted = true;
+            logger.warn(ex);
+        }
         WorkerTask l = listener;
         if (l != null) {
             l.terminate();
@@ -223,6 +263,131 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
         listener = SNMP4JSettings.getThreadFactory().createWorkerThread(
                 "DefaultUDPTransportMapping_" + getListenAddress(), listenerThread, true);
         listener.run();
+        startSendQueue();
+    }
+
+    private synchronized void startSendQueue() {
+        int capacity = getSendQueueCapacity();
+        if ((capacity > 0) && (sendQueue == null)) {
+            UdpSendQueue queue = new UdpSendQueue(this, capacity, DEFAULT_SEND_BATCH);
+            sendQueueWriter = SNMP4JSettings.getThreadFactory().createWorkerThread(
+                    "DefaultUDPTransportMapping_Sender_" + getListenAddress(), queue, true);
+            sendQueueWriter.run();
+            sendQueue = queue;
+        }
+    }
+
+    private void stopSendQueue() throws InterruptedException {
+        WorkerTask writer;
+        synchronized (this) {
+            writer = sendQueueWriter;
+            if (writer == null) {
+                return;
+            }
+            sendQueue.terminate();
+            sendQueue = null;
+            sendQueueWriter = null;
+        }
+        // the writer flushes the remaining queued messages before it stops
+        writer.join();
+    }
+
+    /**
+     * Gets the maximum number of messages that may wait in the send queue of this transport
+     * mapping.
+     *
+     * @return the send queue capacity, or 0 if messages are sent by the calling thread.
+     * @since 3.5.0
+     */
+    public int getSendQueueCapacity() {
+        return sendQueueCapacity;
+    }
+
+    /**
+     * Sets the capacity of the send queue. With a capacity greater than zero, messages are
+     * appended to a lock-free queue by {@link #sendMessage} and sent in batches by a writer
+     * thread of this transport mapping, which reuses one datagram packet and resolves each
+     * destination of a batch only once. When the queue is full, further messages are dropped
+     * (see {@link #getSendQueueDroppedMessages()}) so that no message overtakes the queued ones.
+     * The queue is started by {@link #listen()} and flushed by {@link #close()}.
+     * <p>
+     * Queued messages are sent as they are, without {@link #prepareOutPackets}, and I/O errors
+     * are logged instead of being thrown to the caller of {@link #sendMessage}.
+     * The default capacity is given by the system property {@link #SEND_QUEUE_CAPACITY}
+     * or 0 if it is not set.
+     *
+     * @param sendQueueCapacity
+     *         the maximum number of queued messages, or 0 to send with the calling thread.
+     *
+     * @since 3.5.0
+     */
+    public void setSendQueueCapacity(int sendQueueCapacity) {
+        if (sendQueueCapacity < 0) {
+            throw new IllegalArgumentException("Send queue capacity must be >= 0");
+        }
+        this.sendQueueCapacity = sendQueueCapacity;
+        if (isListening()) {
+            try {
+                stopSendQueue();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            startSendQueue();
+        }
+    }
+
+    /**
+     * Gets the pool that provides the receive buffers of this transport mapping.
+     *
+     * @return the receive buffer pool or {@code null} if a buffer is allocated per message.
+     * @since 3.5.0
+     */
+    public ReceiveBufferPool getReceiveBufferPool() {
+        return receiveBufferPool;
+    }
+
+    /**
+     * Sets the pool that provides the receive buffers of this transport mapping. Without a pool,
+     * a buffer of {@link #getMaxInboundMessageSize()} bytes is allocated for each message if
+     * {@link #isAsyncMsgProcessingSupported()} is {@code true}. With a pool, messages are received
+     * into shared slabs and handed to the transport listeners without a copy. The reference of
+     * the message is released when the listeners return, so a listener that processes the message
+     * asynchronously has to use {@link ReceiveBufferPool#retain(ByteBuffer)} as
+     * {@link org.snmp4j.util.MultiThreadedMessageDispatcher} does.
+     * This method has to be called before {@link #listen()} and the pool must not be shared with
+     * other transport mappings. The default is given by the system property
+     * {@link #RECEIVE_BUFFER_POOL}.
+     *
+     * @param receiveBufferPool
+     *         a receive buffer pool or {@code null} to allocate a buffer per message.
+     *
+     * @since 3.5.0
+     */
+    public void setReceiveBufferPool(ReceiveBufferPool receiveBufferPool) {
+        this.receiveBufferPool = receiveBufferPool;
+    }
+
+    /**
+     * Returns the number of messages waiting in the send queue.
+     *
+     * @return the number of queued messages, which is always 0 without a send queue.
+     * @since 3.5.0
+     */
+    public int getSendQueueSize() {
+        UdpSendQueue queue = sendQueue;
+        return (queue == null) ? 0 : queue.size();
+    }
+
+    /**
+     * Returns the number of messages dropped because the send queue was full.
+     *
+     * @return the number of dropped messages since the send queue was started, which is always 0
+     * without a send queue.
+     * @since 3.5.0
+     */
+    public long getSendQueueDroppedMessages() {
+        UdpSendQueue queue = sendQueue;
+        return (queue == null) ? 0 : queue.getDroppedMessages();
     }
 
     protected synchronized DatagramSocket ensureSocket() throws SocketException {
@@ -405,10 +570,13 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
 
         private byte[] buf;
         private volatile boolean stop = false;
+        private final ReceiveBufferPool pool = getReceiveBufferPool();
 
 
         public ListenThread() throws SocketException {
-            buf = new byte[getMaxInboundMessageSize()];
+            if (pool == null) {
+                buf = new byte[getMaxInboundMessageSize()];
+            }
         }
 
         public void run() {
@@ -433,13 +601,26 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
                     logger.info("Listening on socket " + new UdpAddress(socketCopy.getLocalAddress(), socketCopy.getLocalPort()));
                 }
             }
+            DatagramPacket packet = null;
             while (!stop) {
-                if (isAsyncMsgProcessingSupported() || (buf == null)) {
-                    buf = new byte[getMaxInboundMessageSize()];
+                ByteBuffer receiveBuffer = null;
+                if (pool != null) {
+                    receiveBuffer = pool.receiveBuffer(getMaxInboundMessageSize());
+                    buf = receiveBuffer.array();
+                    if (packet == null) {
+                        packet = new DatagramPacket(buf, receiveBuffer.position(), receiveBuffer.remaining());
+                    } else {
+                        packet.setData(buf, receiveBuffer.position(), receiveBuffer.remaining());
+                    }
+                } else {
+                    if (isAsyncMsgProcessingSupported() || (buf == null)) {
+                        buf = new byte[getMaxInboundMessageSize()];
+                    }
+                    packet = new DatagramPacket(buf, buf.length,
+                            udpAddress.getInetAddress(),
+                            udpAddress.getPort());
                 }
-                DatagramPacket packet = new DatagramPacket(buf, buf.length,
-                        udpAddress.getInetAddress(),
-                        udpAddress.getPort());
+                boolean committed = false;
                 try {
                     socketCopy = socket;
                     ByteBuffer bis;
@@ -457,18 +638,21 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
                         } catch (SocketTimeoutException ste) {
                             continue;
                         }
-                        bis = prepareInPacket(packet, buf, stateReference);
                     } catch (InterruptedIOException iiox) {
                         if (iiox.bytesTransferred <= 0) {
                             continue;
                         }
-                        bis = prepareInPacket(packet, buf, stateReference);
                     }
+                    if (receiveBuffer != null) {
+                        pool.commit(receiveBuffer, packet.getLength());
+                        committed = true;
+                    }
+                    bis = prepareInPacket(packet, buf, stateReference);
                     if (logger.isDebugEnabled()) {
                         logger.debug("Received message from " + packet.getAddress() + "/" +
                                 packet.getPort() +
                                 " with length " + packet.getLength() + ": " +
-                                new OctetString(packet.getData(), 0,
+                                new OctetString(packet.getData(), packet.getOffset(),
                                         packet.getLength()).toHexString());
                     }
                     if (bis != null) {
@@ -518,6 +702,11 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
                     if (SNMP4JSettings.isForwardRuntimeExceptions()) {
                         throw new RuntimeException(iox);
                     }
+                } finally {
+                    if (committed) {
+                        // listeners that keep the message have retained it
+                        ReceiveBufferPool.release(receiveBuffer);
+                    }
                 }
             }
             synchronized (DefaultUdpTransportMapping.this) {
@@ -573,13 +762,14 @@ public class DefaultUdpTransportMapping extends UdpTransportMapping {
      * @param tmStateReference
      *         the transport state reference.
      *
-     * @return a byte buffer with the application data of the packet.
+     * @return a byte buffer with the application data of the packet, starting at position zero even if the
+     * packet was received into a slot of a pooled slab (message processing models use absolute positions).
      * @throws IOException
      *         if there occurs an IO exception during preparation.
      * @since 3.0
      */
     protected ByteBuffer prepareInPacket(DatagramPacket packet, byte[] buf, TransportStateReference tmStateReference)
             throws IOException {
-        return ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+        return ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()).slice();
     }
 }
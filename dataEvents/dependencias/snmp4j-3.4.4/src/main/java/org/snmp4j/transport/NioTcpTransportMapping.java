@@ -0,0 +1,1209 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - NioTcpTransportMapping.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.snmp4j.SNMP4JSettings;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.log.LogAdapter;
+import org.snmp4j.log.LogFactory;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TcpAddress;
+import org.snmp4j.util.CommonTimer;
+import org.snmp4j.util.WorkerPool;
+import org.snmp4j.util.WorkerTask;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code NioTcpTransportMapping} implements a TCP transport mapping that separates
+ * accepting connections from connection I/O. A dedicated acceptor thread accepts incoming
+ * connections and hands them out round robin to a fixed number of I/O event loops, each with
+ * its own selector thread. Incoming messages can be dispatched by a {@link WorkerPool}, so that
+ * message processing does not hold up the I/O of other connections.
+ * <p>
+ * Each connection has its own lock-free write queue. Messages are written by the event loop
+ * of the connection with gathering writes of up to {@link #MAX_GATHERED_MESSAGES} messages.
+ * When the bytes waiting in a write queue reach the high watermark, the event loop stops
+ * reading requests from that connection and further messages to that peer are dropped until
+ * the queue has been drained below the low watermark. A manager that does not read its
+ * responses therefore neither blocks other connections nor lets the queued data grow without
+ * bound.
+ * <p>
+ * On the manager side, {@link #setMaxConnectionsPerTarget(int)} enables a connection pool per
+ * target. Requests are pipelined on the pooled connection with the fewest outstanding requests,
+ * that is messages sent with a timeout minus messages received, and another connection is opened while all
+ * have {@link #getMaxPipelinedRequests()} outstanding requests and the per target limit has not
+ * been reached. Pooled connections are kept open with TCP keep-alive. Every half
+ * {@link #getConnectionTimeout()}, a maintenance task closes pooled connections that have been
+ * idle for the connection timeout and connections with outstanding requests that have not
+ * received anything for that time. A request whose timeout has expired is no longer outstanding,
+ * so notifications and requests the peer silently drops do not count against a connection.
+ *
+ * @since 3.5.0
+ */
+public class NioTcpTransportMapping extends TcpTransportMapping<NioTcpTransportMapping.SocketEntry> {
+
+    private static final LogAdapter logger = LogFactory.getLogger(NioTcpTransportMapping.class);
+
+    /**
+     * The default high watermark of a connection's write queue in bytes.
+     */
+    public static final int DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+
+    /**
+     * The default low watermark of a connection's write queue in bytes.
+     */
+    public static final int DEFAULT_LOW_WATERMARK = 256 * 1024;
+
+    /**
+     * The maximum number of queued messages written with one gathering write.
+     */
+    public static final int MAX_GATHERED_MESSAGES = 64;
+
+    /**
+     * The default number of outstanding requests per pooled connection before another connection
+     * to the same target is opened.
+     */
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 16;
+
+    private static final int INITIAL_READ_BUFFER_SIZE = 4096;
+    private static final long MIN_ACCEPT_RETRY_MILLIS = 10;
+    private static final long MAX_ACCEPT_RETRY_MILLIS = 1000;
+
+    private boolean serverEnabled = false;
+    private MessageLengthDecoder messageLengthDecoder = new DefaultTcpTransportMapping.SnmpMesssageLengthDecoder();
+    private int ioThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private volatile int highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile int lowWatermark = DEFAULT_LOW_WATERMARK;
+    private WorkerPool dispatcherPool;
+    private volatile int maxConnectionsPerTarget = 1;
+    private volatile int maxPipelinedRequests = DEFAULT_MAX_PIPELINED_REQUESTS;
+
+    private ServerSocketChannel serverChannel;
+    private volatile IoLoop[] ioLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final Map<Address, ConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private PoolMaintenance poolMaintenance;
+
+    /**
+     * Creates a TCP transport mapping with the server for incoming messages disabled.
+     *
+     * @throws IOException
+     *         if the local host address cannot be determined.
+     */
+    public NioTcpTransportMapping() throws IOException {
+        super(new TcpAddress(InetAddress.getLocalHost(), 0));
+    }
+
+    /**
+     * Creates a TCP transport mapping that accepts incoming connections on the given address.
+     *
+     * @param serverAddress
+     *         the address to listen on for incoming connection requests.
+     */
+    public NioTcpTransportMapping(TcpAddress serverAddress) {
+        super(serverAddress);
+        this.serverEnabled = true;
+    }
+
+    /**
+     * Starts the I/O event loops and, if the server is enabled, binds the server socket and
+     * starts the acceptor thread.
+     *
+     * @throws SocketException
+     *         when the transport is already listening.
+     * @throws IOException
+     *         if the listen port could not be bound.
+     */
+    public synchronized void listen() throws IOException {
+        if (ioLoops != null) {
+            throw new SocketException("Port already listening");
+        }
+        IoLoop[] loops = new IoLoop[Math.max(1, ioThreads)];
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new IoLoop(Selector.open());
+                loops[i].thread = SNMP4JSettings.getThreadFactory().createWorkerThread(
+                        "NioTcpTransportMapping_IO" + i + "_" + getAddress(), loops[i], true);
+            }
+            if (serverEnabled) {
+                serverChannel = ServerSocketChannel.open();
+                setSocketOptions(serverChannel.socket());
+                serverChannel.socket().bind(
+                        new InetSocketAddress(tcpAddress.getInetAddress(), tcpAddress.getPort()));
+                if (logger.isInfoEnabled()) {
+                    logger.info("TCP address " + getListenAddress() + " bound successfully");
+                }
+            }
+        } catch (IOException iox) {
+            logger.warn("Socket bind failed for " + tcpAddress + ": " + iox.getMessage());
+            for (IoLoop loop : loops) {
+                if (loop != null) {
+                    loop.selector.close();
+                }
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+                serverChannel = null;
+            }
+            throw iox;
+        }
+        if (getConnectionTimeout() > 0) {
+            // run as daemon
+            socketCleaner = SNMP4JSettings.getTimerFactory().createTimer();
+            long period = Math.max(1, getConnectionTimeout() / 2);
+            poolMaintenance = new PoolMaintenance();
+            socketCleaner.schedule(poolMaintenance, period, period);
+        }
+        for (IoLoop loop : loops) {
+            loop.thread.run();
+        }
+        ioLoops = loops;
+        if (serverChannel != null) {
+            server = SNMP4JSettings.getThreadFactory().createWorkerThread(
+                    "NioTcpTransportMapping_Acceptor_" + getListenAddress(), new Acceptor(serverChannel), true);
+            server.run();
+        } else {
+            server = loops[0].thread;
+        }
+    }
+
+    /**
+     * Closes the server socket and all connections and stops the acceptor and I/O threads.
+     * Messages that have not been written yet are discarded.
+     */
+    public void close() {
+        IoLoop[] loops;
+        ServerSocketChannel ssc;
+        synchronized (this) {
+            loops = ioLoops;
+            ssc = serverChannel;
+            ioLoops = null;
+            serverChannel = null;
+            server = null;
+        }
+        if (loops == null) {
+            return;
+        }
+        if (ssc != null) {
+            try {
+                ssc.close();
+            } catch (IOException iox) {
+                logger.warn(iox);
+            }
+        }
+        for (IoLoop loop : loops) {
+            loop.thread.terminate();
+        }
+        for (IoLoop loop : loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException ex) {
+                logger.warn(ex);
+                Thread.currentThread().interrupt();
+            }
+        }
+        closeSockets(sockets);
+        sockets.clear();
+        for (ConnectionPool pool : connectionPools.values()) {
+            closePool(pool);
+        }
+        connectionPools.clear();
+        if (poolMaintenance != null) {
+            poolMaintenance.cancel();
+            poolMaintenance = null;
+        }
+        if (socketCleaner != null) {
+            socketCleaner.cancel();
+        }
+        socketCleaner = null;
+    }
+
+    /**
+     * Queues a message for the connection to the supplied address. If there is no connection
+     * yet, it is opened without blocking the caller. If the write queue of the connection has
+     * reached the high watermark, the message is dropped. With a connection pool, the message is
+     * queued for the pooled connection with the fewest outstanding requests.
+     *
+     * @param address
+     *         the peer address.
+     * @param message
+     *         the message to send.
+     * @param tmStateReference
+     *         the (optional) transport model state reference as defined by RFC 5590 section 6.1.
+     * @param timeoutMillis
+     *         the time a response is expected within, or zero if the message does not expect a
+     *         response. Connections are established asynchronously.
+     * @param maxRetries
+     *         not used.
+     *
+     * @throws IOException
+     *         if a new connection could not be initiated.
+     */
+    public void sendMessage(TcpAddress address, byte[] message,
+                            TransportStateReference tmStateReference, long timeoutMillis, int maxRetries)
+            throws IOException {
+        if (ioLoops == null) {
+            if (isOpenSocketOnSending()) {
+                synchronized (this) {
+                    if (ioLoops == null) {
+                        listen();
+                    }
+                }
+            } else {
+                handleDroppedMessageToSend(address, message, tmStateReference, timeoutMillis, maxRetries);
+                return;
+            }
+        }
+        if ((suspendedAddresses.size() > 0) && suspendedAddresses.contains(address)) {
+            handleDroppedMessageToSend(address, message, tmStateReference, timeoutMillis, maxRetries);
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending message to " + address + " with length " + message.length + ": " +
+                    new OctetString(message).toHexString());
+        }
+        SocketEntry entry;
+        if (maxConnectionsPerTarget > 1) {
+            entry = pooledConnection(address);
+        } else {
+            entry = sockets.get(address);
+            if ((entry == null) || !entry.channel.isOpen()) {
+                entry = connect(address);
+            }
+        }
+        entry.used();
+        // counted before it is queued, so that its response cannot arrive before it is counted
+        boolean expectsResponse = (timeoutMillis > 0);
+        if (expectsResponse) {
+            entry.requestSent(timeoutMillis);
+        }
+        if (!entry.enqueue(ByteBuffer.wrap(message))) {
+            if (expectsResponse) {
+                entry.responseReceived();
+            }
+            droppedMessages.incrementAndGet();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Dropped message to " + address + ", " + entry.queuedBytes.get() +
+                        " bytes are waiting to be written");
+            }
+        }
+    }
+
+    private SocketEntry openChannel(TcpAddress address, ConnectionPool pool) throws IOException {
+        SocketChannel sc = SocketChannel.open();
+        try {
+            sc.configureBlocking(false);
+            if (pool != null) {
+                sc.socket().setKeepAlive(true);
+                sc.socket().setTcpNoDelay(true);
+            }
+            boolean connected = sc.connect(new InetSocketAddress(address.getInetAddress(), address.getPort()));
+            SocketEntry entry = new SocketEntry(address, sc, nextLoop(), pool);
+            entry.connected = connected;
+            return entry;
+        } catch (IOException iox) {
+            sc.close();
+            throw iox;
+        }
+    }
+
+    private SocketEntry connect(TcpAddress address) throws IOException {
+        SocketEntry entry = openChannel(address, null);
+        SocketChannel sc = entry.channel;
+        SocketEntry current = sockets.putIfAbsent(address, entry);
+        if (current != null) {
+            if (current.channel.isOpen()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Concurrent connection attempt detected, canceling this one to " + address);
+                }
+                sc.close();
+                return current;
+            }
+            sockets.put(address, entry);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Trying to connect to " + address);
+        }
+        entry.loop.register(entry, entry.connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+        if (entry.connected) {
+            timeoutSocket(entry);
+            fireConnectionStateChanged(new TransportStateEvent(this, address,
+                    TransportStateEvent.STATE_CONNECTED, null));
+        }
+        return entry;
+    }
+
+    private SocketEntry pooledConnection(TcpAddress address) throws IOException {
+        ConnectionPool pool = connectionPools.computeIfAbsent(address, a -> new ConnectionPool());
+        synchronized (pool) {
+            SocketEntry best = null;
+            long now = System.nanoTime();
+            for (SocketEntry entry : pool.connections) {
+                entry.expireOutstanding(now);
+                if (entry.channel.isOpen() &&
+                        ((best == null) || (entry.outstanding.get() < best.outstanding.get()))) {
+                    best = entry;
+                }
+            }
+            if ((best != null) && ((best.outstanding.get() < maxPipelinedRequests) ||
+                    (pool.connections.size() >= maxConnectionsPerTarget))) {
+                return best;
+            }
+            SocketEntry entry = openChannel(address, pool);
+            pool.connections.add(entry);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Opening pooled connection " + pool.connections.size() + " to " + address);
+            }
+            entry.loop.register(entry, entry.connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+            if (entry.connected) {
+                fireConnectionStateChanged(new TransportStateEvent(this, address,
+                        TransportStateEvent.STATE_CONNECTED, null));
+            }
+            return entry;
+        }
+    }
+
+    private void closePool(ConnectionPool pool) {
+        for (SocketEntry entry : pool.connections) {
+            try {
+                entry.channel.close();
+            } catch (IOException iox) {
+                logger.debug(iox);
+            }
+        }
+        pool.connections.clear();
+    }
+
+    /**
+     * Closes all connections to the supplied remote address, including pooled connections.
+     *
+     * @param remoteAddress
+     *         the address of the peer socket.
+     *
+     * @return {@code true} if a connection has been closed and {@code false} if there was
+     * nothing to close.
+     * @throws IOException
+     *         if the remote address cannot be closed due to an IO exception.
+     */
+    @Override
+    public synchronized boolean close(TcpAddress remoteAddress) throws IOException {
+        boolean closed = super.close(remoteAddress);
+        ConnectionPool pool = connectionPools.remove(remoteAddress);
+        if ((pool != null) && !pool.connections.isEmpty()) {
+            closePool(pool);
+            closed = true;
+        }
+        return closed;
+    }
+
+    private IoLoop nextLoop() throws IOException {
+        IoLoop[] loops = ioLoops;
+        if (loops == null) {
+            throw new SocketException("Transport mapping " + this + " is not listening");
+        }
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    /**
+     * Checks whether a server for incoming requests is enabled.
+     *
+     * @return {@code true} if the transport mapping accepts incoming connections.
+     */
+    public boolean isServerEnabled() {
+        return serverEnabled;
+    }
+
+    /**
+     * Sets whether incoming connections are accepted after {@link #listen()} has been called.
+     *
+     * @param serverEnabled
+     *         {@code true} to accept incoming connections.
+     */
+    public void setServerEnabled(boolean serverEnabled) {
+        this.serverEnabled = serverEnabled;
+    }
+
+    @Override
+    public TransportType getSupportedTransportType() {
+        return (serverEnabled ? TransportType.any : TransportType.sender);
+    }
+
+    public MessageLengthDecoder getMessageLengthDecoder() {
+        return messageLengthDecoder;
+    }
+
+    public void setMessageLengthDecoder(MessageLengthDecoder messageLengthDecoder) {
+        if (messageLengthDecoder == null) {
+            throw new NullPointerException();
+        }
+        this.messageLengthDecoder = messageLengthDecoder;
+    }
+
+    @Override
+    public CommonTimer getSocketCleaner() {
+        return socketCleaner;
+    }
+
+    public void setMaxInboundMessageSize(int maxInboundMessageSize) {
+        this.maxInboundMessageSize = maxInboundMessageSize;
+    }
+
+    public boolean isListening() {
+        return (ioLoops != null);
+    }
+
+    /**
+     * Gets the number of I/O event loop threads.
+     *
+     * @return the number of I/O threads.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Sets the number of I/O event loop threads that serve the connections. This method has
+     * to be called before {@link #listen()}. The default is the number of available processors,
+     * but at most four.
+     *
+     * @param ioThreads
+     *         a value greater than zero.
+     */
+    public void setIoThreads(int ioThreads) {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("Number of I/O threads must be > 0");
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Gets the worker pool that processes incoming messages.
+     *
+     * @return the worker pool or {@code null} if messages are processed by the I/O threads.
+     */
+    public WorkerPool getDispatcherPool() {
+        return dispatcherPool;
+    }
+
+    /**
+     * Sets the worker pool that processes incoming messages. Without a worker pool, the
+     * transport listeners are called by the I/O thread that read the message and a slow
+     * listener delays the other connections of that thread. With a worker pool, an I/O thread
+     * only waits if the pool has no idle worker. The pool has to be stopped externally.
+     *
+     * @param dispatcherPool
+     *         a worker pool or {@code null} to process messages on the I/O threads.
+     */
+    public void setDispatcherPool(WorkerPool dispatcherPool) {
+        this.dispatcherPool = dispatcherPool;
+    }
+
+    /**
+     * Gets the write queue size in bytes at which reading from a connection is suspended and
+     * further messages for that connection are dropped.
+     *
+     * @return the high watermark in bytes.
+     */
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Gets the write queue size in bytes below which a suspended connection is read again.
+     *
+     * @return the low watermark in bytes.
+     */
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Sets the write queue watermarks of the connections. A message is always accepted while
+     * the queue is below the high watermark, so a queue may exceed it by one message per
+     * concurrent sender.
+     *
+     * @param lowWatermark
+     *         the queue size in bytes below which reading from a suspended connection resumes.
+     * @param highWatermark
+     *         the queue size in bytes at which reading is suspended and messages are dropped.
+     */
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        if ((lowWatermark < 0) || (highWatermark <= lowWatermark)) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high");
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Gets the maximum number of pooled connections per target.
+     *
+     * @return the maximum number of connections per target, 1 if connections are not pooled.
+     */
+    public int getMaxConnectionsPerTarget() {
+        return maxConnectionsPerTarget;
+    }
+
+    /**
+     * Sets the maximum number of connections opened to a target. A value greater than 1 enables
+     * the connection pool for outgoing messages, 1 uses a single connection per target that is
+     * closed by the {@link SocketTimeout} as with {@link DefaultTcpTransportMapping}. Pooled
+     * connections are only evicted and health checked while the connection timeout is greater
+     * than zero.
+     *
+     * @param maxConnectionsPerTarget
+     *         a value greater than zero.
+     */
+    public void setMaxConnectionsPerTarget(int maxConnectionsPerTarget) {
+        if (maxConnectionsPerTarget <= 0) {
+            throw new IllegalArgumentException("Maximum connections per target must be > 0");
+        }
+        this.maxConnectionsPerTarget = maxConnectionsPerTarget;
+    }
+
+    /**
+     * Gets the number of outstanding requests on every pooled connection to a target at which
+     * another connection is opened.
+     *
+     * @return the maximum number of pipelined requests per connection.
+     */
+    public int getMaxPipelinedRequests() {
+        return maxPipelinedRequests;
+    }
+
+    /**
+     * Sets the number of outstanding requests on every pooled connection to a target at which
+     * another connection is opened. When the target already has the maximum number of
+     * connections, more requests are pipelined on the least loaded connection.
+     *
+     * @param maxPipelinedRequests
+     *         a value greater than zero.
+     */
+    public void setMaxPipelinedRequests(int maxPipelinedRequests) {
+        if (maxPipelinedRequests <= 0) {
+            throw new IllegalArgumentException("Maximum pipelined requests must be > 0");
+        }
+        this.maxPipelinedRequests = maxPipelinedRequests;
+    }
+
+    /**
+     * Returns the number of open connections to a peer.
+     *
+     * @param peerAddress
+     *         the address of a peer.
+     *
+     * @return the number of pooled connections plus one if there is a connection that is not
+     * pooled.
+     */
+    public int getConnectionCount(TcpAddress peerAddress) {
+        ConnectionPool pool = connectionPools.get(peerAddress);
+        int count = (sockets.containsKey(peerAddress)) ? 1 : 0;
+        return (pool == null) ? count : count + pool.connections.size();
+    }
+
+    /**
+     * Returns the number of bytes waiting to be written to a peer.
+     *
+     * @param peerAddress
+     *         the address of a connected peer.
+     *
+     * @return the number of queued bytes or 0 if there is no connection to that peer.
+     */
+    public long getQueuedBytes(TcpAddress peerAddress) {
+        SocketEntry entry = sockets.get(peerAddress);
+        long queued = (entry == null) ? 0 : entry.queuedBytes.get();
+        ConnectionPool pool = connectionPools.get(peerAddress);
+        if (pool != null) {
+            for (SocketEntry pooled : pool.connections) {
+                queued += pooled.queuedBytes.get();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Returns the number of messages that have been dropped, because the write queue of their
+     * connection was at the high watermark.
+     *
+     * @return the number of dropped messages since this transport mapping has been created.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    @Override
+    public TcpAddress getListenAddress() {
+        ServerSocketChannel ssc = serverChannel;
+        if (ssc != null) {
+            int port = ssc.socket().getLocalPort();
+            if (port > 0) {
+                return new TcpAddress(tcpAddress.getInetAddress(), port);
+            }
+        }
+        return tcpAddress;
+    }
+
+    protected TcpAddress createIncomingAddress(Socket s) {
+        return new TcpAddress(s.getInetAddress(), s.getPort());
+    }
+
+    private void closeEntry(SocketEntry entry, int state, IOException cause) {
+        SelectionKey key = entry.key;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            entry.channel.close();
+        } catch (IOException iox) {
+            logger.debug(iox);
+        }
+        if (entry.getSocketTimeout() != null) {
+            entry.getSocketTimeout().cancel();
+        }
+        boolean removed = (entry.pool != null) ? entry.pool.connections.remove(entry) :
+                sockets.remove(entry.getPeerAddress(), entry);
+        if (removed) {
+            fireConnectionStateChanged(new TransportStateEvent(this, entry.getPeerAddress(), state, cause));
+        }
+    }
+
+    private void dispatchMessage(SocketEntry entry, byte[] message) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received message from " + entry.getPeerAddress() + " with length " +
+                    message.length + ": " + new OctetString(message).toHexString());
+        }
+        TcpAddress peerAddress = entry.getPeerAddress();
+        entry.responseReceived();
+        TransportStateReference stateReference =
+                new TransportStateReference(this, peerAddress, null,
+                        SecurityLevel.undefined, SecurityLevel.undefined, false, entry);
+        WorkerPool pool = dispatcherPool;
+        if (pool == null) {
+            fireProcessMessage(peerAddress, ByteBuffer.wrap(message), stateReference);
+        } else {
+            pool.execute(new DispatchTask(peerAddress, message, stateReference));
+        }
+    }
+
+    /**
+     * A connection of this transport mapping. The read state and the messages being written
+     * are only accessed by the I/O thread of the connection, the write queue may be appended
+     * to by any thread.
+     */
+    protected class SocketEntry extends AbstractSocketEntry {
+        private final SocketChannel channel;
+        private final IoLoop loop;
+        private final ConnectionPool pool;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final Queue<Long> outstandingDeadlines = new ConcurrentLinkedQueue<>();
+        private volatile long lastRead = System.nanoTime();
+        private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        // accessed by the I/O thread only
+        private final Deque<ByteBuffer> writing = new ArrayDeque<>();
+        private SelectionKey key;
+        private ByteBuffer readBuffer;
+        private boolean connected;
+        private boolean readSuspended;
+
+        SocketEntry(TcpAddress address, SocketChannel channel, IoLoop loop, ConnectionPool pool) {
+            super(address, channel.socket());
+            this.channel = channel;
+            this.loop = loop;
+            this.pool = pool;
+        }
+
+        private void requestSent(long timeoutMillis) {
+            outstandingDeadlines.add(System.nanoTime() + timeoutMillis * SnmpConstants.MILLISECOND_TO_NANOSECOND);
+            outstanding.incrementAndGet();
+        }
+
+        private void responseReceived() {
+            if (outstandingDeadlines.poll() != null) {
+                outstanding.decrementAndGet();
+            }
+        }
+
+        /**
+         * Stops counting the requests whose timeout has expired without a response.
+         */
+        private void expireOutstanding(long now) {
+            Long deadline;
+            while (((deadline = outstandingDeadlines.peek()) != null) && (now - deadline >= 0)) {
+                responseReceived();
+            }
+        }
+
+        private boolean enqueue(ByteBuffer message) {
+            if (queuedBytes.get() >= highWatermark) {
+                return false;
+            }
+            writeQueue.add(message);
+            if (queuedBytes.addAndGet(message.remaining()) >= highWatermark) {
+                logger.warn("Write queue of connection to " + getPeerAddress() + " reached " +
+                        queuedBytes.get() + " bytes, suspending reading from it");
+            }
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(() -> loop.flush(this));
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "SocketEntry[peerAddress=" + getPeerAddress() +
+                    ",socket=" + socket + ",lastUse=" +
+                    new Date(getLastUse() / SnmpConstants.MILLISECOND_TO_NANOSECOND) +
+                    ",queuedBytes=" + queuedBytes.get() + ",outstanding=" + outstanding.get() +
+                    ",socketTimeout=" + getSocketTimeout() + "]";
+        }
+    }
+
+    /**
+     * The pooled connections to one target.
+     */
+    private static class ConnectionPool {
+        private final List<SocketEntry> connections = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Evicts idle pooled connections and closes pooled connections whose peer has stopped
+     * answering.
+     */
+    private class PoolMaintenance extends TimerTask {
+
+        public void run() {
+            long timeoutNanos = getConnectionTimeout() * SnmpConstants.MILLISECOND_TO_NANOSECOND;
+            long now = System.nanoTime();
+            for (ConnectionPool pool : connectionPools.values()) {
+                for (SocketEntry entry : pool.connections) {
+                    entry.expireOutstanding(now);
+                    if ((entry.outstanding.get() == 0) && (entry.queuedBytes.get() == 0)) {
+                        if (now - entry.getLastUse() >= timeoutNanos) {
+                            if (logger.isDebugEnabled()) {
+                                logger.debug("Evicting idle pooled connection " + entry);
+                            }
+                            closeEntry(entry, TransportStateEvent.STATE_CLOSED, null);
+                        }
+                    } else if (now - entry.lastRead >= timeoutNanos) {
+                        logger.warn("Closing pooled connection to " + entry.getPeerAddress() + " with " +
+                                entry.outstanding.get() + " outstanding requests, nothing received for " +
+                                (now - entry.lastRead) / SnmpConstants.MILLISECOND_TO_NANOSECOND + " ms");
+                        closeEntry(entry, TransportStateEvent.STATE_CLOSED, null);
+                    }
+                }
+            }
+        }
+    }
+
+    private class DispatchTask implements WorkerTask {
+        private final TcpAddress peerAddress;
+        private final byte[] message;
+        private final TransportStateReference stateReference;
+
+        DispatchTask(TcpAddress peerAddress, byte[] message, TransportStateReference stateReference) {
+            this.peerAddress = peerAddress;
+            this.message = message;
+            this.stateReference = stateReference;
+        }
+
+        public void run() {
+            fireProcessMessage(peerAddress, ByteBuffer.wrap(message), stateReference);
+        }
+
+        public void terminate() {
+        }
+
+        public void join() throws InterruptedException {
+        }
+
+        public void interrupt() {
+        }
+    }
+
+    private class Acceptor implements WorkerTask {
+        private final ServerSocketChannel channel;
+        private volatile boolean stop = false;
+
+        Acceptor(ServerSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        public void run() {
+            long retryMillis = 0;
+            while (!stop && channel.isOpen()) {
+                SocketChannel sc;
+                try {
+                    sc = channel.accept();
+                    retryMillis = 0;
+                } catch (AsynchronousCloseException acex) {
+                    break;
+                } catch (IOException iox) {
+                    // a persistent error like running out of file descriptors would otherwise
+                    // keep this thread busy, so wait increasingly longer before accepting again
+                    retryMillis = Math.min(MAX_ACCEPT_RETRY_MILLIS, Math.max(MIN_ACCEPT_RETRY_MILLIS, retryMillis * 2));
+                    logger.warn("Accepting connection on " + getListenAddress() + " failed, retrying in " +
+                            retryMillis + " ms: " + iox.getMessage());
+                    try {
+                        Thread.sleep(retryMillis);
+                    } catch (InterruptedException iex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    continue;
+                }
+                try {
+                    sc.configureBlocking(false);
+                    TcpAddress incomingAddress = createIncomingAddress(sc.socket());
+                    SocketEntry entry = new SocketEntry(incomingAddress, sc, nextLoop(), null);
+                    entry.connected = true;
+                    TransportStateEvent e = new TransportStateEvent(NioTcpTransportMapping.this,
+                            incomingAddress, TransportStateEvent.STATE_CONNECTED, null);
+                    fireConnectionStateChanged(e);
+                    if (e.isCancelled()) {
+                        logger.warn("Incoming connection cancelled");
+                        sc.close();
+                        continue;
+                    }
+                    sockets.put(incomingAddress, entry);
+                    timeoutSocket(entry);
+                    entry.loop.register(entry, SelectionKey.OP_READ);
+                } catch (IOException iox) {
+                    logger.warn("Incoming connection on " + getListenAddress() + " failed: " + iox.getMessage());
+                    try {
+                        sc.close();
+                    } catch (IOException ioxClose) {
+                        logger.debug(ioxClose);
+                    }
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Worker task finished: " + getClass().getName());
+            }
+        }
+
+        public void terminate() {
+            stop = true;
+            try {
+                channel.close();
+            } catch (IOException iox) {
+                logger.debug(iox);
+            }
+        }
+
+        public void join() throws InterruptedException {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Joining worker task: " + getClass().getName());
+            }
+        }
+
+        public void interrupt() {
+            terminate();
+        }
+    }
+
+    private class IoLoop implements WorkerTask {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // gathering write array, only accessed by this loop
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHERED_MESSAGES];
+        private volatile boolean stop = false;
+        private WorkerTask thread;
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketEntry entry, int ops) {
+            execute(() -> {
+                try {
+                    entry.key = entry.channel.register(selector, ops, entry);
+                    if (entry.connected) {
+                        flush(entry);
+                    }
+                } catch (ClosedChannelException ccex) {
+                    closeEntry(entry, TransportStateEvent.STATE_CLOSED, null);
+                }
+            });
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (CancelledKeyException ckex) {
+                    // connection has been closed in the meantime
+                } catch (RuntimeException rex) {
+                    logger.error("I/O task failed: " + rex.getMessage(), rex);
+                }
+            }
+        }
+
+        public void run() {
+            while (!stop) {
+                runTasks();
+                try {
+                    selector.select();
+                } catch (IOException iox) {
+                    logger.error("Selector of " + NioTcpTransportMapping.this + " failed: " + iox.getMessage(), iox);
+                    break;
+                }
+                runTasks();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    SocketEntry entry = (SocketEntry) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            finishConnect(entry);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(entry);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(entry);
+                        }
+                    } catch (CancelledKeyException ckex) {
+                        // connection has been closed in the meantime
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException iox) {
+                    logger.debug(iox);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException iox) {
+                logger.warn(iox);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Worker task finished: " + getClass().getName());
+            }
+        }
+
+        private void finishConnect(SocketEntry entry) {
+            try {
+                if (!entry.channel.finishConnect()) {
+                    return;
+                }
+            } catch (IOException iox) {
+                logger.warn("Connection to " + entry.getPeerAddress() + " failed: " + iox.getMessage());
+                closeEntry(entry, TransportStateEvent.STATE_CLOSED, iox);
+                return;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Connected to " + entry.getPeerAddress());
+            }
+            entry.connected = true;
+            entry.key.interestOps(SelectionKey.OP_READ);
+            if (entry.pool == null) {
+                timeoutSocket(entry);
+            }
+            fireConnectionStateChanged(new TransportStateEvent(NioTcpTransportMapping.this,
+                    entry.getPeerAddress(), TransportStateEvent.STATE_CONNECTED, null));
+            flush(entry);
+        }
+
+        private void read(SocketEntry entry) {
+            ByteBuffer buf = entry.readBuffer;
+            if (buf == null) {
+                buf = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+                entry.readBuffer = buf;
+            }
+            int bytesRead;
+            try {
+                bytesRead = entry.channel.read(buf);
+            } catch (IOException iox) {
+                closeEntry(entry, TransportStateEvent.STATE_DISCONNECTED_REMOTELY, iox);
+                return;
+            }
+            if (bytesRead < 0) {
+                logger.debug("Socket closed remotely");
+                closeEntry(entry, TransportStateEvent.STATE_DISCONNECTED_REMOTELY, null);
+                return;
+            }
+            entry.used();
+            entry.lastRead = System.nanoTime();
+            buf.flip();
+            try {
+                while (buf.remaining() >= messageLengthDecoder.getMinHeaderLength()) {
+                    int messageSize = messageLengthDecoder.getMessageLength(buf.slice()).getMessageLength();
+                    if ((messageSize <= 0) || (messageSize > getMaxInboundMessageSize())) {
+                        logger.error("Received message length " + messageSize +
+                                " is greater than inboundBufferSize " + getMaxInboundMessageSize());
+                        closeEntry(entry, TransportStateEvent.STATE_CLOSED, null);
+                        return;
+                    }
+                    if (buf.remaining() < messageSize) {
+                        if (buf.capacity() < messageSize) {
+                            ByteBuffer larger = ByteBuffer.allocate(messageSize);
+                            larger.put(buf);
+                            larger.flip();
+                            buf = larger;
+                            entry.readBuffer = buf;
+                        }
+                        break;
+                    }
+                    byte[] message = new byte[messageSize];
+                    buf.get(message);
+                    dispatchMessage(entry, message);
+                }
+            } catch (IOException iox) {
+                logger.error("Invalid message header from " + entry.getPeerAddress() + ": " + iox.getMessage());
+                closeEntry(entry, TransportStateEvent.STATE_CLOSED, iox);
+                return;
+            }
+            if (!buf.hasRemaining()) {
+                // no partial message, so an enlarged buffer is not kept for an idle connection
+                if (buf.capacity() > INITIAL_READ_BUFFER_SIZE) {
+                    entry.readBuffer = null;
+                } else {
+                    buf.clear();
+                }
+            } else {
+                buf.compact();
+            }
+        }
+
+        void flush(SocketEntry entry) {
+            SelectionKey key = entry.key;
+            if ((key == null) || !key.isValid() || !entry.connected) {
+                entry.flushScheduled.set(false);
+                return;
+            }
+            while (true) {
+                ByteBuffer next;
+                while ((next = entry.writeQueue.poll()) != null) {
+                    entry.writing.add(next);
+                }
+                if (entry.writing.isEmpty()) {
+                    entry.flushScheduled.set(false);
+                    if (entry.writeQueue.isEmpty() || !entry.flushScheduled.compareAndSet(false, true)) {
+                        break;
+                    }
+                    continue;
+                }
+                int n = 0;
+                for (ByteBuffer b : entry.writing) {
+                    gather[n++] = b;
+                    if (n == gather.length) {
+                        break;
+                    }
+                }
+                long written;
+                try {
+                    written = entry.channel.write(gather, 0, n);
+                } catch (IOException iox) {
+                    logger.warn("Writing to " + entry.getPeerAddress() + " failed: " + iox.getMessage());
+                    closeEntry(entry, TransportStateEvent.STATE_DISCONNECTED_REMOTELY, iox);
+                    return;
+                } finally {
+                    for (int i = 0; i < n; i++) {
+                        gather[i] = null;
+                    }
+                }
+                entry.queuedBytes.addAndGet(-written);
+                while (!entry.writing.isEmpty() && !entry.writing.peekFirst().hasRemaining()) {
+                    entry.writing.removeFirst();
+                }
+                if ((written == 0) || (!entry.writing.isEmpty() && (entry.writing.peekFirst().position() > 0))) {
+                    // socket send buffer is full, continue when the channel is writable again
+                    break;
+                }
+            }
+            boolean pending = !entry.writing.isEmpty();
+            long queued = entry.queuedBytes.get();
+            if (!entry.readSuspended && (queued >= highWatermark)) {
+                entry.readSuspended = true;
+            } else if (entry.readSuspended && (queued <= lowWatermark)) {
+                entry.readSuspended = false;
+                if (logger.isInfoEnabled()) {
+                    logger.info("Write queue of connection to " + entry.getPeerAddress() +
+                            " drained to " + queued + " bytes, resuming reading from it");
+                }
+            }
+            int ops = (entry.readSuspended ? 0 : SelectionKey.OP_READ) | (pending ? SelectionKey.OP_WRITE : 0);
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        public void terminate() {
+            stop = true;
+            selector.wakeup();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Terminated worker task: " + getClass().getName());
+            }
+        }
+
+        public void join() throws InterruptedException {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Joining worker task: " + getClass().getName());
+            }
+        }
+
+        public void interrupt() {
+            terminate();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - NioUdpSelector.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.snmp4j.SNMP4JSettings;
+import org.snmp4j.log.LogAdapter;
+import org.snmp4j.log.LogFactory;
+import org.snmp4j.util.WorkerTask;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The {@code NioUdpSelector} multiplexes the datagram channels of any number of
+ * {@link NioUdpTransportMapping} instances on a single selector thread. The thread is
+ * started when the first channel is registered and stops when the last one has been
+ * unregistered.
+ * <p>
+ * Datagrams are received into direct buffers taken from a small pool that is owned by the
+ * selector thread, so the kernel copies each datagram only once and no receive buffer is
+ * allocated per message. A channel that has more datagrams ready is drained up to
+ * {@link #getMaxReceiveBatch()} datagrams before the other ready channels are served.
+ *
+ * @since 3.5.0
+ */
+public class NioUdpSelector {
+
+    private static final LogAdapter logger = LogFactory.getLogger(NioUdpSelector.class);
+
+    /**
+     * The default maximum number of datagrams received from a channel per selection.
+     */
+    public static final int DEFAULT_MAX_RECEIVE_BATCH = 64;
+
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private static NioUdpSelector defaultSelector;
+
+    private final String name;
+    private SelectorLoop loop;
+    private int registeredChannels;
+    private volatile int maxReceiveBatch = DEFAULT_MAX_RECEIVE_BATCH;
+
+    /**
+     * Creates a selector whose thread will have the specified name.
+     *
+     * @param name
+     *         the name of the selector thread.
+     */
+    public NioUdpSelector(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the selector shared by all {@link NioUdpTransportMapping} instances that have
+     * not been created with their own selector.
+     *
+     * @return the default {@code NioUdpSelector}.
+     */
+    public static synchronized NioUdpSelector getDefault() {
+        if (defaultSelector == null) {
+            defaultSelector = new NioUdpSelector("NioUdpSelector");
+        }
+        return defaultSelector;
+    }
+
+    /**
+     * Gets the maximum number of datagrams received from one channel before the next
+     * ready channel is served.
+     *
+     * @return the maximum receive batch size.
+     */
+    public int getMaxReceiveBatch() {
+        return maxReceiveBatch;
+    }
+
+    /**
+     * Sets the maximum number of datagrams received from one channel before the next
+     * ready channel is served. Smaller values improve the fairness between channels,
+     * larger values reduce the selection overhead under load.
+     *
+     * @param maxReceiveBatch
+     *         a value greater than zero.
+     */
+    public void setMaxReceiveBatch(int maxReceiveBatch) {
+        if (maxReceiveBatch <= 0) {
+            throw new IllegalArgumentException("Receive batch size must be > 0");
+        }
+        this.maxReceiveBatch = maxReceiveBatch;
+    }
+
+    /**
+     * Returns the number of channels currently registered with this selector.
+     *
+     * @return the number of listening transport mappings served by this selector.
+     */
+    public synchronized int getRegisteredChannels() {
+        return registeredChannels;
+    }
+
+    /**
+     * Registers the channel of a transport mapping for reading. The channel must be in
+     * non-blocking mode.
+     *
+     * @param mapping
+     *         the transport mapping that processes the datagrams received on {@code channel}.
+     * @param channel
+     *         the bound datagram channel.
+     *
+     * @throws IOException
+     *         if the selector could not be opened.
+     */
+    synchronized void register(NioUdpTransportMapping mapping, DatagramChannel channel) throws IOException {
+        if (loop == null) {
+            loop = new SelectorLoop(Selector.open());
+            loop.thread = SNMP4JSettings.getThreadFactory().createWorkerThread(name, loop, true);
+            loop.thread.run();
+        }
+        registeredChannels++;
+        final Selector selector = loop.selector;
+        loop.execute(() -> {
+            try {
+                mapping.selectionKey = channel.register(selector, SelectionKey.OP_READ, mapping);
+                if (mapping.hasPendingDatagrams()) {
+                    mapping.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (ClosedChannelException ccex) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Channel of " + mapping + " closed before registration");
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the channel of a transport mapping from this selector. The selector thread
+     * stops when no channel is left.
+     *
+     * @param mapping
+     *         a transport mapping previously registered with {@link #register}.
+     */
+    synchronized void unregister(NioUdpTransportMapping mapping) {
+        if (loop == null) {
+            return;
+        }
+        loop.execute(() -> {
+            SelectionKey key = mapping.selectionKey;
+            if (key != null) {
+                key.cancel();
+                mapping.selectionKey = null;
+            }
+        });
+        if (--registeredChannels <= 0) {
+            registeredChannels = 0;
+            loop.terminate();
+            loop = null;
+        }
+    }
+
+    /**
+     * Asks the selector thread to send the datagrams that have been queued by a transport
+     * mapping because its socket send buffer was full.
+     *
+     * @param mapping
+     *         a registered transport mapping.
+     */
+    synchronized void requestWrite(NioUdpTransportMapping mapping) {
+        if (loop == null) {
+            return;
+        }
+        loop.execute(() -> {
+            SelectionKey key = mapping.selectionKey;
+            if ((key != null) && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "NioUdpSelector[name=" + name + ",registeredChannels=" + getRegisteredChannels() + "]";
+    }
+
+    private class SelectorLoop implements WorkerTask {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // receive buffers, only accessed by the selector thread
+        private final Deque<ByteBuffer> bufferPool = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+        private volatile boolean stop = false;
+        private WorkerTask thread;
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException rex) {
+                    logger.error("Selector task failed: " + rex.getMessage(), rex);
+                }
+            }
+        }
+
+        public void run() {
+            while (!stop) {
+                runTasks();
+                try {
+                    selector.select();
+                } catch (IOException iox) {
+                    logger.error("Selector " + name + " failed: " + iox.getMessage(), iox);
+                    break;
+                }
+                runTasks();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioUdpTransportMapping mapping = (NioUdpTransportMapping) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            receive(mapping, (DatagramChannel) key.channel());
+                        }
+                        if (key.isValid() && key.isWritable() &&
+                                mapping.flushPendingDatagrams((DatagramChannel) key.channel())) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    } catch (CancelledKeyException ckex) {
+                        // channel has been closed in the meantime
+                    }
+                }
+            }
+            runTasks();
+            try {
+                selector.close();
+            } catch (IOException iox) {
+                logger.warn(iox);
+            }
+            bufferPool.clear();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Worker task stopped:" + getClass().getName());
+            }
+        }
+
+        private void receive(NioUdpTransportMapping mapping, DatagramChannel channel) {
+            int batch = maxReceiveBatch;
+            for (int i = 0; i < batch; i++) {
+                ByteBuffer buf = acquireBuffer(mapping.getMaxInboundMessageSize());
+                try {
+                    SocketAddress source = channel.receive(buf);
+                    if (source == null) {
+                        return;
+                    }
+                    buf.flip();
+                    mapping.processDatagram((InetSocketAddress) source, buf, channel);
+                } catch (IOException iox) {
+                    if (channel.isOpen()) {
+                        logger.warn("Receive on " + mapping + " failed: " + iox.getMessage());
+                    }
+                    return;
+                } catch (RuntimeException rex) {
+                    // a failing listener must not stop the other channels of this selector
+                    logger.error("Processing of datagram received by " + mapping + " failed: " +
+                            rex.getMessage(), rex);
+                } finally {
+                    releaseBuffer(buf);
+                }
+            }
+        }
+
+        private ByteBuffer acquireBuffer(int size) {
+            for (Iterator<ByteBuffer> it = bufferPool.iterator(); it.hasNext(); ) {
+                ByteBuffer buf = it.next();
+                if (buf.capacity() >= size) {
+                    it.remove();
+                    buf.clear().limit(size);
+                    return buf;
+                }
+            }
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        private void releaseBuffer(ByteBuffer buf) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                bufferPool.push(buf);
+            }
+        }
+
+        public void terminate() {
+            stop = true;
+            selector.wakeup();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Terminated worker task: " + getClass().getName());
+            }
+        }
+
+        public void join() throws InterruptedException {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Joining worker task: " + getClass().getName());
+            }
+        }
+
+        public void interrupt() {
+            terminate();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - NioUdpTransportMapping.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.log.LogAdapter;
+import org.snmp4j.log.LogFactory;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The {@code NioUdpTransportMapping} implements a UDP transport mapping based on a
+ * non-blocking {@link DatagramChannel}. Instead of a listen thread per transport mapping,
+ * the channels of all listening mappings are served by one {@link NioUdpSelector} thread,
+ * which receives the datagrams into pooled direct buffers.
+ * <p>
+ * If asynchronous message processing is supported (the default), each message is handed
+ * to the {@link TransportListener}s in a heap buffer of exactly the message size, because
+ * the listeners may keep the buffer after returning. Otherwise, the pooled direct buffer
+ * itself is handed to the listeners, which then must not access it after
+ * {@link TransportListener#processMessage} returned and must not call
+ * {@link ByteBuffer#array()} on it.
+ * <p>
+ * To use this transport mapping for {@link UdpAddress}es created through
+ * {@link TransportMappings}, enable {@link org.snmp4j.SNMP4JSettings#setExtensibilityEnabled(boolean)}
+ * and set the system property {@link TransportMappings#TRANSPORT_MAPPINGS} to
+ * {@link TransportMappings#NIO_TRANSPORT_MAPPINGS}.
+ *
+ * @since 3.5.0
+ */
+public class NioUdpTransportMapping extends UdpTransportMapping {
+
+    private static final LogAdapter logger = LogFactory.getLogger(NioUdpTransportMapping.class);
+
+    protected DatagramChannel channel;
+    private final NioUdpSelector selector;
+    private final boolean reuseAddress;
+    private volatile boolean listening;
+    private int receiveBufferSize = 0; // not set by default
+    /**
+     * Datagrams not yet accepted by the socket because its send buffer was full.
+     */
+    private final Queue<PendingDatagram> pendingDatagrams = new ConcurrentLinkedQueue<>();
+    volatile SelectionKey selectionKey;
+
+    /**
+     * Creates a UDP transport with an arbitrary local port on all local interfaces.
+     *
+     * @throws IOException
+     *         if socket binding fails.
+     */
+    public NioUdpTransportMapping() throws IOException {
+        this(new UdpAddress("0.0.0.0/0"));
+    }
+
+    /**
+     * Creates a UDP transport on the specified address that is served by the
+     * {@link NioUdpSelector#getDefault() default selector}.
+     *
+     * @param udpAddress
+     *         the local address for sending and receiving of UDP messages.
+     *
+     * @throws IOException
+     *         if socket binding fails.
+     */
+    public NioUdpTransportMapping(UdpAddress udpAddress) throws IOException {
+        this(udpAddress, false, NioUdpSelector.getDefault());
+    }
+
+    /**
+     * Creates a UDP transport on the specified address with optional reusing the address.
+     *
+     * @param udpAddress
+     *         the local address for sending and receiving of UDP messages.
+     * @param reuseAddress
+     *         if {@code true} addresses are reused which provides faster socket
+     *         binding if an application is restarted for instance.
+     * @param selector
+     *         the selector whose thread receives the messages of this transport mapping.
+     *
+     * @throws IOException
+     *         if socket binding fails.
+     */
+    public NioUdpTransportMapping(UdpAddress udpAddress, boolean reuseAddress, NioUdpSelector selector)
+            throws IOException {
+        super(udpAddress);
+        this.reuseAddress = reuseAddress;
+        this.selector = selector;
+        this.channel = openChannel();
+    }
+
+    /**
+     * Opens a blocking datagram channel bound to the address of this transport mapping.
+     *
+     * @return the bound channel.
+     * @throws IOException
+     *         if the channel cannot be opened or bound.
+     */
+    protected DatagramChannel openChannel() throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        try {
+            ch.setOption(StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+            ch.bind(new InetSocketAddress(udpAddress.getInetAddress(), udpAddress.getPort()));
+        } catch (IOException iox) {
+            ch.close();
+            throw iox;
+        }
+        return ch;
+    }
+
+    protected synchronized DatagramChannel ensureChannel() throws IOException {
+        DatagramChannel ch = channel;
+        if ((ch == null) || !ch.isOpen()) {
+            ch = openChannel();
+            channel = ch;
+        }
+        return ch;
+    }
+
+    @Override
+    public void sendMessage(UdpAddress targetAddress, byte[] message,
+                            TransportStateReference tmStateReference, long timeoutMillis, int maxRetries)
+            throws IOException {
+        if ((suspendedAddresses.size() > 0) && suspendedAddresses.contains(targetAddress)) {
+            handleDroppedMessageToSend(targetAddress, message, tmStateReference, timeoutMillis, maxRetries);
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending message to " + targetAddress + " from " + getListenAddress() + " with length " +
+                    message.length + ": " +
+                    new OctetString(message).toHexString());
+        }
+        DatagramChannel ch = ensureChannel();
+        InetSocketAddress target = new InetSocketAddress(targetAddress.getInetAddress(), targetAddress.getPort());
+        ByteBuffer datagram = ByteBuffer.wrap(message);
+        // a non-blocking channel returns 0 if the socket send buffer is full; queued datagrams go first
+        if (!pendingDatagrams.isEmpty() || (ch.send(datagram, target) == 0)) {
+            pendingDatagrams.add(new PendingDatagram(target, datagram));
+            selector.requestWrite(this);
+        }
+    }
+
+    boolean hasPendingDatagrams() {
+        return !pendingDatagrams.isEmpty();
+    }
+
+    /**
+     * Sends the queued datagrams until the socket send buffer is full again. This method is
+     * called by the selector thread when the channel is writable.
+     *
+     * @param ch
+     *         the channel of this transport mapping.
+     *
+     * @return {@code true} if no datagram is left in the queue.
+     */
+    boolean flushPendingDatagrams(DatagramChannel ch) {
+        PendingDatagram p;
+        while ((p = pendingDatagrams.peek()) != null) {
+            try {
+                if (ch.send(p.datagram, p.target) == 0) {
+                    return false;
+                }
+            } catch (IOException iox) {
+                logger.warn("Dropped message to " + p.target + " because sending failed: " + iox.getMessage());
+            }
+            pendingDatagrams.poll();
+        }
+        return true;
+    }
+
+    /**
+     * Hands a received datagram to the transport listeners. This method is called by the
+     * selector thread.
+     *
+     * @param source
+     *         the address the datagram has been received from.
+     * @param buf
+     *         the pooled receive buffer with the datagram between position and limit.
+     * @param ch
+     *         the channel that received the datagram.
+     */
+    void processDatagram(InetSocketAddress source, ByteBuffer buf, DatagramChannel ch) {
+        TransportStateReference stateReference =
+                new TransportStateReference(this, udpAddress, null,
+                        SecurityLevel.undefined, SecurityLevel.undefined,
+                        false, ch);
+        if (logger.isDebugEnabled()) {
+            byte[] bytes = new byte[buf.remaining()];
+            buf.duplicate().get(bytes);
+            logger.debug("Received message from " + source + " with length " + bytes.length + ": " +
+                    new OctetString(bytes).toHexString());
+        }
+        ByteBuffer bis = prepareInPacket(source, buf, stateReference);
+        if (bis != null) {
+            fireProcessMessage(new UdpAddress(source.getAddress(), source.getPort()), bis, stateReference);
+        }
+    }
+
+    /**
+     * Prepare a received datagram for the application.
+     *
+     * @param source
+     *         the address the datagram has been received from.
+     * @param buf
+     *         the pooled receive buffer with the datagram between position and limit. It is reused
+     *         for the next datagram when the transport listeners returned.
+     * @param tmStateReference
+     *         the transport state reference.
+     *
+     * @return a byte buffer with the application data of the datagram or {@code null} if the
+     * datagram should be dropped.
+     */
+    protected ByteBuffer prepareInPacket(InetSocketAddress source, ByteBuffer buf,
+                                         TransportStateReference tmStateReference) {
+        if (isAsyncMsgProcessingSupported()) {
+            ByteBuffer copy = ByteBuffer.allocate(buf.remaining());
+            copy.put(buf).flip();
+            return copy;
+        }
+        return buf;
+    }
+
+    /**
+     * Registers the channel of this transport mapping with its selector, whose thread then
+     * receives the incoming messages.
+     *
+     * @throws IOException
+     *         if the channel could not be registered.
+     */
+    @Override
+    public synchronized void listen() throws IOException {
+        if (listening) {
+            throw new SocketException("Port already listening");
+        }
+        DatagramChannel ch = ensureChannel();
+        if (receiveBufferSize > 0) {
+            ch.setOption(StandardSocketOptions.SO_RCVBUF, Math.max(receiveBufferSize, maxInboundMessageSize));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("UDP receive buffer size for socket " + getAddress() + " is set to: " +
+                    ch.getOption(StandardSocketOptions.SO_RCVBUF));
+        }
+        ch.configureBlocking(false);
+        selector.register(this, ch);
+        listening = true;
+        if (logger.isInfoEnabled()) {
+            logger.info("Listening on socket " + getListenAddress() + " with " + selector);
+        }
+    }
+
+    /**
+     * Removes the channel from the selector and closes it.
+     *
+     * @throws IOException
+     *         if the channel cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (listening) {
+            listening = false;
+            selector.unregister(this);
+        }
+        pendingDatagrams.clear();
+        DatagramChannel ch = channel;
+        channel = null;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    @Override
+    public boolean isListening() {
+        return listening;
+    }
+
+    @Override
+    public UdpAddress getListenAddress() {
+        DatagramChannel ch = channel;
+        if (ch != null) {
+            try {
+                InetSocketAddress local = (InetSocketAddress) ch.getLocalAddress();
+                if (local != null) {
+                    return new UdpAddress(local.getAddress(), local.getPort());
+                }
+            } catch (IOException iox) {
+                logger.debug(iox);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the selector that serves this transport mapping.
+     *
+     * @return the {@link NioUdpSelector} of this transport mapping.
+     */
+    public NioUdpSelector getSelector() {
+        return selector;
+    }
+
+    public void setMaxInboundMessageSize(int maxInboundMessageSize) {
+        this.maxInboundMessageSize = maxInboundMessageSize;
+    }
+
+    /**
+     * Gets the requested receive buffer size for the underlying UDP socket.
+     *
+     * @return &lt;=0 if the default buffer size of the OS is used, or a value &gt;0 if the
+     * user specified a buffer size.
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the receive buffer size, which should be greater than the maximum inbound message
+     * size. This method has to be called before {@link #listen()} to be effective.
+     *
+     * @param receiveBufferSize
+     *         an integer value &gt;0 and &gt; {@link #getMaxInboundMessageSize()}.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize <= 0) {
+            throw new IllegalArgumentException("Receive buffer size must be > 0");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + getListenAddress() + "]";
+    }
+
+    private static class PendingDatagram {
+        private final InetSocketAddress target;
+        private final ByteBuffer datagram;
+
+        private PendingDatagram(InetSocketAddress target, ByteBuffer datagram) {
+            this.target = target;
+            this.datagram = datagram;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - ReceiveBufferPool.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code ReceiveBufferPool} provides the receive buffers of a transport mapping without
+ * allocating a buffer per message. Messages are received into large heap slabs: each message
+ * occupies only as many bytes of a slab as it actually has, so the number of messages per slab
+ * follows the observed message sizes instead of the configured maximum inbound message size.
+ * <p>
+ * Each slab is reference counted. A message slice handed to the
+ * {@link org.snmp4j.MessageDispatcher} holds one reference that the transport mapping releases
+ * when {@link TransportListener#processMessage} returns. A listener that processes the message
+ * after it has returned, for example on another thread, has to call {@link #retain(ByteBuffer)}
+ * before it returns and {@link #release(ByteBuffer)} when it is done. A slab whose slices have
+ * all been released goes back to the pool and is reused for the next messages.
+ * <p>
+ * The methods {@link #receiveBuffer(int)} and {@link #commit(ByteBuffer, int)} must be called
+ * by a single receiving thread. {@link #retain(ByteBuffer)} and {@link #release(ByteBuffer)}
+ * may be called from any thread and do nothing for buffers that do not come from a pool.
+ *
+ * @since 3.5.0
+ */
+public class ReceiveBufferPool {
+
+    /**
+     * The default size of a slab, which holds several messages.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 256 * 1024;
+
+    /**
+     * The default maximum number of free slabs kept for reuse.
+     */
+    public static final int DEFAULT_MAX_FREE_SLABS = 16;
+
+    private static final int ALIGNMENT = 8;
+
+    // all slabs of all pools that have slices in use, by their backing array
+    private static final Map<byte[], Slab> slabs = new ConcurrentHashMap<>();
+
+    private final int slabSize;
+    private final int maxFreeSlabs;
+    private final Queue<Slab> freeSlabs = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocatedSlabs = new AtomicInteger();
+    // the slab messages are currently received into, only accessed by the receiving thread
+    private Slab current;
+    private int position;
+
+    private final class Slab {
+        private final byte[] array;
+        // one reference is held by the pool as long as the slab is current
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Slab(int size) {
+            array = new byte[size];
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                slabs.remove(array);
+                if (freeSlabs.size() < maxFreeSlabs) {
+                    references.set(1);
+                    freeSlabs.add(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a receive buffer pool with {@link #DEFAULT_SLAB_SIZE} slabs that keeps up to
+     * {@link #DEFAULT_MAX_FREE_SLABS} free slabs.
+     */
+    public ReceiveBufferPool() {
+        this(DEFAULT_SLAB_SIZE, DEFAULT_MAX_FREE_SLABS);
+    }
+
+    /**
+     * Creates a receive buffer pool.
+     *
+     * @param slabSize
+     *         the size of a slab in bytes. Slabs are enlarged to twice the maximum message size
+     *         if they are smaller.
+     * @param maxFreeSlabs
+     *         the maximum number of free slabs kept for reuse.
+     */
+    public ReceiveBufferPool(int slabSize, int maxFreeSlabs) {
+        if ((slabSize <= 0) || (maxFreeSlabs < 0)) {
+            throw new IllegalArgumentException("Slab size must be > 0 and free slabs >= 0");
+        }
+        this.slabSize = slabSize;
+        this.maxFreeSlabs = maxFreeSlabs;
+    }
+
+    /**
+     * Returns a buffer with {@code maxMessageSize} bytes remaining to receive the next message
+     * into. The buffer shares the backing array of the current slab and its array offset is
+     * given by {@link ByteBuffer#arrayOffset()} plus {@link ByteBuffer#position()}.
+     *
+     * @param maxMessageSize
+     *         the maximum size of the message to receive.
+     *
+     * @return a heap buffer whose position and limit enclose the space for the message.
+     */
+    public ByteBuffer receiveBuffer(int maxMessageSize) {
+        if ((current == null) || (current.array.length - position < maxMessageSize)) {
+            if (current != null) {
+                // the slab is reused right away if all its messages have been processed
+                current.release();
+            }
+            current = nextSlab(maxMessageSize);
+            position = 0;
+        }
+        return ByteBuffer.wrap(current.array, position, maxMessageSize);
+    }
+
+    /**
+     * Takes the first {@code length} bytes of a buffer returned by {@link #receiveBuffer(int)}
+     * as a received message. The message holds a reference to its slab that has to be released
+     * with {@link #release(ByteBuffer)} by passing any buffer that shares the slab's array, for
+     * example the receive buffer itself.
+     *
+     * @param receiveBuffer
+     *         the buffer last returned by {@link #receiveBuffer(int)}.
+     * @param length
+     *         the length of the received message.
+     */
+    public void commit(ByteBuffer receiveBuffer, int length) {
+        Slab slab = current;
+        if ((slab == null) || (receiveBuffer.array() != slab.array)) {
+            throw new IllegalStateException("Buffer has not been returned by receiveBuffer");
+        }
+        if (slab.references.getAndIncrement() == 1) {
+            slabs.put(slab.array, slab);
+        }
+        position = Math.min(slab.array.length,
+                (receiveBuffer.position() + length + ALIGNMENT - 1) & -ALIGNMENT);
+    }
+
+    /**
+     * Returns the number of slabs this pool has allocated so far.
+     *
+     * @return the number of allocated slabs.
+     */
+    public int getAllocatedSlabs() {
+        return allocatedSlabs.get();
+    }
+
+    /**
+     * Returns the number of free slabs kept for reuse.
+     *
+     * @return the number of free slabs.
+     */
+    public int getFreeSlabs() {
+        return freeSlabs.size();
+    }
+
+    private Slab nextSlab(int maxMessageSize) {
+        int size = Math.max(slabSize, 2 * maxMessageSize);
+        Slab slab;
+        while ((slab = freeSlabs.poll()) != null) {
+            if (slab.array.length >= size) {
+                return slab;
+            }
+        }
+        allocatedSlabs.incrementAndGet();
+        return new Slab(size);
+    }
+
+    /**
+     * Adds a reference to the slab of a message slice so that the message can be processed
+     * after {@link TransportListener#processMessage} has returned.
+     *
+     * @param message
+     *         a message slice.
+     *
+     * @return {@code true} if the message comes from a pool and has to be released with
+     * {@link #release(ByteBuffer)}, {@code false} otherwise.
+     */
+    public static boolean retain(ByteBuffer message) {
+        Slab slab = slabOf(message);
+        if (slab == null) {
+            return false;
+        }
+        slab.references.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Releases a reference to the slab of a message slice.
+     *
+     * @param message
+     *         a message slice.
+     *
+     * @return {@code true} if the message comes from a pool, {@code false} otherwise.
+     */
+    public static boolean release(ByteBuffer message) {
+        Slab slab = slabOf(message);
+        if (slab == null) {
+            return false;
+        }
+        slab.release();
+        return true;
+    }
+
+    private static Slab slabOf(ByteBuffer message) {
+        if ((message == null) || !message.hasArray()) {
+            return null;
+        }
+        return slabs.get(message.array());
+    }
+}
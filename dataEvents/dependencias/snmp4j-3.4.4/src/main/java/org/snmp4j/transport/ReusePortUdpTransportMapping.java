@@ -0,0 +1,463 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - ReusePortUdpTransportMapping.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.snmp4j.SNMP4JSettings;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.log.LogAdapter;
+import org.snmp4j.log.LogFactory;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.util.WorkerTask;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@code ReusePortUdpTransportMapping} implements a UDP transport mapping that receives
+ * on several sockets bound to the same address with the {@code SO_REUSEPORT} socket option.
+ * Each socket has its own receive thread that hands the messages to the
+ * {@link TransportListener}s (i.e. the {@link org.snmp4j.MessageDispatcher}), and the kernel
+ * distributes the incoming datagrams over the sockets by a hash of their source and destination
+ * addresses. The inbound message rate is thus no longer limited by what a single thread can
+ * receive and dispatch.
+ * <p>
+ * Because the datagrams of one source address always arrive on the same socket, the requests of
+ * a single manager are still processed in order by one thread; the load is spread over managers
+ * (or over the local ports used by a manager).
+ * <p>
+ * Outgoing messages are sent on the socket that received the request if that is known from the
+ * {@link TransportStateReference}, otherwise on a socket selected by the target address.
+ * If the platform does not support {@code SO_REUSEPORT}, a single socket is used.
+ * <p>
+ * To use this transport mapping for {@link UdpAddress}es created through
+ * {@link TransportMappings}, enable {@link SNMP4JSettings#setExtensibilityEnabled(boolean)}
+ * and set the system property {@link TransportMappings#TRANSPORT_MAPPINGS} to
+ * {@link TransportMappings#REUSEPORT_TRANSPORT_MAPPINGS}. The number of sockets is then
+ * defined by the system property {@link #RECEIVE_SOCKETS}.
+ *
+ * @since 3.5.0
+ */
+public class ReusePortUdpTransportMapping extends UdpTransportMapping {
+
+    private static final LogAdapter logger = LogFactory.getLogger(ReusePortUdpTransportMapping.class);
+
+    /**
+     * The system property with the number of sockets used by the
+     * {@link #ReusePortUdpTransportMapping(UdpAddress)} constructor. Defaults to the number of
+     * available processors.
+     */
+    public static final String RECEIVE_SOCKETS = "org.snmp4j.udpReceiveSockets";
+
+    private final int requestedSockets;
+    private DatagramChannel[] channels;
+    private ReceiveThread[] receiveThreads;
+    private WorkerTask[] listeners;
+    private AtomicLongArray receivedMessages;
+    private int receiveBufferSize = 0; // not set by default
+
+    /**
+     * Creates a UDP transport on the specified address with the number of sockets given by
+     * the system property {@link #RECEIVE_SOCKETS}.
+     *
+     * @param udpAddress
+     *         the local address for sending and receiving of UDP messages.
+     *
+     * @throws IOException
+     *         if socket binding fails.
+     */
+    public ReusePortUdpTransportMapping(UdpAddress udpAddress) throws IOException {
+        this(udpAddress, Integer.getInteger(RECEIVE_SOCKETS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates a UDP transport on the specified address that receives on {@code socketCount}
+     * sockets. If {@code udpAddress} has port 0, all sockets are bound to the port that was
+     * assigned to the first one.
+     *
+     * @param udpAddress
+     *         the local address for sending and receiving of UDP messages.
+     * @param socketCount
+     *         the number of sockets (and receive threads), at least 1.
+     *
+     * @throws IOException
+     *         if socket binding fails.
+     */
+    public ReusePortUdpTransportMapping(UdpAddress udpAddress, int socketCount) throws IOException {
+        super(udpAddress);
+        if (socketCount <= 0) {
+            throw new IllegalArgumentException("Socket count must be > 0");
+        }
+        this.requestedSockets = socketCount;
+        openChannels();
+    }
+
+    private synchronized void openChannels() throws IOException {
+        DatagramChannel first = DatagramChannel.open();
+        int count = requestedSockets;
+        if ((count > 1) && !first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+            logger.warn("SO_REUSEPORT is not supported, " + udpAddress + " is served by one socket");
+            count = 1;
+        }
+        DatagramChannel[] chs = new DatagramChannel[count];
+        chs[0] = first;
+        try {
+            InetSocketAddress bindAddress = new InetSocketAddress(udpAddress.getInetAddress(), udpAddress.getPort());
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    chs[i] = DatagramChannel.open();
+                }
+                if (count > 1) {
+                    chs[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                chs[i].bind(bindAddress);
+                if (i == 0) {
+                    // an ephemeral port is shared by the other sockets
+                    bindAddress = (InetSocketAddress) chs[0].getLocalAddress();
+                }
+            }
+        } catch (IOException iox) {
+            for (DatagramChannel ch : chs) {
+                if (ch != null) {
+                    ch.close();
+                }
+            }
+            throw iox;
+        }
+        channels = chs;
+        receivedMessages = new AtomicLongArray(count);
+    }
+
+    /**
+     * Returns the number of sockets this transport mapping receives on.
+     *
+     * @return the number of sockets, which is 1 if {@code SO_REUSEPORT} is not supported.
+     */
+    public int getSocketCount() {
+        DatagramChannel[] chs = channels;
+        return (chs != null) ? chs.length : requestedSockets;
+    }
+
+    /**
+     * Returns the number of messages received on each socket since this transport mapping
+     * started listening.
+     *
+     * @return an array with one counter per socket.
+     */
+    public long[] getReceivedMessages() {
+        AtomicLongArray counters = receivedMessages;
+        long[] result = new long[counters.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counters.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public void sendMessage(UdpAddress targetAddress, byte[] message,
+                            TransportStateReference tmStateReference, long timeoutMillis, int maxRetries)
+            throws IOException {
+        if ((suspendedAddresses.size() > 0) && suspendedAddresses.contains(targetAddress)) {
+            handleDroppedMessageToSend(targetAddress, message, tmStateReference, timeoutMillis, maxRetries);
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending message to " + targetAddress + " from " + getListenAddress() + " with length " +
+                    message.length + ": " +
+                    new OctetString(message).toHexString());
+        }
+        DatagramChannel ch = selectChannel(targetAddress, tmStateReference);
+        ch.send(ByteBuffer.wrap(message), new InetSocketAddress(targetAddress.getInetAddress(), targetAddress.getPort()));
+    }
+
+    /**
+     * Selects the socket for an outgoing message: the socket that received the request, if known,
+     * otherwise a socket determined by the target address so that concurrent senders to different
+     * targets rarely contend for the same socket.
+     *
+     * @param targetAddress
+     *         the target of the message.
+     * @param tmStateReference
+     *         the transport state reference of the message or {@code null}.
+     *
+     * @return an open channel.
+     * @throws IOException
+     *         if the channels had to be reopened and that failed.
+     */
+    protected DatagramChannel selectChannel(UdpAddress targetAddress, TransportStateReference tmStateReference)
+            throws IOException {
+        DatagramChannel[] chs = channels;
+        if (chs == null) {
+            openChannels();
+            chs = channels;
+        }
+        if ((tmStateReference != null) && (tmStateReference.getSessionID() instanceof DatagramChannel)) {
+            DatagramChannel session = (DatagramChannel) tmStateReference.getSessionID();
+            for (DatagramChannel ch : chs) {
+                if (ch == session) {
+                    return ch;
+                }
+            }
+        }
+        return chs[(targetAddress.hashCode() & Integer.MAX_VALUE) % chs.length];
+    }
+
+    /**
+     * Starts one receive thread per socket. The threads are started in daemon mode.
+     *
+     * @throws IOException
+     *         if the sockets could not be (re)opened.
+     */
+    @Override
+    public synchronized void listen() throws IOException {
+        if (listeners != null) {
+            throw new SocketException("Port already listening");
+        }
+        if (channels == null) {
+            openChannels();
+        }
+        DatagramChannel[] chs = channels;
+        receiveThreads = new ReceiveThread[chs.length];
+        listeners = new WorkerTask[chs.length];
+        for (int i = 0; i < chs.length; i++) {
+            if (receiveBufferSize > 0) {
+                chs[i].setOption(StandardSocketOptions.SO_RCVBUF, Math.max(receiveBufferSize, maxInboundMessageSize));
+            }
+            receiveThreads[i] = new ReceiveThread(i, chs[i]);
+            listeners[i] = SNMP4JSettings.getThreadFactory().createWorkerThread(
+                    "ReusePortUdpTransportMapping_" + getListenAddress() + "_" + i, receiveThreads[i], true);
+        }
+        for (WorkerTask l : listeners) {
+            l.run();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Listening on socket " + getListenAddress() + " with " + chs.length + " receive sockets");
+        }
+    }
+
+    /**
+     * Closes the sockets and stops the receive threads.
+     *
+     * @throws IOException
+     *         if a socket cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        ReceiveThread[] threads = receiveThreads;
+        if (threads != null) {
+            for (ReceiveThread t : threads) {
+                t.terminate();
+            }
+        }
+        DatagramChannel[] chs = channels;
+        channels = null;
+        IOException closeException = null;
+        if (chs != null) {
+            for (DatagramChannel ch : chs) {
+                try {
+                    ch.close();
+                } catch (IOException iox) {
+                    closeException = iox;
+                }
+            }
+        }
+        WorkerTask[] ls = listeners;
+        listeners = null;
+        receiveThreads = null;
+        if (ls != null) {
+            boolean interrupted = false;
+            for (WorkerTask l : ls) {
+                try {
+                    l.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                    logger.warn(ex);
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (closeException != null) {
+            throw closeException;
+        }
+    }
+
+    @Override
+    public boolean isListening() {
+        return (listeners != null);
+    }
+
+    @Override
+    public UdpAddress getListenAddress() {
+        DatagramChannel[] chs = channels;
+        if (chs != null) {
+            try {
+                InetSocketAddress local = (InetSocketAddress) chs[0].getLocalAddress();
+                if (local != null) {
+                    return new UdpAddress(local.getAddress(), local.getPort());
+                }
+            } catch (IOException iox) {
+                logger.debug(iox);
+            }
+        }
+        return null;
+    }
+
+    public void setMaxInboundMessageSize(int maxInboundMessageSize) {
+        this.maxInboundMessageSize = maxInboundMessageSize;
+    }
+
+    /**
+     * Gets the requested receive buffer size for each of the underlying UDP sockets.
+     *
+     * @return &lt;=0 if the default buffer size of the OS is used, or a value &gt;0 if the
+     * user specified a buffer size.
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * Sets the receive buffer size of each socket, which should be greater than the maximum
+     * inbound message size. This method has to be called before {@link #listen()} to be
+     * effective.
+     *
+     * @param receiveBufferSize
+     *         an integer value &gt;0 and &gt; {@link #getMaxInboundMessageSize()}.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize <= 0) {
+            throw new IllegalArgumentException("Receive buffer size must be > 0");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Prepare a received datagram for the application.
+     *
+     * @param source
+     *         the address the datagram has been received from.
+     * @param buf
+     *         the receive buffer of the socket with the datagram between position and limit.
+     *         It is reused for the next datagram when the transport listeners returned.
+     * @param tmStateReference
+     *         the transport state reference.
+     *
+     * @return a byte buffer with the application data of the datagram or {@code null} if the
+     * datagram should be dropped.
+     */
+    protected ByteBuffer prepareInPacket(InetSocketAddress source, ByteBuffer buf,
+                                         TransportStateReference tmStateReference) {
+        if (isAsyncMsgProcessingSupported()) {
+            ByteBuffer copy = ByteBuffer.allocate(buf.remaining());
+            copy.put(buf).flip();
+            return copy;
+        }
+        return buf;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + getListenAddress() + ",sockets=" + getSocketCount() + "]";
+    }
+
+    /**
+     * The blocking receive loop of one socket.
+     */
+    protected class ReceiveThread implements WorkerTask {
+
+        private final int index;
+        private final DatagramChannel channel;
+        private volatile boolean stop = false;
+
+        public ReceiveThread(int index, DatagramChannel channel) {
+            this.index = index;
+            this.channel = channel;
+        }
+
+        public void run() {
+            ByteBuffer buf = ByteBuffer.allocateDirect(getMaxInboundMessageSize());
+            while (!stop) {
+                int maxSize = getMaxInboundMessageSize();
+                if (buf.capacity() < maxSize) {
+                    buf = ByteBuffer.allocateDirect(maxSize);
+                }
+                buf.clear().limit(maxSize);
+                InetSocketAddress source;
+                try {
+                    source = (InetSocketAddress) channel.receive(buf);
+                } catch (ClosedChannelException ccex) {
+                    break;
+                } catch (IOException iox) {
+                    if (!stop) {
+                        logger.warn("Receive on socket " + index + " of " + ReusePortUdpTransportMapping.this +
+                                " failed: " + iox.getMessage());
+                    }
+                    continue;
+                }
+                buf.flip();
+                receivedMessages.incrementAndGet(index);
+                TransportStateReference stateReference =
+                        new TransportStateReference(ReusePortUdpTransportMapping.this, udpAddress, null,
+                                SecurityLevel.undefined, SecurityLevel.undefined,
+                                false, channel);
+                try {
+                    ByteBuffer bis = prepareInPacket(source, buf, stateReference);
+                    if (bis != null) {
+                        fireProcessMessage(new UdpAddress(source.getAddress(), source.getPort()), bis, stateReference);
+                    }
+                } catch (RuntimeException rex) {
+                    logger.error("Processing of datagram from " + source + " failed: " + rex.getMessage(), rex);
+                    if (SNMP4JSettings.isForwardRuntimeExceptions()) {
+                        throw rex;
+                    }
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Worker task stopped:" + getClass().getName() + " " + index);
+            }
+        }
+
+        public void terminate() {
+            stop = true;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Terminated worker task: " + getClass().getName() + " " + index);
+            }
+        }
+
+        public void join() throws InterruptedException {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Joining worker task: " + getClass().getName() + " " + index);
+            }
+        }
+
+        public void interrupt() {
+            terminate();
+        }
+    }
+}
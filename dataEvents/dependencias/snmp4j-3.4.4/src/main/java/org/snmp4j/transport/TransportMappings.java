@@ -53,6 +53,24 @@ public class TransportMappings {
             "org.snmp4j.transportMappings";
     private static final String TRANSPORT_MAPPINGS_DEFAULT =
             "transports.properties";
+    /**
+     * The transport mappings registration file that maps {@link UdpAddress} to the
+     * selector based {@link NioUdpTransportMapping}. Set the system property
+     * {@link #TRANSPORT_MAPPINGS} to this value (with extensibility enabled in
+     * {@link SNMP4JSettings}) to use it.
+     * @since 3.5.0
+     */
+    public static final String NIO_TRANSPORT_MAPPINGS =
+            "nio-transports.properties";
+    /**
+     * The transport mappings registration file that maps {@link UdpAddress} to the
+     * {@link ReusePortUdpTransportMapping}, which receives on several sockets with
+     * {@code SO_REUSEPORT}. Set the system property {@link #TRANSPORT_MAPPINGS} to
+     * this value (with extensibility enabled in {@link SNMP4JSettings}) to use it.
+     * @since 3.5.0
+     */
+    public static final String REUSEPORT_TRANSPORT_MAPPINGS =
+            "reuseport-transports.properties";
 
     private static TransportMappings instance = null;
     private Hashtable<String, Class<? extends TransportMapping<?>>> transportMappings = null;
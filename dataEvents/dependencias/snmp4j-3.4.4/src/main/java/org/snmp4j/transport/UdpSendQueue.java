@@ -0,0 +1,249 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - UdpSendQueue.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.snmp4j.log.LogAdapter;
+import org.snmp4j.log.LogFactory;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.util.WorkerTask;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The {@code UdpSendQueue} decouples the threads that send messages through a
+ * {@link DefaultUdpTransportMapping} from the socket. Messages are appended to a lock-free
+ * queue and a single writer thread drains them in batches of up to
+ * {@link DefaultUdpTransportMapping#DEFAULT_SEND_BATCH} datagrams.
+ * <p>
+ * Within a batch, the datagrams for the same destination are sent back to back with one
+ * reused {@link DatagramPacket} and one resolved {@link InetSocketAddress} per destination.
+ * SNMP over UDP requires exactly one message per datagram, so messages are never merged
+ * into a single datagram. The order of the messages sent to a destination is preserved: a
+ * message that does not fit into the full queue is dropped and counted instead of being
+ * sent ahead of the queued messages by the calling thread. SNMP recovers from such a loss
+ * by its retries, as from any lost datagram.
+ *
+ * @since 3.5.0
+ */
+class UdpSendQueue implements WorkerTask {
+
+    private static final LogAdapter logger = LogFactory.getLogger(UdpSendQueue.class);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final byte[] NO_DATA = new byte[0];
+
+    private final DefaultUdpTransportMapping mapping;
+    private final int capacity;
+    private final Queue<Datagram> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    // the batch and the packet are only accessed by the writer thread
+    private final Datagram[] batch;
+    private final DatagramPacket packet = new DatagramPacket(NO_DATA, 0);
+    private volatile Thread writer;
+    private volatile boolean parked = false;
+    private volatile boolean stop = false;
+    private volatile long sentMessages;
+    private volatile long sentBatches;
+
+    private static final class Datagram {
+        private final UdpAddress target;
+        private final byte[] message;
+
+        private Datagram(UdpAddress target, byte[] message) {
+            this.target = target;
+            this.message = message;
+        }
+    }
+
+    UdpSendQueue(DefaultUdpTransportMapping mapping, int capacity, int maxBatch) {
+        this.mapping = mapping;
+        this.capacity = capacity;
+        this.batch = new Datagram[maxBatch];
+    }
+
+    /**
+     * Appends a message to the queue, or drops it if the queue is full.
+     *
+     * @param target
+     *         the destination of the message.
+     * @param message
+     *         the message, which must not be modified by the caller afterwards.
+     *
+     * @return {@code false} if the queue is stopped and the caller has to send the message
+     * itself.
+     */
+    boolean offer(UdpAddress target, byte[] message) {
+        if (stop) {
+            return false;
+        }
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            droppedMessages.incrementAndGet();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Dropped message to " + target + ", because the send queue of " + mapping +
+                        " is full");
+            }
+            return true;
+        }
+        Datagram datagram = new Datagram(target, message);
+        queue.add(datagram);
+        if (stop) {
+            // the writer may have done its final drain before the message was added: take the
+            // message back unless the writer has already got it and will still send it
+            if (queue.remove(datagram)) {
+                size.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    long getSentMessages() {
+        return sentMessages;
+    }
+
+    long getSentBatches() {
+        return sentBatches;
+    }
+
+    long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    public void run() {
+        writer = Thread.currentThread();
+        while (!stop) {
+            int n = drain();
+            if (n > 0) {
+                send(n);
+            } else {
+                parked = true;
+                if (queue.isEmpty() && !stop) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                parked = false;
+            }
+        }
+        // flush what has been accepted before the queue was stopped
+        int n;
+        while ((n = drain()) > 0) {
+            send(n);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Worker task stopped:" + getClass().getName());
+        }
+    }
+
+    private int drain() {
+        int n = 0;
+        Datagram d;
+        while ((n < batch.length) && ((d = queue.poll()) != null)) {
+            batch[n++] = d;
+        }
+        if (n > 0) {
+            size.addAndGet(-n);
+        }
+        return n;
+    }
+
+    private void send(int n) {
+        DatagramSocket socket;
+        try {
+            socket = mapping.ensureSocket();
+        } catch (IOException iox) {
+            logger.warn("Dropping " + n + " queued messages of " + mapping + ": " + iox.getMessage());
+            clear(n);
+            return;
+        }
+        int sent = 0;
+        for (int i = 0; i < n; i++) {
+            Datagram first = batch[i];
+            if (first == null) {
+                continue;
+            }
+            UdpAddress target = first.target;
+            packet.setSocketAddress(new InetSocketAddress(target.getInetAddress(), target.getPort()));
+            for (int j = i; j < n; j++) {
+                Datagram d = batch[j];
+                if ((d != null) && ((d == first) || target.equals(d.target))) {
+                    batch[j] = null;
+                    packet.setData(d.message);
+                    try {
+                        socket.send(packet);
+                        sent++;
+                    } catch (IOException iox) {
+                        if (!socket.isClosed()) {
+                            logger.warn("Sending queued message to " + target + " failed: " + iox.getMessage());
+                        }
+                    }
+                }
+            }
+        }
+        packet.setData(NO_DATA);
+        sentMessages += sent;
+        sentBatches++;
+    }
+
+    private void clear(int n) {
+        for (int i = 0; i < n; i++) {
+            batch[i] = null;
+        }
+    }
+
+    public void terminate() {
+        stop = true;
+        LockSupport.unpark(writer);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Terminated worker task: " + getClass().getName());
+        }
+    }
+
+    public void join() throws InterruptedException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Joining worker task: " + getClass().getName());
+        }
+    }
+
+    public void interrupt() {
+        terminate();
+    }
+}
@@ -33,6 +33,7 @@ import org.snmp4j.mp.StatusInformation;
 import java.nio.ByteBuffer;
 
 import org.snmp4j.mp.PduHandleCallback;
+import org.snmp4j.transport.ReceiveBufferPool;
 import org.snmp4j.transport.TransportType;
 
 /**
@@ -192,8 +193,18 @@ public class MultiThreadedMessageDispatcher implements MessageDispatcher {
 
     public <A extends Address> void processMessage(TransportMapping<? super A> sourceTransport, A incomingAddress,
                                                    ByteBuffer wholeMessage, TransportStateReference tmStateReference) {
-        MessageTask<A> task = new MessageTask<>(sourceTransport, incomingAddress, wholeMessage, tmStateReference);
-        threadPool.execute(task);
+        // a pooled receive buffer is released by the transport when this method returns
+        boolean pooled = ReceiveBufferPool.retain(wholeMessage);
+        MessageTask<A> task = new MessageTask<>(sourceTransport, incomingAddress, wholeMessage, tmStateReference,
+                pooled);
+        try {
+            threadPool.execute(task);
+        } catch (RuntimeException rex) {
+            if (pooled) {
+                ReceiveBufferPool.release(wholeMessage);
+            }
+            throw rex;
+        }
     }
 
     class MessageTask<A extends Address> implements WorkerTask {
@@ -201,19 +212,35 @@ public class MultiThreadedMessageDispatcher implements MessageDispatcher {
         private A incomingAddress;
         private ByteBuffer wholeMessage;
         private TransportStateReference tmStateReference;
+        private boolean pooled;
 
         public MessageTask(TransportMapping<? super A> sourceTransport,
                            A incomingAddress,
                            ByteBuffer wholeMessage,
                            TransportStateReference tmStateReference) {
+            this(sourceTransport, incomingAddress, wholeMessage, tmStateReference, false);
+        }
+
+        MessageTask(TransportMapping<? super A> sourceTransport,
+                    A incomingAddress,
+                    ByteBuffer wholeMessage,
+                    TransportStateReference tmStateReference,
+                    boolean pooled) {
             this.sourceTransport = sourceTransport;
             this.incomingAddress = incomingAddress;
             this.wholeMessage = wholeMessage;
             this.tmStateReference = tmStateReference;
+            this.pooled = pooled;
         }
 
         public void run() {
-            dispatcher.processMessage(sourceTransport, incomingAddress, wholeMessage, tmStateReference);
+            try {
+                dispatcher.processMessage(sourceTransport, incomingAddress, wholeMessage, tmStateReference);
+            } finally {
+                if (pooled) {
+                    ReceiveBufferPool.release(wholeMessage);
+                }
+            }
         }
 
         public void terminate() {
@@ -29,9 +29,9 @@ package org.snmp4j.version;
 public class VersionInfo {
 
     public static final int MAJOR = 3;
-    public static final int MINOR = 4;
-    public static final int UPDATE = 4;
-    public static final String PATCH = "";
+    public static final int MINOR = 5;
+    public static final int UPDATE = 0;
+    public static final String PATCH = "-SNAPSHOT";
 
     public static final String VERSION =
             MAJOR + "." + MINOR + "." + UPDATE + PATCH;
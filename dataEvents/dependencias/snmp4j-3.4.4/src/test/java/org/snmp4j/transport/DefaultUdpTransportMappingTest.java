@@ -0,0 +1,267 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - DefaultUdpTransportMappingTest.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import junit.framework.TestCase;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.ScopedPDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.UserTarget;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.security.AuthHMAC192SHA256;
+import org.snmp4j.security.PrivAES128;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.TransportTestHelper.CollectingListener;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.snmp4j.transport.TransportTestHelper.UDP_LOCALHOST;
+
+public class DefaultUdpTransportMappingTest extends TestCase {
+
+    private static byte[] message(int i) {
+        return ByteBuffer.allocate(4).putInt(i).array();
+    }
+
+    public void testQueuedSendKeepsOrderPerDestination() throws Exception {
+        int count = 200;
+        DefaultUdpTransportMapping client = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        client.setSendQueueCapacity(count);
+        DefaultUdpTransportMapping server1 = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        DefaultUdpTransportMapping server2 = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        CollectingListener listener1 = new CollectingListener(count / 2);
+        CollectingListener listener2 = new CollectingListener(count / 2);
+        server1.setReceiveBufferSize(1 << 20);
+        server2.setReceiveBufferSize(1 << 20);
+        server1.addTransportListener(listener1);
+        server2.addTransportListener(listener2);
+        server1.listen();
+        server2.listen();
+        client.listen();
+        try {
+            for (int i = 0; i < count; i++) {
+                UdpAddress target = ((i % 2) == 0) ? server1.getListenAddress() : server2.getListenAddress();
+                client.sendMessage(target, message(i), null, 0, 0);
+            }
+            assertTrue(listener1.await(2));
+            assertTrue(listener2.await(2));
+            for (int i = 0; i < count / 2; i++) {
+                assertEquals(2 * i, listener1.intAt(i, 0));
+                assertEquals(2 * i + 1, listener2.intAt(i, 0));
+            }
+            assertEquals(0, client.getSendQueueSize());
+        } finally {
+            client.close();
+            server1.close();
+            server2.close();
+        }
+    }
+
+    public void testSendQueueFlushedOnClose() throws Exception {
+        int count = 50;
+        DefaultUdpTransportMapping server = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        CollectingListener listener = new CollectingListener(count);
+        server.addTransportListener(listener);
+        server.listen();
+        DefaultUdpTransportMapping client = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        client.setSendQueueCapacity(count);
+        client.listen();
+        try {
+            for (int i = 0; i < count; i++) {
+                client.sendMessage(server.getListenAddress(), message(i), null, 0, 0);
+            }
+            client.close();
+            assertTrue(listener.await(2));
+            assertEquals(count, listener.size());
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testFullSendQueueDropsInsteadOfOvertaking() throws Exception {
+        int count = 2000;
+        DefaultUdpTransportMapping server = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        server.setReceiveBufferSize(1 << 20);
+        CollectingListener listener = new CollectingListener(count);
+        server.addTransportListener(listener);
+        server.listen();
+        DefaultUdpTransportMapping client = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        client.setSendQueueCapacity(1);
+        client.listen();
+        try {
+            for (int i = 0; i < count; i++) {
+                client.sendMessage(server.getListenAddress(), message(i), null, 0, 0);
+            }
+            long dropped = client.getSendQueueDroppedMessages();
+            assertTrue(dropped > 0);
+            client.close();
+            long deadline = System.currentTimeMillis() + 2000;
+            while ((listener.size() < count - dropped) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            assertEquals(count - dropped, listener.size());
+            for (int i = 1; i < listener.size(); i++) {
+                assertTrue(listener.intAt(i - 1, 0) < listener.intAt(i, 0));
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testSendWithoutQueueWhenNotListening() throws Exception {
+        DefaultUdpTransportMapping server = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        CollectingListener listener = new CollectingListener(1);
+        server.addTransportListener(listener);
+        server.listen();
+        DefaultUdpTransportMapping client = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        client.setSendQueueCapacity(10);
+        try {
+            client.sendMessage(server.getListenAddress(), message(7), null, 0, 0);
+            assertTrue(listener.await(2));
+            assertEquals(7, listener.intAt(0, 0));
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testPooledReceiveBuffersAreReused() throws Exception {
+        int count = 100;
+        DefaultUdpTransportMapping server = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        server.setReceiveBufferPool(pool);
+        final List<byte[]> arrays = Collections.synchronizedList(new ArrayList<>());
+        CollectingListener listener = new CollectingListener(count) {
+            @Override
+            public <A extends Address> void processMessage(TransportMapping<? super A> sourceTransport,
+                                                           A incomingAddress, ByteBuffer wholeMessage,
+                                                           TransportStateReference tmStateReference) {
+                arrays.add(wholeMessage.array());
+                super.processMessage(sourceTransport, incomingAddress, wholeMessage, tmStateReference);
+            }
+        };
+        server.addTransportListener(listener);
+        server.listen();
+        DefaultUdpTransportMapping client = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        try {
+            for (int i = 0; i < count; i++) {
+                client.sendMessage(server.getListenAddress(), message(i), null, 0, 0);
+            }
+            assertTrue(listener.await(2));
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, listener.intAt(i, 0));
+                assertSame(arrays.get(0), arrays.get(i));
+            }
+            assertEquals(1, pool.getAllocatedSlabs());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testAuthPrivRequestsWithPooledReceiveBuffers() throws Exception {
+        int count = 20;
+        OctetString user = new OctetString("pooled");
+        UsmUser usmUser = new UsmUser(user, AuthHMAC192SHA256.ID, new OctetString("authentication"),
+                PrivAES128.ID, new OctetString("privacypassword"));
+        USM serverUsm = usm();
+        serverUsm.addUser(user, serverUsm.getLocalEngineID(), usmUser);
+        DefaultUdpTransportMapping serverTransport = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        serverTransport.setReceiveBufferPool(new ReceiveBufferPool());
+        Snmp server = new Snmp(dispatcher(serverUsm), serverTransport);
+        server.addCommandResponder(new CommandResponder() {
+            @Override
+            public <A extends Address> void processPdu(CommandResponderEvent<A> event) {
+                PDU response = (PDU) event.getPDU().clone();
+                response.setType(PDU.RESPONSE);
+                response.set(0, new VariableBinding(response.get(0).getOid(), new OctetString("ok")));
+                try {
+                    event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(),
+                            event.getSecurityModel(), event.getSecurityName(), event.getSecurityLevel(),
+                            response, event.getMaxSizeResponsePDU(), event.getStateReference(),
+                            new StatusInformation());
+                    event.setProcessed(true);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        server.listen();
+        USM clientUsm = usm();
+        Snmp client = new Snmp(dispatcher(clientUsm), new DefaultUdpTransportMapping(UDP_LOCALHOST));
+        client.listen();
+        try {
+            UdpAddress address = serverTransport.getListenAddress();
+            byte[] engineID = client.discoverAuthoritativeEngineID(address, 1000);
+            assertNotNull(engineID);
+            clientUsm.addUser(user, new OctetString(engineID), usmUser);
+            UserTarget<UdpAddress> target = new UserTarget<>();
+            target.setAddress(address);
+            target.setAuthoritativeEngineID(engineID);
+            target.setSecurityName(user);
+            target.setSecurityLevel(SecurityLevel.AUTH_PRIV);
+            target.setVersion(SnmpConstants.version3);
+            target.setTimeout(1000);
+            target.setRetries(1);
+            // every request after the discovery lands in a later slot of the pooled slab
+            for (int i = 0; i < count; i++) {
+                ScopedPDU pdu = new ScopedPDU();
+                pdu.add(new VariableBinding(new OID(SnmpConstants.sysDescr)));
+                ResponseEvent<UdpAddress> event = client.send(pdu, target);
+                assertNotNull(event.getResponse());
+                assertEquals(PDU.noError, event.getResponse().getErrorStatus());
+                assertEquals("ok", event.getResponse().get(0).getVariable().toString());
+            }
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    private static USM usm() {
+        return new USM(SecurityProtocols.getInstance().addDefaultProtocols(),
+                new OctetString(MPv3.createLocalEngineID()), 0);
+    }
+
+    private static MessageDispatcherImpl dispatcher(USM usm) {
+        MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+        dispatcher.addMessageProcessingModel(new MPv3(usm));
+        return dispatcher;
+    }
+}
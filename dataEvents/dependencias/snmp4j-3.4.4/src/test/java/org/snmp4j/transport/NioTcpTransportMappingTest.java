@@ -0,0 +1,246 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - NioTcpTransportMappingTest.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import junit.framework.TestCase;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.TcpAddress;
+import org.snmp4j.transport.TransportTestHelper.CollectingListener;
+
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.snmp4j.transport.TransportTestHelper.TCP_LOCALHOST;
+
+public class NioTcpTransportMappingTest extends TestCase {
+
+    /**
+     * Encodes {@code payloadLength} zero bytes as a BER octet string with a four byte length,
+     * which is parsed by the default SNMP message length decoder.
+     */
+    private static byte[] message(int id, int payloadLength) {
+        ByteBuffer buf = ByteBuffer.allocate(6 + payloadLength);
+        buf.put((byte) 0x04).put((byte) 0x84).putInt(payloadLength);
+        buf.putInt(id);
+        return buf.array();
+    }
+
+    private static int id(ByteBuffer message) {
+        return message.getInt(message.position() + 6);
+    }
+
+    /**
+     * Answers each incoming message with a response of the given size.
+     */
+    private static class Responder implements TransportListener {
+        private final NioTcpTransportMapping server;
+        private final int responseLength;
+
+        Responder(NioTcpTransportMapping server, int responseLength) {
+            this.server = server;
+            this.responseLength = responseLength;
+        }
+
+        public <A extends Address> void processMessage(TransportMapping<? super A> sourceTransport,
+                                                       A incomingAddress, ByteBuffer wholeMessage,
+                                                       TransportStateReference tmStateReference) {
+            try {
+                server.sendMessage((TcpAddress) incomingAddress, message(id(wholeMessage), responseLength),
+                        tmStateReference, 0, 0);
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    public void testRequestsAndResponsesKeepOrder() throws Exception {
+        int count = 500;
+        NioTcpTransportMapping server = new NioTcpTransportMapping(TCP_LOCALHOST);
+        server.setIoThreads(2);
+        server.addTransportListener(new Responder(server, 100));
+        server.listen();
+        NioTcpTransportMapping client = new NioTcpTransportMapping();
+        CollectingListener listener = new CollectingListener(count);
+        client.addTransportListener(listener);
+        try {
+            for (int i = 0; i < count; i++) {
+                client.sendMessage(server.getListenAddress(), message(i, 10), null, 0, 0);
+            }
+            assertTrue(listener.await(5));
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, listener.intAt(i, 6));
+            }
+            assertEquals(0, client.getDroppedMessages());
+            assertEquals(0, server.getDroppedMessages());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testStalledPeerDoesNotBlockOtherConnections() throws Exception {
+        int responseLength = 60000;
+        NioTcpTransportMapping server = new NioTcpTransportMapping(TCP_LOCALHOST);
+        server.setIoThreads(1);
+        server.setWatermarks(128 * 1024, 512 * 1024);
+        server.addTransportListener(new Responder(server, responseLength));
+        server.listen();
+        TcpAddress serverAddress = server.getListenAddress();
+        // a peer that sends requests but never reads the responses
+        Socket stalled = new Socket(serverAddress.getInetAddress(), serverAddress.getPort());
+        NioTcpTransportMapping client = new NioTcpTransportMapping();
+        CollectingListener listener = new CollectingListener(5);
+        client.addTransportListener(listener);
+        try {
+            stalled.setReceiveBufferSize(4096);
+            OutputStream out = stalled.getOutputStream();
+            for (int i = 0; i < 200; i++) {
+                out.write(message(i, 10));
+            }
+            out.flush();
+            TcpAddress stalledAddress = new TcpAddress(stalled.getLocalAddress(), stalled.getLocalPort());
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((server.getDroppedMessages() == 0) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            assertTrue(server.getDroppedMessages() > 0);
+            assertTrue(server.getQueuedBytes(stalledAddress) <= server.getHighWatermark() + responseLength + 6);
+            // the responses to another manager stay below the high watermark
+            for (int i = 0; i < 5; i++) {
+                client.sendMessage(serverAddress, message(i, 10), null, 0, 0);
+            }
+            assertTrue(listener.await(5));
+            assertEquals(5, listener.size());
+        } finally {
+            stalled.close();
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testPooledConnectionsPipelineRequests() throws Exception {
+        int count = 200;
+        NioTcpTransportMapping server = new NioTcpTransportMapping(TCP_LOCALHOST);
+        server.addTransportListener(new Responder(server, 100));
+        server.listen();
+        NioTcpTransportMapping client = new NioTcpTransportMapping();
+        client.setMaxConnectionsPerTarget(3);
+        client.setMaxPipelinedRequests(4);
+        CollectingListener listener = new CollectingListener(count);
+        client.addTransportListener(listener);
+        try {
+            TcpAddress serverAddress = server.getListenAddress();
+            for (int i = 0; i < count; i++) {
+                client.sendMessage(serverAddress, message(i, 10), null, 5000, 0);
+                assertTrue(client.getConnectionCount(serverAddress) <= 3);
+            }
+            assertTrue(listener.await(5));
+            Set<Integer> ids = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                ids.add(listener.intAt(i, 6));
+            }
+            assertEquals(count, ids.size());
+            assertTrue(client.getConnectionCount(serverAddress) >= 1);
+            assertEquals(0, client.getDroppedMessages());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testExpiredRequestsAndNotificationsAreNotOutstanding() throws Exception {
+        // a peer that never answers
+        NioTcpTransportMapping server = new NioTcpTransportMapping(TCP_LOCALHOST);
+        server.listen();
+        NioTcpTransportMapping client = new NioTcpTransportMapping();
+        client.setMaxConnectionsPerTarget(2);
+        client.setMaxPipelinedRequests(1);
+        try {
+            TcpAddress serverAddress = server.getListenAddress();
+            for (int i = 0; i < 5; i++) {
+                client.sendMessage(serverAddress, message(i, 10), null, 0, 0);
+            }
+            assertEquals(1, client.getConnectionCount(serverAddress));
+            client.sendMessage(serverAddress, message(5, 10), null, 50, 0);
+            Thread.sleep(100);
+            client.sendMessage(serverAddress, message(6, 10), null, 50, 0);
+            assertEquals(1, client.getConnectionCount(serverAddress));
+            client.sendMessage(serverAddress, message(7, 10), null, 5000, 0);
+            assertEquals(2, client.getConnectionCount(serverAddress));
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testIdlePooledConnectionsAreEvicted() throws Exception {
+        NioTcpTransportMapping server = new NioTcpTransportMapping(TCP_LOCALHOST);
+        server.addTransportListener(new Responder(server, 100));
+        server.listen();
+        NioTcpTransportMapping client = new NioTcpTransportMapping();
+        client.setConnectionTimeout(200);
+        client.setMaxConnectionsPerTarget(2);
+        CollectingListener listener = new CollectingListener(1);
+        client.addTransportListener(listener);
+        try {
+            TcpAddress serverAddress = server.getListenAddress();
+            client.sendMessage(serverAddress, message(1, 10), null, 5000, 0);
+            assertTrue(listener.await(5));
+            assertEquals(1, client.getConnectionCount(serverAddress));
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((client.getConnectionCount(serverAddress) > 0) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, client.getConnectionCount(serverAddress));
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testUnresponsivePooledConnectionIsClosed() throws Exception {
+        // a peer that accepts the connection but never answers
+        ServerSocket unresponsive = new ServerSocket(0, 1, TCP_LOCALHOST.getInetAddress());
+        NioTcpTransportMapping client = new NioTcpTransportMapping();
+        client.setConnectionTimeout(200);
+        client.setMaxConnectionsPerTarget(2);
+        try {
+            TcpAddress peerAddress = new TcpAddress(TCP_LOCALHOST.getInetAddress(), unresponsive.getLocalPort());
+            client.sendMessage(peerAddress, message(1, 10), null, 5000, 0);
+            Socket accepted = unresponsive.accept();
+            assertEquals(1, client.getConnectionCount(peerAddress));
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((client.getConnectionCount(peerAddress) > 0) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(20);
+            }
+            assertEquals(0, client.getConnectionCount(peerAddress));
+            accepted.close();
+        } finally {
+            client.close();
+            unresponsive.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - NioUdpTransportMappingTest.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import junit.framework.TestCase;
+import org.snmp4j.SNMP4JSettings;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.TransportTestHelper.CollectingListener;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.snmp4j.transport.TransportTestHelper.UDP_LOCALHOST;
+
+public class NioUdpTransportMappingTest extends TestCase {
+
+    public void testSendAndReceive() throws Exception {
+        NioUdpTransportMapping server = new NioUdpTransportMapping(UDP_LOCALHOST);
+        NioUdpTransportMapping client = new NioUdpTransportMapping(UDP_LOCALHOST);
+        CollectingListener listener = new CollectingListener(1);
+        server.addTransportListener(listener);
+        server.listen();
+        client.listen();
+        try {
+            byte[] message = new OctetString("hello World").getValue();
+            client.sendMessage(server.getListenAddress(), message, null, 0, 0);
+            assertTrue(listener.await(2));
+            assertEquals(new OctetString(message), listener.message(0));
+            assertEquals(client.getListenAddress(), listener.source(0));
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testManyMappingsOnOneSelector() throws Exception {
+        NioUdpSelector selector = new NioUdpSelector("NioUdpTransportMappingTest");
+        int count = 8;
+        List<NioUdpTransportMapping> servers = new ArrayList<>();
+        CollectingListener listener = new CollectingListener(count);
+        for (int i = 0; i < count; i++) {
+            NioUdpTransportMapping server = new NioUdpTransportMapping(UDP_LOCALHOST, false, selector);
+            server.addTransportListener(listener);
+            server.listen();
+            servers.add(server);
+        }
+        assertEquals(count, selector.getRegisteredChannels());
+        NioUdpTransportMapping client = new NioUdpTransportMapping(UDP_LOCALHOST);
+        try {
+            for (int i = 0; i < count; i++) {
+                client.sendMessage(servers.get(i).getListenAddress(), new byte[]{(byte) i}, null, 0, 0);
+            }
+            assertTrue(listener.await(2));
+            assertEquals(count, listener.size());
+        } finally {
+            client.close();
+            for (NioUdpTransportMapping server : servers) {
+                server.close();
+            }
+        }
+        assertEquals(0, selector.getRegisteredChannels());
+    }
+
+    public void testDirectBufferWithoutAsyncProcessing() throws Exception {
+        NioUdpTransportMapping server = new NioUdpTransportMapping(UDP_LOCALHOST);
+        server.setAsyncMsgProcessingSupported(false);
+        final List<Boolean> direct = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        server.addTransportListener(new TransportListener() {
+            public <A extends Address> void processMessage(TransportMapping<? super A> sourceTransport,
+                                                           A incomingAddress, ByteBuffer wholeMessage,
+                                                           TransportStateReference tmStateReference) {
+                direct.add(wholeMessage.isDirect());
+                latch.countDown();
+            }
+        });
+        server.listen();
+        NioUdpTransportMapping client = new NioUdpTransportMapping(UDP_LOCALHOST);
+        try {
+            client.sendMessage(server.getListenAddress(), new byte[]{1, 2, 3}, null, 0, 0);
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertTrue(direct.get(0));
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    public void testRegisteredThroughTransportMappings() throws Exception {
+        String previous = System.getProperty(TransportMappings.TRANSPORT_MAPPINGS);
+        boolean extensibilityEnabled = SNMP4JSettings.isExtensibilityEnabled();
+        SNMP4JSettings.setExtensibilityEnabled(true);
+        System.setProperty(TransportMappings.TRANSPORT_MAPPINGS, TransportMappings.NIO_TRANSPORT_MAPPINGS);
+        try {
+            TransportMappings mappings = new TransportMappings();
+            TransportMapping<UdpAddress> tm = mappings.createTransportMapping(UDP_LOCALHOST);
+            assertTrue(tm instanceof NioUdpTransportMapping);
+            tm.close();
+        } finally {
+            SNMP4JSettings.setExtensibilityEnabled(extensibilityEnabled);
+            if (previous == null) {
+                System.clearProperty(TransportMappings.TRANSPORT_MAPPINGS);
+            } else {
+                System.setProperty(TransportMappings.TRANSPORT_MAPPINGS, previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - ReceiveBufferPoolTest.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ReceiveBufferPoolTest extends TestCase {
+
+    private static ByteBuffer receive(ReceiveBufferPool pool, int maxSize, byte[] message) {
+        ByteBuffer buf = pool.receiveBuffer(maxSize);
+        buf.duplicate().put(message);
+        pool.commit(buf, message.length);
+        return ByteBuffer.wrap(buf.array(), buf.position(), message.length);
+    }
+
+    public void testMessagesShareSlabAndSlabIsReused() {
+        ReceiveBufferPool pool = new ReceiveBufferPool(1024, 4);
+        ByteBuffer first = receive(pool, 256, new byte[]{1, 2, 3});
+        ByteBuffer second = receive(pool, 256, new byte[]{4, 5});
+        assertSame(first.array(), second.array());
+        assertEquals(8, second.position());
+        assertTrue(ReceiveBufferPool.release(first));
+        assertTrue(ReceiveBufferPool.release(second));
+        for (int i = 0; i < 20; i++) {
+            ByteBuffer buf = receive(pool, 256, new byte[200]);
+            assertSame(first.array(), buf.array());
+            ReceiveBufferPool.release(buf);
+        }
+        assertEquals(1, pool.getAllocatedSlabs());
+    }
+
+    public void testRetainedMessageKeepsSlab() {
+        ReceiveBufferPool pool = new ReceiveBufferPool(512, 4);
+        ByteBuffer kept = receive(pool, 256, new byte[]{42});
+        assertTrue(ReceiveBufferPool.retain(kept));
+        ReceiveBufferPool.release(kept);
+        byte[] message = new byte[200];
+        Arrays.fill(message, (byte) 7);
+        for (int i = 0; i < 20; i++) {
+            ReceiveBufferPool.release(receive(pool, 256, message));
+        }
+        assertEquals(42, kept.get(kept.position()));
+        ReceiveBufferPool.release(kept);
+        assertEquals(2, pool.getAllocatedSlabs());
+        assertFalse(ReceiveBufferPool.release(ByteBuffer.allocate(1)));
+    }
+}
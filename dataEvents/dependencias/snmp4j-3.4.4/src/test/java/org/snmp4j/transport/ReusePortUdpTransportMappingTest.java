@@ -0,0 +1,132 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - ReusePortUdpTransportMappingTest.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import junit.framework.TestCase;
+import org.snmp4j.TransportMapping;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.UdpAddress;
+
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.snmp4j.transport.TransportTestHelper.UDP_LOCALHOST;
+
+public class ReusePortUdpTransportMappingTest extends TestCase {
+
+    private static boolean reusePortSupported() throws Exception {
+        try (DatagramChannel ch = DatagramChannel.open()) {
+            return ch.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    public void testReceiveOnAllSockets() throws Exception {
+        if (!reusePortSupported()) {
+            return;
+        }
+        int sockets = 4;
+        int clients = 32;
+        ReusePortUdpTransportMapping server = new ReusePortUdpTransportMapping(UDP_LOCALHOST, sockets);
+        assertEquals(sockets, server.getSocketCount());
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+        final CountDownLatch latch = new CountDownLatch(clients);
+        server.addTransportListener(new TransportListener() {
+            public <A extends Address> void processMessage(TransportMapping<? super A> sourceTransport,
+                                                           A incomingAddress, ByteBuffer wholeMessage,
+                                                           TransportStateReference tmStateReference) {
+                threads.add(Thread.currentThread().getName());
+                latch.countDown();
+            }
+        });
+        server.listen();
+        List<DefaultUdpTransportMapping> senders = new ArrayList<>();
+        try {
+            // each client has its own source port, which the kernel hashes to one of the sockets
+            for (int i = 0; i < clients; i++) {
+                DefaultUdpTransportMapping client = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+                senders.add(client);
+                client.sendMessage(server.getListenAddress(), new byte[]{(byte) i}, null, 0, 0);
+            }
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            long total = 0;
+            int used = 0;
+            for (long received : server.getReceivedMessages()) {
+                total += received;
+                used += (received > 0) ? 1 : 0;
+            }
+            assertEquals(clients, total);
+            assertTrue("messages received on " + used + " sockets", used > 1);
+            assertEquals(used, threads.size());
+        } finally {
+            for (DefaultUdpTransportMapping client : senders) {
+                client.close();
+            }
+            server.close();
+        }
+        assertFalse(server.isListening());
+    }
+
+    public void testResponseFromReceivingSocket() throws Exception {
+        final ReusePortUdpTransportMapping server = new ReusePortUdpTransportMapping(UDP_LOCALHOST, 2);
+        server.addTransportListener(new TransportListener() {
+            public <A extends Address> void processMessage(TransportMapping<? super A> sourceTransport,
+                                                           A incomingAddress, ByteBuffer wholeMessage,
+                                                           TransportStateReference tmStateReference) {
+                byte[] echo = new byte[wholeMessage.remaining()];
+                wholeMessage.get(echo);
+                try {
+                    server.sendMessage((UdpAddress) incomingAddress, echo, tmStateReference, 0, 0);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        server.listen();
+        DefaultUdpTransportMapping client = new DefaultUdpTransportMapping(UDP_LOCALHOST);
+        final List<UdpAddress> sources = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.addTransportListener(new TransportListener() {
+            public <A extends Address> void processMessage(TransportMapping<? super A> sourceTransport,
+                                                           A incomingAddress, ByteBuffer wholeMessage,
+                                                           TransportStateReference tmStateReference) {
+                sources.add((UdpAddress) incomingAddress);
+                latch.countDown();
+            }
+        });
+        client.listen();
+        try {
+            client.sendMessage(server.getListenAddress(), new byte[]{1, 2, 3}, null, 0, 0);
+            assertTrue(latch.await(2, TimeUnit.SECONDS));
+            assertEquals(server.getListenAddress(), sources.get(0));
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+}
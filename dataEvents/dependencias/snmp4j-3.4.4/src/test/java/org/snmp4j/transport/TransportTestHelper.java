@@ -0,0 +1,110 @@
+/*_############################################################################
+  _## 
+  _##  SNMP4J - TransportTestHelper.java  
+  _## 
+  _##  Copyright (C) 2003-2020  Frank Fock (SNMP4J.org)
+  _##  
+  _##  Licensed under the Apache License, Version 2.0 (the "License");
+  _##  you may not use this file except in compliance with the License.
+  _##  You may obtain a copy of the License at
+  _##  
+  _##      http://www.apache.org/licenses/LICENSE-2.0
+  _##  
+  _##  Unless required by applicable law or agreed to in writing, software
+  _##  distributed under the License is distributed on an "AS IS" BASIS,
+  _##  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  _##  See the License for the specific language governing permissions and
+  _##  limitations under the License.
+  _##  
+  _##########################################################################*/
+package org.snmp4j.transport;
+
+import org.snmp4j.TransportMapping;
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TcpAddress;
+import org.snmp4j.smi.UdpAddress;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixture shared by the transport mapping tests.
+ */
+final class TransportTestHelper {
+
+    /**
+     * A loopback UDP address with an ephemeral port.
+     */
+    static final UdpAddress UDP_LOCALHOST = new UdpAddress("127.0.0.1/0");
+
+    /**
+     * A loopback TCP address with an ephemeral port.
+     */
+    static final TcpAddress TCP_LOCALHOST = new TcpAddress("127.0.0.1/0");
+
+    private TransportTestHelper() {
+    }
+
+    /**
+     * Records a copy of every received message and its source address and counts down a latch
+     * for each of them.
+     */
+    static class CollectingListener implements TransportListener {
+        private final List<byte[]> received = Collections.synchronizedList(new ArrayList<>());
+        private final List<Address> sources = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch latch;
+
+        CollectingListener(int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        public <A extends Address> void processMessage(TransportMapping<? super A> sourceTransport,
+                                                       A incomingAddress, ByteBuffer wholeMessage,
+                                                       TransportStateReference tmStateReference) {
+            byte[] bytes = new byte[wholeMessage.remaining()];
+            wholeMessage.duplicate().get(bytes);
+            received.add(bytes);
+            sources.add(incomingAddress);
+            latch.countDown();
+        }
+
+        /**
+         * Waits until the expected number of messages has been received.
+         *
+         * @param seconds
+         *         the maximum time to wait.
+         *
+         * @return {@code true} if all expected messages have been received in time.
+         * @throws InterruptedException
+         *         if the current thread is interrupted while waiting.
+         */
+        boolean await(long seconds) throws InterruptedException {
+            return latch.await(seconds, TimeUnit.SECONDS);
+        }
+
+        int size() {
+            return received.size();
+        }
+
+        OctetString message(int i) {
+            return new OctetString(received.get(i));
+        }
+
+        /**
+         * Returns the four byte integer at the supplied offset of a received message.
+         */
+        int intAt(int i, int offset) {
+            return ByteBuffer.wrap(received.get(i)).getInt(offset);
+        }
+
+        Address source(int i) {
+            return sources.get(i);
+        }
+    }
+}